@@ -1,17 +1,45 @@
 package com.classhole.compiler;
 
+import com.classhole.compiler.diagnostics.Diagnostic;
+import com.classhole.compiler.diagnostics.Diagnostics;
 import com.classhole.compiler.lexer.Token;
 import com.classhole.compiler.lexer.Tokenizer;
 import com.classhole.compiler.parser.Parser;
 import com.classhole.compiler.parser.ast.Program;
 import com.classhole.compiler.codegenerator.CodeGenerator;
+import com.classhole.compiler.optimizer.Devirtualizer;
+import com.classhole.compiler.optimizer.IntRanges;
+import com.classhole.compiler.optimizer.Memoizer;
+import com.classhole.compiler.optimizer.PassManager;
+import com.classhole.compiler.typechecker.TypeChecker;
+import com.classhole.compiler.typechecker.TypedProgram;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
 
 public class Main {
+  /**
+   * Flags: -O0, -O1 or -O2 (the default) picks the optimization level; --pass-metrics prints what each pass did;
+   * --memoize keeps the results of pure recursive Int methods in bounded memo tables.
+   */
   public static void main(String[] args) {
+    PassManager.Level level = PassManager.Level.O2;
+    boolean passMetrics = false;
+    boolean memoize = false;
+    for (String arg : args) {
+      if (arg.equals("--pass-metrics")) {
+        passMetrics = true;
+      } else if (arg.equals("--memoize")) {
+        memoize = true;
+      } else {
+        level = PassManager.Level.parse(arg);
+      }
+    }
+
     String code = """
       class Greeter {
         init() { }
@@ -35,17 +63,46 @@ public class Main {
         tokenList.add(tok.get());
       }
 
-      // Step 2: Parse it
+      // Step 2: Parse it, collecting every error rather than stopping at the first
+      Diagnostics diagnostics = new Diagnostics();
       Token[] tokenArray = tokenList.toArray(new Token[0]);
-      Parser parser = new Parser(tokenArray);
+      Parser parser = new Parser(tokenArray, diagnostics);
       Program program = parser.parseWholeProgram();
 
-      // Step 3: Generate JS code
-      CodeGenerator codeGenerator = new CodeGenerator();
-      String js = codeGenerator.generate(program);
+      // Step 3: Type check it, unless the parse already failed
+      if (!diagnostics.hasErrors()) {
+        new TypeChecker().check(program, diagnostics);
+      }
+      if (diagnostics.hasErrors()) {
+        for (Diagnostic error : diagnostics.errors()) {
+          System.err.println(error);
+        }
+        return;
+      }
 
-      // Step 4: Output it
-      System.out.println(js);
+      // Step 4: Optimize at the requested level; each pass is re-checked so the generator gets types
+      PassManager passes = PassManager.forLevel(level);
+      TypedProgram typed = passes.run(program);
+      program = typed.program();
+      if (passMetrics) {
+        System.err.print(passes.report());
+      }
+
+      // Step 5: Generate JS code, streaming it straight to stdout; the wrapper keeps globals out
+      CodeGenerator codeGenerator = new CodeGenerator(typed)
+          .entryPoint(CodeGenerator.EntryPoint.IIFE)
+          .int32Arithmetic(true);
+      if (level != PassManager.Level.O0) {
+        codeGenerator.ranges(new IntRanges(typed));
+      }
+      if (level == PassManager.Level.O2) {
+        codeGenerator.devirtualize(new Devirtualizer(typed));
+      }
+      if (memoize) {
+        codeGenerator.memoize(new Memoizer(typed));
+      }
+      Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+      codeGenerator.generate(program, out);
 
     } catch (ParseException e) {
       System.err.println("Parse error: " + e.getMessage());
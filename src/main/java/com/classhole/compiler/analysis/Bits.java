@@ -0,0 +1,45 @@
+package com.classhole.compiler.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Helpers for bitsets stored as plain {@code long[]} words, the state representation the
+ * dataflow engine uses: one bit per local variable, no boxing, no per-state objects.
+ */
+public final class Bits {
+  private Bits() {}
+
+  public static int words(int bits) {
+    return (bits + 63) >>> 6;
+  }
+
+  public static boolean get(long[] set, int bit) {
+    return (set[bit >>> 6] & (1L << bit)) != 0;
+  }
+
+  public static void set(long[] set, int bit) {
+    set[bit >>> 6] |= 1L << bit;
+  }
+
+  public static void clear(long[] set, int bit) {
+    set[bit >>> 6] &= ~(1L << bit);
+  }
+
+  public static void fill(long[] set, boolean value) {
+    Arrays.fill(set, value ? -1L : 0L);
+  }
+
+  /** {@code into &= other} over {@code words} words starting at {@code offset} in other. */
+  public static void and(long[] into, long[] other, int offset, int words) {
+    for (int i = 0; i < words; i++) {
+      into[i] &= other[offset + i];
+    }
+  }
+
+  /** {@code into |= other} over {@code words} words starting at {@code offset} in other. */
+  public static void or(long[] into, long[] other, int offset, int words) {
+    for (int i = 0; i < words; i++) {
+      into[i] |= other[offset + i];
+    }
+  }
+}
@@ -0,0 +1,366 @@
+package com.classhole.compiler.analysis;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A control-flow graph over one statement list (a method body, constructor body or the entry point).
+ *
+ * Every simple statement is a node, and every if/while gets a node for its condition; blocks only
+ * sequence their children. Node 0 is the entry and node 1 the exit. Locals declared in the body are
+ * numbered by declaration (a name reused in a sibling block is a different local), and each node
+ * records which local it declares, which it assigns and which it reads, resolved by scope. Names that
+ * are not locals of the body (parameters, fields, this) are not tracked.
+ *
+ * Everything is stored in flat int arrays so analyses can walk the graph without allocating.
+ */
+public class ControlFlowGraph {
+  public static final int ENTRY = 0;
+  public static final int EXIT = 1;
+
+  private final int nodeCount;
+  private final Stmt[] stmts;
+  private final int[] stmtIndex;
+  private final int[] declares;
+  private final int[] assigns;
+  private final int[][] uses;
+  private final int[] succStart;
+  private final int[] succs;
+  private final int[] predStart;
+  private final int[] preds;
+  private final String[] localNames;
+
+  private ControlFlowGraph(Builder b) {
+    nodeCount = b.stmts.size();
+    stmts = b.stmts.toArray(new Stmt[0]);
+    stmtIndex = Arrays.copyOf(b.stmtIndex, nodeCount);
+    declares = Arrays.copyOf(b.declares, nodeCount);
+    assigns = Arrays.copyOf(b.assigns, nodeCount);
+    uses = b.uses.toArray(new int[0][]);
+    localNames = b.localNames.toArray(new String[0]);
+
+    // Edge lists to compressed adjacency arrays, both directions
+    int edges = b.edgeCount;
+    succStart = new int[nodeCount + 1];
+    predStart = new int[nodeCount + 1];
+    for (int e = 0; e < edges; e++) {
+      succStart[b.edgeFrom[e] + 1]++;
+      predStart[b.edgeTo[e] + 1]++;
+    }
+    for (int n = 0; n < nodeCount; n++) {
+      succStart[n + 1] += succStart[n];
+      predStart[n + 1] += predStart[n];
+    }
+    succs = new int[edges];
+    preds = new int[edges];
+    int[] succFill = Arrays.copyOf(succStart, nodeCount);
+    int[] predFill = Arrays.copyOf(predStart, nodeCount);
+    for (int e = 0; e < edges; e++) {
+      succs[succFill[b.edgeFrom[e]]++] = b.edgeTo[e];
+      preds[predFill[b.edgeTo[e]]++] = b.edgeFrom[e];
+    }
+  }
+
+  public static ControlFlowGraph build(List<Stmt> body) {
+    Builder builder = new Builder();
+    builder.buildBody(body);
+    return new ControlFlowGraph(builder);
+  }
+
+  public int nodeCount() {
+    return nodeCount;
+  }
+
+  public int localCount() {
+    return localNames.length;
+  }
+
+  public String localName(int local) {
+    return localNames[local];
+  }
+
+  /** The statement a node stands for; for a condition node, its if or while. Null for entry and exit. */
+  public Stmt stmt(int node) {
+    return stmts[node];
+  }
+
+  /** Pre-order index of the node's statement within the body, counting blocks; -1 for entry and exit. */
+  public int stmtIndex(int node) {
+    return stmtIndex[node];
+  }
+
+  /** The local a VarDecStmt node declares, or -1. */
+  public int declaredLocal(int node) {
+    return declares[node];
+  }
+
+  /** The local an AssignStmt node assigns, or -1. */
+  public int assignedLocal(int node) {
+    return assigns[node];
+  }
+
+  /** The locals the node reads, in evaluation order. Reads happen before the node's own assignment. */
+  public int[] usedLocals(int node) {
+    return uses[node];
+  }
+
+  public int succCount(int node) {
+    return succStart[node + 1] - succStart[node];
+  }
+
+  public int succ(int node, int i) {
+    return succs[succStart[node] + i];
+  }
+
+  public int predCount(int node) {
+    return predStart[node + 1] - predStart[node];
+  }
+
+  public int pred(int node, int i) {
+    return preds[predStart[node] + i];
+  }
+
+  /** Nodes reachable from the entry, in reverse postorder. */
+  public int[] reversePostorder() {
+    int[] order = new int[nodeCount];
+    int filled = nodeCount;
+    boolean[] visited = new boolean[nodeCount];
+    int[] stack = new int[nodeCount];
+    int[] nextSucc = new int[nodeCount];
+    int top = 0;
+    stack[top++] = ENTRY;
+    visited[ENTRY] = true;
+    while (top > 0) {
+      int node = stack[top - 1];
+      if (nextSucc[node] < succCount(node)) {
+        int succ = succ(node, nextSucc[node]++);
+        if (!visited[succ]) {
+          visited[succ] = true;
+          stack[top++] = succ;
+        }
+      } else {
+        top--;
+        order[--filled] = node;
+      }
+    }
+    return Arrays.copyOfRange(order, filled, nodeCount);
+  }
+
+  private static class Builder {
+    private static final int[] NO_USES = new int[0];
+
+    private final List<Stmt> stmts = new ArrayList<>();
+    private int[] stmtIndex = new int[16];
+    private int[] declares = new int[16];
+    private int[] assigns = new int[16];
+    private final List<int[]> uses = new ArrayList<>();
+
+    private int[] edgeFrom = new int[16];
+    private int[] edgeTo = new int[16];
+    private int edgeCount = 0;
+
+    // Nodes whose fall-through successor is whatever node comes next
+    private List<Integer> frontier = new ArrayList<>();
+    // Break nodes of each enclosing loop, innermost last
+    private final List<List<Integer>> loopBreaks = new ArrayList<>();
+    private int nextStmtIndex = 0;
+
+    // Scoped name -> local resolution, undone on block exit
+    private final List<String> localNames = new ArrayList<>();
+    private final Map<String, Integer> visible = new HashMap<>();
+    private final List<String> undoNames = new ArrayList<>();
+    private final List<Integer> undoLocals = new ArrayList<>();
+
+    void buildBody(List<Stmt> body) {
+      addNode(null, -1, NO_USES);   // ENTRY
+      addNode(null, -1, NO_USES);   // EXIT
+      frontier = new ArrayList<>(List.of(ENTRY));
+      for (Stmt stmt : body) {
+        build(stmt);
+      }
+      connectFrontier(EXIT);
+    }
+
+    private void build(Stmt stmt) {
+      int index = nextStmtIndex++;
+      switch (stmt) {
+        case BlockStmt block -> {
+          int scopeMark = undoNames.size();
+          for (Stmt s : block.statements()) {
+            build(s);
+          }
+          closeScope(scopeMark);
+        }
+        case IfStmt ifStmt -> {
+          int cond = addNode(ifStmt, index, usesOf(ifStmt.condition()));
+          follow(cond);
+          build(ifStmt.thenStmt());
+          List<Integer> afterThen = frontier;
+          frontier = new ArrayList<>(List.of(cond));
+          ifStmt.elseStmt().ifPresent(this::build);
+          frontier.addAll(afterThen);
+        }
+        case WhileStmt whileStmt -> {
+          int cond = addNode(whileStmt, index, usesOf(whileStmt.condition()));
+          follow(cond);
+          loopBreaks.add(new ArrayList<>());
+          build(whileStmt.body());
+          connectFrontier(cond);
+          List<Integer> breaks = loopBreaks.removeLast();
+          frontier = new ArrayList<>(breaks);
+          boolean alwaysTrue = whileStmt.condition() instanceof BooleanLiteralExp b && b.value();
+          if (!alwaysTrue) {
+            frontier.add(cond);
+          }
+        }
+        case ReturnStmt ret -> {
+          int node = addNode(ret, index, ret.expression().map(this::usesOf).orElse(NO_USES));
+          follow(node);
+          addEdge(node, EXIT);
+          frontier = new ArrayList<>();
+        }
+        case BreakStmt brk -> {
+          int node = addNode(brk, index, NO_USES);
+          follow(node);
+          if (loopBreaks.isEmpty()) {
+            addEdge(node, EXIT);
+          } else {
+            loopBreaks.getLast().add(node);
+          }
+          frontier = new ArrayList<>();
+        }
+        case VarDecStmt varDec -> {
+          int node = addNode(varDec, index, NO_USES);
+          follow(node);
+          declares[node] = declareLocal(varDec.name());
+        }
+        case AssignStmt assign -> {
+          int node = addNode(assign, index, usesOf(assign.expression()));
+          follow(node);
+          assigns[node] = resolve(assign.variableName());
+        }
+        case ExprStmt exprStmt -> follow(addNode(exprStmt, index, usesOf(exprStmt.exp())));
+        case PrintStmt print -> follow(addNode(print, index, usesOf(print.expression())));
+        case SuperStmt sup -> follow(addNode(sup, index, usesOf(sup.args())));
+        default -> follow(addNode(stmt, index, NO_USES));
+      }
+    }
+
+    private int addNode(Stmt stmt, int index, int[] nodeUses) {
+      int node = stmts.size();
+      if (node == stmtIndex.length) {
+        stmtIndex = Arrays.copyOf(stmtIndex, node * 2);
+        declares = Arrays.copyOf(declares, node * 2);
+        assigns = Arrays.copyOf(assigns, node * 2);
+      }
+      stmts.add(stmt);
+      stmtIndex[node] = index;
+      declares[node] = -1;
+      assigns[node] = -1;
+      uses.add(nodeUses);
+      return node;
+    }
+
+    /** Makes {@code node} the successor of the current frontier and the new frontier. */
+    private void follow(int node) {
+      connectFrontier(node);
+      frontier = new ArrayList<>(List.of(node));
+    }
+
+    private void connectFrontier(int node) {
+      for (int from : frontier) {
+        addEdge(from, node);
+      }
+    }
+
+    private void addEdge(int from, int to) {
+      if (edgeCount == edgeFrom.length) {
+        edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+        edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+      }
+      edgeFrom[edgeCount] = from;
+      edgeTo[edgeCount] = to;
+      edgeCount++;
+    }
+
+    private int declareLocal(String name) {
+      int local = localNames.size();
+      localNames.add(name);
+      Integer previous = visible.put(name, local);
+      undoNames.add(name);
+      undoLocals.add(previous);
+      return local;
+    }
+
+    private void closeScope(int mark) {
+      for (int i = undoNames.size() - 1; i >= mark; i--) {
+        Integer previous = undoLocals.remove(i);
+        String name = undoNames.remove(i);
+        if (previous == null) {
+          visible.remove(name);
+        } else {
+          visible.put(name, previous);
+        }
+      }
+    }
+
+    private int resolve(String name) {
+      Integer local = visible.get(name);
+      return local == null ? -1 : local;
+    }
+
+    private int[] usesOf(List<Exp> exps) {
+      List<Integer> found = new ArrayList<>();
+      for (Exp exp : exps) {
+        collectUses(exp, found);
+      }
+      return toArray(found);
+    }
+
+    private int[] usesOf(Exp exp) {
+      List<Integer> found = new ArrayList<>();
+      collectUses(exp, found);
+      return toArray(found);
+    }
+
+    private int[] toArray(List<Integer> found) {
+      if (found.isEmpty()) return NO_USES;
+      int[] result = new int[found.size()];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = found.get(i);
+      }
+      return result;
+    }
+
+    private void collectUses(Exp exp, List<Integer> found) {
+      switch (exp) {
+        case VarExp var -> {
+          int local = resolve(var.name());
+          if (local >= 0) found.add(local);
+        }
+        case BinaryExp binary -> {
+          collectUses(binary.left(), found);
+          collectUses(binary.right(), found);
+        }
+        case ParenExp paren -> collectUses(paren.expression(), found);
+        case PrintlnExp println -> collectUses(println.exp(), found);
+        case NewObjectExp newObj -> newObj.args().forEach(arg -> collectUses(arg, found));
+        case CallMethodExp call -> {
+          collectUses(call.receiver(), found);
+          for (CallMethodExp.CallLink link : call.chain()) {
+            link.args().forEach(arg -> collectUses(arg, found));
+          }
+        }
+        default -> { }
+      }
+    }
+  }
+}
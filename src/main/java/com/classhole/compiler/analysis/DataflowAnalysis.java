@@ -0,0 +1,121 @@
+package com.classhole.compiler.analysis;
+
+import java.util.Arrays;
+
+/**
+ * A forward or backward dataflow analysis over a {@link ControlFlowGraph} with bitset states,
+ * one bit per local. Subclasses supply the transfer function and, if needed, the boundary state;
+ * the engine handles the joins at if/while merge points, loop back edges and break/return edges.
+ *
+ * States live in two flat {@code long[]} arrays (node * words), so solving allocates nothing per node.
+ * Nodes are visited in reverse postorder (postorder when backward) until nothing changes; for
+ * bitvector problems that takes loop-nesting-depth + 2 sweeps, i.e. linear in the body's size for
+ * any fixed nesting depth.
+ */
+public abstract class DataflowAnalysis {
+  public enum Direction { FORWARD, BACKWARD }
+
+  /** How states meet at a join: INTERSECTION for must-analyses, UNION for may-analyses. */
+  public enum Meet { INTERSECTION, UNION }
+
+  protected final ControlFlowGraph cfg;
+  private final Direction direction;
+  private final Meet meet;
+  protected final int words;
+
+  private final long[] in;
+  private final long[] out;
+
+  protected DataflowAnalysis(ControlFlowGraph cfg, Direction direction, Meet meet) {
+    this.cfg = cfg;
+    this.direction = direction;
+    this.meet = meet;
+    this.words = Bits.words(cfg.localCount());
+    this.in = new long[cfg.nodeCount() * words];
+    this.out = new long[cfg.nodeCount() * words];
+  }
+
+  /** Applies the node's effect to {@code state} in place: in-state to out-state (forward) or back. */
+  protected abstract void transfer(int node, long[] state);
+
+  /** The state at the entry (forward) or exit (backward). Defaults to the empty set. */
+  protected void boundary(long[] state) {
+    Bits.fill(state, false);
+  }
+
+  public void solve() {
+    boolean forward = direction == Direction.FORWARD;
+    boolean intersect = meet == Meet.INTERSECTION;
+    int[] order = cfg.reversePostorder();
+    if (!forward) {
+      reverse(order);
+    }
+
+    // Every state starts at the meet's identity, so unvisited predecessors do not constrain a join
+    Arrays.fill(in, intersect ? -1L : 0L);
+    Arrays.fill(out, intersect ? -1L : 0L);
+
+    int start = forward ? ControlFlowGraph.ENTRY : ControlFlowGraph.EXIT;
+    long[] state = new long[words];
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int node : order) {
+        // Join over the incoming edges
+        if (node == start) {
+          boundary(state);
+        } else {
+          Bits.fill(state, intersect);
+          int edges = forward ? cfg.predCount(node) : cfg.succCount(node);
+          for (int i = 0; i < edges; i++) {
+            int other = forward ? cfg.pred(node, i) : cfg.succ(node, i);
+            long[] source = forward ? out : in;
+            if (intersect) {
+              Bits.and(state, source, other * words, words);
+            } else {
+              Bits.or(state, source, other * words, words);
+            }
+          }
+        }
+
+        long[] before = forward ? in : out;
+        long[] after = forward ? out : in;
+        System.arraycopy(state, 0, before, node * words, words);
+        transfer(node, state);
+        if (!sameAs(after, node * words, state)) {
+          System.arraycopy(state, 0, after, node * words, words);
+          changed = true;
+        }
+      }
+    }
+  }
+
+  /** Copies the state on entry to {@code node} (in program order) into {@code into}. */
+  public void inState(int node, long[] into) {
+    System.arraycopy(in, node * words, into, 0, words);
+  }
+
+  /** Copies the state on exit from {@code node} (in program order) into {@code into}. */
+  public void outState(int node, long[] into) {
+    System.arraycopy(out, node * words, into, 0, words);
+  }
+
+  public long[] newState() {
+    return new long[words];
+  }
+
+  private boolean sameAs(long[] states, int offset, long[] state) {
+    for (int i = 0; i < words; i++) {
+      if (states[offset + i] != state[i]) return false;
+    }
+    return true;
+  }
+
+  private static void reverse(int[] order) {
+    for (int i = 0, j = order.length - 1; i < j; i++, j--) {
+      int t = order[i];
+      order[i] = order[j];
+      order[j] = t;
+    }
+  }
+}
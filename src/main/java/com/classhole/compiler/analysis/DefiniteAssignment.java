@@ -0,0 +1,41 @@
+package com.classhole.compiler.analysis;
+
+/**
+ * Definite assignment: a local may only be read once every path to the read has assigned it.
+ *
+ * Forward must-analysis; a bit is set while its local is definitely assigned. A declaration clears
+ * the bit (re-entering a loop body redeclares its locals), an assignment sets it. Unreachable code
+ * keeps the all-set starting state, so it never reports.
+ */
+public class DefiniteAssignment extends DataflowAnalysis {
+  public interface UseVisitor {
+    void unassignedUse(int node, int local);
+  }
+
+  public DefiniteAssignment(ControlFlowGraph cfg) {
+    super(cfg, Direction.FORWARD, Meet.INTERSECTION);
+  }
+
+  @Override
+  protected void transfer(int node, long[] state) {
+    int declared = cfg.declaredLocal(node);
+    if (declared >= 0) Bits.clear(state, declared);
+    int assigned = cfg.assignedLocal(node);
+    if (assigned >= 0) Bits.set(state, assigned);
+  }
+
+  /** Calls {@code visitor} for every read of a local that is not definitely assigned, in node order. */
+  public void forEachUnassignedUse(UseVisitor visitor) {
+    long[] state = newState();
+    for (int node = 0; node < cfg.nodeCount(); node++) {
+      int[] uses = cfg.usedLocals(node);
+      if (uses.length == 0) continue;
+      inState(node, state);
+      for (int local : uses) {
+        if (!Bits.get(state, local)) {
+          visitor.unassignedUse(node, local);
+        }
+      }
+    }
+  }
+}
@@ -1,53 +1,349 @@
 package com.classhole.compiler.codegenerator;
 
+import com.classhole.compiler.optimizer.Devirtualizer;
+import com.classhole.compiler.optimizer.IntRanges;
+import com.classhole.compiler.optimizer.Memoizer;
 import com.classhole.compiler.parser.ast.Program;
 import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
 import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
-import com.classhole.compiler.parser.ast.nodes.definitions.ConstructorDef;
+import com.classhole.compiler.parser.ast.nodes.statements.VarDecStmt;
+import com.classhole.compiler.typechecker.ClassTable;
+import com.classhole.compiler.typechecker.TypedProgram;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates JavaScript by streaming it into a {@link CodeWriter}: each output character is
+ * written once, straight into the sink, so large outputs are never held as one String unless
+ * the caller asks for one with {@link #generate(Program)}.
+ *
+ * Given the TypedProgram of a checked program, variables are emitted the way the type checker
+ * resolved them: locals and parameters as JS bindings, fields as {@code this.f}. Without one
+ * the generator resolves names by scope itself.
+ *
+ * With a {@link Devirtualizer} for the same program, each class is followed by a binding
+ * {@code const Cls$m = Cls.prototype.m;} for every method some call site is known to reach
+ * alone, and those sites call it directly: {@code Cls$m.call(recv, args)}, with a receiver that may
+ * be null checked on the way in.
+ *
+ * With {@link IntRanges} for the same program, int32 arithmetic that cannot overflow is emitted
+ * as plain arithmetic.
+ *
+ * With a {@link Memoizer} for the same program, each method it picked is replaced after its class
+ * by a wrapper that keeps results in a Map keyed by the arguments: a hit moves its entry to the
+ * back, and a miss that fills the table evicts the front entry, the least recently used.
+ */
 public class CodeGenerator {
-  private final ExpressionGenerator exprGen = new ExpressionGenerator();
-  private final StatementGenerator stmtGen = new StatementGenerator(exprGen);
+  /** Where the entry-point statements go. */
+  public enum EntryPoint {
+    /** At the top level of a script: classes and entry-point variables become globals. */
+    TOP_LEVEL,
+    /** Everything inside a strict-mode function that runs immediately, so nothing leaks into the global scope. */
+    IIFE,
+    /** An ES module: classes are module-scoped and the entry point is an exported {@code main()}. */
+    EXPORTED_MAIN
+  }
+
+  /** How classes and their instances are laid out. */
+  public enum ObjectLayout {
+    /** Constructor functions that give their own fields defaults, then run super(...) and the body. */
+    DEFAULT,
+    /**
+     * Constructor functions that create every field, inherited ones first, before anything else,
+     * so all instances of a class share one property order (one hidden class in V8).
+     */
+    STABLE,
+    /** ES2015 class syntax; each constructor creates its class's fields right after super(). */
+    ES2015_CLASS
+  }
+
+  private EntryPoint entryPoint = EntryPoint.TOP_LEVEL;
+  private ObjectLayout objectLayout = ObjectLayout.DEFAULT;
+  // Field layouts, built per program for the non-default layouts
+  private ClassTable classTable = null;
+  private Devirtualizer devirtualizer = null;
+  private IntRanges ranges = null;
+  private Memoizer memoizer = null;
+
+  private final NameResolver resolver;
+  private final ExpressionGenerator exprGen;
+  private final StatementGenerator stmtGen;
+
+  public CodeGenerator() {
+    this(null);
+  }
+
+  public CodeGenerator(TypedProgram typed) {
+    resolver = new NameResolver(typed);
+    exprGen = new ExpressionGenerator(resolver);
+    stmtGen = new StatementGenerator(exprGen);
+  }
+
+  public CodeGenerator entryPoint(EntryPoint entryPoint) {
+    this.entryPoint = entryPoint;
+    return this;
+  }
+
+  public CodeGenerator objectLayout(ObjectLayout objectLayout) {
+    this.objectLayout = objectLayout;
+    return this;
+  }
+
+  /** Emits Int arithmetic with int32 wrap-around and truncating division, as the language defines it. */
+  public CodeGenerator int32Arithmetic(boolean int32Arithmetic) {
+    exprGen.setInt32Arithmetic(int32Arithmetic);
+    return this;
+  }
+
+  /** Emits the call sites {@code devirtualizer} found monomorphic as direct calls. */
+  public CodeGenerator devirtualize(Devirtualizer devirtualizer) {
+    this.devirtualizer = devirtualizer;
+    exprGen.setDevirtualizer(devirtualizer);
+    return this;
+  }
+
+  /** Leaves the int32 wrap-around off the arithmetic {@code ranges} proved exact. */
+  public CodeGenerator ranges(IntRanges ranges) {
+    this.ranges = ranges;
+    exprGen.setRanges(ranges);
+    return this;
+  }
+
+  /** Keeps the results of the methods {@code memoizer} picked in bounded memo tables. */
+  public CodeGenerator memoize(Memoizer memoizer) {
+    this.memoizer = memoizer;
+    return this;
+  }
 
   public String generate(Program program) {
     StringBuilder sb = new StringBuilder();
+    generate(program, sb);
+    return sb.toString();
+  }
 
-    for (ClassDef cls : program.classes()) {
-      sb.append(generateClass(cls)).append("\n");
+  /** Streams the program into {@code out}, e.g. a buffered Writer, and flushes it if it is Flushable. */
+  public void generate(Program program, Appendable out) {
+    CodeWriter writer = new CodeWriter(out);
+    if (devirtualizer != null && devirtualizer.program() != program) {
+      throw new IllegalArgumentException("Call sites were devirtualized for another program");
+    }
+    if (ranges != null && ranges.program() != program) {
+      throw new IllegalArgumentException("Ranges were computed for another program");
+    }
+    if (memoizer != null && memoizer.program() != program) {
+      throw new IllegalArgumentException("Methods were memoized for another program");
     }
+    resolver.begin(program);
+    classTable = null;
+    if (objectLayout != ObjectLayout.DEFAULT) {
+      classTable = new ClassTable();
+      for (ClassDef cls : program.classes()) {
+        classTable.addClass(cls);
+      }
+    }
+    if (entryPoint == EntryPoint.IIFE) {
+      writer.write("(function() {\n\"use strict\";\n");
+    }
+
+    generateClasses(program.classes(), writer);
+
+    // Module code is already strict
+    if (entryPoint == EntryPoint.EXPORTED_MAIN) {
+      writer.write("export function main() {\n");
+    }
+    stmtGen.enterEntryPoint();
     for (var stmt : program.entryPoint()) {
-      sb.append(stmtGen.generateStmt(stmt)).append("\n");
+      stmtGen.generateStmt(stmt, writer);
+      writer.write('\n');
+    }
+
+    switch (entryPoint) {
+      case IIFE -> writer.write("})();\n");
+      case EXPORTED_MAIN -> writer.write("}\n");
+      case TOP_LEVEL -> { }
+    }
+    writer.flush();
+  }
+
+  /**
+   * Writes the classes, each after its superclass: an ES2015 class is not hoisted, and a
+   * prototype chain links to the superclass's prototype as it is when the subclass is written.
+   * Classes are still generated in program order, the order the resolver walks them in; one
+   * declared before its superclass is held back until the superclass has been written.
+   */
+  private void generateClasses(List<ClassDef> classes, CodeWriter out) {
+    Set<String> declared = new HashSet<>();
+    classes.forEach(cls -> declared.add(cls.className()));
+    Set<String> written = new HashSet<>();
+    Map<String, List<ClassDef>> waiting = new HashMap<>();   // superclass -> subclasses held back
+    Map<ClassDef, String> heldBack = new IdentityHashMap<>();
+
+    for (ClassDef cls : classes) {
+      String parent = cls.superClass().orElse(null);
+      if (parent != null && declared.contains(parent) && !written.contains(parent)) {
+        StringBuilder text = new StringBuilder();
+        generateClass(cls, new CodeWriter(text));
+        heldBack.put(cls, text.toString());
+        waiting.computeIfAbsent(parent, k -> new ArrayList<>()).add(cls);
+        continue;
+      }
+      generateClass(cls, out);
+      out.write('\n');
+      // Then everything that was waiting on it, and on those in turn
+      ArrayDeque<String> ready = new ArrayDeque<>(List.of(cls.className()));
+      while (!ready.isEmpty()) {
+        String name = ready.pop();
+        written.add(name);
+        for (ClassDef subclass : waiting.getOrDefault(name, List.of())) {
+          out.write(heldBack.get(subclass)).write('\n');
+          ready.push(subclass.className());
+        }
+        waiting.remove(name);
+      }
+    }
+    // Only a cyclic hierarchy, which does not type check, leaves classes waiting
+    for (ClassDef cls : classes) {
+      if (heldBack.containsKey(cls) && !written.contains(cls.className())) {
+        out.write(heldBack.get(cls)).write('\n');
+      }
     }
-    return sb.toString();
   }
 
   public String generateClass(ClassDef cls) {
     StringBuilder sb = new StringBuilder();
+    generateClass(cls, new CodeWriter(sb));
+    return sb.toString();
+  }
+
+  public void generateClass(ClassDef cls, CodeWriter out) {
+    if (objectLayout == ObjectLayout.ES2015_CLASS) {
+      generateEs2015Class(cls, out);
+      return;
+    }
+
     String className = cls.className();  // accessor for a record
     String parent = cls.superClass().orElse(null);
 
-    sb.append("function ").append(className).append("() {\n");
-    sb.append(stmtGen.generateConstructor(
-        cls.constructor(),
-        className,
-        cls.superClass().orElse("Object"),  // Default to Object if no superclass
-        cls.fields()
-    ));
+    out.write("function ").write(className);
+    stmtGen.generateParams(cls.constructor().parameters(), out);
+    out.write(" {\n");
+    if (objectLayout == ObjectLayout.STABLE) {
+      stmtGen.generateStableConstructor(
+          cls.constructor(),
+          className,
+          cls.superClass().orElse("Object"),
+          cls.fields(),
+          layoutOf(cls).getAllFields(className),
+          out
+      );
+    } else {
+      stmtGen.generateConstructor(
+          cls.constructor(),
+          className,
+          cls.superClass().orElse("Object"),  // Default to Object if no superclass
+          cls.fields(),
+          out
+      );
+    }
 
 
-    sb.append("}\n");
+    out.write("}\n");
 
     if (parent != null) {
-      sb.append(className).append(".prototype = Object.create(")
-          .append(parent).append(".prototype);\n");
-      sb.append(className).append(".prototype.constructor = ").append(className).append(";\n");
+      out.write(className).write(".prototype = Object.create(")
+          .write(parent).write(".prototype);\n");
+      out.write(className).write(".prototype.constructor = ").write(className).write(";\n");
     }
 
     for (MethodDef method : cls.methods()) {
-      sb.append(generateMethod(className, method));
+      stmtGen.generateMethod(className, method, out);
     }
+    generateMemoTables(cls, out);
+    generateMethodBindings(cls, out);
+  }
 
-    return sb.toString();
+  private void generateEs2015Class(ClassDef cls, CodeWriter out) {
+    String className = cls.className();
+    out.write("class ").write(className);
+    cls.superClass().ifPresent(parent -> out.write(" extends ").write(parent));
+    out.write(" {\n");
+
+    stmtGen.generateClassConstructor(
+        cls.constructor(),
+        className,
+        cls.superClass().isPresent(),
+        cls.fields(),
+        layoutOf(cls).getClass(className).fieldTypes,
+        out
+    );
+    for (MethodDef method : cls.methods()) {
+      stmtGen.generateClassMethod(className, method, out);
+    }
+    out.write("}\n");
+    generateMemoTables(cls, out);
+    generateMethodBindings(cls, out);
+  }
+
+  /** Wraps the memoized methods before any direct binding captures them. */
+  private void generateMemoTables(ClassDef cls, CodeWriter out) {
+    if (memoizer == null) {
+      return;
+    }
+    for (MethodDef method : cls.methods()) {
+      if (!memoizer.isMemoized(method)) {
+        continue;
+      }
+      String target = cls.className() + ".prototype." + method.name();
+      List<String> params = method.parameters().stream().map(VarDecStmt::name).toList();
+      // Ints and Booleans print distinctly, so joined arguments tell calls apart
+      String key = params.isEmpty() ? "0" : params.size() == 1 ? params.getFirst() : String.join(" + \",\" + ", params);
+      out.write(target).write(" = (function($compute) {\n");
+      out.write("  const $cache = new Map();\n");
+      out.write("  return function(").write(String.join(", ", params)).write(") {\n");
+      out.write("    const $key = ").write(key).write(";\n");
+      out.write("    let $value = $cache.get($key);\n");
+      out.write("    if ($value !== undefined) {\n");
+      out.write("      $cache.delete($key);\n");
+      out.write("      $cache.set($key, $value);\n");
+      out.write("      return $value;\n");
+      out.write("    }\n");
+      out.write("    $value = $compute.call(").write(params.isEmpty() ? "this" : "this, " + String.join(", ", params)).write(");\n");
+      out.write("    if ($cache.size >= ").write(String.valueOf(memoizer.cacheSize()))
+          .write(") $cache.delete($cache.keys().next().value);\n");
+      out.write("    $cache.set($key, $value);\n");
+      out.write("    return $value;\n");
+      out.write("  };\n");
+      out.write("})(").write(target).write(");\n");
+    }
+  }
+
+  private void generateMethodBindings(ClassDef cls, CodeWriter out) {
+    if (devirtualizer == null) {
+      return;
+    }
+    for (MethodDef method : cls.methods()) {
+      if (devirtualizer.isDirectTarget(cls.className(), method.name())) {
+        out.write("const ").write(CodeUtils.methodBinding(cls.className(), method.name()))
+            .write(" = ").write(cls.className()).write(".prototype.").write(method.name()).write(";\n");
+      }
+    }
+  }
+
+  /** The class table for the layout, or one for just this class when it is generated on its own. */
+  private ClassTable layoutOf(ClassDef cls) {
+    if (classTable != null && classTable.getClass(cls.className()) != null) {
+      return classTable;
+    }
+    ClassTable single = new ClassTable();
+    single.addClass(cls);
+    return single;
   }
 
   public String generateMethod(String className, MethodDef method) {
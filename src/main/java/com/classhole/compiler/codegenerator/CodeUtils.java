@@ -8,4 +8,9 @@ public class CodeUtils {
   public static String escapeString(String str) {
     return str.replace("\"", "\\\"");
   }
+
+  /** The binding a devirtualized call calls {@code className}'s {@code methodName} through; source names cannot contain '$'. */
+  public static String methodBinding(String className, String methodName) {
+    return className + "$" + methodName;
+  }
 }
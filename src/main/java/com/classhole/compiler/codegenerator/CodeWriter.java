@@ -0,0 +1,77 @@
+package com.classhole.compiler.codegenerator;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The sink generated JavaScript is streamed into. Wraps any Appendable (a StringBuilder,
+ * a buffered Writer, a Channels.newWriter over a FileChannel) so the generators can write
+ * every output character exactly once, in order, without building intermediate Strings.
+ *
+ * I/O failures surface as UncheckedIOException so generator methods stay free of checked exceptions.
+ */
+public class CodeWriter {
+  private final Appendable out;
+
+  public CodeWriter(Appendable out) {
+    this.out = out;
+  }
+
+  public CodeWriter write(CharSequence text) {
+    try {
+      out.append(text);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return this;
+  }
+
+  public CodeWriter write(CharSequence text, int start, int end) {
+    try {
+      out.append(text, start, end);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return this;
+  }
+
+  public CodeWriter write(char c) {
+    try {
+      out.append(c);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return this;
+  }
+
+  public CodeWriter write(long value) {
+    if (out instanceof StringBuilder sb) {
+      sb.append(value);
+      return this;
+    }
+    return write(String.valueOf(value));
+  }
+
+  /** Writes {@code text} as the body of a double-quoted JS string literal, escaping quotes. */
+  public CodeWriter writeEscaped(String text) {
+    int start = 0;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '"') {
+        write(text, start, i).write("\\\"");
+        start = i + 1;
+      }
+    }
+    return write(text, start, text.length());
+  }
+
+  public void flush() {
+    if (out instanceof Flushable flushable) {
+      try {
+        flushable.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
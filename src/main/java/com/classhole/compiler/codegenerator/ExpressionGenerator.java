@@ -1,5 +1,7 @@
 package com.classhole.compiler.codegenerator;
 
+import com.classhole.compiler.optimizer.Devirtualizer;
+import com.classhole.compiler.optimizer.IntRanges;
 import com.classhole.compiler.parser.ast.Exp;
 import com.classhole.compiler.parser.ast.nodes.expressions.BinaryExp;
 import com.classhole.compiler.parser.ast.nodes.expressions.BooleanLiteralExp;
@@ -15,76 +17,177 @@ import com.classhole.compiler.parser.ast.nodes.expressions.ThisExp;
 import java.util.List;
 
 public class ExpressionGenerator {
+  private final NameResolver resolver;
+  // Lower Int arithmetic to int32 operations instead of plain double math
+  private boolean int32Arithmetic = false;
+  // Monomorphic call sites to emit as direct calls, or null
+  private Devirtualizer devirtualizer = null;
+  // Arithmetic known not to overflow, which needs no int32 wrap-around, or null
+  private IntRanges ranges = null;
+
+  public ExpressionGenerator() {
+    this(new NameResolver(null));
+  }
 
-  public String generateExp(Exp exp) {
-    if (exp instanceof VarExp v) return generateVar(v);
-    if (exp instanceof IntLiteralExp i) return generateIntLiteral(i);
-    if (exp instanceof BooleanLiteralExp b) return generateBooleanLiteral(b);
-    if (exp instanceof StringLiteralExp s) return generateStringLiteral(s);
-    if (exp instanceof ThisExp t) return "this";
-    if (exp instanceof CallMethodExp c) return generateCall(c);
-    if (exp instanceof BinaryExp b) return generateBinary(b);
-    if (exp instanceof ParenExp p) return "(" + generateExp(p.expression()) + ")";
-    if (exp instanceof NewObjectExp n) return generateNew(n);
-    if (exp instanceof PrintlnExp p) return generatePrintln(p);
+  ExpressionGenerator(NameResolver resolver) {
+    this.resolver = resolver;
+  }
 
+  NameResolver resolver() {
+    return resolver;
+  }
 
-    throw new RuntimeException("Unknown expression type: " + exp.getClass());
+  void setInt32Arithmetic(boolean int32Arithmetic) {
+    this.int32Arithmetic = int32Arithmetic;
   }
 
-  private String generatePrintln(PrintlnExp exp) {
-    String arg = generateExp(exp.exp());
-    return "console.log(" + arg + ")";
+  void setDevirtualizer(Devirtualizer devirtualizer) {
+    this.devirtualizer = devirtualizer;
   }
 
-  private String generateVar(VarExp exp) {
-    return exp.name();
+  void setRanges(IntRanges ranges) {
+    this.ranges = ranges;
   }
 
-  private String generateIntLiteral(IntLiteralExp exp) {
-    return String.valueOf(exp.value());
+  public String generateExp(Exp exp) {
+    StringBuilder sb = new StringBuilder();
+    generateExp(exp, new CodeWriter(sb));
+    return sb.toString();
   }
 
-  private String generateBooleanLiteral(BooleanLiteralExp exp) {
-    return String.valueOf(exp.value());
+  public void generateExp(Exp exp, CodeWriter out) {
+    int id = resolver.enterExp(exp);
+    if (exp instanceof VarExp v) generateVar(id, v, out);
+    else if (exp instanceof IntLiteralExp i) generateIntLiteral(i, out);
+    else if (exp instanceof BooleanLiteralExp b) generateBooleanLiteral(b, out);
+    else if (exp instanceof StringLiteralExp s) generateStringLiteral(s, out);
+    else if (exp instanceof ThisExp t) out.write("this");
+    else if (exp instanceof CallMethodExp c) generateCall(c, out);
+    else if (exp instanceof BinaryExp b) generateBinary(id, b, out);
+    else if (exp instanceof ParenExp p) generateParen(p, out);
+    else if (exp instanceof NewObjectExp n) generateNew(n, out);
+    else if (exp instanceof PrintlnExp p) generatePrintln(p, out);
+    else throw new RuntimeException("Unknown expression type: " + exp.getClass());
   }
 
-  private String generateStringLiteral(StringLiteralExp exp) {
-    return "\"" + exp.value().replace("\"", "\\\"") + "\"";
+  private void generatePrintln(PrintlnExp exp, CodeWriter out) {
+    out.write("console.log(");
+    generateExp(exp.exp(), out);
+    out.write(')');
   }
 
-  private String generateBinary(BinaryExp exp) {
-    String left = generateExp(exp.left());
-    String right = generateExp(exp.right());
-    String op = exp.operator(); // assumed to be "+", "-", "*", "/", etc.
-    return "(" + left + " " + op + " " + right + ")";
+  private void generateVar(int id, VarExp exp, CodeWriter out) {
+    if (resolver.isField(id, exp.name())) {
+      out.write("this.");
+    }
+    out.write(exp.name());
   }
 
-  private String generateCall(CallMethodExp exp) {
-    String base = generateExp(exp.receiver());
-    for (CallMethodExp.CallLink link : exp.chain()) {
-      String methodName = link.methodName();
-      List<String> args = link.args().stream()
-          .map(this::generateExp)
-          .toList();
-      base = base + "." + methodName + "(" + String.join(", ", args) + ")";
+  private void generateIntLiteral(IntLiteralExp exp, CodeWriter out) {
+    out.write(exp.value());
+  }
+
+  private void generateBooleanLiteral(BooleanLiteralExp exp, CodeWriter out) {
+    out.write(exp.value() ? "true" : "false");
+  }
+
+  private void generateStringLiteral(StringLiteralExp exp, CodeWriter out) {
+    out.write('"').writeEscaped(exp.value()).write('"');
+  }
+
+  private void generateParen(ParenExp exp, CodeWriter out) {
+    out.write('(');
+    generateExp(exp.expression(), out);
+    out.write(')');
+  }
+
+  private void generateBinary(int id, BinaryExp exp, CodeWriter out) {
+    if (int32Arithmetic && resolver.isIntArithmetic(id, exp.operator()) && (ranges == null || !ranges.isExact(exp))) {
+      generateInt32Binary(exp, out);
+      return;
     }
-    return base;
+    out.write('(');
+    generateExp(exp.left(), out);
+    out.write(' ').write(exp.operator()).write(' '); // assumed to be "+", "-", "*", "/", etc.
+    generateExp(exp.right(), out);
+    out.write(')');
   }
 
+  /**
+   * Int arithmetic with int32 semantics, the way asm.js spells it so engines keep it on the
+   * small-integer fast path: + and - wrap with {@code | 0}, * uses Math.imul (a double product
+   * would lose low bits past 2^53) and / truncates toward zero.
+   */
+  private void generateInt32Binary(BinaryExp exp, CodeWriter out) {
+    if (exp.operator().equals("*")) {
+      out.write("Math.imul(");
+      generateExp(exp.left(), out);
+      out.write(", ");
+      generateExp(exp.right(), out);
+      out.write(')');
+      return;
+    }
+    out.write("((");
+    generateExp(exp.left(), out);
+    out.write(' ').write(exp.operator()).write(' ');
+    generateExp(exp.right(), out);
+    out.write(") | 0)");
+  }
 
-  private String generateNew(NewObjectExp exp) {
-    String className = exp.className();
-    List<String> args = exp.args().stream()
-        .map(this::generateExp)
-        .toList();
-    return "new " + className + "(" + String.join(", ", args) + ")";
+  private void generateCall(CallMethodExp exp, CodeWriter out) {
+    generateChain(exp, exp.chain().size(), out);
   }
 
+  /**
+   * Writes the receiver and the first {@code links} links. A devirtualized link wraps everything
+   * before it, {@code Cls$m.call(<receiver>, args)}, which still evaluates in source order.
+   * A receiver that may be null is passed as {@code {} = <receiver>}: the empty destructuring
+   * throws a TypeError on null, as the dynamic call would, and otherwise yields the receiver.
+   */
+  private void generateChain(CallMethodExp exp, int links, CodeWriter out) {
+    if (links == 0) {
+      generateExp(exp.receiver(), out);
+      return;
+    }
+    CallMethodExp.CallLink link = exp.chain().get(links - 1);
+    String target = devirtualizer == null ? null : devirtualizer.targetClassOf(link);
+    if (target == null) {
+      generateChain(exp, links - 1, out);
+      resolver.enterLink(link);
+      out.write('.').write(link.methodName());
+      generateArgs(link.args(), out);
+      return;
+    }
+    out.write(CodeUtils.methodBinding(target, link.methodName())).write(".call(");
+    if (links > 1 || !isNonNull(exp.receiver())) {
+      out.write("{} = ");
+    }
+    generateChain(exp, links - 1, out);
+    resolver.enterLink(link);
+    for (Exp arg : link.args()) {
+      out.write(", ");
+      generateExp(arg, out);
+    }
+    out.write(')');
+  }
 
+  /** this and new objects; any other receiver, a call's result included, may be null. */
+  private static boolean isNonNull(Exp receiver) {
+    return receiver instanceof ThisExp || receiver instanceof NewObjectExp;
+  }
 
+  private void generateNew(NewObjectExp exp, CodeWriter out) {
+    out.write("new ").write(exp.className());
+    generateArgs(exp.args(), out);
+  }
 
-  // Additional methods will be added, like:
-  // public String generateBinary(BinaryExp exp) { ... }
-  // public String generateCall(CallMethodExp exp) { ... }
-}
\ No newline at end of file
+  /** Writes a parenthesized, comma-separated argument list. */
+  void generateArgs(List<Exp> args, CodeWriter out) {
+    out.write('(');
+    for (int i = 0; i < args.size(); i++) {
+      if (i > 0) out.write(", ");
+      generateExp(args.get(i), out);
+    }
+    out.write(')');
+  }
+}
@@ -0,0 +1,527 @@
+package com.classhole.compiler.codegenerator;
+
+import com.classhole.compiler.ir.Block;
+import com.classhole.compiler.ir.Dominators;
+import com.classhole.compiler.ir.Instruction;
+import com.classhole.compiler.ir.IrFunction;
+import com.classhole.compiler.ir.IrProgram;
+
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Generates JavaScript from the SSA form of a program, with classes laid out the way
+ * {@link CodeGenerator} lays them out by default: constructor functions and prototype methods.
+ *
+ * Structured control flow is rebuilt from the dominator tree (Ramsey, "Beyond Relooper"): a loop
+ * header becomes a labeled {@code while (true)} its back edges {@code continue}, a block several
+ * forward edges reach goes right after a labeled block its predecessors {@code break} out of, and
+ * any other block is written inline at its one entry. An edge to what comes next anyway is left out.
+ *
+ * Every phi and every value not written where it is used is a {@code let} declared at the top of
+ * its function and named {@code $id}; phis are assigned on the edges into their block. Constants,
+ * parameters and {@code this} are written in place, as is a value used once, later in its own
+ * block, that moving there does not reorder with anything: arithmetic or a field read with no
+ * effects in between, a call or new with no effects or field reads in between. Unused pure values
+ * are dropped.
+ */
+public class IrCodeGenerator {
+  /** A label the code is inside: a loop its header starts again, or a block its merge follows. */
+  private record Frame(boolean loop, Block block) { }
+
+  private CodeGenerator.EntryPoint entryPoint = CodeGenerator.EntryPoint.TOP_LEVEL;
+  private boolean int32Arithmetic = false;
+
+  // The function being generated; per value id and block id
+  private IrFunction function;
+  private Dominators dominators;
+  private int[] uses;
+  private boolean[] inline;
+  private boolean[] loopHeaders;
+  private boolean[] merges;
+  private final Deque<Frame> frames = new ArrayDeque<>();
+  // A script cannot return: the entry point at the top level leaves by breaking out of this label
+  private String exitLabel;
+  private boolean exitUsed;
+
+  public IrCodeGenerator entryPoint(CodeGenerator.EntryPoint entryPoint) {
+    this.entryPoint = entryPoint;
+    return this;
+  }
+
+  /** Emits Int arithmetic with int32 wrap-around and truncating division, as the language defines it. */
+  public IrCodeGenerator int32Arithmetic(boolean int32Arithmetic) {
+    this.int32Arithmetic = int32Arithmetic;
+    return this;
+  }
+
+  public String generate(IrProgram program) {
+    StringBuilder sb = new StringBuilder();
+    generate(program, sb);
+    return sb.toString();
+  }
+
+  /** Streams the program into {@code out}, e.g. a buffered Writer, and flushes it if it is Flushable. */
+  public void generate(IrProgram program, Appendable sink) {
+    CodeWriter out = new CodeWriter(sink);
+    if (entryPoint == CodeGenerator.EntryPoint.IIFE) {
+      out.write("(function() {\n\"use strict\";\n");
+    }
+    for (IrProgram.IrClass cls : program.classes()) {
+      generateClass(cls, out);
+      out.write('\n');
+    }
+    if (entryPoint == CodeGenerator.EntryPoint.EXPORTED_MAIN) {
+      out.write("export function main() {\n");
+    }
+    body(program.entryPoint(), 0, out);
+    switch (entryPoint) {
+      case IIFE -> out.write("})();\n");
+      case EXPORTED_MAIN -> out.write("}\n");
+      case TOP_LEVEL -> { }
+    }
+    out.flush();
+  }
+
+  private void generateClass(IrProgram.IrClass cls, CodeWriter out) {
+    String className = cls.name();
+    out.write("function ").write(className);
+    params(cls.constructor(), out);
+    out.write(" {\n");
+    body(cls.constructor(), 1, out);
+    out.write("}\n");
+
+    cls.superClass().ifPresent(parent -> {
+      out.write(className).write(".prototype = Object.create(").write(parent).write(".prototype);\n");
+      out.write(className).write(".prototype.constructor = ").write(className).write(";\n");
+    });
+
+    for (IrFunction method : cls.methods()) {
+      // Method functions are named "Class.method"
+      out.write(className).write(".prototype.").write(method.name(), className.length() + 1, method.name().length())
+          .write(" = function");
+      params(method, out);
+      out.write(" {\n");
+      body(method, 1, out);
+      out.write("};\n");
+    }
+  }
+
+  private void params(IrFunction function, CodeWriter out) {
+    out.write('(');
+    for (int i = 0; i < function.parameters().size(); i++) {
+      if (i > 0) out.write(", ");
+      out.write(function.parameters().get(i).name());
+    }
+    out.write(')');
+  }
+
+  /** Writes the statements of {@code function}, starting {@code depth} levels in. */
+  public void body(IrFunction function, int depth, CodeWriter out) {
+    prepare(function);
+    declareValues(depth, out);
+    exitLabel = null;
+    if (function.kind() == IrFunction.Kind.ENTRY_POINT && entryPoint == CodeGenerator.EntryPoint.TOP_LEVEL) {
+      // Only wrap the entry point in a label if some path leaves it early, which a dry run finds out
+      exitLabel = "$main";
+      exitUsed = false;
+      tree(function.entry(), depth, new CodeWriter(Writer.nullWriter()));
+      if (exitUsed) {
+        indent(depth, out).write(exitLabel).write(": {\n");
+        tree(function.entry(), depth + 1, out);
+        indent(depth, out).write("}\n");
+        return;
+      }
+    }
+    tree(function.entry(), depth, out);
+  }
+
+  // ---- analysis ----
+
+  /** Counts uses, decides which values are written in place and finds loop headers and merges. */
+  private void prepare(IrFunction function) {
+    this.function = function;
+    dominators = new Dominators(function);
+    frames.clear();
+    int values = function.valueCount();
+    uses = new int[values];
+    inline = new boolean[values];
+    // Where the last use of each value is: its block, null for a phi, and the position there
+    Block[] userBlocks = new Block[values];
+    int[] userPositions = new int[values];
+    for (Block block : function.blocks()) {
+      for (Instruction phi : block.phis()) {
+        for (Instruction operand : phi.operands()) {
+          uses[operand.id()]++;
+          userBlocks[operand.id()] = null;
+        }
+      }
+      List<Instruction> instructions = block.instructions();
+      for (int i = 0; i < instructions.size(); i++) {
+        for (Instruction operand : instructions.get(i).operands()) {
+          uses[operand.id()]++;
+          userBlocks[operand.id()] = block;
+          userPositions[operand.id()] = i;
+        }
+      }
+      Instruction value = block.terminatorValue();
+      if (value != null) {
+        uses[value.id()]++;
+        userBlocks[value.id()] = block;
+        userPositions[value.id()] = instructions.size();
+      }
+    }
+
+    for (Block block : function.blocks()) {
+      List<Instruction> instructions = block.instructions();
+      // The number of instructions before each position that have effects, and that also read fields
+      int[] effects = new int[instructions.size() + 1];
+      int[] accesses = new int[instructions.size() + 1];
+      for (int i = 0; i < instructions.size(); i++) {
+        Instruction instruction = instructions.get(i);
+        effects[i + 1] = effects[i] + (instruction.hasEffects() ? 1 : 0);
+        accesses[i + 1] = accesses[i] + (instruction.hasEffects() || instruction.op() == Instruction.Op.GET_FIELD ? 1 : 0);
+      }
+      for (int i = 0; i < instructions.size(); i++) {
+        Instruction instruction = instructions.get(i);
+        int id = instruction.id();
+        inline[id] = switch (instruction.op()) {
+          case CONST, PARAM, THIS -> true;
+          case BINARY, GET_FIELD -> uses[id] == 1 && userBlocks[id] == block
+              && effects[userPositions[id]] == effects[i + 1];
+          case CALL, NEW -> uses[id] == 1 && userBlocks[id] == block
+              && accesses[userPositions[id]] == accesses[i + 1];
+          default -> false;
+        };
+      }
+    }
+
+    int blocks = function.blocks().size();
+    loopHeaders = new boolean[blocks];
+    merges = new boolean[blocks];
+    for (Block block : dominators.reversePostorder()) {
+      int forward = 0;
+      for (Block predecessor : block.predecessors()) {
+        if (!dominators.isReachable(predecessor)) continue;
+        if (dominators.rpoIndex(predecessor) >= dominators.rpoIndex(block)) {
+          loopHeaders[block.id()] = true;
+        } else {
+          forward++;
+        }
+      }
+      merges[block.id()] = forward > 1;
+    }
+  }
+
+  private void declareValues(int depth, CodeWriter out) {
+    boolean first = true;
+    for (Block block : function.blocks()) {
+      for (Instruction phi : block.phis()) {
+        if (uses[phi.id()] > 0) {
+          first = declare(phi, first, depth, out);
+        }
+      }
+      for (Instruction instruction : block.instructions()) {
+        if (instruction.definesValue() && uses[instruction.id()] > 0 && !inline[instruction.id()]) {
+          first = declare(instruction, first, depth, out);
+        }
+      }
+    }
+    if (!first) {
+      out.write(";\n");
+    }
+  }
+
+  private boolean declare(Instruction value, boolean first, int depth, CodeWriter out) {
+    if (first) {
+      indent(depth, out).write("let ");
+    } else {
+      out.write(", ");
+    }
+    out.write(name(value));
+    return false;
+  }
+
+  // ---- control flow ----
+
+  /** The code for {@code block} and every block it dominates. */
+  private void tree(Block block, int depth, CodeWriter out) {
+    List<Block> mergeChildren = new ArrayList<>();
+    for (Block child : dominators.children(block)) {
+      if (merges[child.id()]) mergeChildren.add(child);
+    }
+    if (loopHeaders[block.id()]) {
+      indent(depth, out).write(label(block)).write(": while (true) {\n");
+      frames.push(new Frame(true, block));
+      within(block, mergeChildren, mergeChildren.size(), depth + 1, out);
+      frames.pop();
+      indent(depth, out).write("}\n");
+    } else {
+      within(block, mergeChildren, mergeChildren.size(), depth, out);
+    }
+  }
+
+  /**
+   * The code for {@code block} inside one labeled block per merge it dominates, the last in
+   * reverse postorder outermost, each followed by its merge.
+   */
+  private void within(Block block, List<Block> mergeChildren, int count, int depth, CodeWriter out) {
+    if (count == 0) {
+      instructions(block, depth, out);
+      terminator(block, depth, out);
+      return;
+    }
+    Block merge = mergeChildren.get(count - 1);
+    indent(depth, out).write(label(merge)).write(": {\n");
+    frames.push(new Frame(false, merge));
+    within(block, mergeChildren, count - 1, depth + 1, out);
+    frames.pop();
+    indent(depth, out).write("}\n");
+    tree(merge, depth, out);
+  }
+
+  private void terminator(Block block, int depth, CodeWriter out) {
+    switch (block.terminator()) {
+      case JUMP -> branch(block, block.successors().getFirst(), depth, out);
+      case BRANCH -> {
+        Block ifTrue = block.successors().get(0);
+        Block ifFalse = block.successors().get(1);
+        boolean trueFallsThrough = fallsThrough(ifTrue);
+        boolean falseFallsThrough = fallsThrough(ifFalse);
+        if (trueFallsThrough && falseFallsThrough) {
+          return;
+        }
+        indent(depth, out).write("if (");
+        if (trueFallsThrough) {
+          out.write('!');
+        }
+        value(block.terminatorValue(), out);
+        out.write(") {\n");
+        branch(block, trueFallsThrough ? ifFalse : ifTrue, depth + 1, out);
+        if (!trueFallsThrough && !falseFallsThrough) {
+          indent(depth, out).write("} else {\n");
+          branch(block, ifFalse, depth + 1, out);
+        }
+        indent(depth, out).write("}\n");
+      }
+      case RETURN -> {
+        Instruction value = block.terminatorValue();
+        if (value != null) {
+          indent(depth, out).write("return ");
+          value(value, out);
+          out.write(";\n");
+        } else if (!frames.isEmpty()) {
+          // Outside every label the code is at the end of the function, which returns anyway
+          if (exitLabel != null) {
+            exitUsed = true;
+            indent(depth, out).write("break ").write(exitLabel).write(";\n");
+          } else {
+            indent(depth, out).write("return;\n");
+          }
+        }
+      }
+      case NONE -> throw new IllegalStateException(function.name() + ": block " + block + " has no terminator");
+    }
+  }
+
+  /** Whether the edge into {@code target} needs no code: nothing to copy, and the target comes next anyway. */
+  private boolean fallsThrough(Block target) {
+    Frame frame = frames.peek();
+    return frame != null && frame.block() == target && !hasLivePhis(target);
+  }
+
+  private void branch(Block source, Block target, int depth, CodeWriter out) {
+    copies(source, target, depth, out);
+    Frame frame = frames.peek();
+    if (frame != null && frame.block() == target) {
+      return;
+    }
+    if (dominators.rpoIndex(target) <= dominators.rpoIndex(source)) {
+      indent(depth, out).write("continue ").write(label(target)).write(";\n");
+    } else if (merges[target.id()]) {
+      indent(depth, out).write("break ").write(label(target)).write(";\n");
+    } else {
+      tree(target, depth, out);
+    }
+  }
+
+  private boolean hasLivePhis(Block block) {
+    for (Instruction phi : block.phis()) {
+      if (uses[phi.id()] > 0) return true;
+    }
+    return false;
+  }
+
+  /** Assigns the phis of {@code target} their operands for the edge from {@code source}. */
+  private void copies(Block source, Block target, int depth, CodeWriter out) {
+    if (!hasLivePhis(target)) {
+      return;
+    }
+    int edge = target.predecessors().indexOf(source);
+    List<Instruction> phis = new ArrayList<>();
+    List<Instruction> operands = new ArrayList<>();
+    for (Instruction phi : target.phis()) {
+      Instruction operand = phi.operands().get(edge);
+      if (uses[phi.id()] > 0 && operand != phi) {
+        phis.add(phi);
+        operands.add(operand);
+      }
+    }
+    // A phi that another one reads must not be overwritten first: assign them all at once
+    boolean parallel = false;
+    for (Instruction operand : operands) {
+      if (operand.op() == Instruction.Op.PHI && operand.block() == target) {
+        parallel = true;
+        break;
+      }
+    }
+    if (!parallel) {
+      for (int i = 0; i < phis.size(); i++) {
+        indent(depth, out).write(name(phis.get(i))).write(" = ");
+        value(operands.get(i), out);
+        out.write(";\n");
+      }
+      return;
+    }
+    indent(depth, out).write('[');
+    for (int i = 0; i < phis.size(); i++) {
+      if (i > 0) out.write(", ");
+      out.write(name(phis.get(i)));
+    }
+    out.write("] = [");
+    for (int i = 0; i < operands.size(); i++) {
+      if (i > 0) out.write(", ");
+      value(operands.get(i), out);
+    }
+    out.write("];\n");
+  }
+
+  // ---- instructions ----
+
+  private void instructions(Block block, int depth, CodeWriter out) {
+    for (Instruction instruction : block.instructions()) {
+      if (inline[instruction.id()]) continue;
+      boolean used = instruction.definesValue() && uses[instruction.id()] > 0;
+      if (!used && !instruction.hasEffects()) continue;
+      indent(depth, out);
+      if (used) {
+        out.write(name(instruction)).write(" = ");
+      }
+      expression(instruction, out);
+      out.write(";\n");
+    }
+  }
+
+  /** Writes a value where it is used: its expression if it goes in place, else its variable. */
+  private void value(Instruction value, CodeWriter out) {
+    if (inline[value.id()]) {
+      expression(value, out);
+    } else {
+      out.write(name(value));
+    }
+  }
+
+  private void expression(Instruction instruction, CodeWriter out) {
+    List<Instruction> operands = instruction.operands();
+    switch (instruction.op()) {
+      case CONST -> literal(instruction.constant(), out);
+      case PARAM -> out.write(function.parameters().get((Integer) instruction.constant()).name());
+      case THIS -> out.write("this");
+      case BINARY -> binary(instruction, out);
+      case GET_FIELD -> {
+        value(operands.get(0), out);
+        out.write('.').write(instruction.name());
+      }
+      case SET_FIELD -> {
+        value(operands.get(0), out);
+        out.write('.').write(instruction.name()).write(" = ");
+        value(operands.get(1), out);
+      }
+      case CALL -> {
+        value(operands.getFirst(), out);
+        out.write('.').write(instruction.name());
+        args(operands.subList(1, operands.size()), out);
+      }
+      case NEW -> {
+        out.write("new ").write(instruction.name());
+        args(operands, out);
+      }
+      case SUPER -> {
+        out.write(instruction.name()).write(".call(this");
+        for (Instruction arg : operands) {
+          out.write(", ");
+          value(arg, out);
+        }
+        out.write(')');
+      }
+      case PRINT -> {
+        out.write("console.log(");
+        value(operands.getFirst(), out);
+        out.write(')');
+      }
+      case PHI -> throw new IllegalStateException(function.name() + ": phi " + instruction + " among the instructions");
+    }
+  }
+
+  /** Int arithmetic in int32 is written the way {@link ExpressionGenerator} writes it. */
+  private void binary(Instruction instruction, CodeWriter out) {
+    String operator = instruction.name();
+    Instruction left = instruction.operands().get(0);
+    Instruction right = instruction.operands().get(1);
+    boolean int32 = int32Arithmetic && instruction.type().equals("Int");
+    if (int32 && operator.equals("*")) {
+      out.write("Math.imul(");
+      value(left, out);
+      out.write(", ");
+      value(right, out);
+      out.write(')');
+      return;
+    }
+    out.write(int32 ? "((" : "(");
+    value(left, out);
+    out.write(' ').write(operator).write(' ');
+    value(right, out);
+    out.write(int32 ? ") | 0)" : ")");
+  }
+
+  private void args(List<Instruction> args, CodeWriter out) {
+    out.write('(');
+    for (int i = 0; i < args.size(); i++) {
+      if (i > 0) out.write(", ");
+      value(args.get(i), out);
+    }
+    out.write(')');
+  }
+
+  /** A local read before it is assigned, or an object default, is a null constant. */
+  private static void literal(Object constant, CodeWriter out) {
+    if (constant == null) {
+      out.write("null");
+    } else if (constant instanceof String s) {
+      out.write('"').writeEscaped(s).write('"');
+    } else if (constant instanceof Integer i) {
+      out.write(i.intValue());
+    } else {
+      out.write(constant.toString());
+    }
+  }
+
+  // Source names cannot contain '$', so neither kind of name clashes with a parameter
+  private static String name(Instruction value) {
+    return "$" + value.id();
+  }
+
+  private static String label(Block block) {
+    return "$b" + block.id();
+  }
+
+  private static CodeWriter indent(int depth, CodeWriter out) {
+    for (int i = 0; i < depth; i++) {
+      out.write("  ");
+    }
+    return out;
+  }
+}
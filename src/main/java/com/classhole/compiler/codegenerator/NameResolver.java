@@ -0,0 +1,138 @@
+package com.classhole.compiler.codegenerator;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.CallMethodExp;
+import com.classhole.compiler.parser.ast.nodes.statements.AssignStmt;
+import com.classhole.compiler.parser.ast.nodes.statements.VarDecStmt;
+import com.classhole.compiler.typechecker.TypedProgram;
+import com.classhole.compiler.typechecker.types.PrimitiveType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides whether a variable name in generated code is a field, emitted as {@code this.f},
+ * or a local or parameter, emitted as a bare JS binding.
+ *
+ * With a TypedProgram the answer is the type checker's own resolution, read through a cursor
+ * while the generators walk the program in canonical order, so every expression, call link and
+ * assignment must be entered here exactly once, in that order. Without one (e.g. for a hand-built
+ * AST) names are resolved lexically: locals and parameters in scope shadow the fields declared
+ * in the current class and its superclasses, and the entry point has no fields.
+ */
+class NameResolver {
+  private final TypedProgram typed;
+  private TypedProgram.Cursor cursor = null;
+
+  // Lexical fallback
+  private final Map<String, ClassDef> classes = new HashMap<>();
+  private String currentClass = null;
+  private List<VarDecStmt> currentFields = List.of();
+  private final List<String> locals = new ArrayList<>();
+
+  NameResolver(TypedProgram typed) {
+    this.typed = typed;
+  }
+
+  /** Starts a walk over the whole program. */
+  void begin(Program program) {
+    if (typed != null) {
+      if (typed.program() != program) {
+        throw new IllegalArgumentException("Program was not the one type checked");
+      }
+      cursor = typed.cursor();
+    }
+    classes.clear();
+    for (ClassDef cls : program.classes()) {
+      classes.putIfAbsent(cls.className(), cls);
+    }
+  }
+
+  /**
+   * Starts a constructor or method body of {@code className}, or the entry point if it is null.
+   * {@code ownFields} are the class's own fields if the caller has them; inherited ones are found
+   * through the program passed to {@link #begin}.
+   */
+  void enterBody(String className, List<VarDecStmt> ownFields, List<VarDecStmt> parameters) {
+    currentClass = className;
+    currentFields = ownFields;
+    locals.clear();
+    for (VarDecStmt param : parameters) {
+      locals.add(param.name());
+    }
+  }
+
+  int scopeMark() {
+    return locals.size();
+  }
+
+  void closeScope(int mark) {
+    locals.subList(mark, locals.size()).clear();
+  }
+
+  void declare(String name) {
+    locals.add(name);
+  }
+
+  /** Enters an expression; returns its TypedProgram id, or -1 without types. */
+  int enterExp(Exp exp) {
+    return cursor == null ? -1 : cursor.exp(exp);
+  }
+
+  void enterLink(CallMethodExp.CallLink link) {
+    if (cursor != null) cursor.link(link);
+  }
+
+  /** Whether the VarExp entered as {@code expId} reads a field. */
+  boolean isField(int expId, String name) {
+    if (cursor != null) {
+      return typed.varKindOf(expId) == TypedProgram.VarKind.FIELD;
+    }
+    return isFieldName(name);
+  }
+
+  /**
+   * Whether the BinaryExp entered as {@code expId} is Int arithmetic. With types that is the
+   * checker's result type; without, the operator decides, as + - * / only check on Int operands.
+   */
+  boolean isIntArithmetic(int expId, String operator) {
+    boolean arithmetic = switch (operator) {
+      case "+", "-", "*", "/" -> true;
+      default -> false;
+    };
+    if (cursor != null) {
+      return arithmetic && PrimitiveType.INT.equals(typed.typeOf(expId));
+    }
+    return arithmetic;
+  }
+
+  /** Enters an assignment, before its right-hand side; returns whether it stores to a field. */
+  boolean isFieldTarget(AssignStmt assign) {
+    if (cursor != null) {
+      return typed.assignKindOf(cursor.assign(assign)) == TypedProgram.VarKind.FIELD;
+    }
+    return isFieldName(assign.variableName());
+  }
+
+  private boolean isFieldName(String name) {
+    if (currentClass == null || locals.contains(name)) {
+      return false;
+    }
+    for (VarDecStmt field : currentFields) {
+      if (field.name().equals(name)) return true;
+    }
+    ClassDef cls = classes.get(currentClass);
+    // Bounded by the class count so a cyclic hand-built hierarchy cannot loop
+    for (int depth = 0; cls != null && depth <= classes.size(); depth++) {
+      for (VarDecStmt field : cls.fields()) {
+        if (field.name().equals(name)) return true;
+      }
+      cls = cls.superClass().map(classes::get).orElse(null);
+    }
+    return false;
+  }
+}
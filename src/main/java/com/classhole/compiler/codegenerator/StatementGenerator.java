@@ -13,126 +13,217 @@ import com.classhole.compiler.parser.ast.nodes.statements.ReturnStmt;
 import com.classhole.compiler.parser.ast.nodes.statements.VarDecStmt;
 import com.classhole.compiler.parser.ast.nodes.statements.WhileStmt;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 public class StatementGenerator {
   private final ExpressionGenerator expressionGenerator;
+  private final NameResolver resolver;
 
   public StatementGenerator(ExpressionGenerator expressionGenerator) {
     this.expressionGenerator = expressionGenerator;
+    this.resolver = expressionGenerator.resolver();
   }
 
   public String generateStmt(Stmt stmt) {
-    if (stmt instanceof VarDecStmt v) return generateVarDec(v);
-    if (stmt instanceof AssignStmt a) return generateAssign(a);
-    if (stmt instanceof IfStmt i) return generateIf(i);
-    if (stmt instanceof WhileStmt w) return generateWhile(w);
-    if (stmt instanceof ReturnStmt r) return generateReturn(r);
-    if (stmt instanceof BreakStmt b) return "break;";
-    if (stmt instanceof BlockStmt b) return generateBlock(b);
-    if (stmt instanceof PrintStmt p) return generatePrint(p);
-    if (stmt instanceof ExprStmt e) return generateExprStmt(e);
-
-    throw new RuntimeException("Unknown statement type: " + stmt.getClass());
+    StringBuilder sb = new StringBuilder();
+    generateStmt(stmt, new CodeWriter(sb));
+    return sb.toString();
   }
 
-  private String generateVarDec(VarDecStmt stmt) {
-    return "let " + stmt.name() + ";";
+  public void generateStmt(Stmt stmt, CodeWriter out) {
+    if (stmt instanceof VarDecStmt v) generateVarDec(v, out);
+    else if (stmt instanceof AssignStmt a) generateAssign(a, out);
+    else if (stmt instanceof IfStmt i) generateIf(i, out);
+    else if (stmt instanceof WhileStmt w) generateWhile(w, out);
+    else if (stmt instanceof ReturnStmt r) generateReturn(r, out);
+    else if (stmt instanceof BreakStmt b) out.write("break;");
+    else if (stmt instanceof BlockStmt b) generateBlock(b, out);
+    else if (stmt instanceof PrintStmt p) generatePrint(p, out);
+    else if (stmt instanceof ExprStmt e) generateExprStmt(e, out);
+    else throw new RuntimeException("Unknown statement type: " + stmt.getClass());
   }
 
-  private String generateAssign(AssignStmt stmt) {
-    String target = stmt.variableName();
-    String value = expressionGenerator.generateExp(stmt.expression());
+  private void generateVarDec(VarDecStmt stmt, CodeWriter out) {
+    resolver.declare(stmt.name());
+    out.write("let ").write(stmt.name()).write(';');
+  }
 
-    // naive heuristic: add this. unless RHS already uses `this.` (or is local var/param)
-    if (!target.startsWith("this.")) {
-      target = "this." + target;
+  private void generateAssign(AssignStmt stmt, CodeWriter out) {
+    // Only real fields live on the receiver; locals and parameters are plain bindings
+    if (resolver.isFieldTarget(stmt)) {
+      out.write("this.");
     }
 
-    return target + " = " + value + ";";
+    out.write(stmt.variableName()).write(" = ");
+    expressionGenerator.generateExp(stmt.expression(), out);
+    out.write(';');
   }
 
 
-  private String generateIf(IfStmt stmt) {
-    String cond = expressionGenerator.generateExp(stmt.condition());
-    String thenBranch = generateStmt(stmt.thenStmt());
-
-    StringBuilder sb = new StringBuilder();
-    sb.append("if (").append(cond).append(") ");
-    sb.append(thenBranch);
+  private void generateIf(IfStmt stmt, CodeWriter out) {
+    out.write("if (");
+    expressionGenerator.generateExp(stmt.condition(), out);
+    out.write(") ");
+    generateStmt(stmt.thenStmt(), out);
 
-    stmt.elseStmt().ifPresent(elseBranch ->
-        sb.append(" else ").append(generateStmt(elseBranch))
-    );
-
-    return sb.toString();
+    stmt.elseStmt().ifPresent(elseBranch -> {
+      out.write(" else ");
+      generateStmt(elseBranch, out);
+    });
   }
 
-  private String generateWhile(WhileStmt stmt) {
-    String cond = expressionGenerator.generateExp(stmt.condition());
-    String body = generateStmt(stmt.body());
-    return "while (" + cond + ") " + body;
+  private void generateWhile(WhileStmt stmt, CodeWriter out) {
+    out.write("while (");
+    expressionGenerator.generateExp(stmt.condition(), out);
+    out.write(") ");
+    generateStmt(stmt.body(), out);
   }
 
 
-  private String generateReturn(ReturnStmt stmt) {
-    return stmt.expression()
-        .map(expr -> "return " + expressionGenerator.generateExp(expr) + ";")
-        .orElse("return;");
+  private void generateReturn(ReturnStmt stmt, CodeWriter out) {
+    if (stmt.expression().isEmpty()) {
+      out.write("return;");
+      return;
+    }
+    out.write("return ");
+    expressionGenerator.generateExp(stmt.expression().get(), out);
+    out.write(';');
   }
 
-  private String generateBlock(BlockStmt stmt) {
-    StringBuilder sb = new StringBuilder();
-    sb.append("{\n");
+  private void generateBlock(BlockStmt stmt, CodeWriter out) {
+    int scope = resolver.scopeMark();
+    out.write("{\n");
     for (Stmt s : stmt.statements()) {
-      sb.append(generateStmt(s)).append("\n");
+      generateStmt(s, out);
+      out.write('\n');
     }
-    sb.append("}");
-    return sb.toString();
+    out.write('}');
+    resolver.closeScope(scope);
   }
 
-  private String generateExprStmt(ExprStmt stmt) {
-    String code = expressionGenerator.generateExp(stmt.exp());
-    return code + ";";
+  private void generateExprStmt(ExprStmt stmt, CodeWriter out) {
+    expressionGenerator.generateExp(stmt.exp(), out);
+    out.write(';');
   }
 
-  private String generatePrint(PrintStmt stmt) {
-    String arg = expressionGenerator.generateExp(stmt.expression());
-    return "console.log(" + arg + ");";
+  private void generatePrint(PrintStmt stmt, CodeWriter out) {
+    out.write("console.log(");
+    expressionGenerator.generateExp(stmt.expression(), out);
+    out.write(");");
   }
 
 
-  public String generateConstructor(ConstructorDef constructor, String className, String parentClass, List<VarDecStmt> fields)
-  {
-  StringBuilder sb = new StringBuilder();
+  public String generateConstructor(ConstructorDef constructor, String className, String parentClass, List<VarDecStmt> fields) {
+    StringBuilder sb = new StringBuilder();
+    generateConstructor(constructor, className, parentClass, fields, new CodeWriter(sb));
+    return sb.toString();
+  }
 
+  public void generateConstructor(ConstructorDef constructor, String className, String parentClass,
+      List<VarDecStmt> fields, CodeWriter out) {
+    resolver.enterBody(className, fields, constructor.parameters());
+    // A parameter named like a field shadows it, so the field needs its default like any other
     for (VarDecStmt field : fields) {
-      boolean isInConstructorParams = constructor.parameters().stream()
-          .anyMatch(param -> param.name().equals(field.name()));
-      if (!isInConstructorParams) {
-        String defaultValue = getDefaultValue(field.type());
-        sb.append("  this.").append(field.name()).append(" = ").append(defaultValue).append(";\n");
-      }
+      out.write("  this.").write(field.name()).write(" = ").write(getDefaultValue(field.type())).write(";\n");
     }
 
 
     if (constructor.superArgs().isPresent()) {
-      String args = constructor.superArgs().get().stream()
-          .map(expressionGenerator::generateExp)
-          .collect(Collectors.joining(", "));
-      sb.append("  ").append(parentClass).append(".call(this")
-          .append(args.isEmpty() ? "" : ", " + args)
-          .append(");\n");
+      out.write("  ").write(parentClass).write(".call(this");
+      for (var arg : constructor.superArgs().get()) {
+        out.write(", ");
+        expressionGenerator.generateExp(arg, out);
+      }
+      out.write(");\n");
     }
 
 
     for (Stmt stmt : constructor.body()) {
-      sb.append("  ").append(generateStmt(stmt)).append("\n");
+      out.write("  ");
+      generateStmt(stmt, out);
+      out.write('\n');
     }
+  }
 
-    return sb.toString();
+
+  /**
+   * A constructor that gives every instance the same property order: all fields, inherited ones
+   * first, are created with their defaults before the super call and the body, which then only
+   * overwrite existing properties.
+   */
+  public void generateStableConstructor(ConstructorDef constructor, String className, String parentClass,
+      List<VarDecStmt> ownFields, Map<String, String> allFields, CodeWriter out) {
+    resolver.enterBody(className, ownFields, constructor.parameters());
+    generateFieldDefaults(allFields, "  ", out);
+
+    if (constructor.superArgs().isPresent()) {
+      out.write("  ").write(parentClass).write(".call(this");
+      for (var arg : constructor.superArgs().get()) {
+        out.write(", ");
+        expressionGenerator.generateExp(arg, out);
+      }
+      out.write(");\n");
+    }
+
+    generateBody(constructor.body(), "  ", out);
+  }
+
+  /**
+   * The constructor of an ES2015 class. A derived class must call super() before touching
+   * {@code this}, so the superclass creates its fields first and this class then adds its own,
+   * always in the same order. A derived class without super(...) args calls super() with none.
+   */
+  public void generateClassConstructor(ConstructorDef constructor, String className, boolean derived,
+      List<VarDecStmt> ownFields, Map<String, String> ownFieldTypes, CodeWriter out) {
+    resolver.enterBody(className, ownFields, constructor.parameters());
+    out.write("  constructor");
+    generateParams(constructor.parameters(), out);
+    out.write(" {\n");
+
+    if (derived) {
+      out.write("    super");
+      expressionGenerator.generateArgs(constructor.superArgs().orElse(List.of()), out);
+      out.write(";\n");
+    }
+    generateFieldDefaults(ownFieldTypes, "    ", out);
+    generateBody(constructor.body(), "    ", out);
+    out.write("  }\n");
+  }
+
+  /** A method inside an ES2015 class body. */
+  public void generateClassMethod(String className, MethodDef method, CodeWriter out) {
+    resolver.enterBody(className, List.of(), method.parameters());
+    out.write("  ").write(method.name());
+    generateParams(method.parameters(), out);
+    out.write(" {\n");
+    generateBody(method.body(), "    ", out);
+    out.write("  }\n");
+  }
+
+  /** Writes a parenthesized, comma-separated parameter list. */
+  void generateParams(List<VarDecStmt> params, CodeWriter out) {
+    out.write('(');
+    for (int i = 0; i < params.size(); i++) {
+      if (i > 0) out.write(", ");
+      out.write(params.get(i).name());
+    }
+    out.write(')');
+  }
+
+  private void generateFieldDefaults(Map<String, String> fieldTypes, String indent, CodeWriter out) {
+    for (Map.Entry<String, String> field : fieldTypes.entrySet()) {
+      out.write(indent).write("this.").write(field.getKey()).write(" = ")
+          .write(getDefaultValue(field.getValue())).write(";\n");
+    }
   }
 
+  private void generateBody(List<Stmt> body, String indent, CodeWriter out) {
+    for (Stmt stmt : body) {
+      out.write(indent);
+      generateStmt(stmt, out);
+      out.write('\n');
+    }
+  }
 
   private String getDefaultValue(String type) {
     return switch (type) {
@@ -143,20 +234,28 @@ public class StatementGenerator {
     };
   }
 
+  /** Starts the entry-point statements, which have no receiver and no fields. */
+  void enterEntryPoint() {
+    resolver.enterBody(null, List.of(), List.of());
+  }
+
   public String generateMethod(String className, MethodDef method) {
     StringBuilder sb = new StringBuilder();
-    sb.append(className).append(".prototype.").append(method.name()).append(" = function(");
-    sb.append(
-        method.parameters().stream()
-            .map(VarDecStmt::name)
-            .collect(Collectors.joining(", "))
-    );
-
-    sb.append(") {\n");
+    generateMethod(className, method, new CodeWriter(sb));
+    return sb.toString();
+  }
+
+  public void generateMethod(String className, MethodDef method, CodeWriter out) {
+    resolver.enterBody(className, List.of(), method.parameters());
+    out.write(className).write(".prototype.").write(method.name()).write(" = function");
+    generateParams(method.parameters(), out);
+
+    out.write(" {\n");
     for (Stmt stmt : method.body()) {
-      sb.append("  ").append(generateStmt(stmt)).append("\n");
+      out.write("  ");
+      generateStmt(stmt, out);
+      out.write('\n');
     }
-    sb.append("};\n");
-    return sb.toString();
+    out.write("};\n");
   }
-}
\ No newline at end of file
+}
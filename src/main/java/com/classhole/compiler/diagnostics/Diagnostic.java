@@ -0,0 +1,15 @@
+package com.classhole.compiler.diagnostics;
+
+/**
+ * A single compile error. Plain data, so reporting one costs an allocation and nothing more.
+ * Line and column are 1-based; 0 means the position is unknown.
+ */
+public record Diagnostic(Phase phase, String message, int line, int column) {
+  public enum Phase { PARSER, TYPECHECKER }
+
+  @Override
+  public String toString() {
+    String where = line > 0 ? line + ":" + column + ": " : "";
+    return where + phase.name().toLowerCase() + " error: " + message;
+  }
+}
@@ -0,0 +1,40 @@
+package com.classhole.compiler.diagnostics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects every error of a compile instead of stopping at the first one.
+ * Pass the same instance to the Parser and the TypeChecker; the parser also leaves
+ * statement and class positions here so the checker can report where its errors are.
+ */
+public class Diagnostics {
+  private final List<Diagnostic> errors = new ArrayList<>();
+  private final SourcePositions statementPositions = new SourcePositions();
+  private final SourcePositions classPositions = new SourcePositions();
+
+  public void error(Diagnostic.Phase phase, String message, int line, int column) {
+    errors.add(new Diagnostic(phase, message, line, column));
+  }
+
+  public boolean hasErrors() {
+    return !errors.isEmpty();
+  }
+
+  public int errorCount() {
+    return errors.size();
+  }
+
+  public List<Diagnostic> errors() {
+    return Collections.unmodifiableList(errors);
+  }
+
+  public SourcePositions statementPositions() {
+    return statementPositions;
+  }
+
+  public SourcePositions classPositions() {
+    return classPositions;
+  }
+}
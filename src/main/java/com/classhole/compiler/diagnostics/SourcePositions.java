@@ -0,0 +1,43 @@
+package com.classhole.compiler.diagnostics;
+
+import java.util.Arrays;
+
+/**
+ * Start positions of statements, indexed by the statement's position in pre-order over the program
+ * (classes in order, constructor then methods, then the entry point), or of class headers, indexed
+ * by the class's position in the program.
+ * The parser records them as it enters each statement or finishes each class; the type checker reads
+ * them back while walking statements and classes in the same order, so its errors point at real source lines.
+ */
+public class SourcePositions {
+  private int[] lines = new int[64];
+  private int[] columns = new int[64];
+  private int size = 0;
+
+  public void record(int line, int column) {
+    if (size == lines.length) {
+      lines = Arrays.copyOf(lines, size * 2);
+      columns = Arrays.copyOf(columns, size * 2);
+    }
+    lines[size] = line;
+    columns[size] = column;
+    size++;
+  }
+
+  /** Drops positions recorded past {@code newSize}, e.g. for a statement the parser gave up on. */
+  public void truncate(int newSize) {
+    size = Math.min(size, newSize);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int lineOf(int stmtId) {
+    return stmtId < size ? lines[stmtId] : 0;
+  }
+
+  public int columnOf(int stmtId) {
+    return stmtId < size ? columns[stmtId] : 0;
+  }
+}
@@ -0,0 +1,91 @@
+package com.classhole.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A basic block: phis, then straight-line instructions, then one terminator that jumps to one
+ * successor, branches on a Boolean to two, or returns. A block under construction has none yet.
+ */
+public final class Block {
+  public enum Terminator { NONE, JUMP, BRANCH, RETURN }
+
+  private int id;
+  final List<Instruction> phis = new ArrayList<>();
+  final List<Instruction> instructions = new ArrayList<>();
+  final List<Block> predecessors = new ArrayList<>();
+  final List<Block> successors = new ArrayList<>(2);
+  private Terminator terminator = Terminator.NONE;
+  // The branch condition or the returned value, null for a jump or a return without one
+  Instruction terminatorValue;
+
+  Block(int id) {
+    this.id = id;
+  }
+
+  public int id() {
+    return id;
+  }
+
+  void renumber(int id) {
+    this.id = id;
+  }
+
+  public List<Instruction> phis() {
+    return phis;
+  }
+
+  public List<Instruction> instructions() {
+    return instructions;
+  }
+
+  public List<Block> predecessors() {
+    return predecessors;
+  }
+
+  /** One successor for a jump; the taken, then the not-taken one for a branch. */
+  public List<Block> successors() {
+    return successors;
+  }
+
+  public Terminator terminator() {
+    return terminator;
+  }
+
+  public Instruction terminatorValue() {
+    return terminatorValue;
+  }
+
+  void jump(Block target) {
+    terminate(Terminator.JUMP, null);
+    link(target);
+  }
+
+  void branch(Instruction condition, Block ifTrue, Block ifFalse) {
+    terminate(Terminator.BRANCH, condition);
+    link(ifTrue);
+    link(ifFalse);
+  }
+
+  void ret(Instruction value) {
+    terminate(Terminator.RETURN, value);
+  }
+
+  private void terminate(Terminator terminator, Instruction value) {
+    if (this.terminator != Terminator.NONE) {
+      throw new IllegalStateException("Block b" + id + " is already terminated");
+    }
+    this.terminator = terminator;
+    this.terminatorValue = value;
+  }
+
+  private void link(Block target) {
+    successors.add(target);
+    target.predecessors.add(this);
+  }
+
+  @Override
+  public String toString() {
+    return "b" + id;
+  }
+}
@@ -0,0 +1,157 @@
+package com.classhole.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The dominator tree of a function, by the iterative algorithm of Cooper, Harvey and Kennedy
+ * ("A Simple, Fast Dominance Algorithm") over reverse postorder. Blocks must be numbered densely,
+ * as {@link IrFunction} leaves them; blocks the entry does not reach have no dominator.
+ *
+ * The tree is numbered on the way down and back up, so {@link #dominates} is two comparisons.
+ */
+public final class Dominators {
+  private final List<Block> reversePostorder = new ArrayList<>();
+  private final int[] rpoIndex;
+  private final Block[] idom;
+  private final List<List<Block>> children;
+  private final int[] preorder;
+  private final int[] postorder;
+
+  public Dominators(IrFunction function) {
+    int n = function.blocks().size();
+    rpoIndex = new int[n];
+    Arrays.fill(rpoIndex, -1);
+    idom = new Block[n];
+    children = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      children.add(new ArrayList<>(2));
+    }
+    preorder = new int[n];
+    postorder = new int[n];
+
+    Block entry = function.entry();
+    postorder(entry, new boolean[n]);
+    Collections.reverse(reversePostorder);
+    List<Block> rpo = reversePostorder;
+    for (int i = 0; i < rpo.size(); i++) {
+      rpoIndex[rpo.get(i).id()] = i;
+    }
+
+    idom[entry.id()] = entry;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = 1; i < rpo.size(); i++) {
+        Block block = rpo.get(i);
+        Block newIdom = null;
+        for (Block predecessor : block.predecessors) {
+          if (idom[predecessor.id()] == null) continue;
+          newIdom = newIdom == null ? predecessor : intersect(predecessor, newIdom);
+        }
+        if (idom[block.id()] != newIdom) {
+          idom[block.id()] = newIdom;
+          changed = true;
+        }
+      }
+    }
+    for (int i = 1; i < rpo.size(); i++) {
+      Block block = rpo.get(i);
+      children.get(idom[block.id()].id()).add(block);
+    }
+    number(entry);
+  }
+
+  /** Appends the blocks reachable from {@code start} in postorder, without recursion. */
+  private void postorder(Block start, boolean[] visited) {
+    List<Block> stack = new ArrayList<>();
+    List<Integer> next = new ArrayList<>();
+    visited[start.id()] = true;
+    stack.add(start);
+    next.add(0);
+    while (!stack.isEmpty()) {
+      int top = stack.size() - 1;
+      Block block = stack.get(top);
+      int i = next.get(top);
+      if (i < block.successors.size()) {
+        next.set(top, i + 1);
+        Block successor = block.successors.get(i);
+        if (!visited[successor.id()]) {
+          visited[successor.id()] = true;
+          stack.add(successor);
+          next.add(0);
+        }
+      } else {
+        stack.removeLast();
+        next.removeLast();
+        reversePostorder.add(block);
+      }
+    }
+  }
+
+  private Block intersect(Block a, Block b) {
+    while (a != b) {
+      while (rpoIndex[a.id()] > rpoIndex[b.id()]) a = idom[a.id()];
+      while (rpoIndex[b.id()] > rpoIndex[a.id()]) b = idom[b.id()];
+    }
+    return a;
+  }
+
+  private void number(Block root) {
+    int counter = 0;
+    List<Block> stack = new ArrayList<>();
+    List<Integer> next = new ArrayList<>();
+    preorder[root.id()] = counter++;
+    stack.add(root);
+    next.add(0);
+    while (!stack.isEmpty()) {
+      int top = stack.size() - 1;
+      Block block = stack.get(top);
+      int i = next.get(top);
+      List<Block> kids = children.get(block.id());
+      if (i < kids.size()) {
+        next.set(top, i + 1);
+        Block child = kids.get(i);
+        preorder[child.id()] = counter++;
+        stack.add(child);
+        next.add(0);
+      } else {
+        postorder[block.id()] = counter++;
+        stack.removeLast();
+        next.removeLast();
+      }
+    }
+  }
+
+  /** The blocks the entry reaches, in reverse postorder. */
+  public List<Block> reversePostorder() {
+    return reversePostorder;
+  }
+
+  /** The position of {@code block} in reverse postorder, -1 if the entry does not reach it. */
+  public int rpoIndex(Block block) {
+    return rpoIndex[block.id()];
+  }
+
+  public boolean isReachable(Block block) {
+    return rpoIndex[block.id()] >= 0;
+  }
+
+  /** The immediate dominator; the entry is its own, an unreachable block has none. */
+  public Block idom(Block block) {
+    return idom[block.id()];
+  }
+
+  /** The blocks {@code block} immediately dominates, in reverse postorder. */
+  public List<Block> children(Block block) {
+    return children.get(block.id());
+  }
+
+  /** Whether every path from the entry to {@code b} goes through {@code a}; a block dominates itself. */
+  public boolean dominates(Block a, Block b) {
+    if (!isReachable(a) || !isReachable(b)) return false;
+    return preorder[a.id()] <= preorder[b.id()] && postorder[b.id()] <= postorder[a.id()];
+  }
+}
@@ -0,0 +1,102 @@
+package com.classhole.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One SSA instruction, which is also the value it defines. Every instruction has a type, the name
+ * of a source type ("Int", "Boolean", "String", a class) or "Void" for those that define no value.
+ *
+ * Operands are other instructions. What {@code name} and {@code constant} hold depends on the op.
+ */
+public final class Instruction {
+  public enum Op {
+    /** {@code constant}: an Integer, Boolean or String; null for a local read before any assignment. */
+    CONST,
+    /** {@code constant}: the index of the parameter. */
+    PARAM,
+    THIS,
+    /** One operand per predecessor of its block, in the same order. */
+    PHI,
+    /** {@code name}: the operator; operands: left, right. */
+    BINARY,
+    /** {@code name}: the field; operand: the object. */
+    GET_FIELD,
+    /** {@code name}: the field; operands: the object, the value. */
+    SET_FIELD,
+    /** {@code name}: the method; operands: the receiver, then the args. */
+    CALL,
+    /** {@code name}: the class; operands: the args. */
+    NEW,
+    /** {@code name}: the superclass, whose constructor runs on this; operands: the args. */
+    SUPER,
+    /** Operand: the value printed. */
+    PRINT
+  }
+
+  private int id;
+  private final Op op;
+  private final String type;
+  private final String name;
+  private final Object constant;
+  final List<Instruction> operands;
+  Block block;
+
+  Instruction(int id, Op op, String type, String name, Object constant, List<Instruction> operands) {
+    this.id = id;
+    this.op = op;
+    this.type = type;
+    this.name = name;
+    this.constant = constant;
+    this.operands = new ArrayList<>(operands);
+  }
+
+  public int id() {
+    return id;
+  }
+
+  void renumber(int id) {
+    this.id = id;
+  }
+
+  public Op op() {
+    return op;
+  }
+
+  public String type() {
+    return type;
+  }
+
+  public boolean definesValue() {
+    return !type.equals("Void");
+  }
+
+  public String name() {
+    return name;
+  }
+
+  public Object constant() {
+    return constant;
+  }
+
+  public List<Instruction> operands() {
+    return operands;
+  }
+
+  public Block block() {
+    return block;
+  }
+
+  /** Whether running it does anything besides computing its value. */
+  public boolean hasEffects() {
+    return switch (op) {
+      case SET_FIELD, CALL, NEW, SUPER, PRINT -> true;
+      default -> false;
+    };
+  }
+
+  @Override
+  public String toString() {
+    return "%" + id;
+  }
+}
@@ -0,0 +1,444 @@
+package com.classhole.compiler.ir;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.ConstructorDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lowers a type-checked program to SSA form, one function per constructor, method and the entry
+ * point, in a single pass over each body.
+ *
+ * SSA is built on the fly (Braun et al., "Simple and Efficient Construction of Static Single
+ * Assignment Form"): each block maps the locals assigned in it to their current value, a read
+ * looks the value up through the predecessors, and a block with several predecessors gets a phi.
+ * Loop headers stay open until the back edge is known; their phis are completed then. A phi whose
+ * operands all agree is replaced by that value, so no minimality pass is needed afterwards.
+ *
+ * Fields are read and written through this; each local declaration, even one run again by a loop,
+ * is one variable. Code after a return or break is not lowered; an if or loop nothing leaves ends
+ * the function's reachable code the same way.
+ */
+public class IrBuilder {
+  /** One declared local or parameter. */
+  private static final class Variable {
+    final String type;
+
+    Variable(String type) {
+      this.type = type;
+    }
+  }
+
+  private final Map<String, ClassDef> classes = new HashMap<>();
+
+  // The function being built
+  private IrFunction function;
+  private Block current;
+  private Instruction thisValue;
+  private ClassDef owner;
+  private final Deque<Map<String, Variable>> scopes = new ArrayDeque<>();
+  private final Deque<Block> loopExits = new ArrayDeque<>();
+  private final Map<Block, Map<Variable, Instruction>> definitions = new HashMap<>();
+  private final Set<Block> sealed = new HashSet<>();
+  private final Map<Block, Map<Variable, Instruction>> incompletePhis = new HashMap<>();
+  private final Map<Instruction, Instruction> replacements = new IdentityHashMap<>();
+  private final Map<Instruction, List<Instruction>> phiUsers = new IdentityHashMap<>();
+
+  public IrProgram build(Program program) {
+    classes.clear();
+    for (ClassDef cls : program.classes()) {
+      classes.putIfAbsent(cls.className(), cls);
+    }
+    List<IrProgram.IrClass> irClasses = new ArrayList<>(program.classes().size());
+    for (ClassDef cls : program.classes()) {
+      IrFunction ctor = buildConstructor(cls);
+      List<IrFunction> methods = new ArrayList<>(cls.methods().size());
+      for (MethodDef method : cls.methods()) {
+        methods.add(buildMethod(cls, method));
+      }
+      irClasses.add(new IrProgram.IrClass(cls.className(), cls.superClass(), cls.fields(), ctor, methods));
+    }
+    begin(new IrFunction("main", IrFunction.Kind.ENTRY_POINT, null, List.of(), "Void"), null);
+    statements(program.entryPoint());
+    return new IrProgram(irClasses, finish());
+  }
+
+  private IrFunction buildConstructor(ClassDef cls) {
+    ConstructorDef ctor = cls.constructor();
+    begin(new IrFunction(cls.className() + ".init", IrFunction.Kind.CONSTRUCTOR, cls.className(),
+        ctor.parameters(), "Void"), cls);
+    for (VarDecStmt field : cls.fields()) {
+      emit(Instruction.Op.SET_FIELD, "Void", field.name(), null, List.of(thisValue, defaultValue(field.type())));
+    }
+    if (ctor.superArgs().isPresent()) {
+      List<Instruction> args = expressions(ctor.superArgs().get());
+      emit(Instruction.Op.SUPER, "Void", cls.superClass().orElseThrow(), null, args);
+    }
+    statements(ctor.body());
+    return finish();
+  }
+
+  private IrFunction buildMethod(ClassDef cls, MethodDef method) {
+    begin(new IrFunction(cls.className() + "." + method.name(), IrFunction.Kind.METHOD, cls.className(),
+        method.parameters(), method.returnType()), cls);
+    statements(method.body());
+    return finish();
+  }
+
+  private void begin(IrFunction function, ClassDef owner) {
+    this.function = function;
+    this.owner = owner;
+    scopes.clear();
+    loopExits.clear();
+    definitions.clear();
+    sealed.clear();
+    incompletePhis.clear();
+    replacements.clear();
+    phiUsers.clear();
+
+    current = function.newBlock();
+    sealed.add(current);
+    scopes.push(new HashMap<>());
+    thisValue = owner == null ? null : emit(Instruction.Op.THIS, owner.className(), null, null, List.of());
+    List<VarDecStmt> params = function.parameters();
+    for (int i = 0; i < params.size(); i++) {
+      Variable param = declare(params.get(i));
+      write(param, current, emit(Instruction.Op.PARAM, param.type, params.get(i).name(), i, List.of()));
+    }
+  }
+
+  /** Ends a body that can fall off its end, resolves replaced phis and drops unreachable blocks. */
+  private IrFunction finish() {
+    if (current != null) {
+      current.ret(null);
+    }
+    function.blocks.removeIf(block -> block != function.entry() && block.predecessors.isEmpty());
+    for (Block block : function.blocks) {
+      block.phis.removeIf(replacements::containsKey);
+      block.phis.forEach(this::resolveOperands);
+      block.instructions.forEach(this::resolveOperands);
+      if (block.terminatorValue != null) {
+        block.terminatorValue = resolve(block.terminatorValue);
+      }
+    }
+    function.renumber();
+    return function;
+  }
+
+  private void resolveOperands(Instruction instruction) {
+    instruction.operands.replaceAll(this::resolve);
+  }
+
+  // ---- statements ----
+
+  private void statements(List<Stmt> stmts) {
+    for (Stmt stmt : stmts) {
+      if (current == null) {
+        return;   // unreachable
+      }
+      statement(stmt);
+    }
+  }
+
+  private void statement(Stmt stmt) {
+    switch (stmt) {
+      case VarDecStmt varDec -> declare(varDec);
+      case AssignStmt assign -> {
+        Instruction value = expression(assign.expression());
+        Variable local = lookup(assign.variableName());
+        if (local != null) {
+          write(local, current, value);
+        } else {
+          emit(Instruction.Op.SET_FIELD, "Void", assign.variableName(), null, List.of(thisValue, value));
+        }
+      }
+      case BlockStmt block -> {
+        scopes.push(new HashMap<>());
+        statements(block.statements());
+        scopes.pop();
+      }
+      case ExprStmt exprStmt -> expression(exprStmt.exp());
+      case PrintStmt print -> emit(Instruction.Op.PRINT, "Void", null, null, List.of(expression(print.expression())));
+      case ReturnStmt ret -> {
+        Instruction value = ret.expression().map(this::expression).orElse(null);
+        current.ret(function.returnType().equals("Void") ? null : value);
+        current = null;
+      }
+      case BreakStmt ignored -> {
+        current.jump(loopExits.peek());
+        current = null;
+      }
+      case IfStmt ifStmt -> ifStatement(ifStmt);
+      case WhileStmt whileStmt -> whileStatement(whileStmt);
+      default -> throw new IllegalArgumentException("Cannot lower " + stmt.getClass().getSimpleName());
+    }
+  }
+
+  private void ifStatement(IfStmt ifStmt) {
+    Instruction condition = expression(ifStmt.condition());
+    Block thenBlock = function.newBlock();
+    Block merge = function.newBlock();
+    Block elseBlock = ifStmt.elseStmt().isPresent() ? function.newBlock() : merge;
+    current.branch(condition, thenBlock, elseBlock);
+    seal(thenBlock);
+
+    current = thenBlock;
+    branch(ifStmt.thenStmt(), merge);
+    if (ifStmt.elseStmt().isPresent()) {
+      seal(elseBlock);
+      current = elseBlock;
+      branch(ifStmt.elseStmt().get(), merge);
+    }
+    seal(merge);
+    current = merge.predecessors.isEmpty() ? null : merge;
+  }
+
+  private void branch(Stmt stmt, Block merge) {
+    scopes.push(new HashMap<>());
+    statement(stmt);
+    scopes.pop();
+    if (current != null) {
+      current.jump(merge);
+    }
+  }
+
+  private void whileStatement(WhileStmt whileStmt) {
+    Block header = function.newBlock();
+    current.jump(header);
+    current = header;
+    Block exit = function.newBlock();
+    // while (true) needs no test
+    if (!(whileStmt.condition() instanceof BooleanLiteralExp literal && literal.value())) {
+      Instruction condition = expression(whileStmt.condition());
+      Block body = function.newBlock();
+      current.branch(condition, body, exit);
+      seal(body);
+      current = body;
+    }
+    loopExits.push(exit);
+    branch(whileStmt.body(), header);
+    loopExits.pop();
+    seal(header);
+    seal(exit);
+    current = exit.predecessors.isEmpty() ? null : exit;
+  }
+
+  // ---- expressions ----
+
+  private List<Instruction> expressions(List<Exp> exps) {
+    List<Instruction> values = new ArrayList<>(exps.size());
+    for (Exp exp : exps) {
+      values.add(expression(exp));
+    }
+    return values;
+  }
+
+  private Instruction expression(Exp exp) {
+    return switch (exp) {
+      case IntLiteralExp literal -> constant("Int", literal.value());
+      case BooleanLiteralExp literal -> constant("Boolean", literal.value());
+      case StringLiteralExp literal -> constant("String", literal.value());
+      case ThisExp ignored -> thisValue;
+      case ParenExp paren -> expression(paren.expression());
+      case VarExp var -> {
+        Variable local = lookup(var.name());
+        yield local != null ? read(local, current)
+            : emit(Instruction.Op.GET_FIELD, fieldType(owner, var.name()), var.name(), null, List.of(thisValue));
+      }
+      case BinaryExp binary -> {
+        Instruction left = expression(binary.left());
+        Instruction right = expression(binary.right());
+        String type = switch (binary.operator()) {
+          case "+", "-", "*", "/" -> "Int";
+          default -> "Boolean";
+        };
+        yield emit(Instruction.Op.BINARY, type, binary.operator(), null, List.of(left, right));
+      }
+      case PrintlnExp println -> emit(Instruction.Op.PRINT, "Void", null, null, List.of(expression(println.exp())));
+      case NewObjectExp newObj ->
+          emit(Instruction.Op.NEW, newObj.className(), newObj.className(), null, expressions(newObj.args()));
+      case CallMethodExp call -> {
+        Instruction receiver = expression(call.receiver());
+        for (CallMethodExp.CallLink link : call.chain()) {
+          List<Instruction> operands = new ArrayList<>();
+          operands.add(receiver);
+          operands.addAll(expressions(link.args()));
+          String type = methodOf(receiver.type(), link.methodName()).returnType();
+          receiver = emit(Instruction.Op.CALL, type, link.methodName(), null, operands);
+        }
+        yield receiver;
+      }
+      default -> throw new IllegalArgumentException("Cannot lower " + exp.getClass().getSimpleName());
+    };
+  }
+
+  private Instruction constant(String type, Object value) {
+    return emit(Instruction.Op.CONST, type, null, value, List.of());
+  }
+
+  private Instruction defaultValue(String type) {
+    return switch (type) {
+      case "Int" -> constant("Int", 0);
+      case "Boolean" -> constant("Boolean", false);
+      case "String" -> constant("String", "");
+      default -> constant(type, null);
+    };
+  }
+
+  private Instruction emit(Instruction.Op op, String type, String name, Object constant, List<Instruction> operands) {
+    Instruction instruction = function.newInstruction(op, type, name, constant, operands);
+    instruction.block = current;
+    current.instructions.add(instruction);
+    return instruction;
+  }
+
+  // ---- names and types ----
+
+  private Variable declare(VarDecStmt varDec) {
+    Variable variable = new Variable(varDec.type());
+    scopes.peek().put(varDec.name(), variable);
+    return variable;
+  }
+
+  /** The local or parameter a name refers to, or null for a field. */
+  private Variable lookup(String name) {
+    for (Map<String, Variable> scope : scopes) {
+      Variable variable = scope.get(name);
+      if (variable != null) return variable;
+    }
+    return null;
+  }
+
+  private String fieldType(ClassDef cls, String field) {
+    for (ClassDef c = cls; c != null; c = c.superClass().map(classes::get).orElse(null)) {
+      for (VarDecStmt decl : c.fields()) {
+        if (decl.name().equals(field)) return decl.type();
+      }
+    }
+    throw new IllegalArgumentException("Program does not type check: no field " + field);
+  }
+
+  private MethodDef methodOf(String className, String method) {
+    for (ClassDef c = classes.get(className); c != null; c = c.superClass().map(classes::get).orElse(null)) {
+      for (MethodDef def : c.methods()) {
+        if (def.name().equals(method)) return def;
+      }
+    }
+    throw new IllegalArgumentException("Program does not type check: no method " + className + "." + method);
+  }
+
+  // ---- SSA construction ----
+
+  private void write(Variable variable, Block block, Instruction value) {
+    definitions.computeIfAbsent(block, b -> new IdentityHashMap<>()).put(variable, value);
+  }
+
+  private Instruction read(Variable variable, Block block) {
+    Instruction value = definitions.getOrDefault(block, Map.of()).get(variable);
+    return value != null ? resolve(value) : readRecursive(variable, block);
+  }
+
+  private Instruction readRecursive(Variable variable, Block block) {
+    Instruction value;
+    if (!sealed.contains(block)) {
+      // Not all predecessors are known yet: complete the phi when the block is sealed
+      value = phi(variable, block);
+      incompletePhis.computeIfAbsent(block, b -> new IdentityHashMap<>()).put(variable, value);
+    } else if (block.predecessors.isEmpty()) {
+      value = undefined(variable.type);
+    } else if (block.predecessors.size() == 1) {
+      value = read(variable, block.predecessors.getFirst());
+    } else {
+      // Break cycles through loops by defining the phi before reading the operands
+      Instruction phi = phi(variable, block);
+      write(variable, block, phi);
+      value = addOperands(variable, phi);
+    }
+    write(variable, block, value);
+    return value;
+  }
+
+  private Instruction phi(Variable variable, Block block) {
+    Instruction phi = function.newInstruction(Instruction.Op.PHI, variable.type, null, null, List.of());
+    phi.block = block;
+    block.phis.add(phi);
+    return phi;
+  }
+
+  private Instruction addOperands(Variable variable, Instruction phi) {
+    for (Block predecessor : phi.block.predecessors) {
+      Instruction operand = read(variable, predecessor);
+      phi.operands.add(operand);
+      if (operand.op() == Instruction.Op.PHI) {
+        phiUsers.computeIfAbsent(operand, p -> new ArrayList<>()).add(phi);
+      }
+    }
+    return removeIfTrivial(phi);
+  }
+
+  /** Replaces a phi whose operands are all one value (or itself) with that value. */
+  private Instruction removeIfTrivial(Instruction phi) {
+    Instruction same = null;
+    for (Instruction operand : phi.operands) {
+      operand = resolve(operand);
+      if (operand == same || operand == phi) continue;
+      if (same != null) return phi;
+      same = operand;
+    }
+    if (same == null) {
+      same = undefined(phi.type());
+    }
+    replacements.put(phi, same);
+    List<Instruction> users = phiUsers.getOrDefault(phi, List.of());
+    if (same.op() == Instruction.Op.PHI) {
+      phiUsers.computeIfAbsent(same, p -> new ArrayList<>()).addAll(users);
+    }
+    for (Instruction user : users) {
+      if (user != phi && !replacements.containsKey(user)) {
+        removeIfTrivial(user);
+      }
+    }
+    return same;
+  }
+
+  private Instruction resolve(Instruction value) {
+    Instruction replacement = replacements.get(value);
+    if (replacement == null) {
+      return value;
+    }
+    Instruction resolved = resolve(replacement);
+    replacements.put(value, resolved);
+    return resolved;
+  }
+
+  private void seal(Block block) {
+    Map<Variable, Instruction> pending = incompletePhis.remove(block);
+    if (pending != null) {
+      pending.forEach(this::addOperands);
+    }
+    sealed.add(block);
+  }
+
+  /** A local read before any assignment reaches it, which definite assignment rules out on paths that run. */
+  private Instruction undefined(String type) {
+    Block entry = function.entry();
+    Instruction value = function.newInstruction(Instruction.Op.CONST, type, null, null, List.of());
+    value.block = entry;
+    entry.instructions.addFirst(value);
+    return value;
+  }
+}
@@ -0,0 +1,91 @@
+package com.classhole.compiler.ir;
+
+import com.classhole.compiler.parser.ast.nodes.statements.VarDecStmt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One method, constructor or the entry point in SSA form. The first block is the entry. After
+ * {@link IrBuilder} is done, blocks and instructions are numbered densely in block order, so ids
+ * can index arrays.
+ */
+public final class IrFunction {
+  public enum Kind { METHOD, CONSTRUCTOR, ENTRY_POINT }
+
+  private final String name;
+  private final Kind kind;
+  private final String owner;
+  private final List<VarDecStmt> parameters;
+  private final String returnType;
+  final List<Block> blocks = new ArrayList<>();
+  private int nextValue = 0;
+
+  IrFunction(String name, Kind kind, String owner, List<VarDecStmt> parameters, String returnType) {
+    this.name = name;
+    this.kind = kind;
+    this.owner = owner;
+    this.parameters = parameters;
+    this.returnType = returnType;
+  }
+
+  /** e.g. "Point.sum", "Point.init" for a constructor, "main" for the entry point. */
+  public String name() {
+    return name;
+  }
+
+  public Kind kind() {
+    return kind;
+  }
+
+  /** The class of a method or constructor, null for the entry point. */
+  public String owner() {
+    return owner;
+  }
+
+  public List<VarDecStmt> parameters() {
+    return parameters;
+  }
+
+  public String returnType() {
+    return returnType;
+  }
+
+  public List<Block> blocks() {
+    return blocks;
+  }
+
+  public Block entry() {
+    return blocks.getFirst();
+  }
+
+  /** One more than the largest instruction id. */
+  public int valueCount() {
+    return nextValue;
+  }
+
+  Block newBlock() {
+    Block block = new Block(blocks.size());
+    blocks.add(block);
+    return block;
+  }
+
+  Instruction newInstruction(Instruction.Op op, String type, String name, Object constant, List<Instruction> operands) {
+    return new Instruction(nextValue++, op, type, name, constant, operands);
+  }
+
+  /** Numbers blocks and instructions densely, in block order. */
+  void renumber() {
+    nextValue = 0;
+    for (int i = 0; i < blocks.size(); i++) {
+      Block block = blocks.get(i);
+      block.renumber(i);
+      for (Instruction phi : block.phis) {
+        phi.renumber(nextValue++);
+      }
+      for (Instruction instruction : block.instructions) {
+        instruction.renumber(nextValue++);
+      }
+    }
+  }
+}
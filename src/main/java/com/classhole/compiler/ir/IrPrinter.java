@@ -0,0 +1,130 @@
+package com.classhole.compiler.ir;
+
+import com.classhole.compiler.codegenerator.CodeUtils;
+import com.classhole.compiler.parser.ast.nodes.statements.VarDecStmt;
+
+import java.util.List;
+
+/**
+ * The textual form of the IR, one instruction per line, for tests and debugging:
+ *
+ * <pre>
+ * function Counter.sum(n: Int) Int
+ * b0:
+ *   %0: Counter = this
+ *   %1: Int = param n
+ *   %2: Int = const 0
+ *   jump b1
+ * b1: &lt;- b0, b2
+ *   %3: Int = phi [b0: %2, b2: %5]
+ *   ...
+ * </pre>
+ */
+public class IrPrinter {
+
+  public String print(IrProgram program) {
+    StringBuilder sb = new StringBuilder();
+    for (IrFunction function : program.functions()) {
+      print(function, sb);
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  public String print(IrFunction function) {
+    StringBuilder sb = new StringBuilder();
+    print(function, sb);
+    return sb.toString();
+  }
+
+  private void print(IrFunction function, StringBuilder sb) {
+    sb.append("function ").append(function.name()).append('(');
+    List<VarDecStmt> params = function.parameters();
+    for (int i = 0; i < params.size(); i++) {
+      if (i > 0) sb.append(", ");
+      sb.append(params.get(i).name()).append(": ").append(params.get(i).type());
+    }
+    sb.append(") ").append(function.returnType()).append('\n');
+
+    for (Block block : function.blocks()) {
+      sb.append(block).append(':');
+      for (int i = 0; i < block.predecessors.size(); i++) {
+        sb.append(i == 0 ? " <- " : ", ").append(block.predecessors.get(i));
+      }
+      sb.append('\n');
+      for (Instruction phi : block.phis) {
+        sb.append("  ").append(phi).append(": ").append(phi.type()).append(" = phi [");
+        for (int i = 0; i < phi.operands.size(); i++) {
+          if (i > 0) sb.append(", ");
+          sb.append(block.predecessors.get(i)).append(": ").append(phi.operands.get(i));
+        }
+        sb.append("]\n");
+      }
+      for (Instruction instruction : block.instructions) {
+        sb.append("  ");
+        if (instruction.definesValue()) {
+          sb.append(instruction).append(": ").append(instruction.type()).append(" = ");
+        }
+        instruction(function, instruction, sb);
+        sb.append('\n');
+      }
+      sb.append("  ");
+      switch (block.terminator()) {
+        case NONE -> sb.append("<unterminated>");
+        case JUMP -> sb.append("jump ").append(block.successors.getFirst());
+        case BRANCH -> sb.append("branch ").append(block.terminatorValue).append(", ")
+            .append(block.successors.get(0)).append(", ").append(block.successors.get(1));
+        case RETURN -> {
+          sb.append("return");
+          if (block.terminatorValue != null) {
+            sb.append(' ').append(block.terminatorValue);
+          }
+        }
+      }
+      sb.append('\n');
+    }
+  }
+
+  private void instruction(IrFunction function, Instruction instruction, StringBuilder sb) {
+    List<Instruction> operands = instruction.operands;
+    switch (instruction.op()) {
+      case CONST -> sb.append("const ").append(literal(instruction.constant()));
+      case PARAM -> sb.append("param ").append(function.parameters().get((Integer) instruction.constant()).name());
+      case THIS -> sb.append("this");
+      case PHI -> sb.append("phi");
+      case BINARY -> sb.append(operands.get(0)).append(' ').append(instruction.name()).append(' ').append(operands.get(1));
+      case GET_FIELD -> sb.append("get ").append(operands.get(0)).append('.').append(instruction.name());
+      case SET_FIELD -> sb.append("set ").append(operands.get(0)).append('.').append(instruction.name())
+          .append(", ").append(operands.get(1));
+      case CALL -> {
+        sb.append("call ").append(operands.getFirst()).append('.').append(instruction.name());
+        arguments(operands.subList(1, operands.size()), sb);
+      }
+      case NEW -> {
+        sb.append("new ").append(instruction.name());
+        arguments(operands, sb);
+      }
+      case SUPER -> {
+        sb.append("super ").append(instruction.name());
+        arguments(operands, sb);
+      }
+      case PRINT -> sb.append("print ").append(operands.getFirst());
+    }
+  }
+
+  private static void arguments(List<Instruction> args, StringBuilder sb) {
+    sb.append('(');
+    for (int i = 0; i < args.size(); i++) {
+      if (i > 0) sb.append(", ");
+      sb.append(args.get(i));
+    }
+    sb.append(')');
+  }
+
+  static String literal(Object constant) {
+    if (constant instanceof String s) {
+      return "\"" + CodeUtils.escapeString(s) + "\"";
+    }
+    return String.valueOf(constant);
+  }
+}
@@ -0,0 +1,26 @@
+package com.classhole.compiler.ir;
+
+import com.classhole.compiler.parser.ast.nodes.statements.VarDecStmt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/** A whole program in SSA form: its classes, each with its constructor and methods, and the entry point. */
+public record IrProgram(List<IrClass> classes, IrFunction entryPoint) {
+
+  public record IrClass(String name, Optional<String> superClass, List<VarDecStmt> fields,
+      IrFunction constructor, List<IrFunction> methods) {
+  }
+
+  /** Every function, class by class (constructor first), then the entry point. */
+  public List<IrFunction> functions() {
+    List<IrFunction> functions = new ArrayList<>();
+    for (IrClass cls : classes) {
+      functions.add(cls.constructor());
+      functions.addAll(cls.methods());
+    }
+    functions.add(entryPoint);
+    return functions;
+  }
+}
@@ -0,0 +1,232 @@
+package com.classhole.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks the invariants the rest of the IR relies on and reports every violation it finds:
+ * blocks are terminated and their predecessor and successor lists agree, each phi has one operand
+ * per predecessor, every value is defined before it is used on every path (its definition
+ * dominates the use; for a phi operand, the end of the matching predecessor), and values have the
+ * types their instructions need.
+ */
+public class IrVerifier {
+
+  /** The problems in every function of {@code program}, empty if it is well formed. */
+  public List<String> verify(IrProgram program) {
+    List<String> problems = new ArrayList<>();
+    for (IrFunction function : program.functions()) {
+      problems.addAll(verify(function));
+    }
+    return problems;
+  }
+
+  public List<String> verify(IrFunction function) {
+    List<String> problems = new ArrayList<>();
+    List<Block> blocks = function.blocks();
+    for (int i = 0; i < blocks.size(); i++) {
+      if (blocks.get(i).id() != i) {
+        problems.add(function.name() + ": block " + blocks.get(i) + " is at position " + i);
+        return problems;
+      }
+    }
+    if (!function.entry().predecessors.isEmpty()) {
+      problems.add(function.name() + ": the entry block has predecessors");
+    }
+
+    // Where each value is defined: its block and its position there (phis at -1)
+    Map<Instruction, Integer> positions = new IdentityHashMap<>();
+    for (Block block : blocks) {
+      for (Instruction phi : block.phis) {
+        positions.put(phi, -1);
+      }
+      for (int i = 0; i < block.instructions.size(); i++) {
+        positions.put(block.instructions.get(i), i);
+      }
+    }
+
+    for (Block block : blocks) {
+      String where = function.name() + " " + block + ": ";
+      checkEdges(block, where, problems);
+      for (Instruction phi : block.phis) {
+        if (phi.op() != Instruction.Op.PHI) {
+          problems.add(where + phi + " is a " + phi.op() + " among the phis");
+        }
+        if (phi.operands.size() != block.predecessors.size()) {
+          problems.add(where + "phi " + phi + " has " + phi.operands.size() + " operands for "
+              + block.predecessors.size() + " predecessors");
+          continue;
+        }
+        for (int i = 0; i < phi.operands.size(); i++) {
+          checkInFunction(phi, phi.operands.get(i), positions, where, problems);
+        }
+        checkPhiType(phi, where, problems);
+      }
+      for (int i = 0; i < block.instructions.size(); i++) {
+        Instruction instruction = block.instructions.get(i);
+        if (instruction.op() == Instruction.Op.PHI) {
+          problems.add(where + "phi " + instruction + " is not at the start of its block");
+        }
+        if (instruction.block != block) {
+          problems.add(where + instruction + " thinks it is in " + instruction.block);
+        }
+        for (Instruction operand : instruction.operands) {
+          checkInFunction(instruction, operand, positions, where, problems);
+        }
+        checkType(instruction, where, problems);
+      }
+      Instruction value = block.terminatorValue;
+      if (value != null) {
+        checkInFunction(null, value, positions, where, problems);
+      }
+      checkTerminatorType(function, block, where, problems);
+    }
+    if (problems.isEmpty()) {
+      checkDominance(function, positions, problems);
+    }
+    return problems;
+  }
+
+  private void checkEdges(Block block, String where, List<String> problems) {
+    int expected = switch (block.terminator()) {
+      case NONE -> {
+        problems.add(where + "has no terminator");
+        yield 0;
+      }
+      case JUMP -> 1;
+      case BRANCH -> 2;
+      case RETURN -> 0;
+    };
+    if (block.successors.size() != expected) {
+      problems.add(where + block.terminator() + " with " + block.successors.size() + " successors");
+    }
+    for (Block successor : block.successors) {
+      if (Collections.frequency(successor.predecessors, block) != Collections.frequency(block.successors, successor)) {
+        problems.add(where + "successor " + successor + " does not list it as a predecessor");
+      }
+    }
+    for (Block predecessor : block.predecessors) {
+      if (!predecessor.successors.contains(block)) {
+        problems.add(where + "predecessor " + predecessor + " does not list it as a successor");
+      }
+    }
+  }
+
+  /** Records a use of a value that is not in the function at all; dominance is checked once the shape is sound. */
+  private void checkInFunction(Instruction user, Instruction operand, Map<Instruction, Integer> positions,
+      String where, List<String> problems) {
+    if (operand == null || !positions.containsKey(operand)) {
+      problems.add(where + (user == null ? "the terminator" : user.toString()) + " uses "
+          + (operand == null ? "nothing" : operand + ", which is not in the function"));
+    }
+  }
+
+  private void checkDominance(IrFunction function, Map<Instruction, Integer> positions, List<String> problems) {
+    Dominators dominators = new Dominators(function);
+    for (Block block : function.blocks()) {
+      if (!dominators.isReachable(block)) continue;
+      String where = function.name() + " " + block + ": ";
+      for (Instruction phi : block.phis) {
+        for (int i = 0; i < phi.operands.size(); i++) {
+          Block predecessor = block.predecessors.get(i);
+          if (dominators.isReachable(predecessor)
+              && !available(phi.operands.get(i), predecessor, Integer.MAX_VALUE, dominators, positions)) {
+            problems.add(where + "phi " + phi + " uses " + phi.operands.get(i) + ", which is not defined at the end of " + predecessor);
+          }
+        }
+      }
+      for (int i = 0; i < block.instructions.size(); i++) {
+        Instruction instruction = block.instructions.get(i);
+        for (Instruction operand : instruction.operands) {
+          if (!available(operand, block, i, dominators, positions)) {
+            problems.add(where + instruction + " uses " + operand + ", which is not defined on every path to it");
+          }
+        }
+      }
+      if (block.terminatorValue != null
+          && !available(block.terminatorValue, block, Integer.MAX_VALUE, dominators, positions)) {
+        problems.add(where + "the terminator uses " + block.terminatorValue + ", which is not defined on every path to it");
+      }
+    }
+  }
+
+  /** Whether {@code value} is defined before position {@code position} of {@code block} on every path. */
+  private boolean available(Instruction value, Block block, int position, Dominators dominators,
+      Map<Instruction, Integer> positions) {
+    if (value.block == block) {
+      return positions.get(value) < position;
+    }
+    return dominators.dominates(value.block, block);
+  }
+
+  private void checkType(Instruction instruction, String where, List<String> problems) {
+    List<Instruction> operands = instruction.operands;
+    switch (instruction.op()) {
+      case BINARY -> {
+        String operator = instruction.name();
+        boolean equality = operator.equals("==") || operator.equals("!=");
+        if (operands.size() != 2) {
+          problems.add(where + instruction + " has " + operands.size() + " operands");
+        } else if (!equality && (!operands.get(0).type().equals("Int") || !operands.get(1).type().equals("Int"))) {
+          problems.add(where + instruction + " applies " + operator + " to " + operands.get(0).type()
+              + " and " + operands.get(1).type());
+        }
+      }
+      case GET_FIELD, CALL -> {
+        if (operands.isEmpty() || isPrimitive(operands.getFirst().type())) {
+          problems.add(where + instruction + " needs an object");
+        }
+      }
+      case SET_FIELD -> {
+        if (operands.size() != 2 || isPrimitive(operands.getFirst().type())) {
+          problems.add(where + instruction + " needs an object and a value");
+        }
+      }
+      case PRINT -> {
+        if (operands.size() != 1) {
+          problems.add(where + instruction + " prints " + operands.size() + " values");
+        }
+      }
+      default -> { }
+    }
+  }
+
+  /** Int and Boolean values only merge with their own type; objects may merge with null or a subclass. */
+  private void checkPhiType(Instruction phi, String where, List<String> problems) {
+    if (!isPrimitive(phi.type())) return;
+    for (Instruction operand : phi.operands) {
+      if (!operand.type().equals(phi.type())) {
+        problems.add(where + "phi " + phi + " of type " + phi.type() + " merges " + operand + " of type " + operand.type());
+      }
+    }
+  }
+
+  private void checkTerminatorType(IrFunction function, Block block, String where, List<String> problems) {
+    Instruction value = block.terminatorValue;
+    switch (block.terminator()) {
+      case BRANCH -> {
+        if (value == null || !value.type().equals("Boolean")) {
+          problems.add(where + "branches on " + (value == null ? "nothing" : value.type()));
+        }
+      }
+      case RETURN -> {
+        boolean isVoid = function.returnType().equals("Void");
+        if (isVoid && value != null) {
+          problems.add(where + "returns a value from a Void function");
+        } else if (!isVoid && value == null) {
+          problems.add(where + "returns nothing from a function returning " + function.returnType());
+        } else if (value != null && isPrimitive(function.returnType()) && !value.type().equals(function.returnType())) {
+          problems.add(where + "returns " + value.type() + " from a function returning " + function.returnType());
+        }
+      }
+      default -> { }
+    }
+  }
+
+  private static boolean isPrimitive(String type) {
+    return type.equals("Int") || type.equals("Boolean");
+  }
+}
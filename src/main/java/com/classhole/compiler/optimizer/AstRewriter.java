@@ -0,0 +1,247 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.ConstructorDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Base class for passes that rewrite the AST bottom-up. Every method returns its argument
+ * unchanged (the same instance) when nothing below it changed, so a pass copies only the spine
+ * above the nodes it rewrites and callers can detect a no-op with {@code ==}.
+ *
+ * Subclasses override {@link #rewriteStmt} or {@link #rewriteExp}, handle the cases they care
+ * about and defer to {@code super} for the rest. A statement rewrite may return null to delete
+ * the statement; where a statement is required (an if branch, a loop body) that becomes an
+ * empty block.
+ *
+ * Bodies are visited in the canonical order: per class the constructor's super(...) args and
+ * body, then its methods, then the entry point.
+ */
+public abstract class AstRewriter {
+
+  public Program rewrite(Program program) {
+    List<ClassDef> classes = new ArrayList<>(program.classes().size());
+    boolean changed = false;
+    for (ClassDef cls : program.classes()) {
+      ClassDef rewritten = rewriteClass(cls);
+      changed |= rewritten != cls;
+      classes.add(rewritten);
+    }
+    beginBody(null, List.of());
+    List<Stmt> entryPoint = rewriteBody(program.entryPoint());
+    if (!changed && entryPoint == program.entryPoint()) {
+      return program;
+    }
+    return new Program(changed ? classes : program.classes(), entryPoint);
+  }
+
+  protected ClassDef rewriteClass(ClassDef cls) {
+    ConstructorDef ctor = cls.constructor();
+    beginBody(cls, ctor.parameters());
+    Optional<List<Exp>> superArgs = ctor.superArgs().map(this::rewriteExps);
+    List<Stmt> ctorBody = rewriteBody(ctor.body());
+    boolean ctorChanged = ctorBody != ctor.body()
+        || (superArgs.isPresent() && superArgs.get() != ctor.superArgs().get());
+    ConstructorDef newCtor = ctorChanged ? new ConstructorDef(ctor.parameters(), superArgs, ctorBody) : ctor;
+
+    List<MethodDef> methods = new ArrayList<>(cls.methods().size());
+    boolean methodsChanged = false;
+    for (MethodDef method : cls.methods()) {
+      MethodDef rewritten = rewriteMethod(cls, method);
+      methodsChanged |= rewritten != method;
+      methods.add(rewritten);
+    }
+
+    if (!ctorChanged && !methodsChanged) {
+      return cls;
+    }
+    return new ClassDef(cls.className(), cls.superClass(), cls.fields(), newCtor,
+        methodsChanged ? methods : cls.methods());
+  }
+
+  protected MethodDef rewriteMethod(ClassDef owner, MethodDef method) {
+    beginBody(owner, method.parameters());
+    List<Stmt> body = rewriteBody(method.body());
+    return body == method.body() ? method
+        : new MethodDef(method.name(), method.parameters(), method.returnType(), body);
+  }
+
+  /** Called before each body; {@code owner} is null for the entry point. */
+  protected void beginBody(ClassDef owner, List<VarDecStmt> parameters) {
+  }
+
+  protected List<Stmt> rewriteBody(List<Stmt> body) {
+    return rewriteStmts(body);
+  }
+
+  /** Called when a block opens and closes, for passes that track scopes. */
+  protected void enterScope() {
+  }
+
+  protected void exitScope() {
+  }
+
+  protected List<Stmt> rewriteStmts(List<Stmt> stmts) {
+    List<Stmt> result = null;
+    for (int i = 0; i < stmts.size(); i++) {
+      Stmt stmt = stmts.get(i);
+      Stmt rewritten = rewriteStmt(stmt);
+      if (rewritten != stmt && result == null) {
+        result = new ArrayList<>(stmts.subList(0, i));
+      }
+      if (result != null && rewritten != null) {
+        result.add(rewritten);
+      }
+    }
+    return result == null ? stmts : result;
+  }
+
+  protected Stmt rewriteStmt(Stmt stmt) {
+    return switch (stmt) {
+      case BlockStmt block -> {
+        enterScope();
+        List<Stmt> stmts = rewriteStmts(block.statements());
+        exitScope();
+        yield stmts == block.statements() ? block : new BlockStmt(stmts);
+      }
+      case IfStmt ifStmt -> {
+        Exp cond = rewriteExp(ifStmt.condition());
+        Stmt thenStmt = required(rewriteStmt(ifStmt.thenStmt()));
+        Optional<Stmt> elseStmt = ifStmt.elseStmt().map(this::rewriteStmt);
+        boolean elseChanged = ifStmt.elseStmt().isPresent() && elseStmt.orElse(null) != ifStmt.elseStmt().get();
+        if (cond == ifStmt.condition() && thenStmt == ifStmt.thenStmt() && !elseChanged) {
+          yield ifStmt;
+        }
+        yield new IfStmt(cond, thenStmt, elseStmt);
+      }
+      case WhileStmt whileStmt -> {
+        Exp cond = rewriteExp(whileStmt.condition());
+        Stmt body = required(rewriteStmt(whileStmt.body()));
+        yield cond == whileStmt.condition() && body == whileStmt.body() ? whileStmt : new WhileStmt(cond, body);
+      }
+      case AssignStmt assign -> {
+        Exp value = rewriteExp(assign.expression());
+        yield value == assign.expression() ? assign : new AssignStmt(assign.variableName(), value);
+      }
+      case ReturnStmt ret -> {
+        if (ret.expression().isEmpty()) yield ret;
+        Exp value = rewriteExp(ret.expression().get());
+        yield value == ret.expression().get() ? ret : new ReturnStmt(Optional.of(value));
+      }
+      case ExprStmt exprStmt -> {
+        Exp exp = rewriteExp(exprStmt.exp());
+        yield exp == exprStmt.exp() ? exprStmt : new ExprStmt(exp);
+      }
+      case PrintStmt print -> {
+        Exp exp = rewriteExp(print.expression());
+        yield exp == print.expression() ? print : new PrintStmt(exp);
+      }
+      case SuperStmt sup -> {
+        List<Exp> args = rewriteExps(sup.args());
+        yield args == sup.args() ? sup : new SuperStmt(args);
+      }
+      default -> stmt;   // VarDecStmt, BreakStmt
+    };
+  }
+
+  protected Exp rewriteExp(Exp exp) {
+    return switch (exp) {
+      case BinaryExp binary -> {
+        Exp left = rewriteExp(binary.left());
+        Exp right = rewriteExp(binary.right());
+        yield left == binary.left() && right == binary.right() ? binary
+            : new BinaryExp(left, binary.operator(), right);
+      }
+      case ParenExp paren -> {
+        Exp inner = rewriteExp(paren.expression());
+        yield inner == paren.expression() ? paren : new ParenExp(inner);
+      }
+      case PrintlnExp println -> {
+        Exp inner = rewriteExp(println.exp());
+        yield inner == println.exp() ? println : new PrintlnExp(inner);
+      }
+      case NewObjectExp newObj -> {
+        List<Exp> args = rewriteExps(newObj.args());
+        yield args == newObj.args() ? newObj : new NewObjectExp(newObj.className(), args);
+      }
+      case CallMethodExp call -> {
+        Exp receiver = rewriteExp(call.receiver());
+        List<CallMethodExp.CallLink> chain = null;
+        for (int i = 0; i < call.chain().size(); i++) {
+          CallMethodExp.CallLink link = call.chain().get(i);
+          List<Exp> args = rewriteExps(link.args());
+          if (args != link.args() && chain == null) {
+            chain = new ArrayList<>(call.chain().subList(0, i));
+          }
+          if (chain != null) {
+            chain.add(args == link.args() ? link : new CallMethodExp.CallLink(link.methodName(), args));
+          }
+        }
+        if (receiver == call.receiver() && chain == null) yield call;
+        yield new CallMethodExp(receiver, chain == null ? call.chain() : chain);
+      }
+      default -> exp;   // literals, VarExp, ThisExp
+    };
+  }
+
+  protected List<Exp> rewriteExps(List<Exp> exps) {
+    List<Exp> result = null;
+    for (int i = 0; i < exps.size(); i++) {
+      Exp exp = exps.get(i);
+      Exp rewritten = rewriteExp(exp);
+      if (rewritten != exp && result == null) {
+        result = new ArrayList<>(exps.subList(0, i));
+      }
+      if (result != null) {
+        result.add(rewritten);
+      }
+    }
+    return result == null ? exps : result;
+  }
+
+  /** The smallest n such that no local of {@code program} is named {@code prefix} followed by n or more. */
+  protected static int firstUnusedIndex(Program program, String prefix) {
+    return firstUnusedIndex(program, name -> name.startsWith(prefix) ? name.substring(prefix.length()) : null);
+  }
+
+  /**
+   * The smallest n such that no local of {@code program} is named anything, then '$', then n or more:
+   * the counter for passes that rename locals to {@code name$n}.
+   */
+  protected static int firstUnusedSuffix(Program program) {
+    return firstUnusedIndex(program, name -> name.indexOf('$') < 0 ? null : name.substring(name.lastIndexOf('$') + 1));
+  }
+
+  /** One past the largest index {@code indexOf} finds in a local's name (null where it finds none), or 0. */
+  private static int firstUnusedIndex(Program program, Function<String, String> indexOf) {
+    int[] next = {0};
+    new AstRewriter() {
+      @Override
+      protected Stmt rewriteStmt(Stmt stmt) {
+        if (stmt instanceof VarDecStmt varDec) {
+          String index = indexOf.apply(varDec.name());
+          if (index != null && !index.isEmpty() && index.chars().allMatch(Character::isDigit)) {
+            next[0] = Math.max(next[0], Integer.parseInt(index) + 1);
+          }
+        }
+        return super.rewriteStmt(stmt);
+      }
+    }.rewrite(program);
+    return next[0];
+  }
+
+  /** A deleted statement where one is required becomes an empty block. */
+  protected static Stmt required(Stmt stmt) {
+    return stmt == null ? new BlockStmt(List.of()) : stmt;
+  }
+}
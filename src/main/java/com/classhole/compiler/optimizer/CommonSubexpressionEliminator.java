@@ -0,0 +1,392 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+import com.classhole.compiler.typechecker.TypedProgram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Common subexpression elimination by local value numbering, one basic block at a time: a run of
+ * declarations, assignments, expression, print and return statements, plus the condition of an if
+ * right after it. Loops, branches and nested blocks start over with nothing known.
+ *
+ * Values are hash-consed: a value number stands for an operator applied to the value numbers of its
+ * operands, so equal computations get the same number however they are spelled. A local's number
+ * changes when it is assigned; a field's number, and that of any pure call reading fields (see
+ * {@link MethodEffects}), changes whenever something may have written a field. Assigning
+ * {@code x = e} makes x hold e's value, so a later {@code e} with the same number becomes
+ * {@code x}. A value computed more than once that no local holds is computed into a fresh local
+ * before the statement of its first occurrence, provided nothing with effects runs before that
+ * occurrence in the statement.
+ */
+public class CommonSubexpressionEliminator extends AstRewriter {
+  private static final String PREFIX = "cse$";
+
+  private final TypedProgram typed;
+  private final MethodEffects effects;
+  private int eliminatedCount = 0;
+  private int fresh;
+
+  // The body being rewritten
+  private final ConstantFolder.Scopes scopes = new ConstantFolder.Scopes();
+  private final Set<String> parameters = new HashSet<>();
+
+  public CommonSubexpressionEliminator(TypedProgram typed) {
+    this.typed = typed;
+    this.effects = new MethodEffects(typed);
+    this.fresh = firstUnusedIndex(typed.program(), PREFIX);
+  }
+
+  /** Rewrites {@code program}, which must be the program that was type checked. */
+  @Override
+  public Program rewrite(Program program) {
+    if (program != typed.program()) {
+      throw new IllegalArgumentException("Program was not the one type checked");
+    }
+    eliminatedCount = 0;
+    return super.rewrite(program);
+  }
+
+  /** Occurrences replaced by a local by the last {@link #rewrite}. */
+  public int eliminatedCount() {
+    return eliminatedCount;
+  }
+
+  @Override
+  protected void beginBody(ClassDef owner, List<VarDecStmt> parameters) {
+    scopes.reset();
+    this.parameters.clear();
+    parameters.forEach(param -> this.parameters.add(param.name()));
+  }
+
+  @Override
+  protected void enterScope() {
+    scopes.open();
+  }
+
+  @Override
+  protected void exitScope() {
+    scopes.close();
+  }
+
+  @Override
+  protected List<Stmt> rewriteStmts(List<Stmt> stmts) {
+    List<Stmt> result = new ArrayList<>(stmts.size());
+    boolean changed = false;
+    int i = 0;
+    while (i < stmts.size()) {
+      int end = i;
+      while (end < stmts.size() && isStraightLine(stmts.get(end))) {
+        end++;
+      }
+      Stmt control = end < stmts.size() ? stmts.get(end) : null;
+      Exp condition = control instanceof IfStmt ifStmt ? ifStmt.condition() : null;
+      List<Stmt> block = stmts.subList(i, end);
+
+      // Count first, so the first occurrence of a value knows whether a later one will want it;
+      // both passes intern into one table, so a value gets the same number in each
+      Map<Value, Integer> values = new HashMap<>();
+      Numbering counting = new Numbering(values, null);
+      block.forEach(counting::statement);
+      if (condition != null) counting.expression(condition);
+
+      Numbering numbering = new Numbering(values, counting.counts);
+      for (Stmt stmt : block) {
+        Stmt rewritten = numbering.statement(stmt);
+        changed |= rewritten != stmt || !numbering.prefix.isEmpty();
+        result.addAll(numbering.prefix);
+        result.add(rewritten);
+      }
+      if (condition != null) {
+        Exp cond = numbering.expression(condition);
+        changed |= !numbering.prefix.isEmpty();
+        result.addAll(numbering.prefix);
+        IfStmt ifStmt = (IfStmt) control;
+        Stmt rewritten = rewriteStmt(cond == condition ? ifStmt : new IfStmt(cond, ifStmt.thenStmt(), ifStmt.elseStmt()));
+        changed |= rewritten != ifStmt;
+        result.add(rewritten);
+      } else if (control != null) {
+        Stmt rewritten = rewriteStmt(control);
+        changed |= rewritten != control;
+        result.add(rewritten);
+      }
+      i = end + 1;
+    }
+    return changed ? result : stmts;
+  }
+
+  private static boolean isStraightLine(Stmt stmt) {
+    return stmt instanceof VarDecStmt || stmt instanceof AssignStmt || stmt instanceof ExprStmt
+        || stmt instanceof PrintStmt || stmt instanceof ReturnStmt;
+  }
+
+  /** Whether an expression costs something to evaluate again: arithmetic, comparisons and calls. */
+  private static boolean worthReusing(Exp exp) {
+    return switch (exp) {
+      case ParenExp paren -> worthReusing(paren.expression());
+      case BinaryExp ignored -> true;
+      case CallMethodExp ignored -> true;
+      default -> false;
+    };
+  }
+
+  /** The declared type of an expression worth reusing, or null if it has none a local can hold. */
+  private String typeOf(Exp exp) {
+    return switch (exp) {
+      case ParenExp paren -> typeOf(paren.expression());
+      case BinaryExp binary -> switch (binary.operator()) {
+        case "+", "-", "*", "/" -> "Int";
+        default -> "Boolean";
+      };
+      case CallMethodExp call -> {
+        String type = effects.returnTypeOf(call.chain().getLast());
+        yield type == null || type.equals("Void") ? null : type;
+      }
+      default -> null;
+    };
+  }
+
+  /** A hash-consed value: an operator and the value numbers (or literal values) of its operands. */
+  private record Value(String operator, List<Object> operands) {
+  }
+
+  /**
+   * The value numbering of one basic block. Counting ({@code counts} null) tallies how often each
+   * value is computed; rewriting replaces the repeats and leaves the statements that compute shared
+   * values in {@link #prefix}, to go before the statement just numbered. Values whose operands are
+   * unknown (a local on entry, or assigned something with effects) are named by where they arise,
+   * so numbering never depends on the order of lookups.
+   */
+  private final class Numbering {
+    private final Map<Value, Integer> values;
+    private final Map<Integer, Integer> counts;
+    private final boolean counting;
+    private final Map<String, Integer> locals = new HashMap<>();
+    private final Map<Integer, List<String>> holders = new HashMap<>();
+    private final Set<String> declared = new HashSet<>();
+    private int position = 0;
+    private int fieldEpoch = 0;
+    private boolean effectBefore;
+    List<Stmt> prefix = new ArrayList<>();
+
+    Numbering(Map<Value, Integer> values, Map<Integer, Integer> counts) {
+      this.values = values;
+      this.counting = counts == null;
+      this.counts = counting ? new HashMap<>() : counts;
+    }
+
+    Stmt statement(Stmt stmt) {
+      prefix = new ArrayList<>();
+      effectBefore = false;
+      position++;
+      return switch (stmt) {
+        case VarDecStmt varDec -> {
+          declared.add(varDec.name());
+          if (!counting) scopes.declare(varDec);
+          locals.put(varDec.name(), intern("declared", varDec.name(), position));
+          yield stmt;
+        }
+        case AssignStmt assign -> {
+          int value = number(assign.expression());
+          Exp exp = visit(assign.expression());
+          String name = assign.variableName();
+          if (isLocal(name)) {
+            hold(name, value >= 0 ? value : intern("assigned", name, position));
+          } else {
+            fieldEpoch++;
+          }
+          yield exp == assign.expression() ? stmt : new AssignStmt(name, exp);
+        }
+        case ExprStmt exprStmt -> {
+          // The statement's own call stays: a local on its own is not a statement
+          Exp exp = visitChildren(exprStmt.exp());
+          yield exp == exprStmt.exp() ? stmt : new ExprStmt(exp);
+        }
+        case PrintStmt print -> {
+          Exp exp = visit(print.expression());
+          yield exp == print.expression() ? stmt : new PrintStmt(exp);
+        }
+        case ReturnStmt ret when ret.expression().isPresent() -> {
+          Exp exp = visit(ret.expression().get());
+          yield exp == ret.expression().get() ? stmt : new ReturnStmt(Optional.of(exp));
+        }
+        default -> stmt;
+      };
+    }
+
+    Exp expression(Exp exp) {
+      prefix = new ArrayList<>();
+      effectBefore = false;
+      position++;
+      return visit(exp);
+    }
+
+    /** Evaluates {@code exp} in order, replacing the values already held and recording effects. */
+    private Exp visit(Exp exp) {
+      int value = worthReusing(exp) ? number(exp) : -1;
+      if (value >= 0 && counting) {
+        // A repeat is replaced as a whole, so what it contains is not counted again
+        if (counts.merge(value, 1, Integer::sum) > 1) {
+          return exp;
+        }
+      } else if (value >= 0) {
+        int later = counts.merge(value, -1, Integer::sum);
+        String holder = holderOf(value);
+        if (holder != null) {
+          eliminatedCount++;
+          return new VarExp(holder);
+        }
+        if (later > 0 && !effectBefore && typeOf(exp) != null) {
+          String temp = PREFIX + fresh++;
+          VarDecStmt decl = new VarDecStmt(typeOf(exp), temp);
+          scopes.declare(decl);
+          declared.add(temp);
+          prefix.add(decl);
+          prefix.add(new AssignStmt(temp, visitChildren(exp)));
+          hold(temp, value);
+          return new VarExp(temp);
+        }
+      }
+      return visitChildren(exp);
+    }
+
+    private Exp visitChildren(Exp exp) {
+      return switch (exp) {
+        case ParenExp paren -> {
+          Exp inner = visit(paren.expression());
+          yield inner == paren.expression() ? paren : new ParenExp(inner);
+        }
+        case BinaryExp binary -> {
+          Exp left = visit(binary.left());
+          Exp right = visit(binary.right());
+          yield left == binary.left() && right == binary.right() ? binary : new BinaryExp(left, binary.operator(), right);
+        }
+        case PrintlnExp println -> {
+          Exp inner = visit(println.exp());
+          effectBefore = true;
+          yield inner == println.exp() ? println : new PrintlnExp(inner);
+        }
+        case NewObjectExp newObj -> {
+          List<Exp> args = visitAll(newObj.args());
+          effect(effects.ofNew(newObj.className()));
+          yield args == newObj.args() ? newObj : new NewObjectExp(newObj.className(), args);
+        }
+        case CallMethodExp call -> {
+          Exp receiver = visit(call.receiver());
+          List<CallMethodExp.CallLink> chain = new ArrayList<>(call.chain().size());
+          boolean changed = receiver != call.receiver();
+          for (CallMethodExp.CallLink link : call.chain()) {
+            List<Exp> args = visitAll(link.args());
+            effect(effects.ofCall(link));
+            changed |= args != link.args();
+            chain.add(args == link.args() ? link : new CallMethodExp.CallLink(link.methodName(), args));
+          }
+          yield changed ? new CallMethodExp(receiver, chain) : call;
+        }
+        default -> exp;
+      };
+    }
+
+    private List<Exp> visitAll(List<Exp> exps) {
+      List<Exp> result = new ArrayList<>(exps.size());
+      boolean changed = false;
+      for (Exp exp : exps) {
+        Exp rewritten = visit(exp);
+        changed |= rewritten != exp;
+        result.add(rewritten);
+      }
+      return changed ? result : exps;
+    }
+
+    private void effect(Set<MethodEffects.Effect> effects) {
+      if (effects.contains(MethodEffects.Effect.WRITES_FIELDS)) {
+        fieldEpoch++;
+      }
+      if (!MethodEffects.isPure(effects)) {
+        effectBefore = true;
+      }
+    }
+
+    /**
+     * The value number of a pure expression in the current state, or -1 if evaluating it has
+     * effects. Pure evaluation changes no state, so this can look ahead of {@link #visit}.
+     */
+    private int number(Exp exp) {
+      return switch (exp) {
+        case IntLiteralExp literal -> intern("int", literal.value());
+        case BooleanLiteralExp literal -> intern("boolean", literal.value());
+        case StringLiteralExp literal -> intern("string", literal.value());
+        case ThisExp ignored -> intern("this");
+        case VarExp var -> isLocal(var.name())
+            ? locals.computeIfAbsent(var.name(), name -> intern("entry", name))
+            : intern("field", var.name(), fieldEpoch);
+        case ParenExp paren -> number(paren.expression());
+        case BinaryExp binary -> {
+          int left = number(binary.left());
+          int right = number(binary.right());
+          if (left < 0 || right < 0) yield -1;
+          // Commutative operators see their operands in a canonical order
+          boolean commutes = switch (binary.operator()) {
+            case "+", "*", "==", "!=" -> true;
+            default -> false;
+          };
+          yield commutes && left > right ? intern(binary.operator(), right, left) : intern(binary.operator(), left, right);
+        }
+        case CallMethodExp call -> {
+          int value = number(call.receiver());
+          for (CallMethodExp.CallLink link : call.chain()) {
+            Set<MethodEffects.Effect> linkEffects = effects.ofCall(link);
+            if (value < 0 || !MethodEffects.isPure(linkEffects)) yield -1;
+            List<Object> operands = new ArrayList<>();
+            operands.add(value);
+            for (Exp arg : link.args()) {
+              int argValue = number(arg);
+              if (argValue < 0) yield -1;
+              operands.add(argValue);
+            }
+            operands.add(linkEffects.contains(MethodEffects.Effect.READS_FIELDS) ? fieldEpoch : -1);
+            value = intern(new Value("." + link.methodName(), operands));
+          }
+          yield value;
+        }
+        default -> -1;   // new, println
+      };
+    }
+
+    private int intern(String operator, Object... operands) {
+      return intern(new Value(operator, List.of(operands)));
+    }
+
+    private int intern(Value value) {
+      return values.computeIfAbsent(value, v -> values.size());
+    }
+
+    private boolean isLocal(String name) {
+      return declared.contains(name) || scopes.resolve(name) != null || parameters.contains(name);
+    }
+
+    private void hold(String local, int value) {
+      locals.put(local, value);
+      holders.computeIfAbsent(value, v -> new ArrayList<>()).add(local);
+    }
+
+    /** A local that still holds the value, or null. */
+    private String holderOf(int value) {
+      for (String local : holders.getOrDefault(value, List.of())) {
+        if (locals.get(local) == value) return local;
+      }
+      return null;
+    }
+  }
+}
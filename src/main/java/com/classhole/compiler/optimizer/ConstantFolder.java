@@ -0,0 +1,313 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Constant folding and propagation, run on a type-checked program before code generation.
+ *
+ * - BinaryExp over Int or Boolean literals is folded with the language's Int semantics:
+ *   32-bit wrap-around and division truncating toward zero (division by zero is left alone)
+ * - ParenExp is stripped; the generator parenthesizes every BinaryExp anyway
+ * - a local with exactly one assignment, whose value folds to an Int or Boolean literal, is
+ *   replaced by that literal everywhere; once no read is left its declaration and assignment go
+ * - if/while with a constant condition keep only the branch that runs; while (false) goes away
+ *
+ * Propagation relies on the program having passed definite assignment: every read of a local is
+ * preceded by an assignment on every path, so with only one assignment every read sees its value.
+ * Locals are told apart by their declaration, so a name reused in a sibling block is another local.
+ */
+public class ConstantFolder extends AstRewriter {
+
+  /** Per-local facts, keyed by the local's declaration. */
+  private static final class Local {
+    int assignments;
+    int reads;
+    int replacedReads;
+    Exp value;
+    Stmt assignment;
+  }
+
+  private Map<VarDecStmt, Local> locals;
+  private final Scopes scopes = new Scopes();
+
+  @Override
+  protected List<Stmt> rewriteBody(List<Stmt> body) {
+    locals = new IdentityHashMap<>();
+    scopes.reset();
+    count(body, 1);
+
+    scopes.reset();
+    List<Stmt> folded = rewriteStmts(body);
+
+    // Drop the declaration and the assignment of every local whose reads were all replaced
+    Set<Stmt> dead = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Map.Entry<VarDecStmt, Local> entry : locals.entrySet()) {
+      Local local = entry.getValue();
+      if (local.value != null && local.replacedReads == local.reads) {
+        dead.add(entry.getKey());
+        dead.add(local.assignment);
+      }
+    }
+    if (dead.isEmpty()) {
+      return folded;
+    }
+    return new AstRewriter() {
+      @Override
+      protected Stmt rewriteStmt(Stmt stmt) {
+        return dead.contains(stmt) ? null : super.rewriteStmt(stmt);
+      }
+    }.rewriteStmts(folded);
+  }
+
+  @Override
+  protected void beginBody(ClassDef owner, List<VarDecStmt> parameters) {
+    // Super args are rewritten before the body, with no locals in scope
+    locals = new IdentityHashMap<>();
+    scopes.reset();
+  }
+
+  @Override
+  protected void enterScope() {
+    scopes.open();
+  }
+
+  @Override
+  protected void exitScope() {
+    scopes.close();
+  }
+
+  @Override
+  protected Stmt rewriteStmt(Stmt stmt) {
+    switch (stmt) {
+      case VarDecStmt varDec -> {
+        scopes.declare(varDec);
+        return varDec;
+      }
+      case AssignStmt assign -> {
+        Exp value = rewriteExp(assign.expression());
+        Stmt result = value == assign.expression() ? assign : new AssignStmt(assign.variableName(), value);
+        VarDecStmt target = scopes.resolve(assign.variableName());
+        Local local = target == null ? null : locals.get(target);
+        if (local != null && isConstant(value)) {
+          if (local.assignments == 1) {
+            local.value = value;
+            local.assignment = result;
+          }
+        }
+        return result;
+      }
+      case IfStmt ifStmt -> {
+        Exp cond = rewriteExp(ifStmt.condition());
+        if (cond instanceof BooleanLiteralExp literal) {
+          Stmt taken = literal.value() ? ifStmt.thenStmt() : ifStmt.elseStmt().orElse(null);
+          Stmt dropped = literal.value() ? ifStmt.elseStmt().orElse(null) : ifStmt.thenStmt();
+          if (dropped != null) {
+            count(List.of(dropped), -1);
+          }
+          return taken == null ? null : rewriteStmt(taken);
+        }
+        return rebuildIf(ifStmt, cond);
+      }
+      case WhileStmt whileStmt -> {
+        Exp cond = rewriteExp(whileStmt.condition());
+        if (cond instanceof BooleanLiteralExp literal && !literal.value()) {
+          count(List.of(whileStmt.body()), -1);
+          return null;
+        }
+        Stmt body = required(rewriteStmt(whileStmt.body()));
+        return cond == whileStmt.condition() && body == whileStmt.body() ? whileStmt : new WhileStmt(cond, body);
+      }
+      default -> {
+        return super.rewriteStmt(stmt);
+      }
+    }
+  }
+
+  private IfStmt rebuildIf(IfStmt ifStmt, Exp cond) {
+    Stmt thenStmt = required(rewriteStmt(ifStmt.thenStmt()));
+    Stmt elseStmt = ifStmt.elseStmt().map(this::rewriteStmt).orElse(null);
+    if (cond == ifStmt.condition() && thenStmt == ifStmt.thenStmt() && elseStmt == ifStmt.elseStmt().orElse(null)) {
+      return ifStmt;
+    }
+    return new IfStmt(cond, thenStmt, Optional.ofNullable(elseStmt));
+  }
+
+  @Override
+  protected Exp rewriteExp(Exp exp) {
+    return switch (exp) {
+      case ParenExp paren -> rewriteExp(paren.expression());
+      case VarExp var -> {
+        VarDecStmt declaration = scopes.resolve(var.name());
+        Local local = declaration == null ? null : locals.get(declaration);
+        if (local == null || local.value == null) yield var;
+        local.replacedReads++;
+        yield local.value;
+      }
+      case BinaryExp binary -> {
+        Exp left = rewriteExp(binary.left());
+        Exp right = rewriteExp(binary.right());
+        Exp folded = foldBinary(binary.operator(), left, right);
+        if (folded != null) yield folded;
+        yield left == binary.left() && right == binary.right() ? binary
+            : new BinaryExp(left, binary.operator(), right);
+      }
+      default -> super.rewriteExp(exp);
+    };
+  }
+
+  private static boolean isConstant(Exp exp) {
+    return exp instanceof IntLiteralExp || exp instanceof BooleanLiteralExp;
+  }
+
+  /**
+   * Evaluates {@code left op right} with the language's semantics if both sides are literals
+   * of the same kind; returns null if it cannot be folded.
+   */
+  public static Exp foldBinary(String op, Exp left, Exp right) {
+    if (left instanceof IntLiteralExp l && right instanceof IntLiteralExp r) {
+      int a = l.value();
+      int b = r.value();
+      return switch (op) {
+        // Java int arithmetic wraps at 32 bits and truncates division, exactly like Int
+        case "+" -> new IntLiteralExp(a + b);
+        case "-" -> new IntLiteralExp(a - b);
+        case "*" -> new IntLiteralExp(a * b);
+        case "/" -> b == 0 ? null : new IntLiteralExp(a / b);
+        case "<" -> new BooleanLiteralExp(a < b);
+        case ">" -> new BooleanLiteralExp(a > b);
+        case "<=" -> new BooleanLiteralExp(a <= b);
+        case ">=" -> new BooleanLiteralExp(a >= b);
+        case "==" -> new BooleanLiteralExp(a == b);
+        case "!=" -> new BooleanLiteralExp(a != b);
+        default -> null;
+      };
+    }
+    if (left instanceof BooleanLiteralExp l && right instanceof BooleanLiteralExp r) {
+      return switch (op) {
+        case "==" -> new BooleanLiteralExp(l.value() == r.value());
+        case "!=" -> new BooleanLiteralExp(l.value() != r.value());
+        default -> null;
+      };
+    }
+    return null;
+  }
+
+  // ---- counting assignments and reads per local ----
+
+  /** Adds {@code delta} to the counts of every assignment and read in {@code stmts}, resolved in the current scope. */
+  private void count(List<Stmt> stmts, int delta) {
+    scopes.open();
+    for (Stmt stmt : stmts) {
+      countStmt(stmt, delta);
+    }
+    scopes.close();
+  }
+
+  private void countStmt(Stmt stmt, int delta) {
+    switch (stmt) {
+      case VarDecStmt varDec -> {
+        scopes.declare(varDec);
+        locals.computeIfAbsent(varDec, k -> new Local());
+      }
+      case AssignStmt assign -> {
+        countExp(assign.expression(), delta);
+        VarDecStmt target = scopes.resolve(assign.variableName());
+        if (target != null) locals.computeIfAbsent(target, k -> new Local()).assignments += delta;
+      }
+      case BlockStmt block -> count(block.statements(), delta);
+      case IfStmt ifStmt -> {
+        countExp(ifStmt.condition(), delta);
+        countStmt(ifStmt.thenStmt(), delta);
+        ifStmt.elseStmt().ifPresent(s -> countStmt(s, delta));
+      }
+      case WhileStmt whileStmt -> {
+        countExp(whileStmt.condition(), delta);
+        countStmt(whileStmt.body(), delta);
+      }
+      case ReturnStmt ret -> ret.expression().ifPresent(e -> countExp(e, delta));
+      case ExprStmt exprStmt -> countExp(exprStmt.exp(), delta);
+      case PrintStmt print -> countExp(print.expression(), delta);
+      case SuperStmt sup -> sup.args().forEach(e -> countExp(e, delta));
+      default -> { }
+    }
+  }
+
+  private void countExp(Exp exp, int delta) {
+    switch (exp) {
+      case VarExp var -> {
+        VarDecStmt declaration = scopes.resolve(var.name());
+        if (declaration != null) locals.computeIfAbsent(declaration, k -> new Local()).reads += delta;
+      }
+      case BinaryExp binary -> {
+        countExp(binary.left(), delta);
+        countExp(binary.right(), delta);
+      }
+      case ParenExp paren -> countExp(paren.expression(), delta);
+      case PrintlnExp println -> countExp(println.exp(), delta);
+      case NewObjectExp newObj -> newObj.args().forEach(e -> countExp(e, delta));
+      case CallMethodExp call -> {
+        countExp(call.receiver(), delta);
+        for (CallMethodExp.CallLink link : call.chain()) {
+          link.args().forEach(e -> countExp(e, delta));
+        }
+      }
+      default -> { }
+    }
+  }
+
+  /** Name to declaration resolution for the locals of one body, with block scoping. */
+  static final class Scopes {
+    private final Map<String, VarDecStmt> visible = new HashMap<>();
+    private final List<String> undoNames = new ArrayList<>();
+    private final List<VarDecStmt> undoShadowed = new ArrayList<>();
+    private final List<Integer> marks = new ArrayList<>();
+
+    void reset() {
+      visible.clear();
+      undoNames.clear();
+      undoShadowed.clear();
+      marks.clear();
+    }
+
+    void open() {
+      marks.add(undoNames.size());
+    }
+
+    void close() {
+      int mark = marks.removeLast();
+      for (int i = undoNames.size() - 1; i >= mark; i--) {
+        String name = undoNames.remove(i);
+        VarDecStmt shadowed = undoShadowed.remove(i);
+        if (shadowed == null) {
+          visible.remove(name);
+        } else {
+          visible.put(name, shadowed);
+        }
+      }
+    }
+
+    void declare(VarDecStmt varDec) {
+      undoNames.add(varDec.name());
+      undoShadowed.add(visible.put(varDec.name(), varDec));
+    }
+
+    /** The declaration of the local {@code name} refers to, or null for parameters and fields. */
+    VarDecStmt resolve(String name) {
+      return visible.get(name);
+    }
+  }
+}
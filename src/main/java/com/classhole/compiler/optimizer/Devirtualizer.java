@@ -0,0 +1,87 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.CallMethodExp;
+import com.classhole.compiler.typechecker.TypedProgram;
+import com.classhole.compiler.typechecker.types.ClassType;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Finds the monomorphic call sites of a type-checked program: call links whose receiver can only
+ * be an instance of classes that all run the same implementation, going by {@link Reachability}'s
+ * set of instantiated classes. The code generator emits those as direct calls to that implementation
+ * instead of a lookup through the prototype chain.
+ *
+ * Sites are told apart by the identity of their CallLink in the checked program.
+ */
+public class Devirtualizer {
+  private final Program program;
+  private final Map<CallMethodExp.CallLink, String> targets = new IdentityHashMap<>();
+  private final Set<String> directTargets = new HashSet<>();   // "Class.method"
+  private int siteCount = 0;
+
+  public Devirtualizer(TypedProgram typed) {
+    this.program = typed.program();
+    Reachability reachability = new Reachability(typed);
+    new TypedWalker(typed) {
+      @Override
+      protected void visitLink(int linkId, CallMethodExp.CallLink link) {
+        if (!(typed.receiverTypeOf(linkId) instanceof ClassType receiver)) {
+          return;
+        }
+        siteCount++;
+        ClassDef owner = reachability.singleTarget(receiver.name(), link.methodName());
+        String target = owner == null ? null : owner.className();
+        // A rewritten tree may share one link instance between sites; it is direct only if all of them are
+        if (targets.containsKey(link) && !Objects.equals(targets.get(link), target)) {
+          target = null;
+        }
+        targets.put(link, target);
+      }
+    }.walk();
+    targets.values().removeIf(Objects::isNull);
+    targets.forEach((link, target) -> directTargets.add(target + "." + link.methodName()));
+  }
+
+  /** The program the call sites belong to. */
+  public Program program() {
+    return program;
+  }
+
+  /** The class declaring the only method the call can run, or null if it must dispatch dynamically. */
+  public String targetClassOf(CallMethodExp.CallLink link) {
+    return targets.get(link);
+  }
+
+  /** Whether some call site calls {@code className}'s own {@code methodName} directly. */
+  public boolean isDirectTarget(String className, String methodName) {
+    return directTargets.contains(className + "." + methodName);
+  }
+
+  /** Call sites on class-typed receivers. */
+  public int siteCount() {
+    return siteCount;
+  }
+
+  public int devirtualizedCount() {
+    return targets.size();
+  }
+
+  /** The fraction of call sites that were devirtualized, 0 for a program without calls. */
+  public double devirtualizedFraction() {
+    return siteCount == 0 ? 0 : (double) targets.size() / siteCount;
+  }
+
+  /** e.g. "devirtualized 3 of 4 call sites (75.0%)" */
+  public String report() {
+    return String.format(Locale.ROOT, "devirtualized %d of %d call sites (%.1f%%)",
+        devirtualizedCount(), siteCount, 100 * devirtualizedFraction());
+  }
+}
@@ -0,0 +1,30 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+
+/**
+ * What evaluating an expression can do besides producing its value.
+ */
+public final class Effects {
+  private Effects() {
+  }
+
+  /**
+   * True if evaluating {@code exp} has no side effects and cannot fail, so it can be dropped,
+   * duplicated or moved. Calls, object creation and println are never pure; Int division is,
+   * since the generated JS yields a value even for a zero divisor.
+   */
+  public static boolean isPure(Exp exp) {
+    return switch (exp) {
+      case IntLiteralExp ignored -> true;
+      case BooleanLiteralExp ignored -> true;
+      case StringLiteralExp ignored -> true;
+      case VarExp ignored -> true;
+      case ThisExp ignored -> true;
+      case ParenExp paren -> isPure(paren.expression());
+      case BinaryExp binary -> isPure(binary.left()) && isPure(binary.right());
+      default -> false;
+    };
+  }
+}
@@ -0,0 +1,505 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+import com.classhole.compiler.typechecker.ClassTable;
+import com.classhole.compiler.typechecker.TypedProgram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Inlines calls to small methods whose target is known statically, i.e. that {@link Devirtualizer}
+ * found monomorphic.
+ *
+ * A method whose body is a single {@code return e;} is substituted into the caller's expression,
+ * with each parameter replaced by its argument, when that keeps the evaluation order: arguments
+ * must be pure, used at least once each unless droppable, and if the body has effects of its own,
+ * simple enough (literals, locals, this) that evaluating them later changes nothing. Otherwise, and
+ * for short straight-line bodies (declarations, assignments, expression and print statements and a
+ * final return), a call that makes up a whole statement ({@code f(..);}, {@code x = f(..);},
+ * {@code return f(..);}) becomes a block that binds the arguments to fresh locals in order, runs
+ * the body and uses the returned value.
+ *
+ * The language cannot name another object's field, so a body that reads or assigns fields (or uses
+ * this) is inlined only into calls on {@code this} from the same class or a subclass, where those
+ * names are not shadowed by the caller's locals. Other bodies are inlined into calls on receivers
+ * that cannot be null: this, or a local of the caller that is only ever assigned {@code new}. The
+ * receiver is not evaluated then, so a null one would no longer fail the call.
+ * Renaming is hygienic: the callee's parameters and locals get fresh names containing '$', which
+ * source identifiers cannot. Callees above the size budget (statements plus expressions) and
+ * recursive calls are left alone. Callee bodies are taken as declared, so each run inlines one level.
+ */
+public class Inliner extends AstRewriter {
+  public static final int DEFAULT_BUDGET = 16;
+
+  /** An inlinable method: {@code thisExp} if its body says this, {@code fields} the field names it uses. */
+  record Callee(String owner, MethodDef method, boolean thisExp, Set<String> fields) {
+    /** Whether the body depends on its receiver. */
+    boolean usesThis() {
+      return thisExp || !fields.isEmpty();
+    }
+
+    /** The e of a body that is just {@code return e;}, or null. */
+    Exp expression() {
+      if (method.body().size() == 1 && method.body().getFirst() instanceof ReturnStmt ret) {
+        return ret.expression().orElse(null);
+      }
+      return null;
+    }
+
+    /** Whether the body ends in {@code return e;}. */
+    boolean returnsValue() {
+      return !method.body().isEmpty() && method.body().getLast() instanceof ReturnStmt ret
+          && ret.expression().isPresent();
+    }
+  }
+
+  private final TypedProgram typed;
+  private final Devirtualizer devirtualizer;
+  private final ClassTable classTable = new ClassTable();
+  private final int budget;
+  private final Map<MethodDef, Optional<Callee>> callees = new IdentityHashMap<>();
+  private int inlinedCount = 0;
+  private int fresh;
+
+  // The body being rewritten
+  private String owner;
+  private MethodDef currentMethod;
+  private final Set<String> callerNames = new HashSet<>();
+  // Locals of the caller whose every assignment is a new, mapped to true; false once one is not
+  private final Map<String, Boolean> allocated = new HashMap<>();
+
+  public Inliner(TypedProgram typed) {
+    this(typed, DEFAULT_BUDGET);
+  }
+
+  public Inliner(TypedProgram typed, int budget) {
+    this.typed = typed;
+    this.devirtualizer = new Devirtualizer(typed);
+    this.budget = budget;
+    // Renamed locals are numbered from 1, past any that an earlier pass left in the program
+    this.fresh = Math.max(1, firstUnusedSuffix(typed.program()));
+    for (ClassDef cls : typed.program().classes()) {
+      classTable.addClass(cls);
+    }
+  }
+
+  /** Inlines into {@code program}, which must be the program that was type checked. */
+  @Override
+  public Program rewrite(Program program) {
+    if (program != typed.program()) {
+      throw new IllegalArgumentException("Program was not the one type checked");
+    }
+    inlinedCount = 0;
+    return super.rewrite(program);
+  }
+
+  /** Call sites inlined by the last {@link #rewrite}. */
+  public int inlinedCount() {
+    return inlinedCount;
+  }
+
+  @Override
+  protected ClassDef rewriteClass(ClassDef cls) {
+    currentMethod = null;
+    return super.rewriteClass(cls);
+  }
+
+  @Override
+  protected MethodDef rewriteMethod(ClassDef owner, MethodDef method) {
+    currentMethod = method;
+    return super.rewriteMethod(owner, method);
+  }
+
+  @Override
+  protected void beginBody(ClassDef owner, List<VarDecStmt> parameters) {
+    this.owner = owner == null ? null : owner.className();
+    if (owner == null) {
+      currentMethod = null;
+    }
+    callerNames.clear();
+    allocated.clear();
+    parameters.forEach(param -> {
+      callerNames.add(param.name());
+      allocated.put(param.name(), false);
+    });
+  }
+
+  @Override
+  protected List<Stmt> rewriteBody(List<Stmt> body) {
+    collectLocals(body);
+    return super.rewriteBody(body);
+  }
+
+  private void collectLocals(List<Stmt> stmts) {
+    for (Stmt stmt : stmts) {
+      switch (stmt) {
+        case VarDecStmt varDec -> {
+          callerNames.add(varDec.name());
+          allocated.putIfAbsent(varDec.name(), true);
+        }
+        case AssignStmt assign -> allocated.merge(assign.variableName(),
+            assign.expression() instanceof NewObjectExp, Boolean::logicalAnd);
+        case BlockStmt block -> collectLocals(block.statements());
+        case IfStmt ifStmt -> {
+          collectLocals(List.of(ifStmt.thenStmt()));
+          ifStmt.elseStmt().ifPresent(s -> collectLocals(List.of(s)));
+        }
+        case WhileStmt whileStmt -> collectLocals(List.of(whileStmt.body()));
+        default -> { }
+      }
+    }
+  }
+
+  // ---- statement-level inlining ----
+
+  @Override
+  protected Stmt rewriteStmt(Stmt stmt) {
+    switch (stmt) {
+      case ExprStmt exprStmt when exprStmt.exp() instanceof CallMethodExp call -> {
+        Exp value = rewriteExp(call);
+        Stmt block = inlineStatement(call, value, false,
+            result -> Effects.isPure(result) ? null : new ExprStmt(result));
+        return block != null ? block : value == call ? stmt : new ExprStmt(value);
+      }
+      case AssignStmt assign when assign.expression() instanceof CallMethodExp call -> {
+        Exp value = rewriteExp(call);
+        Stmt block = inlineStatement(call, value, true, result -> new AssignStmt(assign.variableName(), result));
+        return block != null ? block : value == call ? stmt : new AssignStmt(assign.variableName(), value);
+      }
+      case ReturnStmt ret when ret.expression().orElse(null) instanceof CallMethodExp call -> {
+        Exp value = rewriteExp(call);
+        Stmt block = inlineStatement(call, value, true, result -> new ReturnStmt(Optional.of(result)));
+        return block != null ? block : value == call ? stmt : new ReturnStmt(Optional.of(value));
+      }
+      default -> {
+        return super.rewriteStmt(stmt);
+      }
+    }
+  }
+
+  /**
+   * Inlines the last link of a call that makes up a whole statement as a block, if the link was
+   * not inlined as an expression already. {@code rewritten} is the call with its receiver and args
+   * rewritten; {@code useResult} makes the statement that consumes the returned value, or null for none.
+   */
+  private Stmt inlineStatement(CallMethodExp original, Exp rewritten, boolean needsValue, Function<Exp, Stmt> useResult) {
+    Callee callee = calleeOf(original.chain().getLast());
+    if (callee == null || (needsValue && !callee.returnsValue())
+        || !(rewritten instanceof CallMethodExp call) || call.chain().size() != original.chain().size()) {
+      return null;
+    }
+    CallMethodExp.CallLink link = call.chain().getLast();
+    Exp receiver = call.chain().size() == 1 ? call.receiver()
+        : new CallMethodExp(call.receiver(), call.chain().subList(0, call.chain().size() - 1));
+    if (!receiverAllows(callee, receiver)) {
+      return null;
+    }
+
+    inlinedCount++;
+    return new BlockStmt(inlineBody(callee, link.args(), Map.of(), this::freshName, useResult));
+  }
+
+  /**
+   * The statements that run {@code callee}'s straight-line body: each argument bound to a fresh
+   * local in order, then the body with its locals renamed and the names in {@code fieldValues}
+   * replaced, then the statement {@code useResult} makes of the returned value, if any.
+   */
+  static List<Stmt> inlineBody(Callee callee, List<Exp> args, Map<String, Exp> fieldValues,
+      UnaryOperator<String> fresh, Function<Exp, Stmt> useResult) {
+    List<Stmt> block = new ArrayList<>();
+    Substitution substitution = new Substitution(fresh);
+    substitution.values.putAll(fieldValues);
+    List<VarDecStmt> params = callee.method().parameters();
+    for (int i = 0; i < params.size(); i++) {
+      String name = fresh.apply(params.get(i).name());
+      block.add(new VarDecStmt(params.get(i).type(), name));
+      block.add(new AssignStmt(name, args.get(i)));
+      substitution.values.put(params.get(i).name(), new VarExp(name));
+    }
+    for (Stmt bodyStmt : callee.method().body()) {
+      if (bodyStmt instanceof ReturnStmt ret) {
+        if (ret.expression().isPresent()) {
+          Stmt use = useResult.apply(substitution.rewriteExp(ret.expression().get()));
+          if (use != null) block.add(use);
+        }
+      } else {
+        block.add(substitution.rewriteStmt(bodyStmt));
+      }
+    }
+    return block;
+  }
+
+  // ---- expression-level inlining ----
+
+  @Override
+  protected Exp rewriteExp(Exp exp) {
+    if (!(exp instanceof CallMethodExp call)) {
+      return super.rewriteExp(exp);
+    }
+    // Targets are looked up on the links of the checked program, before anything is rebuilt
+    Exp current = rewriteExp(call.receiver());
+    boolean changed = current != call.receiver();
+    List<CallMethodExp.CallLink> pending = new ArrayList<>();
+    for (CallMethodExp.CallLink link : call.chain()) {
+      Callee callee = calleeOf(link);
+      List<Exp> args = rewriteExps(link.args());
+      Exp receiver = pending.isEmpty() ? current : new CallMethodExp(current, List.copyOf(pending));
+      Exp inlined = callee == null ? null : inlineExpression(callee, receiver, args);
+      if (inlined != null) {
+        current = inlined;
+        pending.clear();
+        changed = true;
+      } else {
+        pending.add(args == link.args() ? link : new CallMethodExp.CallLink(link.methodName(), args));
+        changed |= args != link.args();
+      }
+    }
+    if (!changed) {
+      return call;
+    }
+    return pending.isEmpty() ? current : new CallMethodExp(current, pending);
+  }
+
+  private Exp inlineExpression(Callee callee, Exp receiver, List<Exp> args) {
+    if (!receiverAllows(callee, receiver)) {
+      return null;
+    }
+    Exp inlined = inlineExp(callee, args, Map.of(), this::isSimple);
+    if (inlined != null) {
+      inlinedCount++;
+    }
+    return inlined;
+  }
+
+  /**
+   * {@code callee}'s single returned expression with the parameters replaced by {@code args} and the
+   * names in {@code fieldValues} replaced, or null if the body is not one return or the arguments
+   * cannot be substituted without changing the order of evaluation.
+   */
+  static Exp inlineExp(Callee callee, List<Exp> args, Map<String, Exp> fieldValues, Predicate<Exp> simple) {
+    Exp body = callee.expression();
+    if (body == null) {
+      return null;
+    }
+    Map<String, Integer> uses = new HashMap<>();
+    countUses(body, uses);
+    boolean bodyPure = Effects.isPure(body);
+    Substitution substitution = new Substitution(name -> name);
+    substitution.values.putAll(fieldValues);
+    List<VarDecStmt> params = callee.method().parameters();
+    for (int i = 0; i < params.size(); i++) {
+      Exp arg = args.get(i);
+      int count = uses.getOrDefault(params.get(i).name(), 0);
+      boolean isSimple = simple.test(arg);
+      if (!Effects.isPure(arg) || (count > 1 && !isSimple) || (!bodyPure && !isSimple)) {
+        return null;
+      }
+      substitution.values.put(params.get(i).name(), arg);
+    }
+    return substitution.rewriteExp(body);
+  }
+
+  /** Literals, this, and the caller's own locals and parameters: calls in the inlined body cannot change them. */
+  private boolean isSimple(Exp arg) {
+    return switch (arg) {
+      case IntLiteralExp ignored -> true;
+      case BooleanLiteralExp ignored -> true;
+      case StringLiteralExp ignored -> true;
+      case ThisExp ignored -> true;
+      case VarExp var -> callerNames.contains(var.name());
+      default -> false;
+    };
+  }
+
+  private static void countUses(Exp exp, Map<String, Integer> uses) {
+    switch (exp) {
+      case VarExp var -> uses.merge(var.name(), 1, Integer::sum);
+      case BinaryExp binary -> {
+        countUses(binary.left(), uses);
+        countUses(binary.right(), uses);
+      }
+      case ParenExp paren -> countUses(paren.expression(), uses);
+      case PrintlnExp println -> countUses(println.exp(), uses);
+      case NewObjectExp newObj -> newObj.args().forEach(arg -> countUses(arg, uses));
+      case CallMethodExp call -> {
+        countUses(call.receiver(), uses);
+        call.chain().forEach(link -> link.args().forEach(arg -> countUses(arg, uses)));
+      }
+      default -> { }
+    }
+  }
+
+  // ---- callees ----
+
+  private boolean receiverAllows(Callee callee, Exp receiver) {
+    if (!callee.usesThis()) {
+      return isNonNull(receiver);
+    }
+    if (!(receiver instanceof ThisExp) || owner == null) {
+      return false;
+    }
+    // Each field must resolve to the same declaration from the caller's class, unshadowed
+    for (String field : callee.fields()) {
+      if (callerNames.contains(field)
+          || !Objects.equals(classTable.getFieldType(owner, field), classTable.getFieldType(callee.owner(), field))) {
+        return false;
+      }
+    }
+    return isSubclass(owner, callee.owner());
+  }
+
+  /** Whether {@code receiver} is this or a local of the caller that only ever holds a new object. */
+  private boolean isNonNull(Exp receiver) {
+    return switch (receiver) {
+      case ThisExp ignored -> true;
+      case VarExp var -> allocated.getOrDefault(var.name(), false)
+          && (owner == null || classTable.getFieldType(owner, var.name()) == null);
+      default -> false;
+    };
+  }
+
+  private boolean isSubclass(String className, String ancestor) {
+    for (ClassTable.ClassInfo cls = classTable.getClass(className); cls != null;
+        cls = cls.superClassName.map(classTable::getClass).orElse(null)) {
+      if (cls.name.equals(ancestor)) return true;
+    }
+    return false;
+  }
+
+  /** The inlinable method the link statically calls, or null. */
+  private Callee calleeOf(CallMethodExp.CallLink link) {
+    String target = devirtualizer.targetClassOf(link);
+    if (target == null) {
+      return null;
+    }
+    MethodDef method = classTable.getMethod(target, link.methodName());
+    if (method == currentMethod) {
+      return null;
+    }
+    return callees.computeIfAbsent(method, m -> Optional.ofNullable(analyze(target, m, budget))).orElse(null);
+  }
+
+  /** Returns the method as a callee if its body is straight-line and within the budget, else null. */
+  static Callee analyze(String owner, MethodDef method, int budget) {
+    BodyScan scan = new BodyScan();
+    method.parameters().forEach(param -> scan.names.add(param.name()));
+    List<Stmt> body = method.body();
+    for (int i = 0; i < body.size(); i++) {
+      boolean last = i == body.size() - 1;
+      scan.size++;
+      // Names are resolved in order, so a field read before a local of the same name is declared stays a field
+      switch (body.get(i)) {
+        case VarDecStmt varDec -> scan.names.add(varDec.name());
+        case AssignStmt assign -> {
+          scan.exp(assign.expression());
+          scan.name(assign.variableName());
+        }
+        case ExprStmt exprStmt -> scan.exp(exprStmt.exp());
+        case PrintStmt print -> scan.exp(print.expression());
+        case ReturnStmt ret when last -> ret.expression().ifPresent(scan::exp);
+        default -> {
+          return null;
+        }
+      }
+    }
+    if (scan.size > budget) {
+      return null;
+    }
+    return new Callee(owner, method, scan.thisExp, scan.fields);
+  }
+
+  /** Size and field use of a straight-line body. */
+  private static final class BodyScan {
+    final Set<String> names = new HashSet<>();
+    final Set<String> fields = new HashSet<>();
+    boolean thisExp = false;
+    int size = 0;
+
+    void name(String name) {
+      if (!names.contains(name)) fields.add(name);
+    }
+
+    void exp(Exp exp) {
+      size++;
+      switch (exp) {
+        case VarExp var -> name(var.name());
+        case ThisExp ignored -> thisExp = true;
+        case BinaryExp binary -> {
+          exp(binary.left());
+          exp(binary.right());
+        }
+        case ParenExp paren -> exp(paren.expression());
+        case PrintlnExp println -> exp(println.exp());
+        case NewObjectExp newObj -> newObj.args().forEach(this::exp);
+        case CallMethodExp call -> {
+          exp(call.receiver());
+          for (CallMethodExp.CallLink link : call.chain()) {
+            size++;
+            link.args().forEach(this::exp);
+          }
+        }
+        default -> { }
+      }
+    }
+  }
+
+  private String freshName(String name) {
+    return name + "$" + (fresh++);
+  }
+
+  /**
+   * Copies a callee's straight-line body into the caller: parameters and fields with a value become
+   * that value, each local is renamed when it is declared, and every other name is a field and stays.
+   */
+  static final class Substitution extends AstRewriter {
+    final Map<String, Exp> values = new HashMap<>();
+    private final UnaryOperator<String> fresh;
+
+    Substitution(UnaryOperator<String> fresh) {
+      this.fresh = fresh;
+    }
+
+    @Override
+    protected Stmt rewriteStmt(Stmt stmt) {
+      return switch (stmt) {
+        case VarDecStmt varDec -> {
+          String name = fresh.apply(varDec.name());
+          values.put(varDec.name(), new VarExp(name));
+          yield new VarDecStmt(varDec.type(), name);
+        }
+        case AssignStmt assign -> {
+          Exp value = rewriteExp(assign.expression());
+          String target = values.get(assign.variableName()) instanceof VarExp local
+              ? local.name() : assign.variableName();
+          yield new AssignStmt(target, value);
+        }
+        default -> super.rewriteStmt(stmt);
+      };
+    }
+
+    @Override
+    protected Exp rewriteExp(Exp exp) {
+      if (exp instanceof VarExp var && values.containsKey(var.name())) {
+        return values.get(var.name());
+      }
+      return super.rewriteExp(exp);
+    }
+  }
+}
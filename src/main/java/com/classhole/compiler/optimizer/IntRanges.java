@@ -0,0 +1,368 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+import com.classhole.compiler.typechecker.TypedProgram;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Value-range analysis of Int: an interval for every local at every point of a body and for every
+ * Int expression, so the code generator can leave the int32 wrap-around ({@code | 0},
+ * {@code Math.imul}) off the additions, subtractions and multiplications that cannot overflow.
+ *
+ * Ranges start from literals and assignments, and the comparisons of if and while conditions narrow
+ * a local on each branch. At a loop header the back edges are joined in and a bound that still
+ * moves is widened to the int32 limit, so in {@code while (i < n) { i = i + 1; }} the counter keeps
+ * its start as lower bound and gets {@code n - 1} as upper bound in the body. Parameters, fields
+ * and call results can be anything.
+ *
+ * A multiplication that may give -0 (zero times a negative number) keeps Math.imul, which gives 0;
+ * sums and differences of integers are never -0. Division always truncates.
+ *
+ * Expressions are told apart by identity; one shared by several sites is exact only if it is at all of them.
+ */
+public class IntRanges {
+  /** A closed interval within the int32 range. */
+  private record Range(long lo, long hi) {
+    static final Range TOP = new Range(Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+    boolean contains(long value) {
+      return lo <= value && value <= hi;
+    }
+
+    Range union(Range other) {
+      return new Range(Math.min(lo, other.lo), Math.max(hi, other.hi));
+    }
+  }
+
+  private final Program program;
+  // Whether each arithmetic expression stays within int32 wherever it is reached
+  private final Map<BinaryExp, Boolean> exact = new IdentityHashMap<>();
+
+  // The ranges of the locals in scope at the current point, null where it cannot be reached
+  private Map<String, Range> env;
+  // Per enclosing block, what the locals it declares shadowed (null if nothing)
+  private final Deque<Map<String, Range>> shadowed = new ArrayDeque<>();
+  // Per enclosing loop, the ranges at each break
+  private final Deque<Loop> loops = new ArrayDeque<>();
+
+  /** A loop being analyzed: how many blocks were open outside it, and the ranges its breaks leave with. */
+  private record Loop(int blocksOutside, List<Map<String, Range>> exits) { }
+
+  public IntRanges(TypedProgram typed) {
+    this.program = typed.program();
+    for (ClassDef cls : program.classes()) {
+      body(cls.constructor().parameters(), cls.constructor().body(),
+          cls.constructor().superArgs().orElse(List.of()));
+      for (MethodDef method : cls.methods()) {
+        body(method.parameters(), method.body(), List.of());
+      }
+    }
+    body(List.of(), program.entryPoint(), List.of());
+  }
+
+  /** The program the expressions belong to. */
+  public Program program() {
+    return program;
+  }
+
+  /** Whether {@code exp}, an Int +, - or *, gives the exact int32 result without wrapping. */
+  public boolean isExact(BinaryExp exp) {
+    return exact.getOrDefault(exp, false);
+  }
+
+  /** The number of reachable Int additions, subtractions and multiplications that need no wrapping. */
+  public int exactCount() {
+    int count = 0;
+    for (boolean isExact : exact.values()) {
+      if (isExact) count++;
+    }
+    return count;
+  }
+
+  /** The number of reachable Int additions, subtractions and multiplications. */
+  public int arithmeticCount() {
+    return exact.size();
+  }
+
+  private void body(List<VarDecStmt> params, List<Stmt> body, List<Exp> superArgs) {
+    env = new HashMap<>();
+    for (VarDecStmt param : params) {
+      env.put(param.name(), Range.TOP);
+    }
+    for (Exp arg : superArgs) {
+      range(arg);
+    }
+    statements(body);
+  }
+
+  // ---- statements ----
+
+  private void statements(List<Stmt> stmts) {
+    for (Stmt stmt : stmts) {
+      statement(stmt);
+    }
+  }
+
+  private void statement(Stmt stmt) {
+    if (env == null) {
+      return;   // unreachable
+    }
+    switch (stmt) {
+      case VarDecStmt varDec -> {
+        Map<String, Range> scope = shadowed.peek();
+        if (scope != null && !scope.containsKey(varDec.name())) {
+          scope.put(varDec.name(), env.get(varDec.name()));
+        }
+        // Definite assignment guarantees a write before the first read
+        env.put(varDec.name(), Range.TOP);
+      }
+      case AssignStmt assign -> {
+        Range value = range(assign.expression());
+        // A name that is not a local in scope is a field
+        if (env.containsKey(assign.variableName())) {
+          env.put(assign.variableName(), value);
+        }
+      }
+      case BlockStmt block -> {
+        shadowed.push(new HashMap<>());
+        statements(block.statements());
+        Map<String, Range> scope = shadowed.pop();
+        if (env != null) {
+          unshadow(scope, env);
+        }
+      }
+      case ExprStmt exprStmt -> range(exprStmt.exp());
+      case PrintStmt print -> range(print.expression());
+      case ReturnStmt ret -> {
+        ret.expression().ifPresent(this::range);
+        env = null;
+      }
+      case BreakStmt ignored -> {
+        // Leave the blocks inside the loop, so their locals no longer shadow anything
+        Loop loop = loops.peek();
+        int inside = shadowed.size() - loop.blocksOutside();
+        for (Map<String, Range> scope : shadowed) {
+          if (inside-- == 0) break;
+          unshadow(scope, env);
+        }
+        loop.exits().add(env);
+        env = null;
+      }
+      case IfStmt ifStmt -> {
+        range(ifStmt.condition());
+        Map<String, Range> before = env;
+        env = new HashMap<>(before);
+        narrow(ifStmt.condition(), true);
+        statement(ifStmt.thenStmt());
+        Map<String, Range> afterThen = env;
+        env = before;
+        narrow(ifStmt.condition(), false);
+        ifStmt.elseStmt().ifPresent(this::statement);
+        env = join(afterThen, env);
+      }
+      case WhileStmt whileStmt -> whileStatement(whileStmt);
+      default -> { }
+    }
+  }
+
+  /** Puts back in {@code ranges} what the locals of a block shadowed. */
+  private static void unshadow(Map<String, Range> scope, Map<String, Range> ranges) {
+    scope.forEach((name, outer) -> {
+      if (outer == null) ranges.remove(name);
+      else ranges.put(name, outer);
+    });
+  }
+
+  /** Analyzes the body until the ranges at the header are stable; each bound widens at most once. */
+  private void whileStatement(WhileStmt whileStmt) {
+    Map<String, Range> entry = env;
+    Map<String, Range> header = entry;
+    while (true) {
+      env = new HashMap<>(header);
+      range(whileStmt.condition());
+      narrow(whileStmt.condition(), true);
+      loops.push(new Loop(shadowed.size(), new ArrayList<>()));
+      statement(whileStmt.body());
+      List<Map<String, Range>> exits = loops.pop().exits();
+
+      Map<String, Range> next = widen(header, join(entry, env));
+      if (next.equals(header)) {
+        env = new HashMap<>(header);
+        narrow(whileStmt.condition(), false);
+        for (Map<String, Range> exit : exits) {
+          env = join(env, exit);
+        }
+        return;
+      }
+      header = next;
+    }
+  }
+
+  /** Narrows the locals a comparison constrains, assuming {@code condition} is {@code holds}. */
+  private void narrow(Exp condition, boolean holds) {
+    while (condition instanceof ParenExp paren) {
+      condition = paren.expression();
+    }
+    if (env == null) {
+      return;
+    }
+    if (condition instanceof BooleanLiteralExp literal) {
+      if (literal.value() != holds) env = null;
+      return;
+    }
+    if (!(condition instanceof BinaryExp binary)) {
+      return;
+    }
+    String operator = holds ? binary.operator() : negate(binary.operator());
+    if (operator == null) {
+      return;
+    }
+    Range left = range(binary.left());
+    Range right = range(binary.right());
+    narrowLocal(binary.left(), left, operator, right);
+    narrowLocal(binary.right(), right, swap(operator), left);
+  }
+
+  private void narrowLocal(Exp exp, Range range, String operator, Range other) {
+    while (exp instanceof ParenExp paren) {
+      exp = paren.expression();
+    }
+    if (env == null || !(exp instanceof VarExp var) || !env.containsKey(var.name())) {
+      return;
+    }
+    Range narrowed = switch (operator) {
+      case "<" -> new Range(range.lo(), Math.min(range.hi(), other.hi() - 1));
+      case "<=" -> new Range(range.lo(), Math.min(range.hi(), other.hi()));
+      case ">" -> new Range(Math.max(range.lo(), other.lo() + 1), range.hi());
+      case ">=" -> new Range(Math.max(range.lo(), other.lo()), range.hi());
+      case "==" -> new Range(Math.max(range.lo(), other.lo()), Math.min(range.hi(), other.hi()));
+      default -> range;
+    };
+    if (narrowed.lo() > narrowed.hi()) {
+      env = null;   // the branch cannot be taken
+    } else {
+      env.put(var.name(), narrowed);
+    }
+  }
+
+  /** The comparison that holds when {@code operator} does not, null if it is not a comparison. */
+  private static String negate(String operator) {
+    return switch (operator) {
+      case "<" -> ">=";
+      case "<=" -> ">";
+      case ">" -> "<=";
+      case ">=" -> "<";
+      case "==" -> "!=";
+      case "!=" -> "==";
+      default -> null;
+    };
+  }
+
+  /** The comparison with its operands swapped. */
+  private static String swap(String operator) {
+    return switch (operator) {
+      case "<" -> ">";
+      case "<=" -> ">=";
+      case ">" -> "<";
+      case ">=" -> "<=";
+      default -> operator;
+    };
+  }
+
+  private static Map<String, Range> join(Map<String, Range> a, Map<String, Range> b) {
+    if (a == null) return b;
+    if (b == null) return a;
+    Map<String, Range> joined = new HashMap<>();
+    a.forEach((name, range) -> {
+      Range other = b.get(name);
+      if (other != null) joined.put(name, range.union(other));
+    });
+    return joined;
+  }
+
+  /** {@code next} with every bound that moved past {@code previous} pushed to the int32 limit. */
+  private static Map<String, Range> widen(Map<String, Range> previous, Map<String, Range> next) {
+    Map<String, Range> widened = new HashMap<>();
+    previous.forEach((name, old) -> {
+      Range range = next.get(name);
+      if (range == null) return;
+      long lo = range.lo() < old.lo() ? Integer.MIN_VALUE : old.lo();
+      long hi = range.hi() > old.hi() ? Integer.MAX_VALUE : old.hi();
+      widened.put(name, new Range(lo, hi));
+    });
+    return widened;
+  }
+
+  // ---- expressions ----
+
+  /** The range of {@code exp}, anything for a value that is not an Int; records whether arithmetic is exact. */
+  private Range range(Exp exp) {
+    return switch (exp) {
+      case IntLiteralExp literal -> new Range(literal.value(), literal.value());
+      case ParenExp paren -> range(paren.expression());
+      case VarExp var -> env.getOrDefault(var.name(), Range.TOP);
+      case BinaryExp binary -> binary(binary);
+      case PrintlnExp println -> {
+        range(println.exp());
+        yield Range.TOP;
+      }
+      case NewObjectExp newObj -> {
+        newObj.args().forEach(this::range);
+        yield Range.TOP;
+      }
+      case CallMethodExp call -> {
+        range(call.receiver());
+        for (CallMethodExp.CallLink link : call.chain()) {
+          link.args().forEach(this::range);
+        }
+        yield Range.TOP;
+      }
+      default -> Range.TOP;
+    };
+  }
+
+  private Range binary(BinaryExp binary) {
+    Range l = range(binary.left());
+    Range r = range(binary.right());
+    Range result = switch (binary.operator()) {
+      case "+" -> new Range(l.lo() + r.lo(), l.hi() + r.hi());
+      case "-" -> new Range(l.lo() - r.hi(), l.hi() - r.lo());
+      case "*" -> {
+        long a = l.lo() * r.lo();
+        long b = l.lo() * r.hi();
+        long c = l.hi() * r.lo();
+        long d = l.hi() * r.hi();
+        yield new Range(Math.min(Math.min(a, b), Math.min(c, d)), Math.max(Math.max(a, b), Math.max(c, d)));
+      }
+      case "/" -> {
+        // Truncation only shrinks the magnitude; x / 0 truncates to 0
+        long magnitude = Math.max(Math.abs(l.lo()), Math.abs(l.hi()));
+        yield l.lo() >= 0 && r.lo() >= 0 ? new Range(0, l.hi()) : new Range(-magnitude, magnitude);
+      }
+      default -> null;   // a comparison
+    };
+    if (result == null) {
+      return Range.TOP;
+    }
+    boolean fits = Range.TOP.contains(result.lo()) && Range.TOP.contains(result.hi());
+    if (!binary.operator().equals("/")) {
+      boolean negativeZero = binary.operator().equals("*")
+          && (l.contains(0) && r.lo() < 0 || r.contains(0) && l.lo() < 0);
+      exact.merge(binary, fits && !negativeZero, Boolean::logicalAnd);
+    }
+    return fits ? result : Range.TOP;
+  }
+}
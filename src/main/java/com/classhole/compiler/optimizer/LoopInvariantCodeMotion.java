@@ -0,0 +1,280 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+import com.classhole.compiler.typechecker.TypedProgram;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loop-invariant code motion: computes expressions inside a {@code while} loop whose value cannot
+ * change between iterations once, into a fresh local before the loop.
+ *
+ * An expression is invariant if every local and parameter it reads is neither declared nor assigned
+ * in the loop, and every call in it is pure according to {@link MethodEffects}. Fields and pure calls
+ * that read fields are invariant only if nothing in the loop can assign a field: no field assignment,
+ * no {@code new}, no call that writes fields.
+ *
+ * The loop body may run zero times, so from the body only call-free expressions are hoisted, which
+ * cannot fail. The condition runs at least once; invariant calls in it are hoisted as long as the
+ * condition has no effects of its own that would then run after them rather than before. Equal
+ * invariant expressions share one local. Inner loops are handled first, so an expression invariant
+ * in several nested loops ends up before the outermost.
+ */
+public class LoopInvariantCodeMotion extends AstRewriter {
+  private static final String PREFIX = "inv$";
+
+  private final TypedProgram typed;
+  private final MethodEffects effects;
+  private int hoistedCount = 0;
+  private int fresh;
+
+  // The body being rewritten
+  private final ConstantFolder.Scopes scopes = new ConstantFolder.Scopes();
+  private final Set<String> parameters = new HashSet<>();
+  private final Set<String> fields = new HashSet<>();
+
+  public LoopInvariantCodeMotion(TypedProgram typed) {
+    this.typed = typed;
+    this.effects = new MethodEffects(typed);
+    // Number past the locals of an earlier run, whose names a nested loop's local could shadow
+    this.fresh = firstUnusedIndex(typed.program(), PREFIX);
+  }
+
+  /** Hoists out of the loops of {@code program}, which must be the program that was type checked. */
+  @Override
+  public Program rewrite(Program program) {
+    if (program != typed.program()) {
+      throw new IllegalArgumentException("Program was not the one type checked");
+    }
+    hoistedCount = 0;
+    return super.rewrite(program);
+  }
+
+  /** Expressions hoisted by the last {@link #rewrite}, counting equal ones once per loop. */
+  public int hoistedCount() {
+    return hoistedCount;
+  }
+
+  @Override
+  protected void beginBody(ClassDef owner, List<VarDecStmt> parameters) {
+    scopes.reset();
+    this.parameters.clear();
+    parameters.forEach(param -> this.parameters.add(param.name()));
+    fields.clear();
+    for (ClassDef cls = owner; cls != null; cls = superClassOf(cls)) {
+      cls.fields().forEach(field -> fields.add(field.name()));
+    }
+  }
+
+  private ClassDef superClassOf(ClassDef cls) {
+    String name = cls.superClass().orElse(null);
+    for (ClassDef candidate : typed.program().classes()) {
+      if (candidate.className().equals(name)) return candidate;
+    }
+    return null;
+  }
+
+  @Override
+  protected void enterScope() {
+    scopes.open();
+  }
+
+  @Override
+  protected void exitScope() {
+    scopes.close();
+  }
+
+  @Override
+  protected Stmt rewriteStmt(Stmt stmt) {
+    if (stmt instanceof VarDecStmt varDec) {
+      scopes.declare(varDec);
+      return stmt;
+    }
+    Stmt rewritten = super.rewriteStmt(stmt);
+    return rewritten instanceof WhileStmt loop ? hoist(loop) : rewritten;
+  }
+
+  private Stmt hoist(WhileStmt loop) {
+    Loop facts = new Loop();
+    facts.scan(loop.body());
+    facts.scanExp(loop.condition());
+    boolean conditionPure = !facts.hasEffects(loop.condition());
+
+    Map<Exp, String> temps = new LinkedHashMap<>();
+    var replacer = new AstRewriter() {
+      boolean inCondition;
+
+      @Override
+      protected Exp rewriteExp(Exp exp) {
+        boolean callsAllowed = inCondition && conditionPure;
+        if (worthHoisting(exp) && facts.isInvariant(exp) && (callsAllowed || Effects.isPure(exp))) {
+          String type = typeOf(exp);
+          if (type != null) {
+            return new VarExp(temps.computeIfAbsent(exp, e -> PREFIX + fresh++));
+          }
+        }
+        return super.rewriteExp(exp);
+      }
+
+      WhileStmt rewriteLoop() {
+        inCondition = true;
+        Exp cond = rewriteExp(loop.condition());
+        inCondition = false;
+        Stmt body = required(rewriteStmt(loop.body()));
+        return cond == loop.condition() && body == loop.body() ? loop : new WhileStmt(cond, body);
+      }
+    };
+    WhileStmt rewritten = replacer.rewriteLoop();
+    if (temps.isEmpty()) {
+      return loop;
+    }
+
+    List<Stmt> block = new ArrayList<>(2 * temps.size() + 1);
+    for (Map.Entry<Exp, String> temp : temps.entrySet()) {
+      block.add(new VarDecStmt(typeOf(temp.getKey()), temp.getValue()));
+      block.add(new AssignStmt(temp.getValue(), temp.getKey()));
+    }
+    block.add(rewritten);
+    hoistedCount += temps.size();
+    return new BlockStmt(block);
+  }
+
+  /** Leaves cost nothing to evaluate again. */
+  private static boolean worthHoisting(Exp exp) {
+    return switch (exp) {
+      case ParenExp paren -> worthHoisting(paren.expression());
+      case BinaryExp ignored -> true;
+      case CallMethodExp ignored -> true;
+      default -> false;
+    };
+  }
+
+  /** The declared type of a hoistable expression, or null if it has none a local can hold. */
+  private String typeOf(Exp exp) {
+    return switch (exp) {
+      case ParenExp paren -> typeOf(paren.expression());
+      case BinaryExp binary -> switch (binary.operator()) {
+        case "+", "-", "*", "/" -> "Int";
+        default -> "Boolean";
+      };
+      case CallMethodExp call -> {
+        String type = effects.returnTypeOf(call.chain().getLast());
+        yield type == null || type.equals("Void") ? null : type;
+      }
+      default -> null;
+    };
+  }
+
+  /** What one loop (its condition and body) declares and assigns, and whether it can assign fields. */
+  private final class Loop {
+    final Set<String> declared = new HashSet<>();
+    final Set<String> assigned = new HashSet<>();
+    boolean writesFields = false;
+
+    void scan(Stmt stmt) {
+      switch (stmt) {
+        case VarDecStmt varDec -> declared.add(varDec.name());
+        case AssignStmt assign -> {
+          assigned.add(assign.variableName());
+          scanExp(assign.expression());
+        }
+        case BlockStmt block -> block.statements().forEach(this::scan);
+        case ExprStmt exprStmt -> scanExp(exprStmt.exp());
+        case PrintStmt print -> scanExp(print.expression());
+        case ReturnStmt ret -> ret.expression().ifPresent(this::scanExp);
+        case IfStmt ifStmt -> {
+          scanExp(ifStmt.condition());
+          scan(ifStmt.thenStmt());
+          ifStmt.elseStmt().ifPresent(this::scan);
+        }
+        case WhileStmt whileStmt -> {
+          scanExp(whileStmt.condition());
+          scan(whileStmt.body());
+        }
+        default -> { }   // BreakStmt
+      }
+      // A field name the loop assigns may be a field even if the loop also declares a local of that name
+      if (stmt instanceof AssignStmt assign && fields.contains(assign.variableName())
+          && !isOuterLocal(assign.variableName())) {
+        writesFields = true;
+      }
+    }
+
+    void scanExp(Exp exp) {
+      switch (exp) {
+        case BinaryExp binary -> {
+          scanExp(binary.left());
+          scanExp(binary.right());
+        }
+        case ParenExp paren -> scanExp(paren.expression());
+        case PrintlnExp println -> scanExp(println.exp());
+        case NewObjectExp newObj -> {
+          writesFields |= effects.ofNew(newObj.className()).contains(MethodEffects.Effect.WRITES_FIELDS);
+          newObj.args().forEach(this::scanExp);
+        }
+        case CallMethodExp call -> {
+          scanExp(call.receiver());
+          for (CallMethodExp.CallLink link : call.chain()) {
+            writesFields |= effects.ofCall(link).contains(MethodEffects.Effect.WRITES_FIELDS);
+            link.args().forEach(this::scanExp);
+          }
+        }
+        default -> { }
+      }
+    }
+
+    /** Whether the name is a local or parameter declared outside the loop. */
+    boolean isOuterLocal(String name) {
+      return scopes.resolve(name) != null || parameters.contains(name);
+    }
+
+    boolean isInvariant(Exp exp) {
+      return switch (exp) {
+        case IntLiteralExp ignored -> true;
+        case BooleanLiteralExp ignored -> true;
+        case StringLiteralExp ignored -> true;
+        case ThisExp ignored -> true;
+        case VarExp var -> !declared.contains(var.name()) && !assigned.contains(var.name())
+            && (isOuterLocal(var.name()) || !writesFields);
+        case ParenExp paren -> isInvariant(paren.expression());
+        case BinaryExp binary -> isInvariant(binary.left()) && isInvariant(binary.right());
+        case CallMethodExp call -> {
+          if (!isInvariant(call.receiver())) yield false;
+          for (CallMethodExp.CallLink link : call.chain()) {
+            Set<MethodEffects.Effect> linkEffects = effects.ofCall(link);
+            if (!MethodEffects.isPure(linkEffects)
+                || (linkEffects.contains(MethodEffects.Effect.READS_FIELDS) && writesFields)
+                || !link.args().stream().allMatch(this::isInvariant)) {
+              yield false;
+            }
+          }
+          yield true;
+        }
+        default -> false;   // new, println
+      };
+    }
+
+    /** Whether evaluating {@code exp} does anything besides reading. */
+    boolean hasEffects(Exp exp) {
+      return switch (exp) {
+        case ParenExp paren -> hasEffects(paren.expression());
+        case BinaryExp binary -> hasEffects(binary.left()) || hasEffects(binary.right());
+        case CallMethodExp call -> hasEffects(call.receiver()) || call.chain().stream().anyMatch(
+            link -> !MethodEffects.isPure(effects.ofCall(link)) || link.args().stream().anyMatch(this::hasEffects));
+        case NewObjectExp ignored -> true;
+        case PrintlnExp ignored -> true;
+        default -> false;
+      };
+    }
+  }
+}
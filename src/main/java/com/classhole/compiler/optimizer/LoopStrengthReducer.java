@@ -0,0 +1,332 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+import com.classhole.compiler.typechecker.TypedProgram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loop strength reduction: in a {@code while} loop that steps a local by a constant at the end of
+ * its body, replaces products of that local by a fresh local stepped along with it, so each
+ * iteration adds where it multiplied. With an unroll limit, a loop whose trip count is known and
+ * within the limit becomes that many copies of its body instead.
+ *
+ * The induction variable {@code i} of a loop is an Int local or parameter declared outside it whose
+ * only assignment in the loop is the last statement of the body, {@code i = i + c} or
+ * {@code i = i - c} with {@code c} a literal. A product {@code i * k} in the condition or body, with
+ * {@code k} a literal or an Int local or parameter the loop neither declares nor assigns, then always
+ * equals a local set to {@code i * k} before the loop and increased by {@code c * k} right after
+ * {@code i} is; int arithmetic wraps the same way either way. Equal products share one local.
+ *
+ * A loop is unrolled when the statement just before it sets {@code i} to a literal, its condition
+ * compares {@code i} with a literal in the direction {@code i} steps, and its body does not break
+ * out of it. Each copy stays a block, so the locals it declares stay its own.
+ */
+public class LoopStrengthReducer extends AstRewriter {
+  private static final String PREFIX = "iv$";
+
+  private final TypedProgram typed;
+  private int unrollLimit = 0;
+  private int reducedCount = 0;
+  private int unrolledCount = 0;
+  private int fresh;
+
+  // The body being rewritten
+  private final ConstantFolder.Scopes scopes = new ConstantFolder.Scopes();
+  private final Map<String, String> parameters = new HashMap<>();
+  private final Map<WhileStmt, Stmt> preceding = new IdentityHashMap<>();
+
+  public LoopStrengthReducer(TypedProgram typed) {
+    this.typed = typed;
+    // Number past the locals of an earlier run, whose names a nested loop's local could shadow
+    this.fresh = firstUnusedIndex(typed.program(), PREFIX);
+  }
+
+  /** Unrolls loops that run at most {@code limit} times; the default, 0, unrolls none. */
+  public LoopStrengthReducer unrollLimit(int limit) {
+    this.unrollLimit = limit;
+    return this;
+  }
+
+  /** Reduces the loops of {@code program}, which must be the program that was type checked. */
+  @Override
+  public Program rewrite(Program program) {
+    if (program != typed.program()) {
+      throw new IllegalArgumentException("Program was not the one type checked");
+    }
+    reducedCount = 0;
+    unrolledCount = 0;
+    preceding.clear();
+    return super.rewrite(program);
+  }
+
+  /** Products replaced by the last {@link #rewrite}, counting equal ones once per loop. */
+  public int reducedCount() {
+    return reducedCount;
+  }
+
+  /** Loops unrolled by the last {@link #rewrite}. */
+  public int unrolledCount() {
+    return unrolledCount;
+  }
+
+  @Override
+  protected void beginBody(ClassDef owner, List<VarDecStmt> parameters) {
+    scopes.reset();
+    this.parameters.clear();
+    parameters.forEach(param -> this.parameters.put(param.name(), param.type()));
+  }
+
+  @Override
+  protected void enterScope() {
+    scopes.open();
+  }
+
+  @Override
+  protected void exitScope() {
+    scopes.close();
+  }
+
+  @Override
+  protected List<Stmt> rewriteStmts(List<Stmt> stmts) {
+    for (int i = 1; i < stmts.size(); i++) {
+      if (stmts.get(i) instanceof WhileStmt loop) {
+        preceding.put(loop, stmts.get(i - 1));
+      }
+    }
+    return super.rewriteStmts(stmts);
+  }
+
+  @Override
+  protected Stmt rewriteStmt(Stmt stmt) {
+    if (stmt instanceof VarDecStmt varDec) {
+      scopes.declare(varDec);
+      return stmt;
+    }
+    Stmt before = stmt instanceof WhileStmt ? preceding.get(stmt) : null;
+    Stmt rewritten = super.rewriteStmt(stmt);
+    if (!(rewritten instanceof WhileStmt loop)) {
+      return rewritten;
+    }
+    Induction induction = inductionOf(loop);
+    if (induction == null) {
+      return loop;
+    }
+    Stmt unrolled = unroll(loop, induction, before);
+    return unrolled != loop ? unrolled : reduce(loop, induction);
+  }
+
+  /** A loop's induction variable, the constant it steps by and what the loop declares and assigns. */
+  private record Induction(String variable, int step, Loop facts) {}
+
+  private Induction inductionOf(WhileStmt loop) {
+    if (!(loop.body() instanceof BlockStmt body) || body.statements().isEmpty()
+        || !(body.statements().getLast() instanceof AssignStmt update)
+        || !"Int".equals(localType(update.variableName()))) {
+      return null;
+    }
+    String name = update.variableName();
+    Integer step = null;
+    if (strip(update.expression()) instanceof BinaryExp binary) {
+      Exp left = strip(binary.left());
+      Exp right = strip(binary.right());
+      if (binary.operator().equals("+") && isVariable(left, name) && right instanceof IntLiteralExp c) {
+        step = c.value();
+      } else if (binary.operator().equals("+") && left instanceof IntLiteralExp c && isVariable(right, name)) {
+        step = c.value();
+      } else if (binary.operator().equals("-") && isVariable(left, name) && right instanceof IntLiteralExp c) {
+        step = -c.value();
+      }
+    }
+    if (step == null || step == 0) {
+      return null;
+    }
+    Loop facts = new Loop();
+    facts.scan(body);
+    if (facts.declared.contains(name) || facts.assignments.get(name) != 1) {
+      return null;
+    }
+    return new Induction(name, step, facts);
+  }
+
+  // ---- unrolling ----
+
+  /** The loop unrolled, null if it never runs, or the loop itself if it cannot be unrolled. */
+  private Stmt unroll(WhileStmt loop, Induction induction, Stmt before) {
+    if (unrollLimit <= 0 || induction.facts().breaks
+        || !(before instanceof AssignStmt init) || !init.variableName().equals(induction.variable())
+        || !(strip(init.expression()) instanceof IntLiteralExp start)) {
+      return loop;
+    }
+    Long trips = tripCount(loop.condition(), induction, start.value());
+    if (trips == null || trips > unrollLimit) {
+      return loop;
+    }
+    unrolledCount++;
+    return trips == 0 ? null : new BlockStmt(Collections.nCopies(trips.intValue(), loop.body()));
+  }
+
+  /** How often the loop runs from {@code start}, or null if its condition does not say. */
+  private static Long tripCount(Exp condition, Induction induction, int start) {
+    if (!(strip(condition) instanceof BinaryExp compare)) {
+      return null;
+    }
+    String op = compare.operator();
+    Exp left = strip(compare.left());
+    Exp right = strip(compare.right());
+    if (isVariable(right, induction.variable())) {
+      Exp swap = left;
+      left = right;
+      right = swap;
+      op = switch (op) {
+        case "<" -> ">";
+        case "<=" -> ">=";
+        case ">" -> "<";
+        case ">=" -> "<=";
+        default -> op;
+      };
+    }
+    if (!isVariable(left, induction.variable()) || !(right instanceof IntLiteralExp bound)) {
+      return null;
+    }
+    long step = induction.step();
+    boolean up = op.equals("<") || op.equals("<=");
+    boolean down = op.equals(">") || op.equals(">=");
+    if (!(up && step > 0) && !(down && step < 0)) {
+      return null;
+    }
+    long distance = up ? (long) bound.value() - start : (long) start - bound.value();
+    if (op.endsWith("=")) {
+      distance++;
+    }
+    long trips = Math.max(0, Math.ceilDiv(distance, Math.abs(step)));
+    // If the variable wrapped on the way the condition would not end the loop where it seems to
+    long last = start + trips * step;
+    return last < Integer.MIN_VALUE || last > Integer.MAX_VALUE ? null : trips;
+  }
+
+  // ---- strength reduction ----
+
+  private Stmt reduce(WhileStmt loop, Induction induction) {
+    // Keyed by the other factor: an Integer for a literal, a String for a local
+    Map<Object, String> temps = new LinkedHashMap<>();
+    var replacer = new AstRewriter() {
+      @Override
+      protected Exp rewriteExp(Exp exp) {
+        Object factor = factorOf(exp, induction);
+        if (factor != null) {
+          return new VarExp(temps.computeIfAbsent(factor, f -> PREFIX + fresh++));
+        }
+        return super.rewriteExp(exp);
+      }
+    };
+    Exp cond = replacer.rewriteExp(loop.condition());
+    List<Stmt> stmts = ((BlockStmt) loop.body()).statements();
+    List<Stmt> rest = replacer.rewriteStmts(stmts.subList(0, stmts.size() - 1));
+    if (temps.isEmpty()) {
+      return loop;
+    }
+
+    List<Stmt> body = new ArrayList<>(rest);
+    body.add(stmts.getLast());
+    List<Stmt> block = new ArrayList<>(2 * temps.size() + 1);
+    for (Map.Entry<Object, String> temp : temps.entrySet()) {
+      Exp factor = temp.getKey() instanceof Integer k ? new IntLiteralExp(k) : new VarExp((String) temp.getKey());
+      block.add(new VarDecStmt("Int", temp.getValue()));
+      block.add(new AssignStmt(temp.getValue(), new BinaryExp(new VarExp(induction.variable()), "*", factor)));
+
+      Exp step;
+      if (temp.getKey() instanceof Integer k) {
+        step = new IntLiteralExp(k * induction.step());
+      } else if (induction.step() == 1) {
+        step = factor;
+      } else {
+        String name = PREFIX + fresh++;
+        block.add(new VarDecStmt("Int", name));
+        block.add(new AssignStmt(name, new BinaryExp(factor, "*", new IntLiteralExp(induction.step()))));
+        step = new VarExp(name);
+      }
+      body.add(new AssignStmt(temp.getValue(), new BinaryExp(new VarExp(temp.getValue()), "+", step)));
+    }
+    block.add(new WhileStmt(cond, new BlockStmt(body)));
+    reducedCount += temps.size();
+    return new BlockStmt(block);
+  }
+
+  /** The factor {@code exp} multiplies the induction variable by, or null if it is not such a product. */
+  private Object factorOf(Exp exp, Induction induction) {
+    if (!(exp instanceof BinaryExp binary) || !binary.operator().equals("*")) {
+      return null;
+    }
+    Exp left = strip(binary.left());
+    Exp right = strip(binary.right());
+    if (isVariable(right, induction.variable())) {
+      right = left;
+    } else if (!isVariable(left, induction.variable())) {
+      return null;
+    }
+    return switch (right) {
+      // Multiplying by 0 or 1 is for constant folding
+      case IntLiteralExp k when k.value() != 0 && k.value() != 1 -> k.value();
+      case VarExp k when !k.name().equals(induction.variable()) && !induction.facts().declared.contains(k.name())
+          && !induction.facts().assignments.containsKey(k.name()) && "Int".equals(localType(k.name())) -> k.name();
+      default -> null;
+    };
+  }
+
+  // ---- helpers ----
+
+  /** The declared type of the local or parameter {@code name} refers to, or null if it is a field. */
+  private String localType(String name) {
+    VarDecStmt local = scopes.resolve(name);
+    return local != null ? local.type() : parameters.get(name);
+  }
+
+  private static boolean isVariable(Exp exp, String name) {
+    return exp instanceof VarExp var && var.name().equals(name);
+  }
+
+  private static Exp strip(Exp exp) {
+    return exp instanceof ParenExp paren ? strip(paren.expression()) : exp;
+  }
+
+  /** What one loop body declares and assigns, and whether it breaks out of the loop. */
+  private static final class Loop {
+    final Set<String> declared = new HashSet<>();
+    final Map<String, Integer> assignments = new HashMap<>();
+    boolean breaks = false;
+    private int depth = 0;
+
+    void scan(Stmt stmt) {
+      switch (stmt) {
+        case VarDecStmt varDec -> declared.add(varDec.name());
+        case AssignStmt assign -> assignments.merge(assign.variableName(), 1, Integer::sum);
+        case BlockStmt block -> block.statements().forEach(this::scan);
+        case IfStmt ifStmt -> {
+          scan(ifStmt.thenStmt());
+          ifStmt.elseStmt().ifPresent(this::scan);
+        }
+        case WhileStmt whileStmt -> {
+          depth++;
+          scan(whileStmt.body());
+          depth--;
+        }
+        case BreakStmt ignored -> breaks |= depth == 0;
+        default -> { }   // ExprStmt, PrintStmt, ReturnStmt: expressions assign no locals
+      }
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.CallMethodExp;
+import com.classhole.compiler.parser.ast.nodes.statements.VarDecStmt;
+import com.classhole.compiler.typechecker.TypedProgram;
+import com.classhole.compiler.typechecker.types.ClassType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Picks the methods whose results the code generator may keep in a memo table: recursive Int
+ * methods whose result depends on nothing but their Int and Boolean arguments, so a repeated call
+ * can return the remembered value instead of running again. That turns recurrences such as
+ * Fibonacci from exponentially many calls into linearly many.
+ *
+ * A method qualifies if it returns Int, takes only Int and Boolean parameters, has no effects at
+ * all according to {@link MethodEffects} (it does not even read a field, which any method may
+ * assign), and every call it makes, and every call those make, can run exactly one method. The
+ * last makes the result independent of the receiver's class, so one table can serve every
+ * instance. Of those, only methods that can call themselves are picked: a method that does not
+ * recurse is cheaper to run again than to look up.
+ *
+ * Each table holds at most {@link #cacheSize()} entries and evicts the least recently used one.
+ * Methods are told apart by the identity of their declaration in the checked program.
+ */
+public class Memoizer {
+  /** Entries each memo table keeps unless told otherwise. */
+  public static final int DEFAULT_CACHE_SIZE = 1024;
+
+  private final Program program;
+  private final int cacheSize;
+  private final Set<MethodDef> memoized = Collections.newSetFromMap(new IdentityHashMap<>());
+
+  public Memoizer(TypedProgram typed) {
+    this(typed, DEFAULT_CACHE_SIZE);
+  }
+
+  public Memoizer(TypedProgram typed, int cacheSize) {
+    if (cacheSize < 1) {
+      throw new IllegalArgumentException("Memo tables need room for at least one entry, not " + cacheSize);
+    }
+    this.program = typed.program();
+    this.cacheSize = cacheSize;
+
+    Collector collector = new Collector(typed);
+    collector.walk();
+    MethodEffects effects = new MethodEffects(typed);
+    Set<MethodDef> candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (ClassDef cls : program.classes()) {
+      for (MethodDef method : cls.methods()) {
+        if (method.returnType().equals("Int") && method.parameters().stream().allMatch(Memoizer::isPrimitive)
+            && effects.of(method).isEmpty() && !collector.dispatching.contains(method)) {
+          candidates.add(method);
+        }
+      }
+    }
+    // A candidate that calls a method which is not one is not one either, until nothing changes
+    boolean changed = true;
+    while (changed) {
+      changed = candidates.removeIf(method -> !candidates.containsAll(collector.callees.get(method)));
+    }
+    for (MethodDef method : candidates) {
+      if (callsItself(method, collector.callees)) {
+        memoized.add(method);
+      }
+    }
+  }
+
+  /** The program the methods were picked from. */
+  public Program program() {
+    return program;
+  }
+
+  /** The most entries one method's memo table holds. */
+  public int cacheSize() {
+    return cacheSize;
+  }
+
+  /** Whether calls of {@code method} (the declaration instance in the checked program) may be memoized. */
+  public boolean isMemoized(MethodDef method) {
+    return memoized.contains(method);
+  }
+
+  /** How many methods were picked. */
+  public int memoizedCount() {
+    return memoized.size();
+  }
+
+  private static boolean isPrimitive(VarDecStmt param) {
+    return param.type().equals("Int") || param.type().equals("Boolean");
+  }
+
+  private static boolean callsItself(MethodDef method, Map<MethodDef, List<MethodDef>> callees) {
+    Set<MethodDef> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<MethodDef> work = new ArrayDeque<>(callees.get(method));
+    while (!work.isEmpty()) {
+      MethodDef next = work.pop();
+      if (next == method) {
+        return true;
+      }
+      if (seen.add(next)) {
+        work.addAll(callees.get(next));
+      }
+    }
+    return false;
+  }
+
+  /** Collects the one method each call of a method body runs, and the methods with a call that can run several. */
+  private static final class Collector extends TypedWalker {
+    final Map<MethodDef, List<MethodDef>> callees = new IdentityHashMap<>();
+    final Set<MethodDef> dispatching = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Reachability reachability;
+    private MethodDef method;
+
+    Collector(TypedProgram typed) {
+      super(typed);
+      this.reachability = new Reachability(typed);
+    }
+
+    @Override
+    protected void beginBody(ClassDef owner, MethodDef method) {
+      this.method = method;
+      if (method != null) {
+        callees.put(method, new ArrayList<>());
+      }
+    }
+
+    @Override
+    protected void visitLink(int linkId, CallMethodExp.CallLink link) {
+      if (method == null) {
+        return;
+      }
+      List<MethodDef> targets = typed.receiverTypeOf(linkId) instanceof ClassType receiver
+          ? reachability.possibleTargets(receiver.name(), link.methodName())
+          : List.of();
+      if (targets.size() == 1) {
+        callees.get(method).add(targets.getFirst());
+      } else {
+        dispatching.add(method);
+      }
+    }
+  }
+}
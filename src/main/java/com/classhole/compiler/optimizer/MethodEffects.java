@@ -0,0 +1,186 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.AssignStmt;
+import com.classhole.compiler.parser.ast.nodes.statements.PrintStmt;
+import com.classhole.compiler.typechecker.TypedProgram;
+import com.classhole.compiler.typechecker.types.ClassType;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What running each method or constructor of a type-checked program can do, derived from the bodies:
+ * a body has the effects of its own statements and of everything it can call, where a call can
+ * run any of {@link Reachability#possibleTargets} and {@code new C(..)} runs C's constructor chain.
+ * Recursion is handled by iterating to a fixpoint from "no effects".
+ *
+ * A method that at most reads fields is pure: calling it again yields the same value as long as no
+ * field was assigned in between. Purity says nothing about termination or failure (a null receiver),
+ * so a pass may drop or reuse a pure call but must not move one to where it would not have run.
+ *
+ * Call sites are told apart by the identity of their CallLink in the checked program; links this
+ * analysis has not seen, such as those of a rewritten tree, are assumed to do anything.
+ */
+public class MethodEffects {
+  public enum Effect { READS_FIELDS, WRITES_FIELDS, PRINTS, ALLOCATES }
+
+  private static final Set<Effect> ANYTHING = EnumSet.allOf(Effect.class);
+
+  /** One body's own effects and the bodies it can call: MethodDefs, and ClassDefs for constructors. */
+  private static final class Body {
+    final EnumSet<Effect> effects = EnumSet.noneOf(Effect.class);
+    final List<Object> callees = new ArrayList<>();
+  }
+
+  private final Map<String, ClassDef> classes = new HashMap<>();
+  private final Map<Object, Body> bodies = new IdentityHashMap<>();
+  private final Map<CallMethodExp.CallLink, List<MethodDef>> linkTargets = new IdentityHashMap<>();
+
+  public MethodEffects(TypedProgram typed) {
+    Program program = typed.program();
+    for (ClassDef cls : program.classes()) {
+      classes.putIfAbsent(cls.className(), cls);
+    }
+    Reachability reachability = new Reachability(typed);
+    new Collector(typed, reachability).walk();
+
+    // Effects only grow, so this ends after at most one round per effect and call depth
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Body body : bodies.values()) {
+        for (Object callee : body.callees) {
+          Body target = bodies.get(callee);
+          if (target != null) {
+            changed |= body.effects.addAll(target.effects);
+          }
+        }
+      }
+    }
+  }
+
+  /** What calling the method (the declaration instance in the checked program) can do. */
+  public Set<Effect> of(MethodDef method) {
+    Body body = bodies.get(method);
+    return body == null ? ANYTHING : body.effects;
+  }
+
+  /** Whether the method at most reads fields. */
+  public boolean isPure(MethodDef method) {
+    return isPure(of(method));
+  }
+
+  /** What the call can do, over every method it can dispatch to. */
+  public Set<Effect> ofCall(CallMethodExp.CallLink link) {
+    List<MethodDef> targets = linkTargets.get(link);
+    if (targets == null) {
+      return ANYTHING;
+    }
+    EnumSet<Effect> effects = EnumSet.noneOf(Effect.class);
+    for (MethodDef target : targets) {
+      effects.addAll(of(target));
+    }
+    return effects;
+  }
+
+  /** The declared return type of the methods the call can run, or null if the call is unknown or unreached. */
+  public String returnTypeOf(CallMethodExp.CallLink link) {
+    List<MethodDef> targets = linkTargets.get(link);
+    return targets == null || targets.isEmpty() ? null : targets.getFirst().returnType();
+  }
+
+  /** What {@code new className(..)} can do besides evaluating its args: allocate and run the constructors. */
+  public Set<Effect> ofNew(String className) {
+    Body body = bodies.get(classes.get(className));
+    if (body == null) {
+      return ANYTHING;
+    }
+    EnumSet<Effect> effects = EnumSet.of(Effect.ALLOCATES);
+    effects.addAll(body.effects);
+    return effects;
+  }
+
+  public static boolean isPure(Set<Effect> effects) {
+    return !effects.contains(Effect.WRITES_FIELDS) && !effects.contains(Effect.PRINTS)
+        && !effects.contains(Effect.ALLOCATES);
+  }
+
+  /** Collects each body's own effects and callees in one canonical walk. */
+  private final class Collector extends TypedWalker {
+    private final Reachability reachability;
+    private Body body;
+
+    Collector(TypedProgram typed, Reachability reachability) {
+      super(typed);
+      this.reachability = reachability;
+    }
+
+    @Override
+    protected void beginBody(ClassDef owner, MethodDef method) {
+      body = new Body();
+      Object key = method != null ? method : owner != null ? owner : typed.program().entryPoint();
+      bodies.put(key, body);
+      if (method == null && owner != null) {
+        // A constructor runs its superclass's, and sets the defaults of its own fields
+        owner.superClass().map(classes::get).ifPresent(body.callees::add);
+        if (!owner.fields().isEmpty()) {
+          body.effects.add(Effect.WRITES_FIELDS);
+        }
+      }
+    }
+
+    @Override
+    protected void visitStmt(Stmt stmt) {
+      if (stmt instanceof PrintStmt) {
+        body.effects.add(Effect.PRINTS);
+      }
+    }
+
+    @Override
+    protected void visitAssign(int assignId, AssignStmt assign) {
+      if (typed.assignKindOf(assignId) == TypedProgram.VarKind.FIELD) {
+        body.effects.add(Effect.WRITES_FIELDS);
+      }
+    }
+
+    @Override
+    protected void visitExp(int expId, Exp exp) {
+      switch (exp) {
+        case VarExp ignored when typed.varKindOf(expId) == TypedProgram.VarKind.FIELD ->
+            body.effects.add(Effect.READS_FIELDS);
+        case PrintlnExp ignored -> body.effects.add(Effect.PRINTS);
+        case NewObjectExp newObj -> {
+          body.effects.add(Effect.ALLOCATES);
+          if (classes.containsKey(newObj.className())) {
+            body.callees.add(classes.get(newObj.className()));
+          }
+        }
+        default -> { }
+      }
+    }
+
+    @Override
+    protected void visitLink(int linkId, CallMethodExp.CallLink link) {
+      List<MethodDef> targets = typed.receiverTypeOf(linkId) instanceof ClassType receiver
+          ? reachability.possibleTargets(receiver.name(), link.methodName())
+          : List.of();
+      body.callees.addAll(targets);
+      // A rewritten tree may share one link instance between sites; it can then run any of their targets
+      List<MethodDef> known = linkTargets.computeIfAbsent(link, k -> new ArrayList<>());
+      for (MethodDef target : targets) {
+        if (known.stream().noneMatch(def -> def == target)) known.add(target);
+      }
+    }
+  }
+}
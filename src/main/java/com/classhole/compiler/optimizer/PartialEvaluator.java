@@ -0,0 +1,368 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.ConstructorDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+import com.classhole.compiler.typechecker.TypedProgram;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partial evaluation: runs calls whose inputs are all known at compile time, such as
+ * {@code new Config().maxRetries()}, in an interpreter inside the compiler and replaces each by the
+ * literal it returns, so the generated program does not redo the work every time it starts.
+ *
+ * A call is run if it is closed: its receiver and arguments are built from literals, {@code new},
+ * arithmetic and other calls alone, never from a local, a field or {@code this}. The objects it
+ * creates are then unreachable once it returns, so apart from printing nothing it does can be
+ * seen. Calls that may print according to {@link MethodEffects} are not run, and the interpreter
+ * gives up on reaching a print regardless. It also gives up when a call runs out of fuel (each
+ * statement and expression evaluated costs one), time or stack, when it fails (a null receiver,
+ * division by zero, reading a variable never assigned), or when it returns an object; the call then
+ * stays as it was. Arithmetic is that of {@link ConstantFolder#foldBinary}. A call statement that
+ * ran is deleted, as it did nothing anyone can see.
+ *
+ * Objects are built the way the default layout's generated constructors build them: a class's own
+ * fields get their defaults, then its super(...) runs, then its body.
+ */
+public class PartialEvaluator extends AstRewriter {
+  /** What one call may evaluate unless told otherwise. */
+  public static final long DEFAULT_FUEL = 100_000;
+  /** How long one call may run unless told otherwise. */
+  public static final long DEFAULT_TIME_LIMIT_MILLIS = 50;
+  // Calls and constructors in progress at once, well within the JVM's stack
+  private static final int MAX_DEPTH = 256;
+
+  private final TypedProgram typed;
+  private final MethodEffects effects;
+  private final Map<String, ClassDef> classes = new HashMap<>();
+  private long fuel = DEFAULT_FUEL;
+  private long timeLimitMillis = DEFAULT_TIME_LIMIT_MILLIS;
+  private int evaluatedCount = 0;
+
+  public PartialEvaluator(TypedProgram typed) {
+    this.typed = typed;
+    this.effects = new MethodEffects(typed);
+    for (ClassDef cls : typed.program().classes()) {
+      classes.putIfAbsent(cls.className(), cls);
+    }
+  }
+
+  /** Gives up on a call after {@code fuel} statements and expressions. */
+  public PartialEvaluator fuel(long fuel) {
+    this.fuel = fuel;
+    return this;
+  }
+
+  /** Gives up on a call after {@code millis} milliseconds. */
+  public PartialEvaluator timeLimitMillis(long millis) {
+    this.timeLimitMillis = millis;
+    return this;
+  }
+
+  /** Evaluates the closed calls of {@code program}, which must be the program that was type checked. */
+  @Override
+  public Program rewrite(Program program) {
+    if (program != typed.program()) {
+      throw new IllegalArgumentException("Program was not the one type checked");
+    }
+    evaluatedCount = 0;
+    return super.rewrite(program);
+  }
+
+  /** Calls replaced or deleted by the last {@link #rewrite}. */
+  public int evaluatedCount() {
+    return evaluatedCount;
+  }
+
+  @Override
+  protected Stmt rewriteStmt(Stmt stmt) {
+    if (stmt instanceof ExprStmt exprStmt && exprStmt.exp() instanceof CallMethodExp call && isClosed(call)) {
+      if (new Machine().runs(call)) {
+        evaluatedCount++;
+        return null;
+      }
+      // Its parts are closed too, but are not run again
+      return stmt;
+    }
+    return super.rewriteStmt(stmt);
+  }
+
+  @Override
+  protected Exp rewriteExp(Exp exp) {
+    if (exp instanceof CallMethodExp call && isClosed(call)) {
+      Machine machine = new Machine();
+      if (machine.runs(call) && machine.result instanceof Exp literal) {
+        evaluatedCount++;
+        return literal;
+      }
+    }
+    return super.rewriteExp(exp);
+  }
+
+  /** Whether {@code exp} reads nothing from its surroundings and cannot print. */
+  private boolean isClosed(Exp exp) {
+    return switch (exp) {
+      case IntLiteralExp ignored -> true;
+      case BooleanLiteralExp ignored -> true;
+      case StringLiteralExp ignored -> true;
+      case ParenExp paren -> isClosed(paren.expression());
+      case BinaryExp binary -> isClosed(binary.left()) && isClosed(binary.right());
+      case NewObjectExp newObj -> !effects.ofNew(newObj.className()).contains(MethodEffects.Effect.PRINTS)
+          && newObj.args().stream().allMatch(this::isClosed);
+      case CallMethodExp call -> isClosed(call.receiver()) && call.chain().stream().allMatch(
+          link -> !effects.ofCall(link).contains(MethodEffects.Effect.PRINTS)
+              && link.args().stream().allMatch(this::isClosed));
+      default -> false;   // locals, fields, this, println
+    };
+  }
+
+  // ---- the interpreter ----
+
+  /** Thrown wherever the interpreter gives up; cheap, as it carries no stack trace. */
+  private static final class Abort extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    Abort() {
+      super(null, null, false, false);
+    }
+  }
+
+  private static final Abort ABORT = new Abort();
+
+  /** The value of a local declared but not yet assigned. */
+  private static final Object UNDEFINED = new Object();
+  /** What a statement that breaks out of a loop completes with. */
+  private static final Object BREAK = new Object();
+
+  /** What a statement that returns completes with. */
+  private record Returned(Object value) {}
+
+  /** An object; its fields hold literal Exps for Int, Boolean and String values, Objs, or null. */
+  private static final class Obj {
+    final String className;
+    final Map<String, Object> fields = new HashMap<>();
+
+    Obj(String className) {
+      this.className = className;
+    }
+  }
+
+  /** One running body: its receiver and its scopes of locals, innermost first. */
+  private static final class Frame {
+    final Obj self;
+    final Deque<Map<String, Object>> scopes = new ArrayDeque<>();
+
+    Frame(Obj self, List<VarDecStmt> params, List<Object> args) {
+      if (params.size() != args.size()) {
+        throw ABORT;
+      }
+      this.self = self;
+      Map<String, Object> locals = new HashMap<>();
+      for (int i = 0; i < params.size(); i++) {
+        locals.put(params.get(i).name(), args.get(i));
+      }
+      scopes.push(locals);
+    }
+  }
+
+  /** One evaluation, with its own fuel, deadline and depth. Values are as in {@link Obj}. */
+  private final class Machine {
+    private long fuelLeft = fuel;
+    private final long deadline = System.nanoTime() + timeLimitMillis * 1_000_000;
+    private int depth = 0;
+    Object result;
+
+    /** Evaluates {@code exp} into {@link #result}, or returns false if the interpreter gave up. */
+    boolean runs(Exp exp) {
+      try {
+        result = eval(exp, new Frame(null, List.of(), List.of()));
+        return true;
+      } catch (Abort | StackOverflowError e) {
+        return false;
+      }
+    }
+
+    private void tick() {
+      // Reading the clock costs more than the rest of a step, so it is read every 1024 steps
+      if (--fuelLeft < 0 || ((fuelLeft & 1023) == 0 && System.nanoTime() > deadline)) {
+        throw ABORT;
+      }
+    }
+
+    private Object exec(Stmt stmt, Frame frame) {
+      tick();
+      switch (stmt) {
+        case VarDecStmt varDec -> frame.scopes.peek().put(varDec.name(), UNDEFINED);
+        case AssignStmt assign -> assign(frame, assign.variableName(), eval(assign.expression(), frame));
+        case ExprStmt exprStmt -> eval(exprStmt.exp(), frame);
+        case BlockStmt block -> {
+          return execBlock(block.statements(), frame);
+        }
+        case IfStmt ifStmt -> {
+          if (isTrue(eval(ifStmt.condition(), frame))) {
+            return exec(ifStmt.thenStmt(), frame);
+          }
+          return ifStmt.elseStmt().isPresent() ? exec(ifStmt.elseStmt().get(), frame) : null;
+        }
+        case WhileStmt whileStmt -> {
+          while (isTrue(eval(whileStmt.condition(), frame))) {
+            Object completion = exec(whileStmt.body(), frame);
+            if (completion == BREAK) break;
+            if (completion != null) return completion;
+          }
+        }
+        case ReturnStmt ret -> {
+          return new Returned(ret.expression().isPresent() ? eval(ret.expression().get(), frame) : null);
+        }
+        case BreakStmt ignored -> {
+          return BREAK;
+        }
+        default -> throw ABORT;   // PrintStmt: never print
+      }
+      return null;
+    }
+
+    /** Runs statements in a scope of their own; returns how they completed, null if normally. */
+    private Object execBlock(List<Stmt> stmts, Frame frame) {
+      frame.scopes.push(new HashMap<>());
+      try {
+        for (Stmt stmt : stmts) {
+          Object completion = exec(stmt, frame);
+          if (completion != null) return completion;
+        }
+        return null;
+      } finally {
+        frame.scopes.pop();
+      }
+    }
+
+    private Object eval(Exp exp, Frame frame) {
+      tick();
+      return switch (exp) {
+        case IntLiteralExp ignored -> exp;
+        case BooleanLiteralExp ignored -> exp;
+        case StringLiteralExp ignored -> exp;
+        case ParenExp paren -> eval(paren.expression(), frame);
+        case VarExp var -> lookup(frame, var.name());
+        case ThisExp ignored -> {
+          if (frame.self == null) throw ABORT;
+          yield frame.self;
+        }
+        case BinaryExp binary -> {
+          Object left = eval(binary.left(), frame);
+          Object right = eval(binary.right(), frame);
+          Exp folded = left instanceof Exp l && right instanceof Exp r
+              ? ConstantFolder.foldBinary(binary.operator(), l, r) : null;
+          if (folded == null) throw ABORT;
+          yield folded;
+        }
+        case NewObjectExp newObj -> {
+          ClassDef cls = classes.get(newObj.className());
+          if (cls == null) throw ABORT;
+          Obj obj = new Obj(cls.className());
+          initialize(cls, obj, evalAll(newObj.args(), frame));
+          yield obj;
+        }
+        case CallMethodExp call -> {
+          Object receiver = eval(call.receiver(), frame);
+          for (CallMethodExp.CallLink link : call.chain()) {
+            receiver = invoke(receiver, link.methodName(), evalAll(link.args(), frame));
+          }
+          yield receiver;
+        }
+        default -> throw ABORT;   // println: never print
+      };
+    }
+
+    private List<Object> evalAll(List<Exp> exps, Frame frame) {
+      List<Object> values = new ArrayList<>(exps.size());
+      for (Exp exp : exps) {
+        values.add(eval(exp, frame));
+      }
+      return values;
+    }
+
+    private Object invoke(Object receiver, String name, List<Object> args) {
+      // A null receiver fails; primitives have no methods
+      if (!(receiver instanceof Obj obj)) throw ABORT;
+      MethodDef method = null;
+      for (ClassDef cls = classes.get(obj.className); cls != null && method == null; cls = superClassOf(cls)) {
+        method = cls.methods().stream().filter(def -> def.name().equals(name)).findFirst().orElse(null);
+      }
+      if (method == null || ++depth > MAX_DEPTH) throw ABORT;
+      Object completion = execBlock(method.body(), new Frame(obj, method.parameters(), args));
+      depth--;
+      return completion instanceof Returned returned ? returned.value() : null;
+    }
+
+    /** Runs the constructor of {@code cls} on {@code obj}, and through super(...) those above it. */
+    private void initialize(ClassDef cls, Obj obj, List<Object> args) {
+      ConstructorDef ctor = cls.constructor();
+      if (++depth > MAX_DEPTH) throw ABORT;
+      Frame frame = new Frame(obj, ctor.parameters(), args);
+      for (VarDecStmt field : cls.fields()) {
+        obj.fields.put(field.name(), defaultValue(field.type()));
+      }
+      if (ctor.superArgs().isPresent()) {
+        ClassDef parent = superClassOf(cls);
+        if (parent == null) throw ABORT;
+        initialize(parent, obj, evalAll(ctor.superArgs().get(), frame));
+      }
+      execBlock(ctor.body(), frame);
+      depth--;
+    }
+
+    private Object lookup(Frame frame, String name) {
+      for (Map<String, Object> scope : frame.scopes) {
+        if (scope.containsKey(name)) {
+          Object value = scope.get(name);
+          if (value == UNDEFINED) throw ABORT;
+          return value;
+        }
+      }
+      // Not a local, so a field; one no constructor has set yet is undefined
+      if (frame.self == null || !frame.self.fields.containsKey(name)) throw ABORT;
+      return frame.self.fields.get(name);
+    }
+
+    private void assign(Frame frame, String name, Object value) {
+      for (Map<String, Object> scope : frame.scopes) {
+        if (scope.containsKey(name)) {
+          scope.put(name, value);
+          return;
+        }
+      }
+      if (frame.self == null) throw ABORT;
+      frame.self.fields.put(name, value);
+    }
+
+    private boolean isTrue(Object value) {
+      if (!(value instanceof BooleanLiteralExp bool)) throw ABORT;
+      return bool.value();
+    }
+  }
+
+  private ClassDef superClassOf(ClassDef cls) {
+    return cls.superClass().map(classes::get).orElse(null);
+  }
+
+  private static Object defaultValue(String type) {
+    return switch (type) {
+      case "Int" -> new IntLiteralExp(0);
+      case "Boolean" -> new BooleanLiteralExp(false);
+      case "String" -> new StringLiteralExp("");
+      default -> null;
+    };
+  }
+}
@@ -0,0 +1,273 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+import com.classhole.compiler.typechecker.TypeChecker;
+import com.classhole.compiler.typechecker.TypedProgram;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Runs an ordered list of AST passes over a checked program, re-checking after each pass that
+ * changes it so the next one gets types for the rewritten tree, and records what each pass cost
+ * and did. {@link #forLevel} gives the presets behind -O0, -O1 and -O2.
+ *
+ * Nodes are the program's classes, fields, methods, statements and expressions. Passes copy only
+ * the spine above what they rewrite, so a pass's rewritten nodes are those of its result that were
+ * not in its input (the copied spine included) and its removed nodes those of its input that are
+ * not in its result.
+ */
+public class PassManager {
+  public enum Level {
+    /** No optimization: the fastest build. */
+    O0,
+    /** Cheap whole-program cleanups: constant folding, unreachable code, tree shaking. */
+    O1,
+    /** Everything, in the order each pass sets up the next. */
+    O2;
+
+    /** Parses a command-line flag such as {@code -O1}. */
+    public static Level parse(String flag) {
+      for (Level level : values()) {
+        if (flag.equals("-" + level.name())) return level;
+      }
+      throw new IllegalArgumentException("Unknown optimization level " + flag + "; expected -O0, -O1 or -O2");
+    }
+  }
+
+  /** One pass over a checked program; returns the program itself when it changes nothing. */
+  public interface Pass {
+    String name();
+
+    Program run(TypedProgram typed);
+
+    static Pass of(String name, Function<TypedProgram, Program> run) {
+      return new Pass() {
+        @Override
+        public String name() {
+          return name;
+        }
+
+        @Override
+        public Program run(TypedProgram typed) {
+          return run.apply(typed);
+        }
+      };
+    }
+  }
+
+  /**
+   * What one pass cost and did. Time includes re-checking the result; allocated bytes are -1
+   * where the JVM cannot measure them. A skipped pass has no cost and changes nothing.
+   */
+  public record PassMetrics(String name, boolean skipped, long nanos, long allocatedBytes,
+      int nodesBefore, int nodesAfter, int nodesRemoved, int nodesRewritten) {
+
+    public boolean changed() {
+      return nodesRemoved > 0 || nodesRewritten > 0;
+    }
+  }
+
+  private final List<Pass> passes = new ArrayList<>();
+  private final Set<String> disabled = new HashSet<>();
+  private final List<PassMetrics> metrics = new ArrayList<>();
+
+  public static PassManager forLevel(Level level) {
+    PassManager manager = new PassManager();
+    if (level == Level.O0) {
+      return manager;
+    }
+    if (level == Level.O2) {
+      manager.add(Pass.of("partial-evaluation", typed -> new PartialEvaluator(typed).rewrite(typed.program())));
+    }
+    manager.add(Pass.of("constant-folding", typed -> new ConstantFolder().rewrite(typed.program())));
+    manager.add(Pass.of("unreachable-code", typed -> new UnreachableCodeEliminator().rewrite(typed.program())));
+    if (level == Level.O2) {
+      manager.add(Pass.of("tail-calls", typed -> new TailCallEliminator(typed).rewrite(typed.program())));
+      manager.add(Pass.of("inlining", typed -> new Inliner(typed).rewrite(typed.program())));
+      manager.add(Pass.of("scalar-replacement", typed -> new ScalarReplacer(typed).rewrite(typed.program())));
+      manager.add(Pass.of("loop-invariants", typed -> new LoopInvariantCodeMotion(typed).rewrite(typed.program())));
+      manager.add(Pass.of("strength-reduction",
+          typed -> new LoopStrengthReducer(typed).unrollLimit(4).rewrite(typed.program())));
+      // After strength reduction, so it does not leave a copy of each product it reduces
+      manager.add(Pass.of("common-subexpressions", typed -> new CommonSubexpressionEliminator(typed).rewrite(typed.program())));
+      // The passes above leave constants to fold and empty blocks behind
+      manager.add(Pass.of("constant-folding", typed -> new ConstantFolder().rewrite(typed.program())));
+      manager.add(Pass.of("unreachable-code", typed -> new UnreachableCodeEliminator().rewrite(typed.program())));
+    }
+    manager.add(Pass.of("tree-shaking", typed -> new TreeShaker().shake(typed)));
+    return manager;
+  }
+
+  /** Appends a pass to run after those already added. */
+  public PassManager add(Pass pass) {
+    passes.add(pass);
+    return this;
+  }
+
+  /** Skips every run of the pass named {@code name}; it is still listed in the metrics. */
+  public PassManager disable(String name) {
+    disabled.add(name);
+    return this;
+  }
+
+  public List<Pass> passes() {
+    return passes;
+  }
+
+  /** The metrics of the last run, one per pass in order. */
+  public List<PassMetrics> metrics() {
+    return metrics;
+  }
+
+  /** Checks {@code program}, which must type check, and runs the passes over it. */
+  public TypedProgram run(Program program) {
+    return run(new TypeChecker().check(program));
+  }
+
+  /** Runs the passes in order and returns the checked result, {@code typed} itself if none changed anything. */
+  public TypedProgram run(TypedProgram typed) {
+    metrics.clear();
+    Set<Object> nodes = nodesOf(typed.program());
+    for (Pass pass : passes) {
+      if (disabled.contains(pass.name())) {
+        metrics.add(new PassMetrics(pass.name(), true, 0, 0, nodes.size(), nodes.size(), 0, 0));
+        continue;
+      }
+      long allocatedBefore = allocatedBytes();
+      long start = System.nanoTime();
+      Program program = pass.run(typed);
+      boolean changed = program != typed.program();
+      if (changed) {
+        typed = new TypeChecker().check(program);
+      }
+      long nanos = System.nanoTime() - start;
+      long allocatedAfter = allocatedBytes();
+      long allocated = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+
+      if (!changed) {
+        metrics.add(new PassMetrics(pass.name(), false, nanos, allocated, nodes.size(), nodes.size(), 0, 0));
+        continue;
+      }
+      Set<Object> after = nodesOf(program);
+      int rewritten = 0;
+      for (Object node : after) {
+        if (!nodes.contains(node)) rewritten++;
+      }
+      int removed = nodes.size() - (after.size() - rewritten);
+      metrics.add(new PassMetrics(pass.name(), false, nanos, allocated, nodes.size(), after.size(), removed, rewritten));
+      nodes = after;
+    }
+    return typed;
+  }
+
+  /** A table of the last run's metrics, one line per pass, for tuning build latency. */
+  public String report() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-24s %10s %12s %8s %8s %9s%n", "pass", "ms", "allocated", "nodes", "removed", "rewritten"));
+    for (PassMetrics m : metrics) {
+      if (m.skipped()) {
+        sb.append(String.format("%-24s %10s%n", m.name(), "skipped"));
+        continue;
+      }
+      sb.append(String.format("%-24s %10.3f %12s %8d %8d %9d%n", m.name(), m.nanos() / 1e6,
+          m.allocatedBytes() < 0 ? "n/a" : String.valueOf(m.allocatedBytes()), m.nodesAfter(), m.nodesRemoved(),
+          m.nodesRewritten()));
+    }
+    return sb.toString();
+  }
+
+  /** The bytes this thread has allocated so far, or -1 if the JVM does not say. */
+  private static long allocatedBytes() {
+    if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+        && threads.isThreadAllocatedMemoryEnabled()) {
+      return threads.getCurrentThreadAllocatedBytes();
+    }
+    return -1;
+  }
+
+  // ---- nodes ----
+
+  /** Every node of {@code program}, by identity: records that are equal are still different nodes. */
+  static Set<Object> nodesOf(Program program) {
+    Set<Object> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+    nodes.add(program);
+    for (ClassDef cls : program.classes()) {
+      nodes.add(cls);
+      nodes.addAll(cls.fields());
+      cls.constructor().superArgs().ifPresent(args -> addExps(args, nodes));
+      addStmts(cls.constructor().body(), nodes);
+      for (MethodDef method : cls.methods()) {
+        nodes.add(method);
+        addStmts(method.body(), nodes);
+      }
+    }
+    addStmts(program.entryPoint(), nodes);
+    return nodes;
+  }
+
+  private static void addStmts(List<Stmt> stmts, Set<Object> nodes) {
+    for (Stmt stmt : stmts) {
+      addStmt(stmt, nodes);
+    }
+  }
+
+  private static void addStmt(Stmt stmt, Set<Object> nodes) {
+    nodes.add(stmt);
+    switch (stmt) {
+      case AssignStmt assign -> addExp(assign.expression(), nodes);
+      case BlockStmt block -> addStmts(block.statements(), nodes);
+      case ExprStmt exprStmt -> addExp(exprStmt.exp(), nodes);
+      case PrintStmt print -> addExp(print.expression(), nodes);
+      case ReturnStmt ret -> ret.expression().ifPresent(exp -> addExp(exp, nodes));
+      case IfStmt ifStmt -> {
+        addExp(ifStmt.condition(), nodes);
+        addStmt(ifStmt.thenStmt(), nodes);
+        ifStmt.elseStmt().ifPresent(elseStmt -> addStmt(elseStmt, nodes));
+      }
+      case WhileStmt whileStmt -> {
+        addExp(whileStmt.condition(), nodes);
+        addStmt(whileStmt.body(), nodes);
+      }
+      default -> { }   // VarDecStmt, BreakStmt
+    }
+  }
+
+  private static void addExps(List<Exp> exps, Set<Object> nodes) {
+    for (Exp exp : exps) {
+      addExp(exp, nodes);
+    }
+  }
+
+  private static void addExp(Exp exp, Set<Object> nodes) {
+    nodes.add(exp);
+    switch (exp) {
+      case BinaryExp binary -> {
+        addExp(binary.left(), nodes);
+        addExp(binary.right(), nodes);
+      }
+      case ParenExp paren -> addExp(paren.expression(), nodes);
+      case PrintlnExp println -> addExp(println.exp(), nodes);
+      case NewObjectExp newObj -> addExps(newObj.args(), nodes);
+      case CallMethodExp call -> {
+        addExp(call.receiver(), nodes);
+        for (CallMethodExp.CallLink link : call.chain()) {
+          addExps(link.args(), nodes);
+        }
+      }
+      default -> { }   // literals, VarExp, ThisExp
+    }
+  }
+}
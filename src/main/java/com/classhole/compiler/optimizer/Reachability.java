@@ -0,0 +1,274 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.CallMethodExp;
+import com.classhole.compiler.parser.ast.nodes.expressions.NewObjectExp;
+import com.classhole.compiler.parser.ast.nodes.expressions.VarExp;
+import com.classhole.compiler.parser.ast.nodes.statements.AssignStmt;
+import com.classhole.compiler.parser.ast.nodes.statements.VarDecStmt;
+import com.classhole.compiler.typechecker.TypedProgram;
+import com.classhole.compiler.typechecker.types.ClassType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Whole-program reachability from the entry point, in the style of rapid type analysis (RTA).
+ *
+ * A body is reachable if the entry point can get to it. Analyzing a reachable body:
+ * - {@code new C(...)} instantiates C: C and its superclasses become live and their constructors reachable
+ * - a call {@code m} on a receiver of static type T reaches the method T resolves m to, and the
+ *   override of m in every instantiated subclass of T, including classes instantiated later
+ * - a field read or assigned is used, in the class that declares it
+ * - a class named as a type (locals, parameters, return and field types) is kept live, so the
+ *   program left after dropping everything else still type checks
+ *
+ * The statically resolved target is kept even when no instantiated class could dispatch to it,
+ * for the same reason. Each body is analyzed once, so the whole analysis is linear in the size of
+ * the program plus one step per (instantiated class, call site) pair that can actually dispatch.
+ */
+public class Reachability {
+  /** What one body can reach, collected once from the TypedProgram. */
+  private static final class Body {
+    final List<String> instantiated = new ArrayList<>();
+    final List<String[]> calls = new ArrayList<>();   // {receiver class, method}
+    final List<String[]> fields = new ArrayList<>();  // {declaring class, field}
+    final List<String> types = new ArrayList<>();
+  }
+
+  private final Map<String, ClassDef> classes = new HashMap<>();
+  private final Map<Object, Body> bodies = new IdentityHashMap<>();
+  private final Deque<Body> worklist = new ArrayDeque<>();
+
+  private final Set<String> live = new LinkedHashSet<>();
+  private final Set<String> instantiated = new HashSet<>();
+  private final Set<MethodDef> reachable = Collections.newSetFromMap(new IdentityHashMap<>());
+  private final Set<String> usedFields = new HashSet<>();
+  // Call sites seen so far, by receiver class, and the instantiated subclasses of each class
+  private final Map<String, Set<String>> callsOn = new HashMap<>();
+  private final Map<String, List<String>> instantiatedBelow = new HashMap<>();
+
+  public Reachability(TypedProgram typed) {
+    Program program = typed.program();
+    for (ClassDef cls : program.classes()) {
+      classes.putIfAbsent(cls.className(), cls);
+    }
+    new Collector(typed).walk();
+
+    worklist.add(bodies.get(program.entryPoint()));
+    while (!worklist.isEmpty()) {
+      Body body = worklist.poll();
+      body.types.forEach(this::keepClass);
+      body.instantiated.forEach(this::instantiate);
+      for (String[] call : body.calls) {
+        call(call[0], call[1]);
+      }
+      for (String[] field : body.fields) {
+        useField(field[0], field[1]);
+      }
+    }
+  }
+
+  /** Whether the class must stay: it is instantiated, a superclass of a live class, or named as a type. */
+  public boolean isLive(String className) {
+    return live.contains(className);
+  }
+
+  public boolean isInstantiated(String className) {
+    return instantiated.contains(className);
+  }
+
+  /** Whether the method (the declaration instance in the checked program) can be called. */
+  public boolean isReachable(MethodDef method) {
+    return reachable.contains(method);
+  }
+
+  /** Whether reachable code reads or assigns the field {@code className} declares. */
+  public boolean isFieldUsed(String className, String fieldName) {
+    return usedFields.contains(className + "." + fieldName);
+  }
+
+  /**
+   * The class declaring the one method a call of {@code method} on a receiver of static type
+   * {@code receiverClass} can run, or null if instances of several classes with different
+   * implementations reach it, or none at all (the receiver can then only be null).
+   */
+  public ClassDef singleTarget(String receiverClass, String method) {
+    ClassDef target = null;
+    for (String subclass : instantiatedBelow.getOrDefault(receiverClass, List.of())) {
+      ClassDef owner = declaringClass(subclass, method);
+      if (owner == null || (target != null && owner != target)) {
+        return null;
+      }
+      target = owner;
+    }
+    return target;
+  }
+
+  /**
+   * Every method a call of {@code method} on a receiver of static type {@code receiverClass} can run:
+   * the implementations instantiated subclasses dispatch to, and the statically resolved one.
+   */
+  public List<MethodDef> possibleTargets(String receiverClass, String method) {
+    List<MethodDef> targets = new ArrayList<>();
+    ClassDef resolved = declaringClass(receiverClass, method);
+    if (resolved != null) {
+      targets.add(methodOf(resolved, method));
+    }
+    for (String subclass : instantiatedBelow.getOrDefault(receiverClass, List.of())) {
+      ClassDef owner = declaringClass(subclass, method);
+      MethodDef def = owner == null ? null : methodOf(owner, method);
+      if (def != null && targets.stream().noneMatch(target -> target == def)) {
+        targets.add(def);
+      }
+    }
+    return targets;
+  }
+
+  // ---- the worklist ----
+
+  private void keepClass(String name) {
+    ClassDef cls = classes.get(name);
+    // Type checked, so the superclass chain ends; stop at the first class already live
+    while (cls != null && live.add(cls.className())) {
+      ClassDef current = cls;
+      current.constructor().parameters().forEach(param -> keepClass(param.type()));
+      worklist.add(bodies.get(current));
+      cls = current.superClass().map(classes::get).orElse(null);
+    }
+  }
+
+  private void instantiate(String name) {
+    keepClass(name);
+    if (!classes.containsKey(name) || !instantiated.add(name)) {
+      return;
+    }
+    for (ClassDef cls = classes.get(name); cls != null; cls = cls.superClass().map(classes::get).orElse(null)) {
+      instantiatedBelow.computeIfAbsent(cls.className(), k -> new ArrayList<>()).add(name);
+      for (String method : callsOn.getOrDefault(cls.className(), Set.of())) {
+        reach(name, method);
+      }
+    }
+  }
+
+  private void call(String receiverClass, String method) {
+    if (!callsOn.computeIfAbsent(receiverClass, k -> new HashSet<>()).add(method)) {
+      return;
+    }
+    reach(receiverClass, method);
+    for (String subclass : instantiatedBelow.getOrDefault(receiverClass, List.of())) {
+      reach(subclass, method);
+    }
+  }
+
+  /** Marks the method a receiver of runtime class {@code className} dispatches {@code method} to. */
+  private void reach(String className, String method) {
+    ClassDef owner = declaringClass(className, method);
+    if (owner == null) {
+      return;
+    }
+    MethodDef def = methodOf(owner, method);
+    if (reachable.add(def)) {
+      keepClass(owner.className());
+      def.parameters().forEach(param -> keepClass(param.type()));
+      keepClass(def.returnType());
+      worklist.add(bodies.get(def));
+    }
+  }
+
+  /** The class whose declaration of {@code method} a receiver of runtime class {@code className} runs. */
+  private ClassDef declaringClass(String className, String method) {
+    for (ClassDef cls = classes.get(className); cls != null; cls = cls.superClass().map(classes::get).orElse(null)) {
+      if (methodOf(cls, method) != null) return cls;
+    }
+    return null;
+  }
+
+  private static MethodDef methodOf(ClassDef cls, String method) {
+    for (MethodDef def : cls.methods()) {
+      if (def.name().equals(method)) return def;
+    }
+    return null;
+  }
+
+  private void useField(String className, String field) {
+    if (!usedFields.add(className + "." + field)) {
+      return;
+    }
+    for (VarDecStmt decl : classes.get(className).fields()) {
+      if (decl.name().equals(field)) keepClass(decl.type());
+    }
+  }
+
+  /** Collects the facts of every body in one canonical walk. */
+  private final class Collector extends TypedWalker {
+    private Body body;
+    private ClassDef owner;
+
+    Collector(TypedProgram typed) {
+      super(typed);
+    }
+
+    @Override
+    protected void beginBody(ClassDef owner, MethodDef method) {
+      this.owner = owner;
+      body = new Body();
+      Object key = method != null ? method : owner != null ? owner : typed.program().entryPoint();
+      bodies.put(key, body);
+    }
+
+    @Override
+    protected void visitStmt(Stmt stmt) {
+      if (stmt instanceof VarDecStmt varDec) {
+        body.types.add(varDec.type());
+      }
+    }
+
+    @Override
+    protected void visitAssign(int assignId, AssignStmt assign) {
+      if (typed.assignKindOf(assignId) == TypedProgram.VarKind.FIELD) {
+        field(assign.variableName());
+      }
+    }
+
+    @Override
+    protected void visitExp(int expId, Exp exp) {
+      if (exp instanceof NewObjectExp newObj) {
+        body.instantiated.add(newObj.className());
+      } else if (exp instanceof VarExp var && typed.varKindOf(expId) == TypedProgram.VarKind.FIELD) {
+        field(var.name());
+      }
+    }
+
+    @Override
+    protected void visitLink(int linkId, CallMethodExp.CallLink link) {
+      if (typed.receiverTypeOf(linkId) instanceof ClassType receiver) {
+        body.calls.add(new String[] {receiver.name(), link.methodName()});
+      }
+    }
+
+    private void field(String name) {
+      for (ClassDef cls = owner; cls != null; cls = cls.superClass().map(classes::get).orElse(null)) {
+        for (VarDecStmt decl : cls.fields()) {
+          if (decl.name().equals(name)) {
+            body.fields.add(new String[] {cls.className(), name});
+            return;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,413 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.ConstructorDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+import com.classhole.compiler.typechecker.ClassTable;
+import com.classhole.compiler.typechecker.TypedProgram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Escape analysis and scalar replacement of allocations, one body at a time.
+ *
+ * A local of class type does not escape if it is assigned exactly once, from {@code new C(...)},
+ * and every other use of it is the receiver of a single call {@code p.m(...)}. Its class is then
+ * known exactly, so each call is bound statically (no dispatch to devirtualize) and is replaced by
+ * the body of C's {@code m}; the allocation is replaced by the constructor bodies along C's
+ * superclass chain. The object's fields become locals of the enclosing body, named after the
+ * variable ({@code p$x$1}), and the {@code new} disappears.
+ *
+ * That takes every body involved (constructors and called methods) to be straight-line and within
+ * the inlining budget, with no {@code this} that could leak the object, every class on the chain
+ * to pass super(...) args, and every field to be Int or Boolean, the types whose default value
+ * the language can spell. Calls are inlined the way {@link Inliner} does it: as an expression
+ * where the evaluation order allows, otherwise as a block when the call is a whole statement.
+ * If any use cannot be inlined, the object is left alone.
+ */
+public class ScalarReplacer extends AstRewriter {
+
+  /** A local that may hold a non-escaping object. */
+  private static final class Candidate {
+    final VarDecStmt declaration;
+    NewObjectExp allocation;
+    boolean escapes;
+    final List<CallMethodExp> calls = new ArrayList<>();
+    final Map<CallMethodExp, Boolean> needsValue = new IdentityHashMap<>();  // statement-level calls
+    // Set once the candidate is replaced
+    final Map<String, Exp> fieldValues = new LinkedHashMap<>();
+    final Map<String, String> fieldTypes = new LinkedHashMap<>();
+
+    Candidate(VarDecStmt declaration) {
+      this.declaration = declaration;
+    }
+  }
+
+  /** How one call on a replaced object is inlined. */
+  private record Use(Candidate candidate, Inliner.Callee callee, boolean asExpression) {}
+
+  private final TypedProgram typed;
+  private final ClassTable classTable = new ClassTable();
+  private final Map<String, ClassDef> classes = new HashMap<>();
+  private final int budget;
+  private int replacedCount = 0;
+  private int fresh;
+
+  // The body being rewritten
+  private final ConstantFolder.Scopes scopes = new ConstantFolder.Scopes();
+  private final Set<String> locals = new HashSet<>();
+  private Map<VarDecStmt, Candidate> candidates = new IdentityHashMap<>();
+  private final Map<VarDecStmt, Candidate> replaced = new IdentityHashMap<>();
+  private final Map<AssignStmt, Candidate> allocations = new IdentityHashMap<>();
+  private final Map<CallMethodExp, Use> uses = new IdentityHashMap<>();
+
+  public ScalarReplacer(TypedProgram typed) {
+    this(typed, Inliner.DEFAULT_BUDGET);
+  }
+
+  public ScalarReplacer(TypedProgram typed, int budget) {
+    this.typed = typed;
+    this.budget = budget;
+    // Field and parameter locals are numbered after any renamed local already in the program, from 1
+    this.fresh = Math.max(1, firstUnusedSuffix(typed.program()));
+    for (ClassDef cls : typed.program().classes()) {
+      classTable.addClass(cls);
+      classes.putIfAbsent(cls.className(), cls);
+    }
+  }
+
+  /** Rewrites {@code program}, which must be the program that was type checked. */
+  @Override
+  public Program rewrite(Program program) {
+    if (program != typed.program()) {
+      throw new IllegalArgumentException("Program was not the one type checked");
+    }
+    replacedCount = 0;
+    return super.rewrite(program);
+  }
+
+  /** Allocations the last {@link #rewrite} replaced by locals. */
+  public int replacedCount() {
+    return replacedCount;
+  }
+
+  @Override
+  protected void beginBody(ClassDef owner, List<VarDecStmt> parameters) {
+    locals.clear();
+    parameters.forEach(param -> locals.add(param.name()));
+  }
+
+  @Override
+  protected List<Stmt> rewriteBody(List<Stmt> body) {
+    candidates = new IdentityHashMap<>();
+    replaced.clear();
+    allocations.clear();
+    uses.clear();
+    scopes.reset();
+    scopes.open();
+    analyzeStmts(body);
+    scopes.close();
+
+    for (Candidate candidate : candidates.values()) {
+      if (!candidate.escapes && candidate.allocation != null && plan(candidate)) {
+        replaced.put(candidate.declaration, candidate);
+        replacedCount++;
+      }
+    }
+    if (replaced.isEmpty()) {
+      return body;
+    }
+    for (AssignStmt assign : new ArrayList<>(allocations.keySet())) {
+      if (!replaced.containsValue(allocations.get(assign))) allocations.remove(assign);
+    }
+    uses.values().removeIf(use -> !replaced.containsValue(use.candidate()));
+    return super.rewriteBody(body);
+  }
+
+  // ---- escape analysis ----
+
+  private void analyzeStmts(List<Stmt> stmts) {
+    for (Stmt stmt : stmts) {
+      analyzeStmt(stmt);
+    }
+  }
+
+  private void analyzeStmt(Stmt stmt) {
+    switch (stmt) {
+      case VarDecStmt varDec -> {
+        scopes.declare(varDec);
+        locals.add(varDec.name());
+        if (classes.containsKey(varDec.type())) {
+          candidates.put(varDec, new Candidate(varDec));
+        }
+      }
+      case AssignStmt assign -> {
+        analyzeTop(assign.expression(), true);
+        Candidate target = candidateOf(assign.variableName());
+        if (target != null) {
+          if (assign.expression() instanceof NewObjectExp newObj && target.allocation == null) {
+            target.allocation = newObj;
+            allocations.put(assign, target);
+          } else {
+            target.escapes = true;
+          }
+        }
+      }
+      case BlockStmt block -> {
+        scopes.open();
+        analyzeStmts(block.statements());
+        scopes.close();
+      }
+      case ExprStmt exprStmt -> analyzeTop(exprStmt.exp(), false);
+      case ReturnStmt ret -> ret.expression().ifPresent(exp -> analyzeTop(exp, true));
+      case PrintStmt print -> analyzeExp(print.expression());
+      case IfStmt ifStmt -> {
+        analyzeExp(ifStmt.condition());
+        analyzeStmt(ifStmt.thenStmt());
+        ifStmt.elseStmt().ifPresent(this::analyzeStmt);
+      }
+      case WhileStmt whileStmt -> {
+        analyzeExp(whileStmt.condition());
+        analyzeStmt(whileStmt.body());
+      }
+      default -> { }
+    }
+  }
+
+  /** An expression that makes up a whole statement, so a call there can also be inlined as a block. */
+  private void analyzeTop(Exp exp, boolean needsValue) {
+    if (exp instanceof CallMethodExp call && call.receiver() instanceof VarExp var
+        && candidateOf(var.name()) != null && call.chain().size() == 1) {
+      candidateOf(var.name()).needsValue.put(call, needsValue);
+    }
+    analyzeExp(exp);
+  }
+
+  private void analyzeExp(Exp exp) {
+    switch (exp) {
+      case VarExp var -> {
+        Candidate candidate = candidateOf(var.name());
+        if (candidate != null) candidate.escapes = true;
+      }
+      case CallMethodExp call -> {
+        Candidate candidate = call.receiver() instanceof VarExp var ? candidateOf(var.name()) : null;
+        if (candidate != null && call.chain().size() == 1) {
+          candidate.calls.add(call);
+        } else {
+          analyzeExp(call.receiver());
+        }
+        call.chain().forEach(link -> link.args().forEach(this::analyzeExp));
+      }
+      case BinaryExp binary -> {
+        analyzeExp(binary.left());
+        analyzeExp(binary.right());
+      }
+      case ParenExp paren -> analyzeExp(paren.expression());
+      case PrintlnExp println -> analyzeExp(println.exp());
+      case NewObjectExp newObj -> newObj.args().forEach(this::analyzeExp);
+      default -> { }
+    }
+  }
+
+  private Candidate candidateOf(String name) {
+    VarDecStmt declaration = scopes.resolve(name);
+    return declaration == null ? null : candidates.get(declaration);
+  }
+
+  /** Decides how to inline every use of the candidate; false if some use cannot be. */
+  private boolean plan(Candidate candidate) {
+    String className = candidate.allocation.className();
+    if (!classes.containsKey(className)) {
+      return false;
+    }
+    Map<String, String> fields = classTable.getAllFields(className);
+    for (String type : fields.values()) {
+      if (defaultValue(type) == null) return false;
+    }
+    for (ClassDef cls = classes.get(className); cls != null; cls = cls.superClass().map(classes::get).orElse(null)) {
+      ConstructorDef ctor = cls.constructor();
+      Inliner.Callee init = Inliner.analyze(cls.className(),
+          new MethodDef("init", ctor.parameters(), "Void", ctor.body()), budget);
+      if (init == null || init.thisExp()
+          || (cls.superClass().isPresent() && ctor.superArgs().isEmpty())
+          || ctor.superArgs().orElse(List.of()).stream().anyMatch(ScalarReplacer::mentionsThis)) {
+        return false;
+      }
+    }
+
+    Map<CallMethodExp, Use> planned = new IdentityHashMap<>();
+    for (CallMethodExp call : candidate.calls) {
+      CallMethodExp.CallLink link = call.chain().getFirst();
+      MethodDef method = classTable.getMethod(className, link.methodName());
+      Inliner.Callee callee = method == null ? null : Inliner.analyze(className, method, budget);
+      if (callee == null || callee.thisExp()) {
+        return false;
+      }
+      // The arguments are checked as written; rewriting them only makes them simpler
+      boolean asExpression = Inliner.inlineExp(callee, link.args(), Map.of(), this::isSimple) != null;
+      Boolean needsValue = candidate.needsValue.get(call);
+      if (!asExpression && (needsValue == null || (needsValue && !callee.returnsValue()))) {
+        return false;
+      }
+      planned.put(call, new Use(candidate, callee, asExpression));
+    }
+    uses.putAll(planned);
+
+    for (Map.Entry<String, String> field : fields.entrySet()) {
+      String local = freshName(candidate.declaration.name() + "$" + field.getKey());
+      candidate.fieldValues.put(field.getKey(), new VarExp(local));
+      candidate.fieldTypes.put(local, field.getValue());
+      locals.add(local);
+    }
+    return true;
+  }
+
+  private boolean isSimple(Exp arg) {
+    return switch (arg) {
+      case IntLiteralExp ignored -> true;
+      case BooleanLiteralExp ignored -> true;
+      case StringLiteralExp ignored -> true;
+      case ThisExp ignored -> true;
+      case VarExp var -> locals.contains(var.name());
+      default -> false;
+    };
+  }
+
+  private static boolean mentionsThis(Exp exp) {
+    return switch (exp) {
+      case ThisExp ignored -> true;
+      case BinaryExp binary -> mentionsThis(binary.left()) || mentionsThis(binary.right());
+      case ParenExp paren -> mentionsThis(paren.expression());
+      case PrintlnExp println -> mentionsThis(println.exp());
+      case NewObjectExp newObj -> newObj.args().stream().anyMatch(ScalarReplacer::mentionsThis);
+      case CallMethodExp call -> mentionsThis(call.receiver())
+          || call.chain().stream().anyMatch(link -> link.args().stream().anyMatch(ScalarReplacer::mentionsThis));
+      default -> false;
+    };
+  }
+
+  private static Exp defaultValue(String type) {
+    return switch (type) {
+      case "Int" -> new IntLiteralExp(0);
+      case "Boolean" -> new BooleanLiteralExp(false);
+      default -> null;
+    };
+  }
+
+  // ---- rewriting ----
+
+  @Override
+  protected List<Stmt> rewriteStmts(List<Stmt> stmts) {
+    List<Stmt> result = new ArrayList<>(stmts.size());
+    boolean changed = false;
+    for (Stmt stmt : stmts) {
+      Candidate candidate = stmt instanceof VarDecStmt varDec ? replaced.get(varDec) : null;
+      if (candidate != null) {
+        candidate.fieldTypes.forEach((local, type) -> result.add(new VarDecStmt(type, local)));
+        changed = true;
+        continue;
+      }
+      Stmt rewritten = rewriteStmt(stmt);
+      changed |= rewritten != stmt;
+      if (rewritten != null) result.add(rewritten);
+    }
+    return changed ? result : stmts;
+  }
+
+  @Override
+  protected Stmt rewriteStmt(Stmt stmt) {
+    switch (stmt) {
+      case AssignStmt assign when allocations.containsKey(assign) -> {
+        Candidate candidate = allocations.get(assign);
+        List<Stmt> block = new ArrayList<>();
+        candidate.fieldValues.forEach((field, local) -> block.add(
+            new AssignStmt(((VarExp) local).name(), defaultValue(classTable.getAllFields(
+                candidate.allocation.className()).get(field)))));
+        construct(candidate.allocation.className(), rewriteExps(candidate.allocation.args()),
+            candidate.fieldValues, block);
+        return new BlockStmt(block);
+      }
+      case ExprStmt exprStmt when isBlockUse(exprStmt.exp()) -> {
+        return inlineBlock((CallMethodExp) exprStmt.exp(), result -> Effects.isPure(result) ? null : new ExprStmt(result));
+      }
+      case AssignStmt assign when isBlockUse(assign.expression()) -> {
+        return inlineBlock((CallMethodExp) assign.expression(), result -> new AssignStmt(assign.variableName(), result));
+      }
+      case ReturnStmt ret when ret.expression().isPresent() && isBlockUse(ret.expression().get()) -> {
+        return inlineBlock((CallMethodExp) ret.expression().get(), result -> new ReturnStmt(Optional.of(result)));
+      }
+      case ExprStmt exprStmt when exprStmt.exp() instanceof CallMethodExp call && uses.containsKey(call) -> {
+        Exp value = rewriteExp(call);
+        return Effects.isPure(value) ? null : new ExprStmt(value);
+      }
+      default -> {
+        return super.rewriteStmt(stmt);
+      }
+    }
+  }
+
+  private boolean isBlockUse(Exp exp) {
+    return exp instanceof CallMethodExp call && uses.containsKey(call) && !uses.get(call).asExpression();
+  }
+
+  private Stmt inlineBlock(CallMethodExp call, Function<Exp, Stmt> useResult) {
+    Use use = uses.get(call);
+    List<Exp> args = rewriteExps(call.chain().getFirst().args());
+    return new BlockStmt(Inliner.inlineBody(use.callee(), args, use.candidate().fieldValues, this::freshName, useResult));
+  }
+
+  @Override
+  protected Exp rewriteExp(Exp exp) {
+    if (exp instanceof CallMethodExp call && uses.containsKey(call)) {
+      Use use = uses.get(call);
+      List<Exp> args = rewriteExps(call.chain().getFirst().args());
+      Exp inlined = Inliner.inlineExp(use.callee(), args, use.candidate().fieldValues, this::isSimple);
+      if (inlined == null) {
+        throw new IllegalStateException("Planned inlining no longer applies: " + call);
+      }
+      return inlined;
+    }
+    return super.rewriteExp(exp);
+  }
+
+  /** Appends the constructor bodies of {@code className} and its superclasses, run on the field locals. */
+  private void construct(String className, List<Exp> args, Map<String, Exp> fieldValues, List<Stmt> out) {
+    ClassDef cls = classes.get(className);
+    ConstructorDef ctor = cls.constructor();
+    Inliner.Substitution substitution = new Inliner.Substitution(this::freshName);
+    substitution.values.putAll(fieldValues);
+    List<VarDecStmt> params = ctor.parameters();
+    for (int i = 0; i < params.size(); i++) {
+      String name = freshName(params.get(i).name());
+      out.add(new VarDecStmt(params.get(i).type(), name));
+      out.add(new AssignStmt(name, args.get(i)));
+      substitution.values.put(params.get(i).name(), new VarExp(name));
+    }
+    if (ctor.superArgs().isPresent()) {
+      construct(cls.superClass().orElseThrow(), substitution.rewriteExps(ctor.superArgs().get()), fieldValues, out);
+    }
+    for (Stmt stmt : ctor.body()) {
+      if (!(stmt instanceof ReturnStmt)) {
+        out.add(substitution.rewriteStmt(stmt));
+      }
+    }
+  }
+
+  private String freshName(String name) {
+    return name + "$" + (fresh++);
+  }
+}
@@ -0,0 +1,223 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+import com.classhole.compiler.typechecker.TypedProgram;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Turns self-recursive tail calls into jumps: a method containing {@code return this.m(args);}
+ * whose call can only run m itself (see {@link Devirtualizer}) gets the body
+ * {@code while (true) { body' }}, where each such return assigns the args to the parameters and
+ * falls through to the end of the loop body, starting the next iteration. Recursion that deep
+ * then runs in constant stack.
+ *
+ * A tail call qualifies where falling through reaches the end of the body: as the last statement,
+ * or in an if whose following statements can be moved into its only branch that completes normally.
+ * Calls inside loops, and ifs whose statements would have to be copied into both branches, are left
+ * as calls. Arguments are evaluated in order; one is bound to a temporary first only if a later
+ * argument reads the parameter it replaces. A Void body that can end without a return gets one.
+ */
+public class TailCallEliminator extends AstRewriter {
+  private final TypedProgram typed;
+  private final Devirtualizer devirtualizer;
+  private int eliminatedCount = 0;
+
+  // The method being rewritten
+  private ClassDef owner;
+  private MethodDef method;
+  private int eliminated;
+
+  public TailCallEliminator(TypedProgram typed) {
+    this.typed = typed;
+    this.devirtualizer = new Devirtualizer(typed);
+  }
+
+  /** Rewrites {@code program}, which must be the program that was type checked. */
+  @Override
+  public Program rewrite(Program program) {
+    if (program != typed.program()) {
+      throw new IllegalArgumentException("Program was not the one type checked");
+    }
+    eliminatedCount = 0;
+    return super.rewrite(program);
+  }
+
+  /** Tail calls turned into loop iterations by the last {@link #rewrite}. */
+  public int eliminatedCount() {
+    return eliminatedCount;
+  }
+
+  /** Only method bodies can call themselves; constructors and the entry point are left alone. */
+  @Override
+  protected List<Stmt> rewriteBody(List<Stmt> body) {
+    return body;
+  }
+
+  @Override
+  protected MethodDef rewriteMethod(ClassDef owner, MethodDef method) {
+    if (shadowsParameter(method)) {
+      return method;
+    }
+    this.owner = owner;
+    this.method = method;
+    eliminated = 0;
+
+    List<Stmt> body = method.body();
+    if (method.returnType().equals("Void") && UnreachableCodeEliminator.canCompleteNormally(new BlockStmt(body))) {
+      body = new ArrayList<>(body);
+      body.add(new ReturnStmt(Optional.empty()));
+    }
+    List<Stmt> loopBody = eliminate(body);
+    if (eliminated == 0) {
+      return method;
+    }
+    eliminatedCount += eliminated;
+    Stmt loop = new WhileStmt(new BooleanLiteralExp(true), new BlockStmt(loopBody));
+    return new MethodDef(method.name(), method.parameters(), method.returnType(), List.of(loop));
+  }
+
+  /**
+   * Rewrites the tail calls of {@code stmts} that can fall through to the end of the list, or
+   * returns the list itself if there are none.
+   */
+  private List<Stmt> eliminate(List<Stmt> stmts) {
+    for (int i = 0; i < stmts.size(); i++) {
+      Stmt stmt = stmts.get(i);
+      Stmt rewritten = null;
+      if (stmt instanceof ReturnStmt ret && isSelfTailCall(ret)) {
+        // Anything after the return is dead
+        List<Stmt> result = new ArrayList<>(stmts.subList(0, i));
+        result.add(rebind((CallMethodExp) ret.expression().get()));
+        eliminated++;
+        return result;
+      } else if (stmt instanceof IfStmt ifStmt) {
+        rewritten = eliminate(ifStmt, stmts.subList(i + 1, stmts.size()));
+      } else if (stmt instanceof BlockStmt block && i == stmts.size() - 1) {
+        List<Stmt> inner = eliminate(block.statements());
+        rewritten = inner == block.statements() ? null : new BlockStmt(inner);
+      }
+      if (rewritten != null) {
+        List<Stmt> result = new ArrayList<>(stmts.subList(0, i));
+        result.add(rewritten);
+        // An if took the statements after it into its branches
+        if (!(stmt instanceof IfStmt)) {
+          result.addAll(stmts.subList(i + 1, stmts.size()));
+        }
+        return result;
+      }
+    }
+    return stmts;
+  }
+
+  /** The if with {@code rest} moved into the branch that falls through and its tail calls rewritten, or null. */
+  private Stmt eliminate(IfStmt ifStmt, List<Stmt> rest) {
+    Stmt elseStmt = ifStmt.elseStmt().orElse(new BlockStmt(List.of()));
+    boolean thenFalls = UnreachableCodeEliminator.canCompleteNormally(ifStmt.thenStmt());
+    boolean elseFalls = UnreachableCodeEliminator.canCompleteNormally(elseStmt);
+    if (!rest.isEmpty() && thenFalls && elseFalls) {
+      return null;
+    }
+    int before = eliminated;
+    List<Stmt> thenStmts = branch(ifStmt.thenStmt(), thenFalls ? rest : List.of());
+    List<Stmt> elseStmts = branch(elseStmt, elseFalls ? rest : List.of());
+    if (thenStmts == null || elseStmts == null || eliminated == before) {
+      eliminated = before;
+      return null;
+    }
+    Optional<Stmt> newElse = elseStmts.isEmpty() ? Optional.empty() : Optional.of(new BlockStmt(elseStmts));
+    return new IfStmt(ifStmt.condition(), new BlockStmt(thenStmts), newElse);
+  }
+
+  /** A branch followed by {@code rest}, rewritten; null if the branch's locals would capture names in rest. */
+  private List<Stmt> branch(Stmt branch, List<Stmt> rest) {
+    List<Stmt> stmts = branch instanceof BlockStmt block ? block.statements() : List.of(branch);
+    if (!rest.isEmpty() && stmts.stream().anyMatch(stmt -> stmt instanceof VarDecStmt)) {
+      return null;
+    }
+    List<Stmt> combined = new ArrayList<>(stmts);
+    combined.addAll(rest);
+    return eliminate(combined);
+  }
+
+  private boolean isSelfTailCall(ReturnStmt ret) {
+    return ret.expression().orElse(null) instanceof CallMethodExp call
+        && call.receiver() instanceof ThisExp
+        && call.chain().size() == 1
+        && call.chain().getFirst().methodName().equals(method.name())
+        && owner.className().equals(devirtualizer.targetClassOf(call.chain().getFirst()));
+  }
+
+  /** Assigns the call's args to the parameters, in order. */
+  private Stmt rebind(CallMethodExp call) {
+    List<VarDecStmt> params = method.parameters();
+    List<Exp> args = call.chain().getFirst().args();
+    List<Stmt> stmts = new ArrayList<>();
+    List<Stmt> moves = new ArrayList<>();
+    for (int i = 0; i < params.size(); i++) {
+      VarDecStmt param = params.get(i);
+      Exp arg = args.get(i);
+      if (arg instanceof VarExp var && var.name().equals(param.name())) {
+        continue;
+      }
+      if (readLater(param.name(), args.subList(i + 1, args.size()))) {
+        String temp = param.name() + "$next";
+        stmts.add(new VarDecStmt(param.type(), temp));
+        stmts.add(new AssignStmt(temp, arg));
+        moves.add(new AssignStmt(param.name(), new VarExp(temp)));
+      } else {
+        stmts.add(new AssignStmt(param.name(), arg));
+      }
+    }
+    stmts.addAll(moves);
+    return new BlockStmt(stmts);
+  }
+
+  private static boolean readLater(String name, List<Exp> args) {
+    for (Exp arg : args) {
+      if (reads(arg, name)) return true;
+    }
+    return false;
+  }
+
+  private static boolean reads(Exp exp, String name) {
+    return switch (exp) {
+      case VarExp var -> var.name().equals(name);
+      case ParenExp paren -> reads(paren.expression(), name);
+      case BinaryExp binary -> reads(binary.left(), name) || reads(binary.right(), name);
+      case PrintlnExp println -> reads(println.exp(), name);
+      case NewObjectExp newObj -> readLater(name, newObj.args());
+      case CallMethodExp call -> reads(call.receiver(), name)
+          || call.chain().stream().anyMatch(link -> readLater(name, link.args()));
+      default -> false;
+    };
+  }
+
+  /** Whether the body declares a local named like a parameter, which an assignment there would hit instead. */
+  private static boolean shadowsParameter(MethodDef method) {
+    Set<String> params = new HashSet<>();
+    method.parameters().forEach(param -> params.add(param.name()));
+    Set<String> declared = new HashSet<>();
+    new AstRewriter() {
+      @Override
+      protected Stmt rewriteStmt(Stmt stmt) {
+        if (stmt instanceof VarDecStmt varDec) {
+          declared.add(varDec.name());
+        }
+        return super.rewriteStmt(stmt);
+      }
+    }.rewriteStmts(method.body());
+    declared.retainAll(params);
+    return !declared.isEmpty();
+  }
+}
@@ -0,0 +1,74 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.statements.VarDecStmt;
+import com.classhole.compiler.typechecker.TypedProgram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Whole-program tree shaking: drops the classes, methods and fields {@link Reachability} finds
+ * unreachable from the entry point, so the generated JS scales with what the program uses rather
+ * than with everything it declares. The result type checks again.
+ */
+public class TreeShaker {
+  private int removedClasses = 0;
+  private int removedMethods = 0;
+  private int removedFields = 0;
+
+  /** Returns the shaken program, or the checked program itself if nothing was unreachable. */
+  public Program shake(TypedProgram typed) {
+    Reachability reachability = new Reachability(typed);
+    Program program = typed.program();
+    removedClasses = 0;
+    removedMethods = 0;
+    removedFields = 0;
+
+    List<ClassDef> classes = new ArrayList<>(program.classes().size());
+    for (ClassDef cls : program.classes()) {
+      if (!reachability.isLive(cls.className())) {
+        removedClasses++;
+        removedMethods += cls.methods().size();
+        removedFields += cls.fields().size();
+        continue;
+      }
+      List<VarDecStmt> fields = new ArrayList<>(cls.fields().size());
+      for (VarDecStmt field : cls.fields()) {
+        if (reachability.isFieldUsed(cls.className(), field.name())) {
+          fields.add(field);
+        }
+      }
+      List<MethodDef> methods = new ArrayList<>(cls.methods().size());
+      for (MethodDef method : cls.methods()) {
+        if (reachability.isReachable(method)) {
+          methods.add(method);
+        }
+      }
+      removedFields += cls.fields().size() - fields.size();
+      removedMethods += cls.methods().size() - methods.size();
+      boolean same = fields.size() == cls.fields().size() && methods.size() == cls.methods().size();
+      classes.add(same ? cls : new ClassDef(cls.className(), cls.superClass(), fields, cls.constructor(), methods));
+    }
+
+    if (removedClasses + removedMethods + removedFields == 0) {
+      return program;
+    }
+    return new Program(classes, program.entryPoint());
+  }
+
+  public int removedClasses() {
+    return removedClasses;
+  }
+
+  /** Methods removed by the last {@link #shake}, counting those of removed classes. */
+  public int removedMethods() {
+    return removedMethods;
+  }
+
+  public int removedFields() {
+    return removedFields;
+  }
+}
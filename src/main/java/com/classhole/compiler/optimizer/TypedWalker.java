@@ -0,0 +1,125 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.ConstructorDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+import com.classhole.compiler.typechecker.TypedProgram;
+
+import java.util.List;
+
+/**
+ * Base class for analyses that read the type checker's facts. Walks a type-checked program
+ * in the canonical order through a {@link TypedProgram.Cursor} and hands every statement,
+ * expression, call link and assignment to a hook together with its id, so a subclass can look
+ * up types, call targets and variable kinds without tracking the order itself.
+ *
+ * Hooks are called in pre-order: a node before its children.
+ */
+public abstract class TypedWalker {
+  protected final TypedProgram typed;
+  private TypedProgram.Cursor cursor;
+
+  protected TypedWalker(TypedProgram typed) {
+    this.typed = typed;
+  }
+
+  public void walk() {
+    cursor = typed.cursor();
+    Program program = typed.program();
+    for (ClassDef cls : program.classes()) {
+      ConstructorDef ctor = cls.constructor();
+      beginBody(cls, null);
+      ctor.superArgs().ifPresent(this::walkExps);
+      walkStmts(ctor.body());
+      for (MethodDef method : cls.methods()) {
+        beginBody(cls, method);
+        walkStmts(method.body());
+      }
+    }
+    beginBody(null, null);
+    walkStmts(program.entryPoint());
+  }
+
+  /**
+   * Called before each body: a method of {@code owner}, its constructor if {@code method} is null,
+   * or the entry point if both are null.
+   */
+  protected void beginBody(ClassDef owner, MethodDef method) {
+  }
+
+  protected void visitStmt(Stmt stmt) {
+  }
+
+  /** Called for an assignment before its right-hand side. */
+  protected void visitAssign(int assignId, AssignStmt assign) {
+  }
+
+  protected void visitExp(int expId, Exp exp) {
+  }
+
+  /** Called for a call link after its receiver and the earlier links, before its args. */
+  protected void visitLink(int linkId, CallMethodExp.CallLink link) {
+  }
+
+  private void walkStmts(List<Stmt> stmts) {
+    for (Stmt stmt : stmts) {
+      walkStmt(stmt);
+    }
+  }
+
+  private void walkStmt(Stmt stmt) {
+    visitStmt(stmt);
+    switch (stmt) {
+      case AssignStmt assign -> {
+        visitAssign(cursor.assign(assign), assign);
+        walkExp(assign.expression());
+      }
+      case BlockStmt block -> walkStmts(block.statements());
+      case ExprStmt exprStmt -> walkExp(exprStmt.exp());
+      case PrintStmt print -> walkExp(print.expression());
+      case ReturnStmt ret -> ret.expression().ifPresent(this::walkExp);
+      case IfStmt ifStmt -> {
+        walkExp(ifStmt.condition());
+        walkStmt(ifStmt.thenStmt());
+        ifStmt.elseStmt().ifPresent(this::walkStmt);
+      }
+      case WhileStmt whileStmt -> {
+        walkExp(whileStmt.condition());
+        walkStmt(whileStmt.body());
+      }
+      default -> { }   // VarDecStmt, BreakStmt
+    }
+  }
+
+  private void walkExps(List<Exp> exps) {
+    for (Exp exp : exps) {
+      walkExp(exp);
+    }
+  }
+
+  private void walkExp(Exp exp) {
+    visitExp(cursor.exp(exp), exp);
+    switch (exp) {
+      case BinaryExp binary -> {
+        walkExp(binary.left());
+        walkExp(binary.right());
+      }
+      case ParenExp paren -> walkExp(paren.expression());
+      case PrintlnExp println -> walkExp(println.exp());
+      case NewObjectExp newObj -> walkExps(newObj.args());
+      case CallMethodExp call -> {
+        walkExp(call.receiver());
+        for (CallMethodExp.CallLink link : call.chain()) {
+          visitLink(cursor.link(link), link);
+          walkExps(link.args());
+        }
+      }
+      default -> { }   // literals, VarExp, ThisExp
+    }
+  }
+}
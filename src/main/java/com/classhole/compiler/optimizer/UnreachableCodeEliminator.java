@@ -0,0 +1,139 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.expressions.BooleanLiteralExp;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Removes statements that can never run and the empty structure left behind:
+ * - everything after a statement that cannot complete normally (return, break, an if whose
+ *   branches both end abruptly, a while (true) without a break)
+ * - the branch of an if with a literal condition that is not taken; while (false) loops
+ * - empty blocks, and blocks without declarations of their own, which are spliced into the
+ *   enclosing list
+ * - an if with nothing left in either branch; its condition stays as an expression statement
+ *   if evaluating it has side effects
+ */
+public class UnreachableCodeEliminator extends AstRewriter {
+
+  @Override
+  protected List<Stmt> rewriteStmts(List<Stmt> stmts) {
+    List<Stmt> result = null;
+    for (int i = 0; i < stmts.size(); i++) {
+      Stmt stmt = stmts.get(i);
+      Stmt rewritten = rewriteStmt(stmt);
+
+      List<Stmt> spliced = null;
+      if (rewritten instanceof BlockStmt block && (block.statements().isEmpty() || !declaresLocals(block))) {
+        spliced = block.statements();
+      }
+      boolean last = rewritten != null && !canCompleteNormally(rewritten);
+      boolean changed = rewritten != stmt || spliced != null || (last && i < stmts.size() - 1);
+
+      if (changed && result == null) {
+        result = new ArrayList<>(stmts.subList(0, i));
+      }
+      if (result != null) {
+        if (spliced != null) {
+          result.addAll(spliced);
+        } else if (rewritten != null) {
+          result.add(rewritten);
+        }
+      }
+      if (last) break;
+    }
+    return result == null ? stmts : result;
+  }
+
+  @Override
+  protected Stmt rewriteStmt(Stmt stmt) {
+    switch (stmt) {
+      case IfStmt ifStmt -> {
+        Exp cond = rewriteExp(ifStmt.condition());
+        if (cond instanceof BooleanLiteralExp literal) {
+          Stmt taken = literal.value() ? ifStmt.thenStmt() : ifStmt.elseStmt().orElse(null);
+          return taken == null ? null : rewriteStmt(taken);
+        }
+        Stmt thenStmt = rewriteStmt(ifStmt.thenStmt());
+        Stmt elseStmt = ifStmt.elseStmt().map(this::rewriteStmt).orElse(null);
+        if (isEmpty(elseStmt)) elseStmt = null;
+        if (isEmpty(thenStmt) && elseStmt == null) {
+          return Effects.isPure(cond) ? null : new ExprStmt(cond);
+        }
+        if (cond == ifStmt.condition() && thenStmt == ifStmt.thenStmt()
+            && elseStmt == ifStmt.elseStmt().orElse(null)) {
+          return ifStmt;
+        }
+        return new IfStmt(cond, required(thenStmt), Optional.ofNullable(elseStmt));
+      }
+      case WhileStmt whileStmt when whileStmt.condition() instanceof BooleanLiteralExp literal && !literal.value() -> {
+        return null;
+      }
+      default -> {
+        return super.rewriteStmt(stmt);
+      }
+    }
+  }
+
+  private static boolean isEmpty(Stmt stmt) {
+    return stmt == null || (stmt instanceof BlockStmt block && block.statements().isEmpty());
+  }
+
+  private static boolean declaresLocals(BlockStmt block) {
+    for (Stmt stmt : block.statements()) {
+      if (declaresInEnclosingScope(stmt)) return true;
+    }
+    return false;
+  }
+
+  /** Branches and loop bodies that are not blocks declare into the enclosing scope. */
+  private static boolean declaresInEnclosingScope(Stmt stmt) {
+    return switch (stmt) {
+      case VarDecStmt ignored -> true;
+      case IfStmt ifStmt -> declaresInEnclosingScope(ifStmt.thenStmt())
+          || ifStmt.elseStmt().map(UnreachableCodeEliminator::declaresInEnclosingScope).orElse(false);
+      case WhileStmt whileStmt -> declaresInEnclosingScope(whileStmt.body());
+      default -> false;
+    };
+  }
+
+  /** Whether control can fall through to the statement after {@code stmt}. */
+  static boolean canCompleteNormally(Stmt stmt) {
+    return switch (stmt) {
+      case ReturnStmt ignored -> false;
+      case BreakStmt ignored -> false;
+      case BlockStmt block -> {
+        for (Stmt s : block.statements()) {
+          if (!canCompleteNormally(s)) yield false;
+        }
+        yield true;
+      }
+      case IfStmt ifStmt -> ifStmt.elseStmt().isEmpty()
+          || canCompleteNormally(ifStmt.thenStmt()) || canCompleteNormally(ifStmt.elseStmt().get());
+      case WhileStmt whileStmt -> !(whileStmt.condition() instanceof BooleanLiteralExp literal && literal.value())
+          || breaksOut(whileStmt.body());
+      default -> true;
+    };
+  }
+
+  /** Whether {@code stmt} contains a break that leaves the loop it is the body of. */
+  static boolean breaksOut(Stmt stmt) {
+    return switch (stmt) {
+      case BreakStmt ignored -> true;
+      case BlockStmt block -> {
+        for (Stmt s : block.statements()) {
+          if (breaksOut(s)) yield true;
+        }
+        yield false;
+      }
+      case IfStmt ifStmt -> breaksOut(ifStmt.thenStmt()) || ifStmt.elseStmt().map(UnreachableCodeEliminator::breaksOut).orElse(false);
+      // A break inside a nested loop leaves that loop only
+      default -> false;
+    };
+  }
+}
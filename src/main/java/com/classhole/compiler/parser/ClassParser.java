@@ -92,9 +92,16 @@ public class ClassParser {
     // Method definitions
     List<MethodDef> methods = new ArrayList<>();
     while (parser.peek() instanceof MethodToken) {
-      ParseResult<MethodDef> method = parseMethodDef(parser );
-      methods.add(method.result());
-      parser.setPos(method.nextPos());
+      int start = parser.getPos();
+      int positionsMark = parser.statementPositionsMark();
+      try {
+        ParseResult<MethodDef> method = parseMethodDef(parser );
+        methods.add(method.result());
+        parser.setPos(method.nextPos());
+      } catch (ParseException e) {
+        parser.recover(e, positionsMark);
+        parser.setPos(parser.skipDefinition(start, MethodToken.class));
+      }
     }
 
     ParseUtility.expect(parser, RightBraceToken.class, "Expected '}' at end of class");
@@ -137,10 +144,8 @@ public class ClassParser {
 
     // Body stmts
     List<Stmt> body = new ArrayList<>();
-    while (!(parser.peek() instanceof RightBraceToken)) {
-      ParseResult<Stmt> stmt = StatementParser.parseStmt(parser);
-      body.add(stmt.result());
-      parser.setPos(stmt.nextPos());
+    while (!parser.eof() && !(parser.peek() instanceof RightBraceToken)) {
+      parser.parseStmtInto(body);
     }
 
     ParseUtility.expect(parser, RightBraceToken.class, "Expected '}' to close constructor");
@@ -183,10 +188,8 @@ public class ClassParser {
     // Body
     ParseUtility.expect(parser, LeftBraceToken.class, "Expected '{' to start method body");
     List<Stmt> body = new ArrayList<>();
-    while (!(parser.peek() instanceof RightBraceToken)) {
-      ParseResult<Stmt> stmt = StatementParser.parseStmt(parser);
-      body.add(stmt.result());
-      parser.setPos(stmt.nextPos());
+    while (!parser.eof() && !(parser.peek() instanceof RightBraceToken)) {
+      parser.parseStmtInto(body);
     }
     ParseUtility.expect(parser, RightBraceToken.class, "Expected '}' to close method");
 
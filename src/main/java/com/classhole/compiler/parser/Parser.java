@@ -1,6 +1,11 @@
 package com.classhole.compiler.parser;
 
+import com.classhole.compiler.diagnostics.Diagnostic;
+import com.classhole.compiler.diagnostics.Diagnostics;
 import com.classhole.compiler.lexer.Token;
+import com.classhole.compiler.lexer.delimiters.LeftBraceToken;
+import com.classhole.compiler.lexer.delimiters.RightBraceToken;
+import com.classhole.compiler.lexer.delimiters.SemicolonToken;
 import com.classhole.compiler.lexer.keywords.ClassToken;
 import com.classhole.compiler.parser.ast.Program;
 import com.classhole.compiler.parser.ast.Stmt;
@@ -15,9 +20,21 @@ public class Parser {
   public final Token[] tokens;
   private int pos;
 
+  // Collect-all mode: null means throw at the first error
+  private final Diagnostics diagnostics;
+
   public Parser(final Token[] tokens) {
+    this(tokens, null);
+  }
+
+  /**
+   * A parser that records every syntax error in {@code diagnostics} and resynchronises
+   * instead of throwing. Statements that fail to parse are left out of the program.
+   */
+  public Parser(final Token[] tokens, final Diagnostics diagnostics) {
     this.tokens = tokens;
     this.pos = 0;
+    this.diagnostics = diagnostics;
   }
 
   public int getPos() {
@@ -42,10 +59,108 @@ public class Parser {
     return pos < tokens.length ? tokens[pos] : null;
   }
 
-  private boolean eof() {
+  public boolean eof() {
     return pos >= tokens.length;
   }
 
+  /** Records where the statement starting at the current position is, for later diagnostics. */
+  void recordStatementStart() {
+    if (diagnostics == null || tokens.length == 0) return;
+    Token token = tokens[Math.min(pos, tokens.length - 1)];
+    diagnostics.statementPositions().record(token.line(), token.column());
+  }
+
+  /** Records where the class header at {@code start} is, once the class made it into the program. */
+  private void recordClassStart(int start) {
+    if (diagnostics == null) return;
+    Token token = tokens[start];
+    diagnostics.classPositions().record(token.line(), token.column());
+  }
+
+  /**
+   * Parses one statement into {@code stmts}. In collect-all mode a syntax error is recorded and
+   * the parser skips to the end of the broken statement, so the caller's loop can carry on.
+   */
+  void parseStmtInto(List<Stmt> stmts) throws ParseException {
+    int start = pos;
+    int positionsMark = diagnostics == null ? 0 : diagnostics.statementPositions().size();
+    try {
+      ParseResult<Stmt> stmt = StatementParser.parseStmt(this);
+      stmts.add(stmt.result());
+      pos = stmt.nextPos();
+    } catch (ParseException e) {
+      recover(e, positionsMark);
+      pos = skipStatement(start);
+    }
+  }
+
+  /**
+   * Rethrows in fail-fast mode; otherwise records the error and forgets the positions of
+   * statements parsed since {@code positionsMark}, since they will not be in the program.
+   */
+  void recover(ParseException e, int positionsMark) throws ParseException {
+    if (diagnostics == null) {
+      throw e;
+    }
+    int line = 0;
+    int column = 0;
+    if (tokens.length > 0) {
+      Token at = tokens[Math.max(0, Math.min(e.getErrorOffset(), tokens.length - 1))];
+      line = at.line();
+      column = at.column();
+    }
+    diagnostics.error(Diagnostic.Phase.PARSER, e.getMessage(), line, column);
+    diagnostics.statementPositions().truncate(positionsMark);
+  }
+
+  int statementPositionsMark() {
+    return diagnostics == null ? 0 : diagnostics.statementPositions().size();
+  }
+
+  /**
+   * Finds the end of a broken statement: just past the first ';' or balanced '{...}' block
+   * at its top level, or just before a '}' that closes the enclosing body. Always makes progress.
+   */
+  private int skipStatement(int start) {
+    int depth = 0;
+    int i = start;
+    while (i < tokens.length) {
+      Token token = tokens[i];
+      if (token instanceof LeftBraceToken) {
+        depth++;
+      } else if (token instanceof RightBraceToken) {
+        if (depth == 0) break;
+        depth--;
+        if (depth == 0) return i + 1;
+      } else if (token instanceof SemicolonToken && depth == 0) {
+        return i + 1;
+      }
+      i++;
+    }
+    return Math.max(i, start + 1);
+  }
+
+  /**
+   * Finds the end of a broken definition starting at {@code start}: just past its balanced
+   * '{...}' body, or just before the next token of type {@code next} if the body never opens.
+   */
+  int skipDefinition(int start, Class<? extends Token> next) {
+    int depth = 0;
+    for (int i = start; i < tokens.length; i++) {
+      Token token = tokens[i];
+      if (token instanceof LeftBraceToken) {
+        depth++;
+      } else if (token instanceof RightBraceToken) {
+        if (depth == 0) return Math.max(i, start + 1);
+        depth--;
+        if (depth == 0) return i + 1;
+      } else if (depth == 0 && i > start && next.isInstance(token)) {
+        return i;
+      }
+    }
+    return tokens.length;
+  }
+
   /**
    * Parses a full program.
    *
@@ -61,21 +176,27 @@ public class Parser {
 
     // Parse all contiguous class definitions at the start
     while (!eof() && peek() instanceof ClassToken) {
-      ParseResult<ClassDef> classRes = ClassParser.parseClassDef(this);
-      classes.add(classRes.result());
-      pos = classRes.nextPos();
+      int start = pos;
+      int positionsMark = statementPositionsMark();
+      try {
+        ParseResult<ClassDef> classRes = ClassParser.parseClassDef(this);
+        classes.add(classRes.result());
+        recordClassStart(start);
+        pos = classRes.nextPos();
+      } catch (ParseException e) {
+        recover(e, positionsMark);
+        pos = skipDefinition(start, ClassToken.class);
+      }
     }
 
     // If we had classes, but nothing else followed, it's an error.
     if (!classes.isEmpty() && eof()) {
-      throw new ParseException("Expected at least one statement after class definitions", pos);
+      recover(new ParseException("Expected at least one statement after class definitions", pos), statementPositionsMark());
     }
 
     // Parse the remaining top-level statements (entry point)
     while (!eof()) {
-      ParseResult<Stmt> stmtRes = StatementParser.parseStmt(this);
-      entryPointStmts.add(stmtRes.result());
-      pos = stmtRes.nextPos();
+      parseStmtInto(entryPointStmts);
     }
 
     return new Program(classes, entryPointStmts);
@@ -20,17 +20,16 @@ public class StatementParser {
   public static ParseResult<Stmt> parseStmt(Parser parser) throws ParseException {
     int pos = parser.getPos();
     Token token = parser.peek();
+    parser.recordStatementStart();
 
     // Block: { stmt* }
     if (token instanceof LeftBraceToken) {
       parser.setPos(pos + 1); // consume '{'
       List<Stmt> stmts = new ArrayList<>();
-      while (!(parser.peek() instanceof RightBraceToken)) {
-        ParseResult<Stmt> stmt = parseStmt(parser);
-        stmts.add(stmt.result());
-        parser.setPos(stmt.nextPos());
+      while (!parser.eof() && !(parser.peek() instanceof RightBraceToken)) {
+        parser.parseStmtInto(stmts);
       }
-      parser.setPos(parser.getPos() + 1); // consume '}'
+      ParseUtility.expect(parser, RightBraceToken.class, "Expected '}' to close block");
       return new ParseResult<>(new BlockStmt(stmts), parser.getPos());
     }
 
@@ -71,7 +70,7 @@ public class StatementParser {
       Token next = parser.peek();
       if (next instanceof SemicolonToken) {
         parser.setPos(parser.getPos() + 1);
-        return new ParseResult<>(new ReturnStmt(null), parser.getPos());
+        return new ParseResult<>(new ReturnStmt(Optional.empty()), parser.getPos());
       }
       ParseResult<Exp> expr = ExpressionParser.exp(parser, parser.getPos());
       parser.setPos(expr.nextPos());
@@ -5,7 +5,9 @@ import com.classhole.compiler.parser.ast.nodes.definitions.ConstructorDef;
 import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
 import com.classhole.compiler.parser.ast.nodes.statements.VarDecStmt;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -14,9 +16,12 @@ public class ClassTable {
   public static class ClassInfo {
     public final String name;
     public final Optional<String> superClassName;
-    public final Map<String, String> fieldTypes = new HashMap<>();
+    // In declaration order
+    public final Map<String, String> fieldTypes = new LinkedHashMap<>();
     public final Map<String, MethodDef> methods = new HashMap<>();
     public final ConstructorDef constructor;
+    // One message per field or method declared again; the first declaration is the one kept
+    public final List<String> duplicates = new ArrayList<>();
 
     public ClassInfo(String name, Optional<String> superClassName,
         List<VarDecStmt> fields,
@@ -30,7 +35,8 @@ public class ClassTable {
       for (VarDecStmt field : fields) {
         String varName = field.name();
         if (fieldTypes.containsKey(varName)) {
-          throw new RuntimeException("Duplicate field: " + varName + " in class " + name);
+          duplicates.add("Duplicate field: " + varName + " in class " + name);
+          continue;
         }
         fieldTypes.put(varName, field.type());
       }
@@ -39,7 +45,8 @@ public class ClassTable {
       for (MethodDef method : methodList) {
         String methodName = method.name();
         if (methods.containsKey(methodName)) {
-          throw new RuntimeException("Duplicate method: " + methodName + " in class " + name);
+          duplicates.add("Duplicate method: " + methodName + " in class " + name);
+          continue;
         }
         methods.put(methodName, method);
       }
@@ -48,10 +55,23 @@ public class ClassTable {
 
   private final Map<String, ClassInfo> classes = new HashMap<>();
 
+  /** Registers the class, throwing a TypeCheckException at the first duplicate declaration. */
   public void addClass(ClassDef classDef) {
+    List<String> duplicates = declareClass(classDef);
+    if (!duplicates.isEmpty()) {
+      throw new TypeCheckException(duplicates.getFirst());
+    }
+  }
+
+  /**
+   * Registers the class and returns one message per duplicate declaration instead of throwing.
+   * A field or method declared again keeps its first declaration; a class defined again keeps
+   * the first definition and this one is not registered.
+   */
+  public List<String> declareClass(ClassDef classDef) {
     String name = classDef.className();
     if (classes.containsKey(name)) {
-      throw new RuntimeException("Class already defined: " + name);
+      return List.of("Class already defined: " + name);
     }
 
     ClassInfo info = new ClassInfo(
@@ -63,6 +83,7 @@ public class ClassTable {
     );
 
     classes.put(name, info);
+    return info.duplicates;
   }
 
   public ClassInfo getClass(String name) {
@@ -81,5 +102,38 @@ public class ClassTable {
     return null;
   }
 
+  /** Looks up a field's declared type in the class or its superclasses, or null if there is none. */
+  public String getFieldType(String className, String fieldName) {
+    ClassInfo current = classes.get(className);
+    while (current != null) {
+      String type = current.fieldTypes.get(fieldName);
+      if (type != null) {
+        return type;
+      }
+      if (current.superClassName.isEmpty()) break;
+      current = classes.get(current.superClassName.get());
+    }
+    return null;
+  }
 
+  /**
+   * Every field an instance of the class has, mapped to its type, in one canonical order:
+   * the root class's fields first, each class's in declaration order. A field redeclared in a
+   * subclass keeps the position of its first declaration and takes the subclass's type.
+   */
+  public Map<String, String> getAllFields(String className) {
+    List<ClassInfo> chain = new ArrayList<>();
+    ClassInfo current = classes.get(className);
+    while (current != null) {
+      chain.add(current);
+      if (current.superClassName.isEmpty()) break;
+      current = classes.get(current.superClassName.get());
+    }
+
+    Map<String, String> fields = new LinkedHashMap<>();
+    for (int i = chain.size() - 1; i >= 0; i--) {
+      fields.putAll(chain.get(i).fieldTypes);
+    }
+    return fields;
+  }
 }
@@ -0,0 +1,192 @@
+package com.classhole.compiler.typechecker;
+
+import com.classhole.compiler.diagnostics.Diagnostic;
+import com.classhole.compiler.diagnostics.Diagnostics;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.statements.VarDecStmt;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validates the class hierarchy in time linear in the number of classes and methods:
+ * - every superclass exists (or is the built-in Object)
+ * - there is no cyclic inheritance
+ * - every override is compatible with the nearest inherited declaration
+ *
+ * Each class has at most one superclass, so the hierarchy is a forest once cycles are ruled out.
+ * Cycles are found with a three-colour walk up the superclass edges; overrides are then checked
+ * in one walk down the forest that keeps, per method name, a stack of the declarations visible
+ * from the current class. Both walks are iterative so deep hierarchies cannot overflow the stack.
+ *
+ * Given a Diagnostics sink every problem is recorded instead of thrown, at the header of the class
+ * it is about; a class with an undefined superclass is then treated as a root.
+ */
+public class HierarchyValidator {
+  private static final int WHITE = 0;
+  private static final int GREY = 1;
+  private static final int BLACK = 2;
+
+  private static final int NO_PARENT = -1;
+
+  private final Subtyping subtyping;
+  private final Diagnostics diagnostics;
+
+  public HierarchyValidator(Subtyping subtyping) {
+    this(subtyping, null);
+  }
+
+  public HierarchyValidator(Subtyping subtyping, Diagnostics diagnostics) {
+    this.subtyping = subtyping;
+    this.diagnostics = diagnostics;
+  }
+
+  /**
+   * Returns false if the hierarchy has a cycle, in which case subtype queries on it would not terminate
+   * and nothing further should be checked.
+   */
+  public boolean validate(List<ClassDef> classes) {
+    int n = classes.size();
+    Map<String, Integer> index = new HashMap<>(n * 2);
+    for (int i = 0; i < n; i++) {
+      index.put(classes.get(i).className(), i);
+    }
+
+    // Resolve superclass edges, linking children into sibling lists
+    int[] parent = new int[n];
+    int[] firstChild = new int[n];
+    int[] nextSibling = new int[n];
+    Arrays.fill(firstChild, NO_PARENT);
+    for (int i = 0; i < n; i++) {
+      ClassDef classDef = classes.get(i);
+      parent[i] = NO_PARENT;
+      if (classDef.superClass().isEmpty()) continue;
+
+      String superName = classDef.superClass().get();
+      Integer superIndex = index.get(superName);
+      if (superIndex == null) {
+        if (!superName.equals("Object")) {
+          fail("Class " + classDef.className() + " extends undefined class " + superName, i);
+        }
+        continue;
+      }
+      parent[i] = superIndex;
+      nextSibling[i] = firstChild[superIndex];
+      firstChild[superIndex] = i;
+    }
+
+    if (!detectCycles(classes, parent)) {
+      return false;
+    }
+    checkOverrides(classes, parent, firstChild, nextSibling);
+    return true;
+  }
+
+  /** Reports a problem with the class at {@code classIndex} in the program. */
+  private void fail(String message, int classIndex) {
+    if (diagnostics == null) {
+      throw new TypeCheckException(message);
+    }
+    diagnostics.error(Diagnostic.Phase.TYPECHECKER, message,
+        diagnostics.classPositions().lineOf(classIndex), diagnostics.classPositions().columnOf(classIndex));
+  }
+
+  private boolean detectCycles(List<ClassDef> classes, int[] parent) {
+    boolean acyclic = true;
+    int[] colour = new int[classes.size()];
+    for (int start = 0; start < classes.size(); start++) {
+      if (colour[start] != WHITE) continue;
+
+      // Walk up until we reach a root or a class already known to be acyclic
+      int current = start;
+      while (current != NO_PARENT && colour[current] == WHITE) {
+        colour[current] = GREY;
+        current = parent[current];
+      }
+      if (current != NO_PARENT && colour[current] == GREY) {
+        fail("Cyclic inheritance detected involving class: " + classes.get(current).className(), current);
+        acyclic = false;
+      }
+
+      // Everything on this path is done with, whether it reaches a root or the cycle
+      current = start;
+      while (current != NO_PARENT && colour[current] == GREY) {
+        colour[current] = BLACK;
+        current = parent[current];
+      }
+    }
+    return acyclic;
+  }
+
+  private void checkOverrides(List<ClassDef> classes, int[] parent, int[] firstChild, int[] nextSibling) {
+    Map<String, ArrayDeque<MethodDef>> visible = new HashMap<>();
+
+    // Entries >= 0 enter a class; ~i leaves class i
+    int[] work = new int[classes.size() * 2];
+    int top = 0;
+    for (int root = 0; root < classes.size(); root++) {
+      if (parent[root] != NO_PARENT) continue;
+      work[top++] = root;
+
+      while (top > 0) {
+        int entry = work[--top];
+        if (entry < 0) {
+          for (MethodDef method : classes.get(~entry).methods()) {
+            visible.get(method.name()).pop();
+          }
+          continue;
+        }
+
+        ClassDef classDef = classes.get(entry);
+        for (MethodDef method : classDef.methods()) {
+          ArrayDeque<MethodDef> declarations = visible.computeIfAbsent(method.name(), k -> new ArrayDeque<>());
+          if (!declarations.isEmpty()) {
+            checkOverride(classDef, entry, method, declarations.peek());
+          }
+          declarations.push(method);
+        }
+
+        work[top++] = ~entry;
+        for (int child = firstChild[entry]; child != NO_PARENT; child = nextSibling[child]) {
+          work[top++] = child;
+        }
+      }
+    }
+  }
+
+  private void checkOverride(ClassDef subclass, int subclassIndex, MethodDef method, MethodDef superMethod) {
+    String subclassName = subclass.className();
+
+    // Check return type
+    if (!subtyping.isSubtype(method.returnType(), superMethod.returnType())) {
+      fail("Method " + method.name() + " in subclass " + subclassName +
+          " has incompatible return type " + method.returnType() + ", expected " + superMethod.returnType(), subclassIndex);
+      return;
+    }
+
+    // Check parameter types
+    List<VarDecStmt> subParams = method.parameters();
+    List<VarDecStmt> superParams = superMethod.parameters();
+
+    if (subParams.size() != superParams.size()) {
+      fail("Method " + method.name() + " in subclass " + subclassName +
+          " must have same number of parameters as in superclass " + subclass.superClass().orElse("Object"), subclassIndex);
+      return;
+    }
+
+    for (int i = 0; i < subParams.size(); i++) {
+      String subType = subParams.get(i).type();
+      String superType = superParams.get(i).type();
+
+      if (!subType.equals(superType)) {
+        fail("Method " + method.name() + " in subclass " + subclassName +
+            ": parameter " + i + " type " + subType + " does not match " + superType, subclassIndex);
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package com.classhole.compiler.typechecker;
+
+import com.classhole.compiler.diagnostics.Diagnostic;
+import com.classhole.compiler.diagnostics.Diagnostics;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.statements.VarDecStmt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Type checks successive versions of a program (e.g. in watch mode), re-checking only what an edit can affect.
+ *
+ * The program is split into units: each constructor, each method and the entry point. For every unit
+ * we keep its AST, the errors it produced and the classes whose signatures its checking consulted
+ * (its own class, declared and called-on types, instantiated classes, each with its superclasses).
+ * On the next compile the class table and hierarchy are rebuilt, which is linear in the number of
+ * declarations, and a unit is re-checked only if its own AST changed or it depends on a class whose
+ * signature changed. Every other unit replays its cached errors.
+ *
+ * Errors are cached against statement numbers relative to their unit, so an unchanged unit still
+ * reports the right line after code above it moved. The reported errors are the same, in the same
+ * order, as a full {@link TypeChecker#check(Program, Diagnostics)} of the new program.
+ */
+public class IncrementalTypeChecker {
+  /** An error in a unit; {@code stmt} counts from the unit's first statement, -1 for none. */
+  record UnitError(int stmt, String message) {}
+
+  /** Everything about a class that bodies elsewhere can observe. */
+  private record ClassSignature(Optional<String> superClass, List<VarDecStmt> fields,
+      List<VarDecStmt> constructorParams, List<MethodSignature> methods) {}
+
+  private record MethodSignature(String name, List<VarDecStmt> parameters, String returnType) {}
+
+  private record Unit(Object ast, Set<String> dependencies, List<UnitError> errors, int stmtCount) {}
+
+  private Map<String, ClassSignature> signatures = new HashMap<>();
+  private Map<String, Unit> units = new HashMap<>();
+  private int lastRechecked = 0;
+
+  /**
+   * Checks the new version of the program, recording every error in {@code diagnostics},
+   * which must hold the statement positions the parser recorded for this version.
+   */
+  public void check(Program program, Diagnostics diagnostics) {
+    TypeChecker checker = new TypeChecker();
+    lastRechecked = 0;
+    if (!checker.declareClasses(program, diagnostics)) {
+      // Nothing was checked, so nothing can be reused next time
+      signatures = new HashMap<>();
+      units = new HashMap<>();
+      return;
+    }
+
+    Map<String, ClassSignature> newSignatures = new HashMap<>();
+    Set<String> changed = new HashSet<>();
+    for (ClassDef classDef : program.classes()) {
+      String name = classDef.className();
+      ClassSignature signature = signatureOf(classDef);
+      // A duplicated class is an error whose resolution depends on declaration order, so never trust it
+      if (newSignatures.put(name, signature) != null || !signature.equals(signatures.get(name))) {
+        changed.add(name);
+      }
+    }
+    for (String name : signatures.keySet()) {
+      if (!newSignatures.containsKey(name)) changed.add(name);
+    }
+
+    Map<String, Unit> newUnits = new HashMap<>();
+    int firstStmt = 0;
+    for (ClassDef classDef : program.classes()) {
+      String key = classDef.className() + ".init";
+      Unit unit = reuse(key, classDef.constructor(), changed);
+      if (unit == null) {
+        unit = checkUnit(checker, classDef.constructor(), () -> checker.checkConstructor(classDef));
+      }
+      firstStmt = emit(unit, firstStmt, diagnostics);
+      newUnits.put(key, unit);
+
+      for (MethodDef method : classDef.methods()) {
+        key = classDef.className() + "." + method.name();
+        unit = reuse(key, method, changed);
+        if (unit == null) {
+          unit = checkUnit(checker, method, () -> checker.checkMethod(classDef, method));
+        }
+        firstStmt = emit(unit, firstStmt, diagnostics);
+        newUnits.put(key, unit);
+      }
+    }
+
+    List<Stmt> entryPoint = program.entryPoint();
+    Unit unit = reuse("", entryPoint, changed);
+    if (unit == null) {
+      unit = checkUnit(checker, entryPoint, () -> checker.checkEntryPoint(entryPoint));
+    }
+    emit(unit, firstStmt, diagnostics);
+    newUnits.put("", unit);
+
+    signatures = newSignatures;
+    units = newUnits;
+  }
+
+  /** How many units the last {@link #check} had to type check again. */
+  public int lastRecheckedCount() {
+    return lastRechecked;
+  }
+
+  private Unit reuse(String key, Object ast, Set<String> changedClasses) {
+    Unit cached = units.get(key);
+    if (cached == null || !cached.ast().equals(ast)) {
+      return null;
+    }
+    for (String dependency : cached.dependencies()) {
+      if (changedClasses.contains(dependency)) return null;
+    }
+    return cached;
+  }
+
+  private Unit checkUnit(TypeChecker checker, Object ast, Runnable check) {
+    Set<String> dependencies = new HashSet<>();
+    List<UnitError> errors = new ArrayList<>();
+    checker.beginUnit(dependencies, errors);
+    check.run();
+    lastRechecked++;
+    return new Unit(ast, dependencies, errors, checker.unitStmtCount());
+  }
+
+  /** Reports the unit's errors at this version's positions and returns the next unit's first statement. */
+  private int emit(Unit unit, int firstStmt, Diagnostics diagnostics) {
+    for (UnitError error : unit.errors()) {
+      int line = 0;
+      int column = 0;
+      if (error.stmt() >= 0) {
+        line = diagnostics.statementPositions().lineOf(firstStmt + error.stmt());
+        column = diagnostics.statementPositions().columnOf(firstStmt + error.stmt());
+      }
+      diagnostics.error(Diagnostic.Phase.TYPECHECKER, error.message(), line, column);
+    }
+    return firstStmt + unit.stmtCount();
+  }
+
+  private static ClassSignature signatureOf(ClassDef classDef) {
+    List<MethodSignature> methods = new ArrayList<>(classDef.methods().size());
+    for (MethodDef method : classDef.methods()) {
+      methods.add(new MethodSignature(method.name(), method.parameters(), method.returnType()));
+    }
+    return new ClassSignature(classDef.superClass(), classDef.fields(),
+        classDef.constructor().parameters(), methods);
+  }
+}
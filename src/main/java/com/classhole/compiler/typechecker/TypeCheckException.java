@@ -0,0 +1,13 @@
+package com.classhole.compiler.typechecker;
+
+/**
+ * A type error. Stackless: in collect-all mode the checker throws one per error to unwind
+ * to the nearest recovery point, so filling in a stack trace would be wasted work.
+ */
+public class TypeCheckException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  public TypeCheckException(String message) {
+    super(message, null, false, false);
+  }
+}
@@ -1,5 +1,9 @@
 package com.classhole.compiler.typechecker;
 
+import com.classhole.compiler.analysis.ControlFlowGraph;
+import com.classhole.compiler.analysis.DefiniteAssignment;
+import com.classhole.compiler.diagnostics.Diagnostic;
+import com.classhole.compiler.diagnostics.Diagnostics;
 import com.classhole.compiler.parser.ast.Program;
 import com.classhole.compiler.parser.ast.Stmt;
 import com.classhole.compiler.parser.ast.Exp;
@@ -11,10 +15,9 @@ import com.classhole.compiler.parser.ast.nodes.statements.*;
 import com.classhole.compiler.typechecker.types.PrimitiveType;
 import com.classhole.compiler.typechecker.types.BuiltInType;
 import com.classhole.compiler.typechecker.types.ClassType;
+import com.classhole.compiler.typechecker.types.ErrorType;
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 public class TypeChecker {
@@ -25,152 +28,255 @@ public class TypeChecker {
   private String currentMethod = null;
   private String currentReturnType = null;
 
-  public void check(Program program) {
-    // Phase 1: Build class table and subtype graph
-    for (ClassDef classDef : program.classes()) {
-      classTable.addClass(classDef);
-      classDef.superClass().ifPresent(superName -> subtyping.addSubtype(classDef.className(), superName));
-    }
+  private TypedProgram typed;
 
-    // Then check for cycles
-    for (ClassDef classDef : program.classes()) {
-      if (classDef.superClass().isPresent()) {
-        detectCycles(classDef.className(), new HashSet<>());
-      }
-    }
+  // Collect-all mode: null means throw at the first error
+  private Diagnostics diagnostics = null;
+  // Statements are numbered in the same pre-order the parser recorded their positions in
+  private int stmtCount = 0;
+  private int currentStmt = -1;
 
-    // Phase 2: Type check entry-point statements
-    TypeEnvironment globalEnv = new TypeEnvironment();
-    for (Stmt stmt : program.entryPoint()) {
-      checkStmt(stmt, globalEnv);
+  // Incremental mode: what the body being checked depends on and the errors it produced, else null
+  private Set<String> dependencies = null;
+  private List<IncrementalTypeChecker.UnitError> unitErrors = null;
+
+  /** Checks the program, throwing a TypeCheckException at the first error. */
+  public TypedProgram check(Program program) {
+    return check(program, null);
+  }
+
+  /**
+   * Checks the program, recording every error in {@code diagnostics} instead of throwing.
+   * An expression that fails to check gets the ErrorType, which is compatible with everything,
+   * so checking carries on without cascading errors. The TypedProgram is only complete when
+   * no errors were reported.
+   */
+  public TypedProgram check(Program program, Diagnostics diagnostics) {
+    if (!declareClasses(program, diagnostics)) {
+      // Subtype queries would not terminate on a cyclic hierarchy
+      return typed;
     }
 
-    // Phase 2: Type check class methods
+    // Phase 2: Type check classes, in the canonical order TypedProgram ids follow
     for (ClassDef classDef : program.classes()) {
-      currentClass = classDef.className();
+      checkConstructor(classDef);
       for (MethodDef method : classDef.methods()) {
-        currentMethod = method.name();
-        currentReturnType = method.returnType();
-
-        TypeEnvironment methodEnv = new TypeEnvironment();
-
-        // Add 'this' to env
-        methodEnv.declare("this", new ClassType(currentClass));
-        methodEnv.initialize("this");
+        checkMethod(classDef, method);
+      }
+    }
 
-        // Add parameters to env
-        for (VarDecStmt param : method.parameters()) {
-          Type paramType = resolveType(param.type());
-          methodEnv.declare(param.name(), paramType);
-          methodEnv.initialize(param.name());
-        }
+    // Phase 3: Type check entry-point statements
+    checkEntryPoint(program.entryPoint());
 
-        for (Stmt stmt : method.body()) {
-          checkStmt(stmt, methodEnv);
-        }
+    return typed;
+  }
 
-        // check non-void methods have a return on all paths
-        if (!currentReturnType.equals("Void") && !mustReturn(method.body())) {
-          throw new RuntimeException("Method " + currentMethod +
-              " may not return on all code paths (declared return type: " + currentReturnType + ")");
-        }
+  /**
+   * Phase 1: builds the class table and subtype graph, then checks for missing superclasses,
+   * cycles and override conflicts. Returns false if the hierarchy is cyclic and no body may be checked.
+   */
+  boolean declareClasses(Program program, Diagnostics diagnostics) {
+    this.diagnostics = diagnostics;
+    typed = new TypedProgram(program);
+
+    List<ClassDef> classes = program.classes();
+    for (int i = 0; i < classes.size(); i++) {
+      ClassDef classDef = classes.get(i);
+      for (String duplicate : classTable.declareClass(classDef)) {
+        reportAtClass(duplicate, i);
       }
+      classDef.superClass().ifPresent(superName -> subtyping.addSubtype(classDef.className(), superName));
+    }
 
-      // Check constructor's super(...) call if present
-      ConstructorDef constructor = classDef.constructor();
-      currentClass = classDef.className();
-
-      if (constructor.superArgs().isPresent()) {
-        List<Exp> args = constructor.superArgs().get();
+    return new HierarchyValidator(subtyping, diagnostics).validate(program.classes());
+  }
 
-        // Look up superclass
-        if (classDef.superClass().isEmpty()) {
-          throw new RuntimeException("Class " + classDef.className() +
-              " cannot call super(); it has no superclass");
-        }
+  /**
+   * Starts checking one body in isolation for the {@link IncrementalTypeChecker}: statements are
+   * numbered from 0, errors go to {@code errors} instead of the Diagnostics, and every class whose
+   * signature the body's checking consults is added to {@code dependencies}.
+   */
+  void beginUnit(Set<String> dependencies, List<IncrementalTypeChecker.UnitError> errors) {
+    this.dependencies = dependencies;
+    this.unitErrors = errors;
+    stmtCount = 0;
+  }
 
-        String superClassName = classDef.superClass().get();
-        ClassTable.ClassInfo superClass = classTable.getClass(superClassName);
-        ConstructorDef superConstructor = superClass.constructor;
+  /** The number of statements checked since the last {@link #beginUnit}. */
+  int unitStmtCount() {
+    return stmtCount;
+  }
 
-        List<VarDecStmt> superParams = superConstructor.parameters();
+  void checkMethod(ClassDef classDef, MethodDef method) {
+    currentClass = classDef.className();
+    currentMethod = method.name();
+    currentReturnType = method.returnType();
+    dependOn(currentClass);
 
-        if (args.size() != superParams.size()) {
-          throw new RuntimeException("Constructor super(...) call in class " + currentClass +
-              " expects " + superParams.size() + " args but got " + args.size());
-        }
+    TypeEnvironment methodEnv = new TypeEnvironment();
 
-        for (int i = 0; i < args.size(); i++) {
-          Type argType = checkExp(args.get(i), new TypeEnvironment()); // no locals yet
-          Type expected = resolveType(superParams.get(i).type());
-          if (!subtyping.isSubtype(argType.getName(), expected.getName())) {
-            throw new RuntimeException("super() arg " + i + " in class " + currentClass +
-                " has type " + argType + ", expected " + expected);
-          }
-        }
-      }
-    }
+    // Add 'this' to env
+    methodEnv.declare("this", new ClassType(currentClass), TypedProgram.VarKind.PARAMETER);
 
-    for (ClassDef classDef : program.classes()) {
-      if (classDef.superClass().isEmpty())
-        continue;
+    // Add parameters to env
+    declareParameters(method.parameters(), methodEnv);
 
-      String subclassName = classDef.className();
-      String superClassName = classDef.superClass().get();
+    int firstStmt = stmtCount;
+    for (Stmt stmt : method.body()) {
+      checkStmt(stmt, methodEnv);
+    }
+    checkDefiniteAssignment(method.body(), firstStmt);
 
-      ClassTable.ClassInfo superClass = classTable.getClass(superClassName);
-      Map<String, MethodDef> superMethods = superClass.methods;
+    // check non-void methods have a return on all paths
+    if (!currentReturnType.equals("Void") && !mustReturn(method.body())) {
+      report(new TypeCheckException("Method " + currentMethod +
+          " may not return on all code paths (declared return type: " + currentReturnType + ")"));
+    }
+  }
 
-      for (MethodDef method : classDef.methods()) {
-        if (!superMethods.containsKey(method.name()))
-          continue;
+  void checkEntryPoint(List<Stmt> entryPoint) {
+    currentClass = null;
+    currentMethod = null;
+    currentReturnType = null;
+    TypeEnvironment globalEnv = new TypeEnvironment();
+    int firstStmt = stmtCount;
+    for (Stmt stmt : entryPoint) {
+      checkStmt(stmt, globalEnv);
+    }
+    checkDefiniteAssignment(entryPoint, firstStmt);
+  }
 
-        MethodDef superMethod = superMethods.get(method.name());
+  void checkConstructor(ClassDef classDef) {
+    ConstructorDef constructor = classDef.constructor();
+    currentClass = classDef.className();
+    currentMethod = "init";
+    currentReturnType = "Void";
+    dependOn(currentClass);
+
+    TypeEnvironment ctorEnv = new TypeEnvironment();
+    ctorEnv.declare("this", new ClassType(currentClass), TypedProgram.VarKind.PARAMETER);
+    declareParameters(constructor.parameters(), ctorEnv);
+
+    // Check constructor's super(...) call if present
+    if (constructor.superArgs().isPresent()) {
+      List<Exp> args = constructor.superArgs().get();
+
+      // Look up superclass
+      List<VarDecStmt> superParams = null;
+      if (classDef.superClass().isEmpty()) {
+        report(new TypeCheckException("Class " + classDef.className() +
+            " cannot call super(); it has no superclass"));
+      } else {
+        // The built-in Object root has a no-argument constructor
+        ClassTable.ClassInfo superClass = classTable.getClass(classDef.superClass().get());
+        superParams = superClass == null ? List.of() : superClass.constructor.parameters();
+      }
+      checkArgs(args, superParams, ctorEnv,
+          "Constructor super(...) call in class " + currentClass);
+    }
 
-        // Check return type
-        Type subReturn = resolveType(method.returnType());
-        Type superReturn = resolveType(superMethod.returnType());
+    int firstStmt = stmtCount;
+    for (Stmt stmt : constructor.body()) {
+      checkStmt(stmt, ctorEnv);
+    }
+    checkDefiniteAssignment(constructor.body(), firstStmt);
+  }
 
-        if (!subtyping.isSubtype(subReturn.getName(), superReturn.getName())) {
-          throw new RuntimeException("Method " + method.name() + " in subclass " + subclassName +
-              " has incompatible return type " + subReturn + ", expected " + superReturn);
-        }
+  /**
+   * Reports every read of a local that some path reaches without assigning it.
+   * {@code firstStmt} is the id the body's first statement had in this checker's numbering.
+   */
+  private void checkDefiniteAssignment(List<Stmt> body, int firstStmt) {
+    ControlFlowGraph cfg = ControlFlowGraph.build(body);
+    DefiniteAssignment assignment = new DefiniteAssignment(cfg);
+    assignment.solve();
+    assignment.forEachUnassignedUse((node, local) -> {
+      currentStmt = firstStmt + cfg.stmtIndex(node);
+      try {
+        report(new TypeCheckException("Variable used before initialization: " + cfg.localName(local)));
+      } finally {
+        currentStmt = -1;
+      }
+    });
+  }
 
-        // Check parameter types
-        List<VarDecStmt> subParams = method.parameters();
-        List<VarDecStmt> superParams = superMethod.parameters();
+  private void declareParameters(List<VarDecStmt> params, TypeEnvironment env) {
+    for (VarDecStmt param : params) {
+      try {
+        env.declare(param.name(), resolveType(param.type()), TypedProgram.VarKind.PARAMETER);
+      } catch (TypeCheckException e) {
+        report(e);
+      }
+    }
+  }
 
-        if (subParams.size() != superParams.size()) {
-          throw new RuntimeException("Method " + method.name() + " in subclass " + subclassName +
-              " must have same number of parameters as in superclass " + superClassName);
-        }
+  /**
+   * Checks every argument, then matches them against {@code params}.
+   * A null {@code params} means the callee is unknown and has already been reported.
+   */
+  private void checkArgs(List<Exp> args, List<VarDecStmt> params, TypeEnvironment env, String what) {
+    if (params != null && args.size() != params.size()) {
+      report(new TypeCheckException(what + " expects " + params.size() + " args but got " + args.size()));
+    }
 
-        for (int i = 0; i < subParams.size(); i++) {
-          Type subType = resolveType(subParams.get(i).type());
-          Type superType = resolveType(superParams.get(i).type());
+    for (int i = 0; i < args.size(); i++) {
+      Type argType = checkExp(args.get(i), env);
+      if (params == null || i >= params.size()) continue;
 
-          if (!subType.getName().equals(superType.getName())) {
-            throw new RuntimeException("Method " + method.name() + " in subclass " + subclassName +
-                ": parameter " + i + " type " + subType + " does not match " + superType);
-          }
-        }
+      Type expected = resolveType(params.get(i).type());
+      if (!isAssignable(argType, expected)) {
+        report(new TypeCheckException(what + ": arg " + i + " has type " + argType + ", expected " + expected));
       }
     }
+  }
 
+  /** Subtyping that lets an already-reported error through without complaining again. */
+  private boolean isAssignable(Type actual, Type expected) {
+    return actual instanceof ErrorType || expected instanceof ErrorType
+        || subtyping.isSubtype(actual.getName(), expected.getName());
   }
 
-  private void detectCycles(String className, Set<String> visited) {
-    if (visited.contains(className)) {
-      throw new RuntimeException("Cyclic inheritance detected involving class: " + className);
-    }
+  private boolean isType(Type actual, Type expected) {
+    return actual instanceof ErrorType || actual.equals(expected);
+  }
 
-    visited.add(className);
+  /**
+   * Throws the error in fail-fast mode; in collect-all mode records it at the position of the
+   * statement being checked and returns so the caller can recover.
+   */
+  private void report(TypeCheckException e) {
+    if (unitErrors != null) {
+      unitErrors.add(new IncrementalTypeChecker.UnitError(currentStmt, e.getMessage()));
+      return;
+    }
+    if (diagnostics == null) {
+      throw e;
+    }
+    int line = currentStmt < 0 ? 0 : diagnostics.statementPositions().lineOf(currentStmt);
+    int column = currentStmt < 0 ? 0 : diagnostics.statementPositions().columnOf(currentStmt);
+    diagnostics.error(Diagnostic.Phase.TYPECHECKER, e.getMessage(), line, column);
+  }
 
-    ClassTable.ClassInfo info = classTable.getClass(className);
-      info.superClassName.ifPresent(s -> detectCycles(s, visited));
+  /** Like {@link #report}, for a problem with a class declaration: it is recorded at the class header. */
+  private void reportAtClass(String message, int classIndex) {
+    if (diagnostics == null) {
+      throw new TypeCheckException(message);
+    }
+    diagnostics.error(Diagnostic.Phase.TYPECHECKER, message,
+        diagnostics.classPositions().lineOf(classIndex), diagnostics.classPositions().columnOf(classIndex));
+  }
 
-    // Remove from visited set when backtracking
-    visited.remove(className);
+  /** Resolves a name to a local or parameter in scope, falling back to a field of the current class. */
+  private TypeEnvironment.VarInfo lookupVar(String name, TypeEnvironment env) {
+    TypeEnvironment.VarInfo info = env.lookup(name);
+    if (info != null || currentClass == null) {
+      return info;
+    }
+    String fieldType = classTable.getFieldType(currentClass, name);
+    if (fieldType == null) {
+      return null;
+    }
+    return new TypeEnvironment.VarInfo(resolveType(fieldType), TypedProgram.VarKind.FIELD);
   }
 
   private Type resolveType(String typeName) {
@@ -180,14 +286,28 @@ public class TypeChecker {
       case "Void" -> PrimitiveType.VOID;
       case "String" -> BuiltInType.STRING;
       case "Object" -> BuiltInType.OBJECT;
-      default -> new ClassType(typeName); // User-defined class
+      default -> {
+        dependOn(typeName);
+        yield new ClassType(typeName); // User-defined class
+      }
     };
   }
 
+  /** Records that the body being checked relies on the signature of the class and its superclasses. */
+  private void dependOn(String className) {
+    if (dependencies == null) return;
+    while (dependencies.add(className)) {
+      ClassTable.ClassInfo info = classTable.getClass(className);
+      if (info == null || info.superClassName.isEmpty()) break;
+      className = info.superClassName.get();
+    }
+  }
+
   // ok -> return;
   // ok -> if (...) return; else return;
   // not ok -> if (...) return;
   // not ok -> while (...) return;
+  // ok -> while (true) { ... } without a break, as it never falls through
   private boolean mustReturn(List<Stmt> stmts) {
     boolean didReturn = false;
     for (Stmt stmt : stmts) {
@@ -208,29 +328,52 @@ public class TypeChecker {
           yield false;
         yield mustReturn(ifStmt.thenStmt()) && mustReturn(ifStmt.elseStmt().get());
       }
-      case WhileStmt ignored -> false; // can't guarantee it runs
+      case WhileStmt whileStmt -> whileStmt.condition() instanceof BooleanLiteralExp literal && literal.value()
+          && !breaksOut(whileStmt.body()); // otherwise can't guarantee it runs
+      default -> false;
+    };
+  }
+
+  /** Whether the loop body contains a break that leaves this loop (not a nested one). */
+  private boolean breaksOut(Stmt stmt) {
+    return switch (stmt) {
+      case BreakStmt ignored -> true;
+      case BlockStmt block -> block.statements().stream().anyMatch(this::breaksOut);
+      case IfStmt ifStmt -> breaksOut(ifStmt.thenStmt()) || ifStmt.elseStmt().map(this::breaksOut).orElse(false);
       default -> false;
     };
   }
 
   private void checkStmt(Stmt stmt, TypeEnvironment env) {
+    int enclosingStmt = currentStmt;
+    currentStmt = stmtCount++;
+    try {
+      checkStmtNode(stmt, env);
+    } catch (TypeCheckException e) {
+      report(e);
+    } finally {
+      currentStmt = enclosingStmt;
+    }
+  }
+
+  private void checkStmtNode(Stmt stmt, TypeEnvironment env) {
     switch (stmt) {
       case VarDecStmt varDec -> env.declare(varDec.name(), resolveType(varDec.type()));
       case AssignStmt assign -> {
         String varName = assign.variableName();
-        TypeEnvironment.VarInfo info = env.lookup(varName);
+        int assignId = typed.enterAssign(assign);
+        Type actual = checkExp(assign.expression(), env);
+
+        TypeEnvironment.VarInfo info = lookupVar(varName, env);
         if (info == null) {
-          throw new RuntimeException("Undeclared variable: " + varName);
+          throw new TypeCheckException("Undeclared variable: " + varName);
         }
+        typed.setAssignKind(assignId, info.kind());
 
         Type expected = info.type();
-        Type actual = checkExp(assign.expression(), env);
-
-        if (!subtyping.isSubtype(actual.getName(), expected.getName())) {
-          throw new RuntimeException("Cannot assign " + actual + " to variable '" + varName + "' of type " + expected);
+        if (!isAssignable(actual, expected)) {
+          throw new TypeCheckException("Cannot assign " + actual + " to variable '" + varName + "' of type " + expected);
         }
-
-        env.initialize(varName);
       }
 
       case BlockStmt block -> {
@@ -243,18 +386,22 @@ public class TypeChecker {
       case PrintStmt print -> checkExp(print.expression(), env);
 
       case ReturnStmt ret -> {
+        if (currentReturnType == null) {
+          ret.expression().ifPresent(e -> checkExp(e, env));
+          throw new TypeCheckException("Cannot return outside of a method");
+        }
         Type declaredReturnType = resolveType(currentReturnType);
 
         if (ret.expression().isPresent()) {
           Type actualReturnType = checkExp(ret.expression().get(), env);
-          if (!subtyping.isSubtype(actualReturnType.getName(), declaredReturnType.getName())) {
-            throw new RuntimeException("Return type mismatch in method " + currentMethod +
+          if (!isAssignable(actualReturnType, declaredReturnType)) {
+            throw new TypeCheckException("Return type mismatch in method " + currentMethod +
                 ": expected " + declaredReturnType + ", but got " + actualReturnType);
           }
         } else {
           // return without expression
           if (!declaredReturnType.equals(PrimitiveType.VOID)) {
-            throw new RuntimeException(
+            throw new TypeCheckException(
                 "Method " + currentMethod + " must return a value of type " + declaredReturnType);
           }
         }
@@ -262,38 +409,50 @@ public class TypeChecker {
 
       case IfStmt ifStmt -> {
         Type condType = checkExp(ifStmt.condition(), env);
-        if (!condType.equals(PrimitiveType.BOOLEAN)){
-          throw new RuntimeException("Condition must be of type boolean, but is type: " + condType.getName());
-        };
+        if (!isType(condType, PrimitiveType.BOOLEAN)) {
+          report(new TypeCheckException("Condition must be of type boolean, but is type: " + condType.getName()));
+        }
         checkStmt(ifStmt.thenStmt(), env);
         ifStmt.elseStmt().ifPresent(e -> checkStmt(e, env));
       }
       case WhileStmt whileStmt -> {
         Type condType = checkExp(whileStmt.condition(), env);
-        if (!condType.equals(PrimitiveType.BOOLEAN)){
-          throw new RuntimeException("Condition must be of type boolean, but is type: " + condType.getName());
+        if (!isType(condType, PrimitiveType.BOOLEAN)) {
+          report(new TypeCheckException("Condition must be of type boolean, but is type: " + condType.getName()));
         }
         checkStmt(whileStmt.body(), env);
       }
+      case BreakStmt ignored -> { }
       case null, default ->
-        throw new RuntimeException("Unhandled statement type: " +
+        throw new TypeCheckException("Unhandled statement type: " +
             (stmt == null ? "null" : stmt.getClass()));
     }
   }
 
   private Type checkExp(Exp exp, TypeEnvironment env) {
+    int id = typed.enterExp(exp);
+    Type type;
+    try {
+      type = checkExp(id, exp, env);
+    } catch (TypeCheckException e) {
+      report(e);
+      type = ErrorType.ERROR;
+    }
+    typed.setType(id, type);
+    return type;
+  }
+
+  private Type checkExp(int id, Exp exp, TypeEnvironment env) {
     return switch (exp) {
       case IntLiteralExp ignored -> PrimitiveType.INT;
       case BooleanLiteralExp ignored -> PrimitiveType.BOOLEAN;
       case StringLiteralExp ignored -> BuiltInType.STRING;
       case VarExp varExp -> {
-        TypeEnvironment.VarInfo info = env.lookup(varExp.name());
+        TypeEnvironment.VarInfo info = lookupVar(varExp.name(), env);
         if (info == null) {
-          throw new RuntimeException("Undeclared variable: " + varExp.name());
-        }
-        if (!info.isInitialized()) {
-          throw new RuntimeException("Variable used before initialization: " + varExp.name());
+          throw new TypeCheckException("Undeclared variable: " + varExp.name());
         }
+        typed.setVarKind(id, info.kind());
         yield info.type();
       }
 
@@ -301,7 +460,7 @@ public class TypeChecker {
 
       case ThisExp ignored -> {
         if (currentClass == null) {
-          throw new RuntimeException("Cannot use `this` outside of a method");
+          throw new TypeCheckException("Cannot use `this` outside of a method");
         }
         yield new ClassType(currentClass);
       }
@@ -311,42 +470,44 @@ public class TypeChecker {
 
         //  walk the chain step by step
         for (CallMethodExp.CallLink link : call.chain()) {
-
-          if (!(receiverType instanceof ClassType classType)) {
-            throw new RuntimeException("Cannot call method on non-class type: " + receiverType);
-          }
-
-          MethodDef method = classTable.getMethod(classType.name(), link.methodName());
-          if (method == null) {
-            throw new RuntimeException("Method " + link.methodName() + " not found in class " + classType.name());
+          int linkId = typed.enterLink(link);
+
+          MethodDef method = null;
+          if (receiverType instanceof ClassType classType) {
+            method = classTable.getMethod(classType.name(), link.methodName());
+            if (method == null) {
+              report(new TypeCheckException("Method " + link.methodName() + " not found in class " + classType.name()));
+            } else {
+              typed.setLinkTarget(linkId, method, classType);
+            }
+          } else if (!(receiverType instanceof ErrorType)) {
+            report(new TypeCheckException("Cannot call method on non-class type: " + receiverType));
           }
 
           // Check argument types
-          List<Type> expectedParamTypes = method.parameters().stream()
-              .map(param -> resolveType(param.type()))
-              .toList();
-
-          if (expectedParamTypes.size() != link.args().size()) {
-            throw new RuntimeException("Argument count mismatch for method " + link.methodName());
-          }
-
-          for (int i = 0; i < expectedParamTypes.size(); i++) {
-            Type argType = checkExp(link.args().get(i), env);
-            Type expected = expectedParamTypes.get(i);
-            if (!subtyping.isSubtype(argType.getName(), expected.getName())) {
-              throw new RuntimeException("Argument " + i + " to method " + link.methodName() +
-                  " has type " + argType + ", expected " + expected);
-            }
-          }
+          checkArgs(link.args(), method == null ? null : method.parameters(), env,
+              "Method " + link.methodName());
 
           // Update receiver type to the return type of the method, for the next link
-          receiverType = resolveType(method.returnType());
+          receiverType = method == null ? ErrorType.ERROR : resolveType(method.returnType());
         }
 
         yield receiverType;
       }
 
-      case NewObjectExp newObj -> new ClassType(newObj.className());
+      case NewObjectExp newObj -> {
+        dependOn(newObj.className());
+        ClassTable.ClassInfo info = classTable.getClass(newObj.className());
+        if (info != null) {
+          checkArgs(newObj.args(), info.constructor.parameters(), env,
+              "Constructor of class " + newObj.className());
+        } else {
+          for (Exp arg : newObj.args()) {
+            checkExp(arg, env);
+          }
+        }
+        yield new ClassType(newObj.className());
+      }
 
       case BinaryExp binary -> {
         Type leftType = checkExp(binary.left(), env);
@@ -354,12 +515,12 @@ public class TypeChecker {
         String op = binary.operator();
 
         // Arithmetic ops: +, -, *, /
-        final boolean isNotLeftAndRightIntType = !leftType.equals(PrimitiveType.INT)
-            || !rightType.equals(PrimitiveType.INT);
+        final boolean isNotLeftAndRightIntType = !isType(leftType, PrimitiveType.INT)
+            || !isType(rightType, PrimitiveType.INT);
         switch (op) {
           case "+", "-", "*", "/" -> {
             if (isNotLeftAndRightIntType) {
-              throw new RuntimeException("Arithmetic operator '" + op + "' requires Int operands.");
+              throw new TypeCheckException("Arithmetic operator '" + op + "' requires Int operands.");
             }
             yield PrimitiveType.INT;
           }
@@ -367,7 +528,7 @@ public class TypeChecker {
           // Comparison ops: <, >, <=, >=, ==, !=
           case "<", ">", "<=", ">=" -> {
             if (isNotLeftAndRightIntType) {
-              throw new RuntimeException("Comparison operator '" + op + "' requires Int operands.");
+              throw new TypeCheckException("Comparison operator '" + op + "' requires Int operands.");
             }
             yield PrimitiveType.BOOLEAN;
           }
@@ -379,14 +540,14 @@ public class TypeChecker {
           }
         }
 
-        throw new RuntimeException("Unknown binary operator: " + op);
+        throw new TypeCheckException("Unknown binary operator: " + op);
       }
 
       case PrintlnExp printIn -> {
         checkExp(printIn.exp(), env);
         yield PrimitiveType.VOID;
       }
-      default -> throw new RuntimeException("Unhandled expression: " + exp.getClass());
+      default -> throw new TypeCheckException("Unhandled expression: " + exp.getClass());
     };
   }
 
@@ -3,8 +3,12 @@ package com.classhole.compiler.typechecker;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Scoped variable declarations. Whether a variable is assigned before it is read is flow-sensitive
+ * and is checked separately by DefiniteAssignment over the body's control-flow graph.
+ */
 public class TypeEnvironment {
-  public record VarInfo(Type type, boolean isInitialized) {}
+  public record VarInfo(Type type, TypedProgram.VarKind kind) {}
 
   private final Map<String, VarInfo> vars = new HashMap<>();
   private final TypeEnvironment parent;
@@ -18,18 +22,14 @@ public class TypeEnvironment {
   }
 
   public void declare(String name, Type type) {
-    if (vars.containsKey(name)) {
-      throw new RuntimeException("Variable already declared: " + name);
-    }
-    vars.put(name, new VarInfo(type, false));
+    declare(name, type, TypedProgram.VarKind.LOCAL);
   }
 
-  public void initialize(String name) {
-    VarInfo info = lookupLocal(name);
-    if (info == null) {
-      throw new RuntimeException("Variable not declared: " + name);
+  public void declare(String name, Type type, TypedProgram.VarKind kind) {
+    if (vars.containsKey(name)) {
+      throw new TypeCheckException("Variable already declared: " + name);
     }
-    vars.put(name, new VarInfo(info.type(), true));
+    vars.put(name, new VarInfo(type, kind));
   }
 
   public VarInfo lookup(String name) {
@@ -38,14 +38,4 @@ public class TypeEnvironment {
     if (parent != null) return parent.lookup(name);
     return null;
   }
-
-  public boolean isInitialized(String name) {
-    VarInfo info = lookup(name);
-    if (info == null) throw new RuntimeException("Variable not declared: " + name);
-    return info.isInitialized();
-  }
-
-  private VarInfo lookupLocal(String name) {
-    return vars.get(name);
-  }
 }
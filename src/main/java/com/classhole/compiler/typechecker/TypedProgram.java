@@ -0,0 +1,185 @@
+package com.classhole.compiler.typechecker;
+
+import com.classhole.compiler.parser.ast.Exp;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.CallMethodExp;
+import com.classhole.compiler.parser.ast.nodes.statements.AssignStmt;
+
+import java.util.Arrays;
+
+/**
+ * The result of type checking a {@link Program}: the resolved type of every
+ * expression, the resolved target of every call link and the kind of every variable use
+ * and assignment target.
+ *
+ * AST nodes are records and compare structurally, so they carry no identity of their own.
+ * Instead every {@link Exp}, every {@link CallMethodExp.CallLink} and every {@link AssignStmt}
+ * gets a dense id from its position in the canonical walk order:
+ * - classes in declaration order; per class the constructor's super(...) args, the
+ *   constructor body, then each method body in declaration order
+ * - then the entry-point statements
+ * - within a statement, expressions in pre-order, children left to right
+ *   (a call's receiver, then each link followed by its args); an assignment is entered
+ *   before its right-hand side
+ *
+ * Later phases walk the tree in the same order and ask a {@link Cursor} for the id of each
+ * node they visit, so looking up a node's facts is an array read.
+ */
+public class TypedProgram {
+  public enum VarKind { LOCAL, PARAMETER, FIELD }
+
+  private final Program program;
+
+  private Exp[] exps = new Exp[64];
+  private Type[] expTypes = new Type[64];
+  private VarKind[] varKinds = new VarKind[64];
+  private int expCount = 0;
+
+  private CallMethodExp.CallLink[] links = new CallMethodExp.CallLink[16];
+  private MethodDef[] linkTargets = new MethodDef[16];
+  private Type[] linkReceiverTypes = new Type[16];
+  private int linkCount = 0;
+
+  private AssignStmt[] assigns = new AssignStmt[16];
+  private VarKind[] assignKinds = new VarKind[16];
+  private int assignCount = 0;
+
+  TypedProgram(Program program) {
+    this.program = program;
+  }
+
+  public Program program() {
+    return program;
+  }
+
+  public int expCount() {
+    return expCount;
+  }
+
+  public int linkCount() {
+    return linkCount;
+  }
+
+  public Exp exp(int id) {
+    return exps[id];
+  }
+
+  public Type typeOf(int expId) {
+    return expTypes[expId];
+  }
+
+  /** The kind of variable a {@code VarExp} refers to, or null if the node is not a variable. */
+  public VarKind varKindOf(int expId) {
+    return varKinds[expId];
+  }
+
+  public CallMethodExp.CallLink link(int id) {
+    return links[id];
+  }
+
+  public MethodDef targetOf(int linkId) {
+    return linkTargets[linkId];
+  }
+
+  /** The static type of the receiver the link is called on. */
+  public Type receiverTypeOf(int linkId) {
+    return linkReceiverTypes[linkId];
+  }
+
+  public int assignCount() {
+    return assignCount;
+  }
+
+  /** The kind of variable an assignment stores to. */
+  public VarKind assignKindOf(int assignId) {
+    return assignKinds[assignId];
+  }
+
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  // ---- recording, used by the TypeChecker while it walks in canonical order ----
+
+  int enterExp(Exp exp) {
+    if (expCount == exps.length) {
+      int size = expCount * 2;
+      exps = Arrays.copyOf(exps, size);
+      expTypes = Arrays.copyOf(expTypes, size);
+      varKinds = Arrays.copyOf(varKinds, size);
+    }
+    exps[expCount] = exp;
+    return expCount++;
+  }
+
+  void setType(int expId, Type type) {
+    expTypes[expId] = type;
+  }
+
+  void setVarKind(int expId, VarKind kind) {
+    varKinds[expId] = kind;
+  }
+
+  int enterLink(CallMethodExp.CallLink link) {
+    if (linkCount == links.length) {
+      int size = linkCount * 2;
+      links = Arrays.copyOf(links, size);
+      linkTargets = Arrays.copyOf(linkTargets, size);
+      linkReceiverTypes = Arrays.copyOf(linkReceiverTypes, size);
+    }
+    links[linkCount] = link;
+    return linkCount++;
+  }
+
+  void setLinkTarget(int linkId, MethodDef target, Type receiverType) {
+    linkTargets[linkId] = target;
+    linkReceiverTypes[linkId] = receiverType;
+  }
+
+  int enterAssign(AssignStmt assign) {
+    if (assignCount == assigns.length) {
+      int size = assignCount * 2;
+      assigns = Arrays.copyOf(assigns, size);
+      assignKinds = Arrays.copyOf(assignKinds, size);
+    }
+    assigns[assignCount] = assign;
+    return assignCount++;
+  }
+
+  void setAssignKind(int assignId, VarKind kind) {
+    assignKinds[assignId] = kind;
+  }
+
+  /**
+   * Hands out ids to a pass that walks the program in canonical order.
+   * Each call checks that the node is the one the checker saw at that position,
+   * so a walk that drifts out of order fails fast instead of reading the wrong facts.
+   */
+  public class Cursor {
+    private int nextExp = 0;
+    private int nextLink = 0;
+    private int nextAssign = 0;
+
+    public int exp(Exp exp) {
+      if (nextExp >= expCount || exps[nextExp] != exp) {
+        throw new IllegalStateException("Expression visited out of canonical order at id " + nextExp + ": " + exp);
+      }
+      return nextExp++;
+    }
+
+    public int link(CallMethodExp.CallLink link) {
+      if (nextLink >= linkCount || links[nextLink] != link) {
+        throw new IllegalStateException("Call link visited out of canonical order at id " + nextLink + ": " + link);
+      }
+      return nextLink++;
+    }
+
+    public int assign(AssignStmt assign) {
+      if (nextAssign >= assignCount || assigns[nextAssign] != assign) {
+        throw new IllegalStateException("Assignment visited out of canonical order at id " + nextAssign + ": " + assign);
+      }
+      return nextAssign++;
+    }
+  }
+}
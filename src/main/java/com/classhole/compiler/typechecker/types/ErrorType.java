@@ -0,0 +1,16 @@
+package com.classhole.compiler.typechecker.types;
+
+import com.classhole.compiler.typechecker.Type;
+
+/**
+ * The type of an expression that failed to check. It is compatible with everything,
+ * so one mistake is reported once rather than again by every expression around it.
+ */
+public record ErrorType() implements Type {
+  public static final ErrorType ERROR = new ErrorType();
+
+  @Override
+  public String getName() {
+    return "<error>";
+  }
+}
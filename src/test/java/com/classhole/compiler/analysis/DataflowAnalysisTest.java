@@ -0,0 +1,96 @@
+package com.classhole.compiler.analysis;
+
+import com.classhole.compiler.parser.ast.Stmt;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataflowAnalysisTest {
+
+  /** Backward may-analysis: a local is live if some path reads it before it is reassigned. */
+  private static class Liveness extends DataflowAnalysis {
+    Liveness(ControlFlowGraph cfg) {
+      super(cfg, Direction.BACKWARD, Meet.UNION);
+    }
+
+    @Override
+    protected void transfer(int node, long[] state) {
+      int assigned = cfg.assignedLocal(node);
+      if (assigned >= 0) Bits.clear(state, assigned);
+      for (int local : cfg.usedLocals(node)) {
+        Bits.set(state, local);
+      }
+    }
+  }
+
+  @Test
+  public void testCfgNumbersLocalsByDeclaration() {
+    // { Int x; x = 1; } { Int x; x = 2; }
+    List<Stmt> body = List.of(
+        new BlockStmt(List.of(new VarDecStmt("Int", "x"), new AssignStmt("x", new IntLiteralExp(1)))),
+        new BlockStmt(List.of(new VarDecStmt("Int", "x"), new AssignStmt("x", new IntLiteralExp(2)))));
+    ControlFlowGraph cfg = ControlFlowGraph.build(body);
+
+    assertEquals(2, cfg.localCount());
+    List<Integer> assigned = new ArrayList<>();
+    for (int node = 0; node < cfg.nodeCount(); node++) {
+      if (cfg.assignedLocal(node) >= 0) assigned.add(cfg.assignedLocal(node));
+    }
+    assertEquals(List.of(0, 1), assigned);
+  }
+
+  @Test
+  public void testDefiniteAssignmentJoinsIfBranches() {
+    // Int x; Int y; if (true) { x = 1; y = 1; } else { x = 2; } println(x); println(y);
+    List<Stmt> body = List.of(
+        new VarDecStmt("Int", "x"),
+        new VarDecStmt("Int", "y"),
+        new IfStmt(new BooleanLiteralExp(true),
+            new BlockStmt(List.of(new AssignStmt("x", new IntLiteralExp(1)), new AssignStmt("y", new IntLiteralExp(1)))),
+            Optional.of(new AssignStmt("x", new IntLiteralExp(2)))),
+        new PrintStmt(new PrintlnExp(new VarExp("x"))),
+        new PrintStmt(new PrintlnExp(new VarExp("y"))));
+    ControlFlowGraph cfg = ControlFlowGraph.build(body);
+    DefiniteAssignment analysis = new DefiniteAssignment(cfg);
+    analysis.solve();
+
+    List<String> unassigned = new ArrayList<>();
+    analysis.forEachUnassignedUse((node, local) -> unassigned.add(cfg.localName(local)));
+    assertEquals(List.of("y"), unassigned);
+  }
+
+  @Test
+  public void testBackwardLivenessAcrossLoop() {
+    // Int i; i = 0; while (i < 10) { i = i + 1; } return;
+    AssignStmt init = new AssignStmt("i", new IntLiteralExp(0));
+    AssignStmt step = new AssignStmt("i", new BinaryExp(new VarExp("i"), "+", new IntLiteralExp(1)));
+    ReturnStmt ret = new ReturnStmt(Optional.empty());
+    List<Stmt> body = List.of(
+        new VarDecStmt("Int", "i"),
+        init,
+        new WhileStmt(new BinaryExp(new VarExp("i"), "<", new IntLiteralExp(10)), new BlockStmt(List.of(step))),
+        ret);
+    ControlFlowGraph cfg = ControlFlowGraph.build(body);
+    Liveness liveness = new Liveness(cfg);
+    liveness.solve();
+
+    long[] state = liveness.newState();
+    for (int node = 0; node < cfg.nodeCount(); node++) {
+      Stmt stmt = cfg.stmt(node);
+      liveness.outState(node, state);
+      if (stmt == init || stmt == step) {
+        assertTrue(Bits.get(state, 0), "i is read by the loop condition after " + stmt);
+      } else if (stmt == ret) {
+        liveness.inState(node, state);
+        assertFalse(Bits.get(state, 0), "i is dead at the return");
+      }
+    }
+  }
+}
@@ -1,5 +1,9 @@
 package com.classhole.compiler.codegenerator;
 
+import com.classhole.compiler.lexer.Token;
+import com.classhole.compiler.lexer.Tokenizer;
+import com.classhole.compiler.optimizer.Devirtualizer;
+import com.classhole.compiler.parser.Parser;
 import com.classhole.compiler.parser.ast.Program;
 import com.classhole.compiler.parser.ast.Stmt;
 import com.classhole.compiler.parser.ast.nodes.definitions.ClassDef;
@@ -7,9 +11,14 @@ import com.classhole.compiler.parser.ast.nodes.definitions.ConstructorDef;
 import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
 import com.classhole.compiler.parser.ast.nodes.statements.*;
 import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.typechecker.TypeChecker;
+import com.classhole.compiler.typechecker.TypedProgram;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Optional;
 
@@ -63,16 +72,16 @@ public class CodeGeneratorTest {
 
   @Test
   public void testInheritanceFieldInitAndExpressionChaining() {
-    // class A { Int x; init(Int x) { this.x = x; } method get() Int { return this.x; } }
+    // class A { Int x; init(Int v) { x = v; } method get() Int { return this.x; } }
     ClassDef classA = new ClassDef(
         "A",
         Optional.empty(),
         List.of(new VarDecStmt("Int", "x")),
         new ConstructorDef(
-            List.of(new VarDecStmt("Int", "x")),
+            List.of(new VarDecStmt("Int", "v")),
             Optional.empty(),
             List.of(
-                new AssignStmt("x", new VarExp("x"))
+                new AssignStmt("x", new VarExp("v"))
             )
         ),
         List.of(
@@ -141,7 +150,7 @@ public class CodeGeneratorTest {
 
     // assertions to check correctness
     assertTrue(js.contains("function A("));
-    assertTrue(js.contains("this.x = x;")); // assigned from constructor param
+    assertTrue(js.contains("this.x = v;")); // assigned from constructor param
     assertTrue(js.contains("this.b = false;"));
     assertTrue(js.contains("A.call(this, 123);"));// super call
     assertTrue(js.contains("B.prototype = Object.create(A.prototype);"));
@@ -387,4 +396,266 @@ public class CodeGeneratorTest {
         );
         assertEquals("console.log((obj.getValue() + 1))", generator.generateExp(complexPrintln));
     }
+
+    @Test
+    public void testStreamingIntoWriterMatchesString() {
+        // class A { init() { } method say(Int n) Void { if (n > 0) { println("a \"b\""); } return; } }
+        ClassDef a = new ClassDef("A", Optional.empty(), List.of(new VarDecStmt("Int", "n")),
+            new ConstructorDef(List.of(), Optional.empty(), List.of()),
+            List.of(new MethodDef("say", List.of(new VarDecStmt("Int", "n")), "Void", List.of(
+                new IfStmt(new BinaryExp(new VarExp("n"), ">", new IntLiteralExp(0)),
+                    new BlockStmt(List.of(new PrintStmt(new StringLiteralExp("a \"b\"")))), Optional.empty()),
+                new ReturnStmt(Optional.empty())))));
+        Program program = new Program(List.of(a), List.of(
+            new ExprStmt(new CallMethodExp(new NewObjectExp("A", List.of()),
+                List.of(new CallMethodExp.CallLink("say", List.of(new IntLiteralExp(3))))))));
+
+        CodeGenerator generator = new CodeGenerator();
+        StringWriter writer = new StringWriter();
+        generator.generate(program, writer);
+
+        assertEquals(generator.generate(program), writer.toString());
+        assertTrue(writer.toString().contains("console.log(\"a \\\"b\\\"\");"));
+        assertTrue(writer.toString().contains("new A().say(3);"));
+    }
+
+    @Test
+    public void testWriterFailureIsUnchecked() {
+        Appendable broken = new Appendable() {
+            public Appendable append(CharSequence csq) throws IOException { throw new IOException("disk full"); }
+            public Appendable append(CharSequence csq, int start, int end) throws IOException { throw new IOException("disk full"); }
+            public Appendable append(char c) throws IOException { throw new IOException("disk full"); }
+        };
+        Program program = new Program(List.of(), List.of(new PrintStmt(new IntLiteralExp(1))));
+        assertThrows(UncheckedIOException.class, () -> new CodeGenerator().generate(program, broken));
+    }
+
+    @Test
+    public void testLocalsAndParametersAreBindingsNotProperties() throws Exception {
+        String code = """
+            class Counter {
+              Int count;
+              init() { }
+              method add(Int n) Int {
+                Int next;
+                next = count + n;
+                count = next;
+                return next;
+              }
+            }
+            Counter c;
+            c = new Counter();
+            println(c.add(2));
+            """;
+        Token[] tokens = new Tokenizer(code).tokenize().toArray(new Token[0]);
+        Program program = new Parser(tokens).parseWholeProgram();
+        TypedProgram typed = new TypeChecker().check(program);
+        String js = new CodeGenerator(typed).generate(program);
+
+        assertTrue(js.contains("let next;"));
+        assertTrue(js.contains("next = (this.count + n);"));
+        assertTrue(js.contains("this.count = next;"));
+        assertTrue(js.contains("return next;"));
+        assertTrue(js.contains("\nc = new Counter();"));
+        assertFalse(js.contains("this.next"));
+        assertFalse(js.contains("this.n "));
+
+        // Scope resolution without types agrees with the checker
+        assertEquals(js, new CodeGenerator().generate(program));
+    }
+
+    @Test
+    public void testTypedGenerationRejectsADifferentProgram() {
+        Program checked = new Program(List.of(), List.of(new PrintStmt(new IntLiteralExp(1))));
+        Program other = new Program(List.of(), List.of(new PrintStmt(new IntLiteralExp(1))));
+        TypedProgram typed = new TypeChecker().check(checked);
+        assertThrows(IllegalArgumentException.class, () -> new CodeGenerator(typed).generate(other));
+    }
+
+    @Test
+    public void testFieldsNamedLikeConstructorParametersGetDefaults() throws Exception {
+        String code = """
+            class Box {
+              Int v;
+              Boolean f;
+              init(Int v, Boolean f) { }
+              method get() Int { return v; }
+              method flag() Boolean { return f; }
+            }
+            Box b;
+            b = new Box(5, true);
+            println(b.get());
+            println(b.flag());
+            """;
+        Token[] tokens = new Tokenizer(code).tokenize().toArray(new Token[0]);
+        Program program = new Parser(tokens).parseWholeProgram();
+        String js = new CodeGenerator(new TypeChecker().check(program)).generate(program);
+
+        // The parameters shadow the fields, so the fields keep their defaults
+        assertTrue(js.contains("function Box(v, f) {\n  this.v = 0;\n  this.f = false;\n}"));
+        assertTrue(js.contains("return this.v;"));
+    }
+
+    @Test
+    public void testEntryPointInsideStrictFunction() {
+        Program program = new Program(List.of(), List.of(
+            new VarDecStmt("Int", "x"),
+            new AssignStmt("x", new IntLiteralExp(1)),
+            new PrintStmt(new VarExp("x"))));
+
+        String iife = new CodeGenerator().entryPoint(CodeGenerator.EntryPoint.IIFE).generate(program);
+        assertEquals("(function() {\n\"use strict\";\nlet x;\nx = 1;\nconsole.log(x);\n})();\n", iife);
+
+        String module = new CodeGenerator().entryPoint(CodeGenerator.EntryPoint.EXPORTED_MAIN).generate(program);
+        assertEquals("export function main() {\nlet x;\nx = 1;\nconsole.log(x);\n}\n", module);
+
+        assertEquals("let x;\nx = 1;\nconsole.log(x);\n", new CodeGenerator().generate(program));
+    }
+
+    private static Program parseProgram(String code) throws Exception {
+        Token[] tokens = new Tokenizer(code).tokenize().toArray(new Token[0]);
+        return new Parser(tokens).parseWholeProgram();
+    }
+
+    private static final String LAYOUT_PROGRAM = """
+        class A {
+          Int x;
+          init(Int v) { x = v; }
+          method get() Int { return x; }
+        }
+        class B extends A {
+          Boolean b;
+          Int y;
+          init(Int w) { super(w + 1); y = w; }
+        }
+        A a;
+        a = new B(3);
+        """;
+
+    @Test
+    public void testStableLayoutCreatesAllFieldsInCanonicalOrder() throws Exception {
+        Program program = parseProgram(LAYOUT_PROGRAM);
+        String js = new CodeGenerator(new TypeChecker().check(program))
+            .objectLayout(CodeGenerator.ObjectLayout.STABLE).generate(program);
+
+        assertTrue(js.contains("function A(v) {\n  this.x = 0;\n  this.x = v;\n}"));
+        assertTrue(js.contains("function B(w) {\n  this.x = 0;\n  this.b = false;\n  this.y = 0;\n"
+            + "  A.call(this, (w + 1));\n  this.y = w;\n}"));
+    }
+
+    @Test
+    public void testEs2015ClassLayout() throws Exception {
+        Program program = parseProgram(LAYOUT_PROGRAM);
+        String js = new CodeGenerator(new TypeChecker().check(program))
+            .objectLayout(CodeGenerator.ObjectLayout.ES2015_CLASS).generate(program);
+
+        assertTrue(js.contains("class A {\n  constructor(v) {\n    this.x = 0;\n    this.x = v;\n  }\n"
+            + "  get() {\n    return this.x;\n  }\n}"));
+        assertTrue(js.contains("class B extends A {\n  constructor(w) {\n    super((w + 1));\n"
+            + "    this.b = false;\n    this.y = 0;\n    this.y = w;\n  }\n}"));
+        assertFalse(js.contains("prototype"));
+    }
+
+    @Test
+    public void testSuperclassesAreWrittenBeforeSubclasses() throws Exception {
+        Program program = parseProgram("""
+            class C extends B {
+              init() { super(); }
+              method get() Int { return 3; }
+            }
+            class B extends A {
+              init() { super(); }
+            }
+            class D {
+              init() { }
+            }
+            class A {
+              init() { }
+              method get() Int { return 1; }
+            }
+            A a;
+            a = new C();
+            println(a.get());
+            """);
+        String js = new CodeGenerator(new TypeChecker().check(program))
+            .objectLayout(CodeGenerator.ObjectLayout.ES2015_CLASS).generate(program);
+
+        // A class declaration is not hoisted, so extends B must come after class B
+        int a = js.indexOf("class A {");
+        int b = js.indexOf("class B extends A {");
+        int c = js.indexOf("class C extends B {");
+        assertTrue(js.indexOf("class D {") < a);
+        assertTrue(a < b && b < c);
+        assertTrue(js.contains("  get() {\n    return 3;\n  }\n}\n\n"));
+    }
+
+    @Test
+    public void testInt32ArithmeticLowering() throws Exception {
+        Program program = parseProgram("""
+            Int big;
+            Int q;
+            big = 2147483647;
+            big = big + 1;
+            q = (7 - 10) / 2;
+            println(big * big);
+            println(q < 0);
+            """);
+        String js = new CodeGenerator(new TypeChecker().check(program)).int32Arithmetic(true).generate(program);
+
+        assertTrue(js.contains("big = ((big + 1) | 0);"));
+        assertTrue(js.contains("q = (((((7 - 10) | 0)) / 2) | 0);"));
+        assertTrue(js.contains("console.log(Math.imul(big, big));"));
+        // Comparisons are not arithmetic
+        assertTrue(js.contains("(q < 0)"));
+    }
+
+    @Test
+    public void testDevirtualizedCallsAreDirect() throws Exception {
+        Program program = parseProgram("""
+            class Shape {
+              Int sides;
+              init(Int n) { sides = n; }
+              method area() Int { return 0; }
+              method count() Int { return sides; }
+              method self() Shape { return this; }
+            }
+            class Square extends Shape {
+              Int side;
+              init(Int s) { super(4); side = s; }
+              method area() Int { return side * side; }
+            }
+            class Circle extends Shape {
+              init() { super(0); }
+              method area() Int { return 3; }
+            }
+            Shape s;
+            Square q;
+            s = new Square(2);
+            q = new Square(3);
+            println(s.area());
+            println(q.area());
+            println(s.self().count());
+            println(new Square(5).area());
+            s = new Circle();
+            """);
+        TypedProgram typed = new TypeChecker().check(program);
+        Devirtualizer devirtualizer = new Devirtualizer(typed);
+        String js = new CodeGenerator(typed).devirtualize(devirtualizer).generate(program);
+
+        // Square and Circle are both instantiated, so a Shape receiver stays dynamic
+        assertTrue(js.contains("console.log(s.area());"));
+        assertTrue(js.contains("Square.prototype.area = function() {\n  return (this.side * this.side);\n};\n"
+            + "const Square$area = Square.prototype.area;\n"));
+        // Receivers that may be null keep the TypeError of a dynamic call
+        assertTrue(js.contains("console.log(Square$area.call({} = q));"));
+        assertTrue(js.contains("console.log(Shape$count.call({} = Shape$self.call({} = s)));"));
+        assertTrue(js.contains("console.log(Square$area.call(new Square(5)));"));
+        assertEquals(4, devirtualizer.devirtualizedCount());
+        assertEquals(0.8, devirtualizer.devirtualizedFraction());
+        assertEquals("devirtualized 4 of 5 call sites (80.0%)", devirtualizer.report());
+
+        Program other = parseProgram("println(1);");
+        assertThrows(IllegalArgumentException.class,
+            () -> new CodeGenerator(new TypeChecker().check(other)).devirtualize(devirtualizer).generate(other));
+    }
 }
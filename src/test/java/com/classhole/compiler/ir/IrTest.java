@@ -0,0 +1,249 @@
+package com.classhole.compiler.ir;
+
+import com.classhole.compiler.codegenerator.IrCodeGenerator;
+import com.classhole.compiler.lexer.Token;
+import com.classhole.compiler.lexer.Tokenizer;
+import com.classhole.compiler.parser.Parser;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.typechecker.TypeChecker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IrTest {
+
+  private static final String COUNTER = """
+      class Counter {
+        init() { }
+        method sum(Int n) Int {
+          Int i;
+          Int s;
+          i = 0;
+          s = 0;
+          while (i < n) {
+            s = s + i;
+            i = i + 1;
+          }
+          return s;
+        }
+      }
+      println(new Counter().sum(4));
+      """;
+
+  private static IrProgram build(String code) throws Exception {
+    Token[] tokens = new Tokenizer(code).tokenize().toArray(new Token[0]);
+    Program program = new Parser(tokens).parseWholeProgram();
+    new TypeChecker().check(program);
+    return new IrBuilder().build(program);
+  }
+
+  @Test
+  public void testLoopVariablesBecomePhis() throws Exception {
+    IrProgram program = build(COUNTER);
+    IrFunction sum = program.classes().getFirst().methods().getFirst();
+
+    // The parameter is never reassigned, so the phi the loop header first gets for it is removed
+    assertEquals("""
+        function Counter.sum(n: Int) Int
+        b0:
+          %0: Counter = this
+          %1: Int = param n
+          %2: Int = const 0
+          %3: Int = const 0
+          jump b1
+        b1: <- b0, b3
+          %4: Int = phi [b0: %2, b3: %9]
+          %5: Int = phi [b0: %3, b3: %7]
+          %6: Boolean = %4 < %1
+          branch %6, b3, b2
+        b2: <- b1
+          return %5
+        b3: <- b1
+          %7: Int = %5 + %4
+          %8: Int = const 1
+          %9: Int = %4 + %8
+          jump b1
+        """, new IrPrinter().print(sum));
+    assertEquals(10, sum.valueCount());
+  }
+
+  @Test
+  public void testBuiltProgramsVerify() throws Exception {
+    IrProgram program = build("""
+        class Shape {
+          Int sides;
+          init(Int s) { sides = s; }
+          method describe() Int { return sides; }
+        }
+        class Square extends Shape {
+          Int side;
+          init(Int x) {
+            super(4);
+            side = x;
+          }
+          method area() Int {
+            Int a;
+            if (side > 10) {
+              a = 100;
+            } else {
+              a = side * side;
+            }
+            while (true) {
+              if (a > 50) {
+                break;
+              }
+              a = a + this.describe();
+            }
+            return a;
+          }
+        }
+        println(new Square(3).area());
+        """);
+
+    assertEquals(List.of(), new IrVerifier().verify(program));
+    assertEquals(List.of("Shape.init", "Shape.describe", "Square.init", "Square.area", "main"),
+        program.functions().stream().map(IrFunction::name).toList());
+  }
+
+  @Test
+  public void testVerifierReportsPhiArity() throws Exception {
+    IrFunction sum = build(COUNTER).classes().getFirst().methods().getFirst();
+    sum.blocks().get(1).phis.getFirst().operands.removeLast();
+
+    assertEquals(List.of("Counter.sum b1: phi %4 has 1 operands for 2 predecessors"), new IrVerifier().verify(sum));
+  }
+
+  @Test
+  public void testVerifierReportsUseBeforeDefinition() throws Exception {
+    IrFunction sum = build(COUNTER).classes().getFirst().methods().getFirst();
+    // Move "const 1" after the addition that uses it
+    Block body = sum.blocks().get(3);
+    body.instructions.add(body.instructions.remove(1));
+
+    assertEquals(List.of("Counter.sum b3: %9 uses %8, which is not defined on every path to it"),
+        new IrVerifier().verify(sum));
+  }
+
+  @Test
+  public void testDominators() throws Exception {
+    IrFunction sum = build(COUNTER).classes().getFirst().methods().getFirst();
+    Dominators dominators = new Dominators(sum);
+    List<Block> blocks = sum.blocks();
+
+    assertSame(blocks.get(1), dominators.idom(blocks.get(2)));
+    assertSame(blocks.get(1), dominators.idom(blocks.get(3)));
+    assertTrue(dominators.dominates(blocks.get(1), blocks.get(3)));
+    assertFalse(dominators.dominates(blocks.get(3), blocks.get(2)));
+    assertEquals(List.of(blocks.get(0), blocks.get(1), blocks.get(2), blocks.get(3)), dominators.reversePostorder());
+  }
+
+  @Test
+  public void testGeneratesStructuredLoops() throws Exception {
+    String js = new IrCodeGenerator().generate(build(COUNTER));
+
+    assertEquals("""
+        function Counter() {
+        }
+        Counter.prototype.sum = function(n) {
+          let $4, $5, $7, $9;
+          $4 = 0;
+          $5 = 0;
+          $b1: while (true) {
+            if (($4 < n)) {
+              $7 = ($5 + $4);
+              $9 = ($4 + 1);
+              $4 = $9;
+              $5 = $7;
+            } else {
+              return $5;
+            }
+          }
+        };
+
+        console.log(new Counter().sum(4));
+        """, js);
+  }
+
+  @Test
+  public void testMergesFollowLabeledBlocks() throws Exception {
+    String js = new IrCodeGenerator().generate(build("""
+        Int x;
+        x = 1;
+        if (x < 2) {
+          x = 3;
+        } else {
+          x = 4;
+        }
+        println(x);
+        """));
+
+    assertEquals("""
+        let $4;
+        $b2: {
+          if ((1 < 2)) {
+            $4 = 3;
+          } else {
+            $4 = 4;
+          }
+        }
+        console.log($4);
+        """, js);
+  }
+
+  @Test
+  public void testTopLevelEntryPointLeavesByBreak() throws Exception {
+    String js = new IrCodeGenerator().generate(build("""
+        Int i;
+        i = 0;
+        while (true) {
+          if (2 < i) {
+            break;
+          }
+          i = i + 1;
+        }
+        println(i);
+        """));
+
+    assertEquals("""
+        let $1, $6;
+        $main: {
+          $1 = 0;
+          $b1: while (true) {
+            if ((2 < $1)) {
+              console.log($1);
+              break $main;
+            } else {
+              $6 = ($1 + 1);
+              $1 = $6;
+            }
+          }
+        }
+        """, js);
+  }
+
+  @Test
+  public void testSwappedPhisAreAssignedTogether() throws Exception {
+    String js = new IrCodeGenerator().int32Arithmetic(true).generate(build("""
+        Int a;
+        Int b;
+        Int t;
+        Int i;
+        a = 1;
+        b = 2;
+        i = 0;
+        while (i < 3) {
+          t = a;
+          a = b;
+          b = t;
+          i = i + 1;
+        }
+        println(a);
+        """));
+
+    assertTrue(js.contains("] = ["));
+    assertTrue(js.contains(" + 1) | 0)"));
+  }
+}
@@ -0,0 +1,848 @@
+package com.classhole.compiler.optimizer;
+
+import com.classhole.compiler.codegenerator.CodeGenerator;
+import com.classhole.compiler.lexer.Token;
+import com.classhole.compiler.lexer.Tokenizer;
+import com.classhole.compiler.parser.Parser;
+import com.classhole.compiler.parser.ast.Program;
+import com.classhole.compiler.parser.ast.nodes.definitions.MethodDef;
+import com.classhole.compiler.parser.ast.nodes.expressions.*;
+import com.classhole.compiler.parser.ast.nodes.statements.*;
+import com.classhole.compiler.typechecker.TypeChecker;
+import com.classhole.compiler.typechecker.TypedProgram;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OptimizerTest {
+
+  private static Program parse(String code) throws Exception {
+    Token[] tokens = new Tokenizer(code).tokenize().toArray(new Token[0]);
+    Program program = new Parser(tokens).parseWholeProgram();
+    new TypeChecker().check(program);
+    return program;
+  }
+
+  /** Generates the optimized program, checking that it still type checks. */
+  private static String generate(Program optimized) {
+    return new CodeGenerator(new TypeChecker().check(optimized)).generate(optimized);
+  }
+
+  @Test
+  public void testFoldsIntArithmeticWithWrapAround() {
+    assertEquals(new IntLiteralExp(86400), ConstantFolder.foldBinary("*",
+        ConstantFolder.foldBinary("*", new IntLiteralExp(60), new IntLiteralExp(60)), new IntLiteralExp(24)));
+    assertEquals(new IntLiteralExp(Integer.MIN_VALUE),
+        ConstantFolder.foldBinary("+", new IntLiteralExp(Integer.MAX_VALUE), new IntLiteralExp(1)));
+    assertEquals(new IntLiteralExp(-3), ConstantFolder.foldBinary("/", new IntLiteralExp(-7), new IntLiteralExp(2)));
+    assertNull(ConstantFolder.foldBinary("/", new IntLiteralExp(1), new IntLiteralExp(0)));
+    assertEquals(new BooleanLiteralExp(true), ConstantFolder.foldBinary("!=", new BooleanLiteralExp(true), new BooleanLiteralExp(false)));
+    assertNull(ConstantFolder.foldBinary("==", new IntLiteralExp(1), new BooleanLiteralExp(true)));
+  }
+
+  @Test
+  public void testPropagatesSingleAssignmentLocals() throws Exception {
+    Program program = parse("""
+        Int day;
+        Int week;
+        Int n;
+        day = (60 * 60) * 24;
+        week = day * 7;
+        n = 0;
+        n = n + week;
+        println(n);
+        """);
+    String js = generate(new ConstantFolder().rewrite(program));
+
+    assertEquals("let n;\nn = 0;\nn = (n + 604800);\nconsole.log(n);\n", js);
+  }
+
+  @Test
+  public void testFoldsConstantConditions() throws Exception {
+    Program program = parse("""
+        class A {
+          init() { }
+          method f(Int x) Int {
+            Boolean debug;
+            debug = 1 > 2;
+            if (debug) {
+              println(x);
+            } else {
+              x = x + 1;
+            }
+            while (debug) {
+              println(x);
+            }
+            return x;
+          }
+        }
+        println(new A().f(1));
+        """);
+    Program optimized = new ConstantFolder().rewrite(program);
+    String js = generate(optimized);
+
+    assertTrue(js.contains("A.prototype.f = function(x) {\n  {\nx = (x + 1);\n}\n  return x;\n};"));
+    assertFalse(js.contains("debug"));
+    assertFalse(js.contains("while"));
+  }
+
+  @Test
+  public void testUnchangedProgramIsReturnedAsIs() throws Exception {
+    Program program = parse("""
+        Int x;
+        x = 1;
+        x = x + 1;
+        println(x);
+        """);
+    assertSame(program, new ConstantFolder().rewrite(program));
+  }
+
+  @Test
+  public void testShadowedNamesAreDistinctLocals() throws Exception {
+    Program program = parse("""
+        Int x;
+        x = 1;
+        {
+          Int y;
+          y = 2;
+          println(x + y);
+        }
+        {
+          Int y;
+          y = 3;
+          y = y + 1;
+          println(y);
+        }
+        """);
+    String js = generate(new ConstantFolder().rewrite(program));
+
+    assertTrue(js.contains("console.log(3);"));
+    assertTrue(js.contains("let y;\ny = 3;\ny = (y + 1);\nconsole.log(y);"));
+  }
+
+  @Test
+  public void testRemovesCodeAfterReturnAndBreak() throws Exception {
+    Program program = parse("""
+        class A {
+          init() { }
+          method f(Int x) Int {
+            while (true) {
+              if (x > 10) {
+                break;
+                println(1);
+              }
+              x = x + 1;
+            }
+            if (x > 0) {
+              return x;
+              println(2);
+            } else {
+              return 0;
+            }
+            println(3);
+            return 1;
+          }
+          method g() Int {
+            while (true) {
+              return 1;
+            }
+            return 2;
+          }
+        }
+        println(new A().f(1));
+        """);
+    String js = generate(new UnreachableCodeEliminator().rewrite(program));
+
+    assertFalse(js.contains("console.log(1)"));
+    assertFalse(js.contains("console.log(2)"));
+    assertFalse(js.contains("console.log(3)"));
+    assertFalse(js.contains("return 1;\n  return 2;"));
+    assertTrue(js.contains("if ((x > 10)) {\nbreak;\n}"));
+    assertTrue(js.contains("return x;"));
+  }
+
+  @Test
+  public void testRemovesDeadBranchesAndEmptyBlocks() throws Exception {
+    Program program = parse("""
+        class C {
+          init() { }
+          method t() Boolean { return true; }
+        }
+        Int x;
+        x = 1;
+        if (false) {
+          println(x);
+        }
+        while (false) {
+          x = 2;
+        }
+        {
+          { }
+          x = x + 1;
+        }
+        {
+          Int y;
+          y = x;
+          println(y);
+        }
+        if (x > 1) { } else { { } }
+        if (new C().t()) { }
+        println(x);
+        """);
+    String js = generate(new UnreachableCodeEliminator().rewrite(program));
+
+    assertTrue(js.endsWith("let x;\nx = 1;\nx = (x + 1);\n{\nlet y;\ny = x;\nconsole.log(y);\n}\n"
+        + "new C().t();\nconsole.log(x);\n"));
+  }
+
+  @Test
+  public void testTreeShakingDropsWhatTheEntryPointCannotReach() throws Exception {
+    Program program = parse("""
+        class Shape {
+          Int sides;
+          Int unused;
+          init(Int n) { sides = n; }
+          method area() Int { return 0; }
+          method describe() Int { return sides; }
+        }
+        class Square extends Shape {
+          Int side;
+          init(Int s) { super(4); side = s; }
+          method area() Int { return side * side; }
+        }
+        class Circle extends Shape {
+          init() { super(0); }
+          method area() Int { return 3; }
+        }
+        class Unused {
+          init() { }
+          method f() Int { return new Circle().area(); }
+        }
+        class Handle {
+          init() { }
+        }
+        Shape s;
+        Handle h;
+        s = new Square(2);
+        println(s.area());
+        """);
+    TreeShaker shaker = new TreeShaker();
+    Program shaken = shaker.shake(new TypeChecker().check(program));
+    String js = generate(shaken);
+
+    // Circle only appears in dead code; Handle is only a declared type
+    assertFalse(js.contains("Circle"));
+    assertFalse(js.contains("Unused"));
+    assertTrue(js.contains("function Handle() {"));
+    // Shape.area is the static target of s.area(), Square.area the one that runs
+    assertTrue(js.contains("Shape.prototype.area = function() {"));
+    assertTrue(js.contains("Square.prototype.area = function() {"));
+    assertFalse(js.contains("describe"));
+    assertFalse(js.contains("unused"));
+    assertTrue(js.contains("this.sides = n;"));
+    assertEquals(2, shaker.removedClasses());
+    assertEquals(3, shaker.removedMethods());
+    assertEquals(1, shaker.removedFields());
+
+    assertSame(shaken, new TreeShaker().shake(new TypeChecker().check(shaken)));
+  }
+
+  @Test
+  public void testInlinesSmallMonomorphicMethods() throws Exception {
+    Program program = parse("""
+        class Counter {
+          Int count;
+          init() { count = 0; }
+          method get() Int { return count; }
+          method twice(Int v) Int { return v + v; }
+          method bump(Int by) Void {
+            Int next;
+            next = count + by;
+            count = next;
+          }
+          method log(Int x) Int {
+            println(x);
+            return x * 2;
+          }
+          method run() Int {
+            Int r;
+            r = this.log(this.get() + 1);
+            this.bump(3);
+            return this.get();
+          }
+          method shadowed() Int {
+            Int count;
+            count = 5;
+            return this.get() + count;
+          }
+        }
+        Counter c;
+        Int k;
+        c = new Counter();
+        k = 4;
+        println(c.twice(k));
+        println(c.get());
+        """);
+    Inliner inliner = new Inliner(new TypeChecker().check(program));
+    String js = generate(inliner.rewrite(program));
+
+    // Parameters bound in order to fresh locals; the callee's own local is renamed too
+    assertTrue(js.contains("{\nlet x$1;\nx$1 = (this.count + 1);\nconsole.log(x$1);\nr = (x$1 * 2);\n}"));
+    assertTrue(js.contains("{\nlet by$2;\nby$2 = 3;\nlet next$3;\nnext$3 = (this.count + by$2);\nthis.count = next$3;\n}"));
+    assertTrue(js.contains("return this.count;\n};"));
+    // A local named like the field it reads keeps the call
+    assertTrue(js.contains("return (this.get() + count);"));
+    // A body without fields inlines into any receiver; one with fields only into this
+    assertTrue(js.contains("console.log((k + k));"));
+    assertTrue(js.contains("console.log(c.get());"));
+    assertEquals(5, inliner.inlinedCount());
+  }
+
+  @Test
+  public void testInliningKeepsEvaluationOrder() throws Exception {
+    Program program = parse("""
+        class A {
+          Int n;
+          init() { n = 0; }
+          method next() Int {
+            n = n + 1;
+            return n;
+          }
+          method pair(Int a, Int b) Int { return b - a; }
+          method run() Int {
+            return this.pair(this.next(), this.next());
+          }
+        }
+        A a;
+        a = new A();
+        println(a.run());
+        """);
+    String js = generate(new Inliner(new TypeChecker().check(program), 4).rewrite(program));
+
+    // Impure args are bound to locals in order instead of substituted; next() is over the budget
+    assertTrue(js.contains("{\nlet a$1;\na$1 = this.next();\nlet b$2;\nb$2 = this.next();\nreturn (b$2 - a$1);\n}"));
+  }
+
+  @Test
+  public void testInliningKeepsReceiversThatMayBeNull() throws Exception {
+    Program program = parse("""
+        class A {
+          init() { }
+          method name() Int {
+            println(7);
+            return 3;
+          }
+        }
+        class H {
+          A f;
+          init() { }
+          method run() Int {
+            Int r;
+            r = f.name();
+            return r;
+          }
+          method use(A a) Int {
+            Int r;
+            r = a.name();
+            return r;
+          }
+        }
+        A a;
+        H h;
+        Int r;
+        a = new A();
+        h = new H();
+        r = a.name();
+        println(h.run() + r);
+        """);
+    Inliner inliner = new Inliner(new TypeChecker().check(program));
+    String js = generate(inliner.rewrite(program));
+
+    // A field or parameter may be null, and the call must still fail on it
+    assertTrue(js.contains("r = this.f.name();"));
+    assertTrue(js.contains("r = a.name();\nreturn r;"));
+    // A local only ever assigned new cannot be
+    assertTrue(js.contains("{\nconsole.log(7);\nr = 3;\n}"));
+    assertEquals(1, inliner.inlinedCount());
+  }
+
+  @Test
+  public void testScalarReplacesNonEscapingAllocations() throws Exception {
+    Program program = parse("""
+        class Base {
+          Int id;
+          init(Int i) { id = i; }
+        }
+        class Point extends Base {
+          Int x;
+          Int y;
+          init(Int a, Int b) { super(a + b); x = a; y = b; }
+          method sum() Int { return x + y + id; }
+          method scale(Int k) Void {
+            x = x * k;
+            y = y * k;
+          }
+          method self() Point { return this; }
+        }
+        class Box {
+          Point p;
+          init(Point q) { p = q; }
+        }
+        Int i;
+        Int total;
+        Point kept;
+        Point leaked;
+        Box b;
+        i = 0;
+        total = 0;
+        while (i < 3) {
+          Point p;
+          p = new Point(i, 2);
+          p.scale(3);
+          total = total + p.sum();
+          i = i + 1;
+        }
+        kept = new Point(1, 1);
+        b = new Box(kept);
+        leaked = new Point(2, 2);
+        println(leaked.self().sum());
+        println(total);
+        """);
+    ScalarReplacer replacer = new ScalarReplacer(new TypeChecker().check(program));
+    String js = generate(replacer.rewrite(program));
+
+    assertTrue(js.contains("while ((i < 3)) {\nlet p$id$1;\nlet p$x$2;\nlet p$y$3;\n{\n"
+        + "p$id$1 = 0;\np$x$2 = 0;\np$y$3 = 0;\nlet a$4;\na$4 = i;\nlet b$5;\nb$5 = 2;\n"
+        + "let i$6;\ni$6 = (a$4 + b$5);\np$id$1 = i$6;\np$x$2 = a$4;\np$y$3 = b$5;\n}\n"
+        + "{\nlet k$7;\nk$7 = 3;\np$x$2 = (p$x$2 * k$7);\np$y$3 = (p$y$3 * k$7);\n}\n"
+        + "total = (total + ((p$x$2 + p$y$3) + p$id$1));\n"));
+    // Stored in a field, or handed this: both escape
+    assertTrue(js.contains("kept = new Point(1, 1);"));
+    assertTrue(js.contains("leaked = new Point(2, 2);"));
+    assertEquals(1, replacer.replacedCount());
+  }
+
+  @Test
+  public void testScalarReplacementAfterInliningPicksUnusedNames() throws Exception {
+    Program program = parse("""
+        class P {
+          Int v;
+          Int w;
+          init() { v = 10; w = 3; }
+          method get(Int n) Int {
+            Int t;
+            t = v + n;
+            return t;
+          }
+        }
+        class A {
+          init() { }
+          method f(Int a, Int b, Int n) Int {
+            P p;
+            Int r;
+            p = new P();
+            r = p.get(n);
+            return r + a + b;
+          }
+          method go(Int n) Int {
+            Int r;
+            r = this.f(1, 2, n);
+            return r;
+          }
+        }
+        A x;
+        x = new A();
+        println(x.go(2));
+        """);
+    Inliner inliner = new Inliner(new TypeChecker().check(program));
+    Program inlined = inliner.rewrite(program);
+    ScalarReplacer replacer = new ScalarReplacer(new TypeChecker().check(inlined));
+    String js = generate(replacer.rewrite(inlined));
+
+    // The inliner left a$1 .. r$5 in go, so the replacer's names start after them
+    assertTrue(js.contains("let n$3;\nn$3 = n;"));
+    assertTrue(js.contains("let n$12;\nn$12 = n$3;"));
+    assertEquals(1, inliner.inlinedCount());
+    assertEquals(2, replacer.replacedCount());
+  }
+
+  @Test
+  public void testHoistsLoopInvariantExpressions() throws Exception {
+    Program program = parse("""
+        class Items {
+          Int n;
+          init(Int k) { n = k; }
+          method size() Int { return n; }
+          method grow() Void { n = n + 1; }
+        }
+        Items xs;
+        Int i;
+        Int k;
+        Int total;
+        xs = new Items(4);
+        k = 5;
+        i = 0;
+        total = 0;
+        while (i < xs.size() * 2) {
+          total = total + k * 3;
+          i = i + 1;
+        }
+        i = 0;
+        while (i < xs.size()) {
+          xs.grow();
+          i = i + k * 3 + 10;
+        }
+        println(total);
+        """);
+    LoopInvariantCodeMotion licm = new LoopInvariantCodeMotion(new TypeChecker().check(program));
+    String js = generate(licm.rewrite(program));
+
+    assertTrue(js.contains("{\nlet inv$0;\ninv$0 = (xs.size() * 2);\nlet inv$1;\ninv$1 = (k * 3);\n"
+        + "while ((i < inv$0)) {\ntotal = (total + inv$1);\n"));
+    // grow() writes the field size() reads, so only the arithmetic moves
+    assertTrue(js.contains("{\nlet inv$2;\ninv$2 = (k * 3);\nwhile ((i < xs.size())) {\nxs.grow();\n"
+        + "i = ((i + inv$2) + 10);\n"));
+    assertEquals(3, licm.hoistedCount());
+  }
+
+  @Test
+  public void testTailCallsBecomeLoops() throws Exception {
+    Program program = parse("""
+        class Shape {
+          init() { }
+          method sum(Int n, Int acc) Int {
+            if (n == 0) {
+              return acc;
+            }
+            return this.sum(n - 1, acc + n);
+          }
+          method countdown(Int n) Void {
+            if (n > 0) {
+              println(n);
+              return this.countdown(n - 1);
+            }
+          }
+          method area() Int { return this.area(); }
+        }
+        class Square extends Shape {
+          init() { super(); }
+          method area() Int { return 4; }
+        }
+        Shape s;
+        s = new Shape();
+        println(s.sum(100000, 0));
+        s.countdown(3);
+        s = new Square();
+        println(s.area());
+        """);
+    TailCallEliminator eliminator = new TailCallEliminator(new TypeChecker().check(program));
+    String js = generate(eliminator.rewrite(program));
+
+    // acc is assigned first since no later argument reads it; n needs a temporary
+    assertTrue(js.contains("while (true) {\nif ((n == 0)) {\nreturn acc;\n} else {\n"
+        + "{\nlet n$next;\nn$next = (n - 1);\nacc = (acc + n);\nn = n$next;\n}\n}\n}"));
+    assertTrue(js.contains("while (true) {\nif ((n > 0)) {\nconsole.log(n);\n{\nn = (n - 1);\n}\n} else {\nreturn;\n}\n}"));
+    // this.area() may run Square's override
+    assertTrue(js.contains("return this.area();"));
+    assertEquals(2, eliminator.eliminatedCount());
+  }
+
+  @Test
+  public void testEliminatesCommonSubexpressions() throws Exception {
+    Program program = parse("""
+        class P {
+          Int x;
+          init(Int a) { x = a; }
+          method getX() Int { return x; }
+          method next() P { return this; }
+          method bump() Void { x = x + 1; }
+        }
+        P p;
+        Int a;
+        Int b;
+        Int c;
+        Int d;
+        p = new P(3);
+        a = 4;
+        b = 5;
+        c = a * b + a * b;
+        d = b * a;
+        println(p.next().getX() + p.next().getX());
+        p.bump();
+        println(p.next().getX());
+        if (a * b > c) {
+          println(a * b);
+        }
+        """);
+    CommonSubexpressionEliminator cse = new CommonSubexpressionEliminator(new TypeChecker().check(program));
+    String js = generate(cse.rewrite(program));
+
+    assertTrue(js.contains("let cse$0;\ncse$0 = (a * b);\nc = (cse$0 + cse$0);\nd = cse$0;\n"));
+    assertTrue(js.contains("let cse$1;\ncse$1 = p.next().getX();\nconsole.log((cse$1 + cse$1));\n"));
+    // bump() writes the field getX() reads; a new block starts in the branch
+    assertTrue(js.contains("p.bump();\nconsole.log(p.next().getX());\nif ((cse$0 > c)) {\nconsole.log((a * b));\n}"));
+    assertEquals(4, cse.eliminatedCount());
+  }
+
+  @Test
+  public void testPassManagerLevels() throws Exception {
+    Program program = parse("""
+        Int x;
+        x = 1 + 2;
+        println(x);
+        """);
+    TypedProgram typed = new TypeChecker().check(program);
+
+    PassManager none = PassManager.forLevel(PassManager.Level.parse("-O0"));
+    assertSame(typed, none.run(typed));
+    assertEquals(List.of(), none.metrics());
+    assertEquals(List.of("constant-folding", "unreachable-code", "tree-shaking"),
+        PassManager.forLevel(PassManager.Level.O1).passes().stream().map(PassManager.Pass::name).toList());
+    assertEquals(List.of("partial-evaluation", "constant-folding", "unreachable-code", "tail-calls", "inlining",
+            "scalar-replacement", "loop-invariants", "strength-reduction", "common-subexpressions",
+            "constant-folding", "unreachable-code", "tree-shaking"),
+        PassManager.forLevel(PassManager.Level.O2).passes().stream().map(PassManager.Pass::name).toList());
+    assertThrows(IllegalArgumentException.class, () -> PassManager.Level.parse("-O3"));
+  }
+
+  @Test
+  public void testPassManagerRecordsMetrics() throws Exception {
+    Program program = parse("""
+        class Unused {
+          init() { }
+          method f() Int { return 1; }
+        }
+        Int x;
+        x = 1;
+        while (true) {
+          break;
+          println(x);
+        }
+        println(x);
+        """);
+    PassManager passes = PassManager.forLevel(PassManager.Level.O1).disable("constant-folding");
+    TypedProgram typed = passes.run(program);
+    List<PassManager.PassMetrics> metrics = passes.metrics();
+
+    assertEquals(3, metrics.size());
+    assertTrue(metrics.get(0).skipped());
+    assertFalse(metrics.get(0).changed());
+
+    PassManager.PassMetrics unreachable = metrics.get(1);
+    assertFalse(unreachable.skipped());
+    assertTrue(unreachable.changed());
+    assertEquals(unreachable.nodesBefore() - unreachable.nodesRemoved() + unreachable.nodesRewritten(),
+        unreachable.nodesAfter());
+
+    // The class, its method, its return and literal, and the program node the shaker copies
+    PassManager.PassMetrics shaking = metrics.get(2);
+    assertEquals(5, shaking.nodesRemoved());
+    assertEquals(1, shaking.nodesRewritten());
+    assertTrue(typed.program().classes().isEmpty());
+    assertTrue(passes.report().contains("skipped"));
+  }
+
+  @Test
+  public void testO2CleansUpAfterInliningAndScalarReplacement() throws Exception {
+    Program program = parse("""
+        class A {
+          init() { }
+          method noop() Void { return; }
+        }
+        A a;
+        a = new A();
+        a.noop();
+        println(1);
+        """);
+    TypedProgram typed = PassManager.forLevel(PassManager.Level.O2).run(program);
+
+    // Inlining noop() and replacing the allocation each leave an empty block
+    assertEquals("console.log(1);\n", generate(typed.program()));
+  }
+
+  @Test
+  public void testIntRangesDropProvablyRedundantWrapping() throws Exception {
+    Program program = parse("""
+        class A {
+          init() { }
+          method sum(Int n) Int {
+            Int i;
+            Int s;
+            i = 0;
+            s = 0;
+            while (i < n) {
+              s = s + i;
+              i = i + 1;
+            }
+            return s * 2;
+          }
+        }
+        Int a;
+        a = 3;
+        println(new A().sum(a * 4) - 0 * (0 - 5));
+        """);
+    TypedProgram typed = new TypeChecker().check(program);
+    IntRanges ranges = new IntRanges(typed);
+    String js = new CodeGenerator(typed).int32Arithmetic(true).ranges(ranges).generate(program);
+
+    // i < n bounds the counter; the sum can grow past int32
+    assertTrue(js.contains("s = ((s + i) | 0);\ni = (i + 1);"));
+    assertTrue(js.contains("return Math.imul(s, 2);"));
+    // 0 * -5 is -0 in plain JS
+    assertTrue(js.contains("console.log((new A().sum((a * 4)) - Math.imul(0, ((0 - 5)))));"));
+    assertEquals(7, ranges.arithmeticCount());
+    assertEquals(4, ranges.exactCount());
+  }
+
+  @Test
+  public void testReducesInductionProductsAndUnrollsShortLoops() throws Exception {
+    Program program = parse("""
+        class Grid {
+          init() { }
+          method sum(Int n, Int w) Int {
+            Int i;
+            Int s;
+            i = 0;
+            s = 0;
+            while (i < n) {
+              s = s + i * 4 + (w * i);
+              i = i + 2;
+            }
+            return s;
+          }
+        }
+        Int j;
+        j = 0;
+        while (j < 3) {
+          println(j * 5);
+          j = j + 1;
+        }
+        println(new Grid().sum(10, 3));
+        """);
+    LoopStrengthReducer reducer = new LoopStrengthReducer(new TypeChecker().check(program)).unrollLimit(4);
+    String js = generate(reducer.rewrite(program));
+
+    assertTrue(js.contains("{\nlet iv$0;\niv$0 = (i * 4);\nlet iv$1;\niv$1 = (i * w);\nlet iv$2;\niv$2 = (w * 2);\n"
+        + "while ((i < n)) {\ns = ((s + iv$0) + (iv$1));\ni = (i + 2);\n"
+        + "iv$0 = (iv$0 + 8);\niv$1 = (iv$1 + iv$2);\n}\n}"));
+    // Three trips of the body, each still stepping j
+    assertTrue(js.contains("j = 0;\n{\n{\nconsole.log((j * 5));\nj = (j + 1);\n}\n{\nconsole.log((j * 5));\n"));
+    assertFalse(js.contains("while ((j < 3))"));
+    assertEquals(2, reducer.reducedCount());
+    assertEquals(1, reducer.unrolledCount());
+  }
+
+  @Test
+  public void testMemoizesPureRecursiveIntMethods() throws Exception {
+    Program program = parse("""
+        class Recurrences {
+          init() { }
+          method fib(Int n) Int {
+            if (n < 2) {
+              return n;
+            }
+            return this.fib(n - 1) + this.fib(n - 2);
+          }
+          method twice(Int n) Int { return n * 2; }
+          method paths(Int r, Boolean wide) Int {
+            if (r == 0) {
+              return 1;
+            }
+            return this.paths(r - 1, wide) + this.twice(r);
+          }
+        }
+        class Counter {
+          Int base;
+          init() { base = 0; }
+          method count(Int n) Int {
+            if (n == 0) {
+              return base;
+            }
+            return this.count(n - 1);
+          }
+        }
+        Int f;
+        Int p;
+        Int k;
+        f = new Recurrences().fib(30);
+        p = new Recurrences().paths(3, true);
+        k = new Counter().count(2);
+        println(f + p + k);
+        """);
+    TypedProgram typed = new TypeChecker().check(program);
+    Memoizer memoizer = new Memoizer(typed, 16);
+    List<MethodDef> methods = program.classes().getFirst().methods();
+
+    assertTrue(memoizer.isMemoized(methods.get(0)));
+    // Not recursive: cheaper to run again
+    assertFalse(memoizer.isMemoized(methods.get(1)));
+    assertTrue(memoizer.isMemoized(methods.get(2)));
+    // Reads a field
+    assertFalse(memoizer.isMemoized(program.classes().get(1).methods().getFirst()));
+    assertEquals(2, memoizer.memoizedCount());
+
+    String js = new CodeGenerator(typed).memoize(memoizer).generate(program);
+    assertTrue(js.contains("Recurrences.prototype.fib = (function($compute) {\n  const $cache = new Map();\n"
+        + "  return function(n) {\n    const $key = n;\n"));
+    assertTrue(js.contains("    const $key = r + \",\" + wide;\n"));
+    assertTrue(js.contains("    $value = $compute.call(this, r, wide);\n"
+        + "    if ($cache.size >= 16) $cache.delete($cache.keys().next().value);\n"));
+    assertFalse(js.contains("Counter.prototype.count = (function"));
+  }
+
+  @Test
+  public void testEvaluatesClosedCallsAtCompileTime() throws Exception {
+    Program program = parse("""
+        class Config {
+          Int retries;
+          init() { retries = 3; }
+          method maxRetries() Int { return retries * 2; }
+          method backoff(Int attempt) Int {
+            Int delay;
+            Int i;
+            delay = 100;
+            i = 0;
+            while (i < attempt) {
+              delay = delay * 2;
+              i = i + 1;
+            }
+            return delay;
+          }
+          method loud() Int {
+            println(retries);
+            return retries;
+          }
+          method spin() Int {
+            Int n;
+            n = 0;
+            while (n >= 0) {
+              n = n * 1;
+            }
+            return n;
+          }
+        }
+        Config c;
+        Int a;
+        Int b;
+        c = new Config();
+        a = new Config().maxRetries();
+        b = new Config().backoff(3);
+        println(a + b);
+        new Config().backoff(2);
+        println(new Config().loud());
+        println(new Config().spin());
+        println(c.maxRetries());
+        """);
+    PartialEvaluator evaluator = new PartialEvaluator(new TypeChecker().check(program)).fuel(10_000);
+    String js = generate(evaluator.rewrite(program));
+
+    assertTrue(js.contains("a = 6;\nb = 800;\nconsole.log((a + b));\nconsole.log(new Config().loud());\n"));
+    // Out of fuel, and a local receiver
+    assertTrue(js.contains("console.log(new Config().spin());\nconsole.log(c.maxRetries());\n"));
+    assertFalse(js.contains("backoff(2)"));
+    assertEquals(3, evaluator.evaluatedCount());
+  }
+}
@@ -1,5 +1,7 @@
 package com.classhole.compiler.parser;
 
+import com.classhole.compiler.diagnostics.Diagnostic;
+import com.classhole.compiler.diagnostics.Diagnostics;
 import com.classhole.compiler.lexer.Token;
 import com.classhole.compiler.lexer.Tokenizer;
 import com.classhole.compiler.parser.ast.Exp;
@@ -1061,4 +1063,52 @@ public class ParserTest {
     assertThrows(ParseException.class, () -> parse(code));
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testCollectAllModeReportsEveryStatementError() throws ParseException {
+    String code = """
+          class A {
+            init() {
+              Int 123;
+              Int ok;
+            }
+            method m() Void {
+              x = ;
+              return;
+            }
+          }
+          A a;
+          a = new A(;
+          a = new A();
+        """;
+    Diagnostics diagnostics = new Diagnostics();
+    Token[] tokens = new Tokenizer(code).tokenize().toArray(new Token[0]);
+    Program program = new Parser(tokens, diagnostics).parseWholeProgram();
+
+    assertEquals(3, diagnostics.errorCount());
+    assertEquals(List.of(3, 7, 12), diagnostics.errors().stream().map(Diagnostic::line).toList());
+
+    // the good statements around each error survive
+    assertEquals(List.of(new VarDecStmt("Int", "ok")), program.classes().getFirst().constructor().body());
+    assertEquals(1, program.classes().getFirst().methods().getFirst().body().size());
+    assertEquals(2, program.entryPoint().size());
+  }
+
+  @Test
+  public void testCollectAllModeSkipsBrokenMethod() throws ParseException {
+    String code = """
+          class A {
+            init() { }
+            method broken( Void { return; }
+            method fine() Void { return; }
+          }
+          A a;
+        """;
+    Diagnostics diagnostics = new Diagnostics();
+    Token[] tokens = new Tokenizer(code).tokenize().toArray(new Token[0]);
+    Program program = new Parser(tokens, diagnostics).parseWholeProgram();
+
+    assertEquals(1, diagnostics.errorCount());
+    assertEquals("fine", program.classes().getFirst().methods().getFirst().name());
+    assertEquals(1, program.entryPoint().size());
+  }
+}
@@ -1,5 +1,10 @@
 package com.classhole.compiler.typechecker;
 
+import com.classhole.compiler.diagnostics.Diagnostic;
+import com.classhole.compiler.diagnostics.Diagnostics;
+import com.classhole.compiler.lexer.Token;
+import com.classhole.compiler.lexer.Tokenizer;
+import com.classhole.compiler.parser.Parser;
 import com.classhole.compiler.parser.ast.Exp;
 import com.classhole.compiler.parser.ast.Program;
 import com.classhole.compiler.parser.ast.Stmt;
@@ -9,11 +14,19 @@ import com.classhole.compiler.parser.ast.nodes.expressions.*;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
+import com.classhole.compiler.typechecker.types.ClassType;
+import com.classhole.compiler.typechecker.types.PrimitiveType;
+
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TypeCheckerTest {
 
@@ -783,4 +796,370 @@ public class TypeCheckerTest {
     assertDoesNotThrow(() -> new TypeChecker().check(program));
   }
 
+  ///////////////////////////////
+  @Test
+  public void testTypedProgramRecordsTypesAndVarKinds() {
+    // class Counter { Int count; init() {} method add(Int n) Int { Int r; r = count + n; return r; } }
+    VarExp countUse = new VarExp("count");
+    VarExp nUse = new VarExp("n");
+    VarExp rUse = new VarExp("r");
+    BinaryExp sum = new BinaryExp(countUse, "+", nUse);
+    MethodDef add = new MethodDef(
+        "add",
+        List.of(new VarDecStmt("Int", "n")),
+        "Int",
+        List.of(
+            new VarDecStmt("Int", "r"),
+            new AssignStmt("r", sum),
+            new ReturnStmt(Optional.of(rUse))));
+    ConstructorDef ctor = new ConstructorDef(List.of(), Optional.empty(), List.of());
+    ClassDef klass = new ClassDef("Counter", Optional.empty(), List.of(new VarDecStmt("Int", "count")), ctor, List.of(add));
+
+    // new Counter().add(1);
+    CallMethodExp.CallLink link = new CallMethodExp.CallLink("add", List.of(new IntLiteralExp(1)));
+    Exp call = new CallMethodExp(new NewObjectExp("Counter", List.of()), List.of(link));
+    Program program = new Program(List.of(klass), List.of(new ExprStmt(call)));
+
+    TypedProgram typed = new TypeChecker().check(program);
+    TypedProgram.Cursor cursor = typed.cursor();
+
+    int sumId = cursor.exp(sum);
+    int countId = cursor.exp(countUse);
+    int nId = cursor.exp(nUse);
+    int rId = cursor.exp(rUse);
+    assertEquals(PrimitiveType.INT, typed.typeOf(sumId));
+    assertNull(typed.varKindOf(sumId));
+    assertEquals(TypedProgram.VarKind.FIELD, typed.varKindOf(countId));
+    assertEquals(TypedProgram.VarKind.PARAMETER, typed.varKindOf(nId));
+    assertEquals(TypedProgram.VarKind.LOCAL, typed.varKindOf(rId));
+
+    int callId = cursor.exp(call);
+    cursor.exp(((CallMethodExp) call).receiver());
+    int linkId = cursor.link(link);
+    assertEquals(PrimitiveType.INT, typed.typeOf(callId));
+    assertSame(add, typed.targetOf(linkId));
+    assertEquals(new ClassType("Counter"), typed.receiverTypeOf(linkId));
+    assertEquals(7, typed.expCount());
+  }
+
+  ///////////////////////////////
+  @Test
+  public void testTypedProgramCursorRejectsOutOfOrderWalk() {
+    PrintlnExp first = new PrintlnExp(new IntLiteralExp(1));
+    PrintlnExp second = new PrintlnExp(new IntLiteralExp(1));
+    Program program = new Program(List.of(), List.of(new PrintStmt(first), new PrintStmt(second)));
+
+    TypedProgram typed = new TypeChecker().check(program);
+    // structurally equal, but not the node the checker saw first
+    assertEquals(first, second);
+    assertThrows(IllegalStateException.class, () -> typed.cursor().exp(second));
+  }
+
+  ///////////////////////////////
+  @Test
+  public void testMissingSuperclassThrows() {
+    ConstructorDef ctor = new ConstructorDef(List.of(), Optional.empty(), List.of());
+    ClassDef klass = new ClassDef("Orphan", Optional.of("Nowhere"), List.of(), ctor, List.of());
+    Program program = new Program(List.of(klass), List.of());
+    RuntimeException ex = assertThrows(RuntimeException.class, () -> new TypeChecker().check(program));
+    assertTrue(ex.getMessage().contains("undefined class Nowhere"));
+  }
+
+  @Test
+  public void testCyclicInheritanceThrows() {
+    ConstructorDef ctor = new ConstructorDef(List.of(), Optional.empty(), List.of());
+    ClassDef a = new ClassDef("A", Optional.of("C"), List.of(), ctor, List.of());
+    ClassDef b = new ClassDef("B", Optional.of("A"), List.of(), ctor, List.of());
+    ClassDef c = new ClassDef("C", Optional.of("B"), List.of(), ctor, List.of());
+    Program program = new Program(List.of(a, b, c), List.of());
+    RuntimeException ex = assertThrows(RuntimeException.class, () -> new TypeChecker().check(program));
+    assertTrue(ex.getMessage().contains("Cyclic inheritance"));
+  }
+
+  @Test
+  public void testOverrideOfGrandparentMethodIsChecked() {
+    ConstructorDef ctor = new ConstructorDef(List.of(), Optional.empty(), List.of());
+    MethodDef baseFoo = new MethodDef("foo", List.of(), "Int",
+        List.of(new ReturnStmt(Optional.of(new IntLiteralExp(1)))));
+    MethodDef badFoo = new MethodDef("foo", List.of(), "Boolean",
+        List.of(new ReturnStmt(Optional.of(new BooleanLiteralExp(true)))));
+    ClassDef base = new ClassDef("Base", Optional.empty(), List.of(), ctor, List.of(baseFoo));
+    ClassDef middle = new ClassDef("Middle", Optional.of("Base"), List.of(), ctor, List.of());
+    ClassDef leaf = new ClassDef("Leaf", Optional.of("Middle"), List.of(), ctor, List.of(badFoo));
+    Program program = new Program(List.of(leaf, middle, base), List.of());
+    assertThrows(RuntimeException.class, () -> new TypeChecker().check(program));
+  }
+
+  @Test
+  public void testDeepHierarchyValidates() {
+    ConstructorDef ctor = new ConstructorDef(List.of(), Optional.empty(), List.of());
+    MethodDef foo = new MethodDef("foo", List.of(), "Int",
+        List.of(new ReturnStmt(Optional.of(new IntLiteralExp(1)))));
+    List<ClassDef> classes = new ArrayList<>();
+    classes.add(new ClassDef("C0", Optional.empty(), List.of(), ctor, List.of(foo)));
+    for (int i = 1; i < 100_000; i++) {
+      classes.add(new ClassDef("C" + i, Optional.of("C" + (i - 1)), List.of(), ctor, List.of(foo)));
+    }
+    Program program = new Program(classes, List.of());
+    assertDoesNotThrow(() -> new TypeChecker().check(program));
+  }
+
+  ///////////////////////////////
+  @Test
+  public void testCollectAllModeReportsEveryError() {
+    // Int x; x = true; println(y); println(1 + z);
+    Program program = new Program(List.of(), List.of(
+        new VarDecStmt("Int", "x"),
+        new AssignStmt("x", new BooleanLiteralExp(true)),
+        new PrintStmt(new PrintlnExp(new VarExp("y"))),
+        new PrintStmt(new PrintlnExp(new BinaryExp(new IntLiteralExp(1), "+", new VarExp("z"))))));
+
+    Diagnostics diagnostics = new Diagnostics();
+    assertDoesNotThrow(() -> new TypeChecker().check(program, diagnostics));
+
+    // the undeclared z gets the error type, so the addition around it does not complain too
+    assertEquals(3, diagnostics.errorCount());
+    assertTrue(diagnostics.errors().get(2).message().contains("z"));
+  }
+
+  @Test
+  public void testCollectAllModeUsesParserPositions() throws Exception {
+    String code = """
+        class A {
+          init() { }
+          method get() Int {
+            return true;
+          }
+        }
+        Int x;
+        x = new A().missing();
+        println(x);
+        """;
+    Diagnostics diagnostics = new Diagnostics();
+    Token[] tokens = new Tokenizer(code).tokenize().toArray(new Token[0]);
+    Program program = new Parser(tokens, diagnostics).parseWholeProgram();
+    new TypeChecker().check(program, diagnostics);
+
+    assertEquals(2, diagnostics.errorCount());
+    assertEquals(4, diagnostics.errors().get(0).line());
+    assertEquals(8, diagnostics.errors().get(1).line());
+  }
+
+  @Test
+  public void testHierarchyErrorsPointAtTheClassHeader() throws Exception {
+    String code = """
+        class A {
+          init() { }
+          method get() Int { return 1; }
+        }
+          class B extends Missing {
+          init() { }
+        }
+        class C extends A {
+          init() { }
+          method get() Boolean { return true; }
+        }
+        println(1);
+        """;
+    Diagnostics diagnostics = new Diagnostics();
+    Token[] tokens = new Tokenizer(code).tokenize().toArray(new Token[0]);
+    Program program = new Parser(tokens, diagnostics).parseWholeProgram();
+    new TypeChecker().check(program, diagnostics);
+
+    Diagnostic undefined = diagnostics.errors().stream()
+        .filter(error -> error.message().contains("undefined class Missing")).findFirst().orElseThrow();
+    assertEquals(5, undefined.line());
+    assertTrue(undefined.column() > 1);
+    Diagnostic override = diagnostics.errors().stream()
+        .filter(error -> error.message().contains("incompatible return type")).findFirst().orElseThrow();
+    assertEquals(8, override.line());
+  }
+
+  @Test
+  public void testDuplicateDeclarationsPointAtTheClassAndDoNotCascade() throws Exception {
+    String code = """
+        class A {
+          Int x;
+          Int x;
+          init() { }
+          method get() Int { return x; }
+          method get() Int { return 2; }
+        }
+          class A {
+          init() { }
+        }
+        Int y;
+        y = new A().get();
+        println(y);
+        """;
+    Diagnostics diagnostics = new Diagnostics();
+    Token[] tokens = new Tokenizer(code).tokenize().toArray(new Token[0]);
+    Program program = new Parser(tokens, diagnostics).parseWholeProgram();
+    new TypeChecker().check(program, diagnostics);
+
+    // The rest of the first A is still declared, so x, get and new A() all resolve
+    assertEquals(List.of("Duplicate field: x in class A", "Duplicate method: get in class A", "Class already defined: A"),
+        diagnostics.errors().stream().map(Diagnostic::message).toList());
+    assertEquals(1, diagnostics.errors().get(0).line());
+    assertEquals(1, diagnostics.errors().get(1).line());
+    assertEquals(8, diagnostics.errors().get(2).line());
+    assertTrue(diagnostics.errors().get(2).column() > 1);
+  }
+
+  ///////////////////////////////
+  @Test
+  public void testAssignmentInOneBranchIsNotDefinite() {
+    // Int x; if (true) x = 1; println(x);
+    Program program = new Program(List.of(), List.of(
+        new VarDecStmt("Int", "x"),
+        new IfStmt(new BooleanLiteralExp(true), new AssignStmt("x", new IntLiteralExp(1)), Optional.empty()),
+        new PrintStmt(new PrintlnExp(new VarExp("x")))));
+    RuntimeException ex = assertThrows(RuntimeException.class, () -> new TypeChecker().check(program));
+    assertTrue(ex.getMessage().contains("initialization"));
+  }
+
+  @Test
+  public void testAssignmentInBothBranchesInsideBlocksIsDefinite() {
+    // Int x; if (true) { x = 1; } else { x = 2; } println(x);
+    Program program = new Program(List.of(), List.of(
+        new VarDecStmt("Int", "x"),
+        new IfStmt(new BooleanLiteralExp(true),
+            new BlockStmt(List.of(new AssignStmt("x", new IntLiteralExp(1)))),
+            Optional.of(new BlockStmt(List.of(new AssignStmt("x", new IntLiteralExp(2)))))),
+        new PrintStmt(new PrintlnExp(new VarExp("x")))));
+    assertDoesNotThrow(() -> new TypeChecker().check(program));
+  }
+
+  @Test
+  public void testAssignmentInWhileBodyIsNotDefiniteAfterLoop() {
+    // Int x; Boolean c; c = false; while (c) { x = 1; } println(x);
+    Program program = new Program(List.of(), List.of(
+        new VarDecStmt("Int", "x"),
+        new VarDecStmt("Boolean", "c"),
+        new AssignStmt("c", new BooleanLiteralExp(false)),
+        new WhileStmt(new VarExp("c"), new BlockStmt(List.of(new AssignStmt("x", new IntLiteralExp(1))))),
+        new PrintStmt(new PrintlnExp(new VarExp("x")))));
+    assertThrows(RuntimeException.class, () -> new TypeChecker().check(program));
+  }
+
+  @Test
+  public void testBreakOutOfInfiniteLoopCarriesAssignment() {
+    // Int x; while (true) { x = 1; break; } println(x);
+    Program program = new Program(List.of(), List.of(
+        new VarDecStmt("Int", "x"),
+        new WhileStmt(new BooleanLiteralExp(true), new BlockStmt(List.of(
+            new AssignStmt("x", new IntLiteralExp(1)),
+            new BreakStmt()))),
+        new PrintStmt(new PrintlnExp(new VarExp("x")))));
+    assertDoesNotThrow(() -> new TypeChecker().check(program));
+  }
+
+  @Test
+  public void testLoopLocalIsUnassignedOnEachIteration() {
+    // while (true) { Int y; println(y); y = 1; }
+    Program program = new Program(List.of(), List.of(
+        new WhileStmt(new BooleanLiteralExp(true), new BlockStmt(List.of(
+            new VarDecStmt("Int", "y"),
+            new PrintStmt(new PrintlnExp(new VarExp("y"))),
+            new AssignStmt("y", new IntLiteralExp(1)))))));
+    assertThrows(RuntimeException.class, () -> new TypeChecker().check(program));
+  }
+
+  ///////////////////////////////
+  private static final String INCREMENTAL_BASE = """
+      class A {
+        init() { }
+        method get() Int {
+          return 1;
+        }
+      }
+      class B {
+        init() { }
+        method use() Int {
+          return new A().get();
+        }
+        method other() Int {
+          return 2;
+        }
+      }
+      Int x;
+      x = 3;
+      println(x);
+      """;
+
+  private static Program parseInto(String code, Diagnostics diagnostics) throws Exception {
+    Token[] tokens = new Tokenizer(code).tokenize().toArray(new Token[0]);
+    return new Parser(tokens, diagnostics).parseWholeProgram();
+  }
+
+  private static List<String> fullCheck(String code) throws Exception {
+    Diagnostics diagnostics = new Diagnostics();
+    new TypeChecker().check(parseInto(code, diagnostics), diagnostics);
+    return diagnostics.errors().stream().map(Object::toString).toList();
+  }
+
+  private static List<String> incrementalCheck(IncrementalTypeChecker checker, String code) throws Exception {
+    Diagnostics diagnostics = new Diagnostics();
+    checker.check(parseInto(code, diagnostics), diagnostics);
+    return diagnostics.errors().stream().map(Object::toString).toList();
+  }
+
+  @Test
+  public void testIncrementalBodyEditRechecksOnlyThatBody() throws Exception {
+    IncrementalTypeChecker checker = new IncrementalTypeChecker();
+    assertEquals(List.of(), incrementalCheck(checker, INCREMENTAL_BASE));
+    assertEquals(6, checker.lastRecheckedCount());
+
+    // Break B.other and shift everything after it down a line
+    String edited = INCREMENTAL_BASE.replace("return 2;", "Int y;\n    return true;");
+    assertEquals(fullCheck(edited), incrementalCheck(checker, edited));
+    assertEquals(1, checker.lastRecheckedCount());
+
+    // Move the error further down without touching its body; its line must follow
+    String moved = edited.replace("init() { }\n  method use()", "init() {\n  }\n  method use()");
+    List<String> errors = incrementalCheck(checker, moved);
+    assertEquals(fullCheck(moved), errors);
+    assertEquals(0, checker.lastRecheckedCount());
+    assertEquals(1, errors.size());
+  }
+
+  @Test
+  public void testIncrementalSignatureEditRechecksDependents() throws Exception {
+    IncrementalTypeChecker checker = new IncrementalTypeChecker();
+    incrementalCheck(checker, INCREMENTAL_BASE);
+
+    // A.get now returns Boolean: A.get itself and B.use, which calls it, are re-checked
+    String edited = INCREMENTAL_BASE.replace("method get() Int {\n    return 1;", "method get() Boolean {\n    return false;");
+    List<String> errors = incrementalCheck(checker, edited);
+    assertEquals(fullCheck(edited), errors);
+    assertEquals(3, checker.lastRecheckedCount()); // A.init, A.get, B.use
+    assertTrue(errors.get(0).contains("Return type mismatch"));
+  }
+
+  @Test
+  public void testIncrementalUnchangedProgramRechecksNothing() throws Exception {
+    IncrementalTypeChecker checker = new IncrementalTypeChecker();
+    String broken = INCREMENTAL_BASE.replace("x = 3;", "x = true;");
+    List<String> first = incrementalCheck(checker, broken);
+    assertEquals(1, first.size());
+    assertEquals(first, incrementalCheck(checker, broken));
+    assertEquals(0, checker.lastRecheckedCount());
+  }
+
+  @Test
+  public void testInfiniteLoopWithoutBreakNeedsNoTrailingReturn() {
+    // method f() Int { while (true) { return 1; } }
+    MethodDef f = new MethodDef("f", List.of(), "Int", List.of(
+        new WhileStmt(new BooleanLiteralExp(true), new BlockStmt(List.of(new ReturnStmt(Optional.of(new IntLiteralExp(1))))))));
+    ClassDef a = new ClassDef("A", Optional.empty(), List.of(),
+        new ConstructorDef(List.of(), Optional.empty(), List.of()), List.of(f));
+    assertDoesNotThrow(() -> new TypeChecker().check(new Program(List.of(a), List.of())));
+
+    // ...but one that can break out may fall off the end
+    MethodDef g = new MethodDef("g", List.of(), "Int", List.of(
+        new WhileStmt(new BooleanLiteralExp(true), new BlockStmt(List.of(new BreakStmt())))));
+    ClassDef b = new ClassDef("B", Optional.empty(), List.of(),
+        new ConstructorDef(List.of(), Optional.empty(), List.of()), List.of(g));
+    assertThrows(RuntimeException.class, () -> new TypeChecker().check(new Program(List.of(b), List.of())));
+  }
 }